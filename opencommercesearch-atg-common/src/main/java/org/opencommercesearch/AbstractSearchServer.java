@@ -22,12 +22,14 @@ package org.opencommercesearch;
 import atg.multisite.Site;
 import atg.multisite.SiteContextManager;
 import atg.nucleus.GenericService;
+import atg.nucleus.ServiceException;
 import atg.repository.Repository;
 import atg.repository.RepositoryException;
 import atg.repository.RepositoryItem;
 import atg.repository.RepositoryView;
 import atg.repository.rql.RqlStatement;
 
+import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrServer;
@@ -41,16 +43,23 @@ import org.apache.solr.client.solrj.response.GroupCommand;
 import org.apache.solr.client.solrj.response.GroupResponse;
 import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.client.solrj.response.SolrPingResponse;
-import org.apache.solr.client.solrj.response.SpellCheckResponse;
 import org.apache.solr.client.solrj.response.UpdateResponse;
+import org.apache.solr.client.solrj.util.ClientUtils;
 import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.CategoryTreeParams;
+import org.apache.solr.common.params.ExpandParams;
 import org.apache.solr.common.params.GroupCollapseParams;
+import org.apache.solr.common.params.SpellCheckFallbackParams;
 import org.apache.solr.common.util.NamedList;
 import org.apache.solr.common.SolrException;
+import org.apache.solr.handler.component.CategoryTreeComponent;
+import org.apache.solr.handler.component.SpellCheckFallbackComponent;
 import org.opencommercesearch.client.impl.Facet;
 import org.opencommercesearch.client.impl.Facet.Filter;
-import org.opencommercesearch.repository.RedirectRuleProperty;
+import org.opencommercesearch.repository.CategoryProperty;
+import org.opencommercesearch.repository.RuleBasedCategoryProperty;
 import org.opencommercesearch.repository.SearchRepositoryItemDescriptor;
+import org.opencommercesearch.search.DaemonThreadFactory;
 
 import static org.opencommercesearch.SearchServerException.create;
 import static org.opencommercesearch.SearchServerException.Code.*;
@@ -58,6 +67,11 @@ import static org.opencommercesearch.SearchServerException.ExportSynonymExceptio
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  *
@@ -89,8 +103,29 @@ public abstract class AbstractSearchServer<T extends SolrServer> extends Generic
     private int ruleBatchSize;
     private RulesBuilder rulesBuilder;
     private boolean isGroupSortingEnabled;
+    private volatile boolean categoryTreeEnabled = true;
+    private boolean collapseEnabled;
+    private boolean ruleSnapshotEnabled;
+    private long ruleSnapshotRetryDelay = 60000;
+    private volatile RuleSnapshot ruleSnapshot;
+    private volatile long ruleSnapshotFailureTime;
+    private boolean ruleCacheEnabled;
+    private int ruleCacheMaxSize = 10000;
+    private volatile RuleCache ruleCache;
+    private boolean responseCacheEnabled;
+    private long responseCacheMaxBytes = 64 * 1024 * 1024;
+    private long responseCacheTtl = 300000;
+    private volatile ResponseCache responseCache;
+    private int asyncThreads = 16;
+    private int asyncQueueSize = 1000;
+    private long asyncTimeout = 2000;
+    private volatile ThreadPoolExecutor asyncExecutor;
 
     private static final String Q_ALT = "q.alt";
+    private static final String GROUP_FIELD = "productId";
+    private static final int GROUP_LIMIT = 50;
+    private static final String COLLAPSE_FILTER = "{!collapse field=" + GROUP_FIELD + "}";
+    private static final String EXPAND_ALL = "expandall";
     private static final String BRAND_ID = "brandId";
     private static final String CATEGORY_PATH = "categoryPath";
 
@@ -273,6 +308,349 @@ public abstract class AbstractSearchServer<T extends SolrServer> extends Generic
         isGroupSortingEnabled = groupSortingEnabled;
     }
 
+    public boolean isCategoryTreeEnabled() {
+        return categoryTreeEnabled;
+    }
+
+    /**
+     * When enabled, the category graph for brand and category pages is built by the categoryTree component of the
+     * catalog. Otherwise, it's built from the categoryPath facet. It gets disabled if the catalog responses don't have
+     * the category tree, i.e. the component is missing from solrconfig.xml
+     */
+    public void setCategoryTreeEnabled(boolean categoryTreeEnabled) {
+        this.categoryTreeEnabled = categoryTreeEnabled;
+    }
+
+    public boolean isCollapseEnabled() {
+        return collapseEnabled;
+    }
+
+    /**
+     * When enabled, products are grouped with the collapsing post filter and expanded with the expand all component
+     * instead of field grouping with group.ngroups. The search response exposes the same grouped results in both
+     * modes. Facet counts are per product instead of per sku when collapsing
+     */
+    public void setCollapseEnabled(boolean collapseEnabled) {
+        this.collapseEnabled = collapseEnabled;
+    }
+
+    public boolean isRuleSnapshotEnabled() {
+        return ruleSnapshotEnabled;
+    }
+
+    /**
+     * When enabled, all the rules are loaded in bulk into a snapshot and the rules for each request are resolved from
+     * the snapshot instead of the repository. The snapshot is reloaded when rules or facets are deployed
+     */
+    public void setRuleSnapshotEnabled(boolean ruleSnapshotEnabled) {
+        this.ruleSnapshotEnabled = ruleSnapshotEnabled;
+    }
+
+    public long getRuleSnapshotRetryDelay() {
+        return ruleSnapshotRetryDelay;
+    }
+
+    /**
+     * The time in milliseconds to wait before loading the rule snapshot again after it failed to load. Meanwhile, the
+     * rules are loaded from the repository
+     */
+    public void setRuleSnapshotRetryDelay(long ruleSnapshotRetryDelay) {
+        this.ruleSnapshotRetryDelay = ruleSnapshotRetryDelay;
+    }
+
+    public boolean isRuleCacheEnabled() {
+        return ruleCacheEnabled;
+    }
+
+    /**
+     * When enabled, the rules resolved for a rule context (locale, catalog, query, category, brand, outlet and
+     * experiments) are cached and reused by identical searches and browses. The cache is cleared when rules, facets or
+     * categories are deployed and when the day changes
+     */
+    public void setRuleCacheEnabled(boolean ruleCacheEnabled) {
+        this.ruleCacheEnabled = ruleCacheEnabled;
+    }
+
+    public int getRuleCacheMaxSize() {
+        return ruleCacheMaxSize;
+    }
+
+    public void setRuleCacheMaxSize(int ruleCacheMaxSize) {
+        this.ruleCacheMaxSize = ruleCacheMaxSize;
+    }
+
+    /**
+     * Returns the rule cache, creating it the first time. Returns null if the cache is disabled
+     */
+    public RuleCache getRuleCache() {
+        if (!isRuleCacheEnabled()) {
+            return null;
+        }
+
+        RuleCache cache = ruleCache;
+        if (cache == null) {
+            synchronized (this) {
+                cache = ruleCache;
+                if (cache == null) {
+                    cache = ruleCache = new RuleCache(getRuleCacheMaxSize());
+                }
+            }
+        }
+        return cache;
+    }
+
+    public int getRuleCacheSize() {
+        RuleCache cache = ruleCache;
+        return cache != null? cache.size() : 0;
+    }
+
+    public double getRuleCacheHitRatio() {
+        RuleCache cache = ruleCache;
+        return cache != null? cache.getHitRatio() : 0.0;
+    }
+
+    /**
+     * @return the average time to load the rules on a rule cache miss, in milliseconds
+     */
+    public double getRuleCacheAverageLoadTime() {
+        RuleCache cache = ruleCache;
+        return cache != null? cache.getAverageLoadTime() : 0.0;
+    }
+
+    /**
+     * Removes all the rules from the rule cache
+     */
+    public void clearRuleCache() {
+        RuleCache cache = ruleCache;
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    public boolean isResponseCacheEnabled() {
+        return responseCacheEnabled;
+    }
+
+    /**
+     * When enabled, browse responses (i.e. category and brand pages) are cached by their normalized query params, site,
+     * locale, browse options and filter queries. The cache is cleared when a feed finishes or items are deployed
+     */
+    public void setResponseCacheEnabled(boolean responseCacheEnabled) {
+        this.responseCacheEnabled = responseCacheEnabled;
+    }
+
+    public long getResponseCacheMaxBytes() {
+        return responseCacheMaxBytes;
+    }
+
+    /**
+     * Maximum size of the cached responses in bytes. Least recently used responses are evicted first
+     */
+    public void setResponseCacheMaxBytes(long responseCacheMaxBytes) {
+        this.responseCacheMaxBytes = responseCacheMaxBytes;
+    }
+
+    public long getResponseCacheTtl() {
+        return responseCacheTtl;
+    }
+
+    /**
+     * Time in milliseconds a response is cached. Zero or a negative value means no expiration
+     */
+    public void setResponseCacheTtl(long responseCacheTtl) {
+        this.responseCacheTtl = responseCacheTtl;
+    }
+
+    /**
+     * Returns the response cache, creating it the first time. Returns null if the cache is disabled
+     */
+    public ResponseCache getResponseCache() {
+        if (!isResponseCacheEnabled()) {
+            return null;
+        }
+
+        ResponseCache cache = responseCache;
+        if (cache == null) {
+            synchronized (this) {
+                cache = responseCache;
+                if (cache == null) {
+                    cache = responseCache = new ResponseCache(getResponseCacheMaxBytes(), getResponseCacheTtl());
+                }
+            }
+        }
+        return cache;
+    }
+
+    public int getResponseCacheSize() {
+        ResponseCache cache = responseCache;
+        return cache != null? cache.size() : 0;
+    }
+
+    public long getResponseCacheBytes() {
+        ResponseCache cache = responseCache;
+        return cache != null? cache.getBytes() : 0;
+    }
+
+    public double getResponseCacheHitRatio() {
+        ResponseCache cache = responseCache;
+        return cache != null? cache.getHitRatio() : 0.0;
+    }
+
+    public long getResponseCacheEvictions() {
+        ResponseCache cache = responseCache;
+        return cache != null? cache.getEvictions() : 0;
+    }
+
+    /**
+     * Removes all the responses from the response cache
+     */
+    public void clearResponseCache() {
+        ResponseCache cache = responseCache;
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    public int getAsyncThreads() {
+        return asyncThreads;
+    }
+
+    /**
+     * Maximum number of threads running asynchronous searches and browses
+     */
+    public void setAsyncThreads(int asyncThreads) {
+        this.asyncThreads = asyncThreads;
+    }
+
+    public int getAsyncQueueSize() {
+        return asyncQueueSize;
+    }
+
+    /**
+     * Maximum number of asynchronous searches waiting for a thread. Once the queue is full, searches run in the
+     * calling thread
+     */
+    public void setAsyncQueueSize(int asyncQueueSize) {
+        this.asyncQueueSize = asyncQueueSize;
+    }
+
+    public long getAsyncTimeout() {
+        return asyncTimeout;
+    }
+
+    /**
+     * Maximum time in milliseconds to wait for an asynchronous search. Zero or a negative value means no limit
+     */
+    public void setAsyncTimeout(long asyncTimeout) {
+        this.asyncTimeout = asyncTimeout;
+    }
+
+    public int getAsyncActiveCount() {
+        ThreadPoolExecutor executor = asyncExecutor;
+        return executor != null? executor.getActiveCount() : 0;
+    }
+
+    public int getAsyncQueueLength() {
+        ThreadPoolExecutor executor = asyncExecutor;
+        return executor != null? executor.getQueue().size() : 0;
+    }
+
+    private ThreadPoolExecutor getAsyncExecutor() {
+        ThreadPoolExecutor executor = asyncExecutor;
+        if (executor == null) {
+            synchronized (this) {
+                executor = asyncExecutor;
+                if (executor == null) {
+                    executor = asyncExecutor = createAsyncExecutor(getAsyncThreads(), getAsyncQueueSize());
+                }
+            }
+        }
+        return executor;
+    }
+
+    private static ThreadPoolExecutor createAsyncExecutor(int threads, int queueSize) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize), new DaemonThreadFactory("asyncSearch-"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private Future<SearchResponse> submit(Callable<SearchResponse> search) {
+        return new SearchFuture(getAsyncExecutor().submit(search), getAsyncTimeout());
+    }
+
+    @Override
+    public void doStopService() throws ServiceException {
+        super.doStopService();
+        ThreadPoolExecutor executor = asyncExecutor;
+        if (executor != null) {
+            executor.shutdownNow();
+            asyncExecutor = null;
+        }
+    }
+
+    /**
+     * Returns the rule snapshot, loading it the first time. Returns null if the snapshot is disabled or can't be loaded.
+     * If the snapshot fails to load, it is not loaded again until the retry delay has passed
+     */
+    public RuleSnapshot getRuleSnapshot() {
+        if (!isRuleSnapshotEnabled()) {
+            return null;
+        }
+
+        RuleSnapshot snapshot = ruleSnapshot;
+        if (snapshot == null && canLoadRuleSnapshot()) {
+            synchronized (this) {
+                snapshot = ruleSnapshot;
+                if (snapshot == null && canLoadRuleSnapshot()) {
+                    snapshot = ruleSnapshot = loadRuleSnapshot();
+                    if (snapshot == null) {
+                        ruleSnapshotFailureTime = System.currentTimeMillis();
+                    }
+                }
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return false if the rule snapshot failed to load less than the retry delay ago
+     */
+    private boolean canLoadRuleSnapshot() {
+        return System.currentTimeMillis() - ruleSnapshotFailureTime >= getRuleSnapshotRetryDelay();
+    }
+
+    /**
+     * Loads a new rule snapshot from the search repository
+     */
+    public void reloadRuleSnapshot() {
+        if (!isRuleSnapshotEnabled()) {
+            return;
+        }
+
+        RuleSnapshot snapshot = loadRuleSnapshot();
+        if (snapshot != null) {
+            ruleSnapshot = snapshot;
+        }
+    }
+
+    private RuleSnapshot loadRuleSnapshot() {
+        try {
+            RuleSnapshot snapshot = RuleSnapshot.load(getSearchRepository(), getRuleCountRql(), getRuleRql(), getRuleBatchSize());
+            if (isLoggingInfo()) {
+                logInfo("Loaded " + snapshot.size() + " rules into the rule snapshot in "
+                        + (System.currentTimeMillis() - snapshot.getLoadTime()) + "ms");
+            }
+            return snapshot;
+        } catch (RepositoryException ex) {
+            if (isLoggingError()) {
+                logError("Unable to load the rule snapshot, rules will be loaded from the repository", ex);
+            }
+            return null;
+        }
+    }
+
     @Override
     public SearchResponse browse(BrowseOptions options, SolrQuery query, FilterQuery... filterQueries) throws SearchServerException {
         return browse(options, query, SiteContextManager.getCurrentSite(), Locale.US, filterQueries);
@@ -299,6 +677,25 @@ public abstract class AbstractSearchServer<T extends SolrServer> extends Generic
                                    (hasBrandId && options.isFetchProducts() && !hasCategoryId)) && 
                                    ! options.isRuleBasedPage();
 
+        ResponseCache cache = getResponseCache();
+        String cacheKey = null;
+        long cacheGeneration = 0;
+        if (cache != null) {
+            // the key is created before the query gets modified
+            cacheKey = ResponseCache.getKey(query, site != null? site.getId() : null, locale, options, filterQueries);
+            // responses searched while the cache is cleared (i.e. a deployment) are not cached
+            cacheGeneration = cache.getGeneration();
+            SearchResponse response = cache.get(cacheKey, getCatalogSolrServer(locale));
+            if (response != null) {
+                if (addCategoryGraph) {
+                    response.setCategoryGraph(createCategoryGraph(response,
+                            options.getCategoryPath(), options.getCatalogId(),
+                            options.getCategoryId(), options.getDepthLimit(), options.getSeparator()));
+                }
+                return response;
+            }
+        }
+
         String categoryPath = null;
         
         if (hasCategoryPath) {
@@ -316,9 +713,19 @@ public abstract class AbstractSearchServer<T extends SolrServer> extends Generic
         } else {
             //handle brand, category or onsale pages                
             if (addCategoryGraph) {
-                query.setFacetPrefix(CATEGORY_PATH, categoryPath);
-                query.addFacetField(CATEGORY_PATH);
-                query.set("f.categoryPath.facet.limit", options.getMaxCategoryResults());
+                if (isCategoryTreeEnabled()) {
+                    query.set(CategoryTreeParams.CATEGORY_TREE, true);
+                    query.set(CategoryTreeParams.CATEGORY_TREE_FIELD, CATEGORY_PATH);
+                    query.set(CategoryTreeParams.CATEGORY_TREE_PREFIX, categoryPath);
+                    query.set(CategoryTreeParams.CATEGORY_TREE_LIMIT, options.getMaxCategoryResults());
+                    if (options.getDepthLimit() > 0 && StringUtils.isNotBlank(options.getSeparator())) {
+                        query.set(CategoryTreeParams.CATEGORY_TREE_DEPTH, options.getDepthLimit());
+                    }
+                } else {
+                    query.setFacetPrefix(CATEGORY_PATH, categoryPath);
+                    query.addFacetField(CATEGORY_PATH);
+                    query.set("f.categoryPath.facet.limit", options.getMaxCategoryResults());
+                }
             }
     
             if (!options.isFetchProducts()) {
@@ -360,6 +767,10 @@ public abstract class AbstractSearchServer<T extends SolrServer> extends Generic
         } else {
             response = doSearch(query, site, catalog, locale, false, false, null, options.isOnSale(), options.getBrandId(), filterQueries);
         }
+
+        if (cacheKey != null) {
+            cache.put(cacheKey, cacheGeneration, query, response);
+        }
         
         if (addCategoryGraph) {
             response.setCategoryGraph(createCategoryGraph(response,
@@ -406,6 +817,38 @@ public abstract class AbstractSearchServer<T extends SolrServer> extends Generic
         return doSearch(query, site, catalog, locale, true, false, null, false, null, filterQueries);
     }
     
+    @Override
+    public Future<SearchResponse> browseAsync(final BrowseOptions options, final SolrQuery query, final Site site, final Locale locale,
+                                              final FilterQuery... filterQueries) {
+        return submit(new Callable<SearchResponse>() {
+            @Override
+            public SearchResponse call() throws SearchServerException {
+                return browse(options, query, site, locale, filterQueries);
+            }
+        });
+    }
+
+    @Override
+    public Future<SearchResponse> searchAsync(final SolrQuery query, final Site site, final Locale locale, final FilterQuery... filterQueries) {
+        return submit(new Callable<SearchResponse>() {
+            @Override
+            public SearchResponse call() throws SearchServerException {
+                return search(query, site, locale, filterQueries);
+            }
+        });
+    }
+
+    @Override
+    public Future<SearchResponse> searchAsync(final SolrQuery query, final Site site, final RepositoryItem catalog, final Locale locale,
+                                              final FilterQuery... filterQueries) {
+        return submit(new Callable<SearchResponse>() {
+            @Override
+            public SearchResponse call() throws SearchServerException {
+                return search(query, site, catalog, locale, filterQueries);
+            }
+        });
+    }
+
     @Override
     public Facet getFacet(Site site, Locale locale, String fieldFacet, int facetLimit, int depthLimit, String separator, FilterQuery... filterQueries) throws SearchServerException {
         try { 
@@ -479,6 +922,8 @@ public abstract class AbstractSearchServer<T extends SolrServer> extends Generic
         query.set("facet.mincount", 1);
         
         RuleManager ruleManager = new RuleManager(getSearchRepository(), getRulesBuilder(), getRulesSolrServer(locale));
+        ruleManager.setRuleSnapshot(getRuleSnapshot());
+        ruleManager.setRuleCache(getRuleCache(), locale.toString());
         if ((query.getRows() != null && query.getRows() > 0) || (query.get("group") != null && query.getBool("group"))) {
             setGroupParams(query, locale);
             setFieldListParams(query, locale.getCountry(), catalog.getRepositoryId());
@@ -490,7 +935,7 @@ public abstract class AbstractSearchServer<T extends SolrServer> extends Generic
                     List<RepositoryItem> redirects = rules.get(SearchRepositoryItemDescriptor.REDIRECT_RULE);
                     if(redirects != null){
                         RepositoryItem redirect = redirects.get(0);
-                        return new SearchResponse(query, null, null, null, (String) redirect.getPropertyValue(RedirectRuleProperty.URL), null, true);
+                        return new SearchResponse(query, null, null, null, ruleManager.getRedirectUrl(redirect), null, true);
                     }
                 }
                 
@@ -515,33 +960,25 @@ public abstract class AbstractSearchServer<T extends SolrServer> extends Generic
         }
 
         try {
+            //if no results, the catalog retries the search with the spell check collation in the same request
+            if(query.getRows() > 0 && StringUtils.isNotEmpty(query.getQuery())) {
+                query.set(SpellCheckFallbackParams.SPELLCHECK_FALLBACK, true);
+                if(getMinimumMatch() != null) {
+                    query.set(SpellCheckFallbackParams.SPELLCHECK_FALLBACK_MM, getMinimumMatch());
+                }
+            }
+
             QueryResponse queryResponse = getCatalogSolrServer(locale).query(query);
 
-            String correctedTerm = null;
-            boolean matchesAll = true;
-            
-            //if no results, check for spelling errors
-            if(query.getRows() > 0 && isEmptySearch(queryResponse.getGroupResponse()) && StringUtils.isNotEmpty(query.getQuery())){
-                
-                SpellCheckResponse spellCheckResponse = queryResponse.getSpellCheckResponse();
-                //try to do searching for the corrected term matching all terms (q.op=AND)
-                QueryResponse tentativeResponse = handleSpellCheck(spellCheckResponse, getCatalogSolrServer(locale), query, "AND");
-                if(tentativeResponse != null) {
-                    //if we got results, set the corrected term variable and proceed to return the results
-                    queryResponse = tentativeResponse;                    
-                    correctedTerm = spellCheckResponse.getCollatedResult();
-                } else {
-                    //if we didn't got any response, try doing another search matching any term (q.op=OR)
-                    tentativeResponse = handleSpellCheck(spellCheckResponse, getCatalogSolrServer(locale), query, "OR");
-                    if(tentativeResponse != null) {
-                        //if we got results for the match any term scenario. Set similar results to true
-                        //and set the corrected term.
-                        queryResponse = tentativeResponse;
-                        matchesAll = false;
-                        correctedTerm = query.getQuery();
-                    }
-                }
+            String correctedTerm = (String) queryResponse.getResponse().get(SpellCheckFallbackComponent.CORRECTED_TERM);
+            Boolean matchesAll = (Boolean) queryResponse.getResponse().get(SpellCheckFallbackComponent.MATCHES_ALL);
+            NamedList fallback = (NamedList) queryResponse.getResponse().get(SpellCheckFallbackComponent.FALLBACK);
 
+            if (fallback != null) {
+                // keep the corrected query on the response so pagination and filter links use it
+                for (int i = 0; i < fallback.size(); i++) {
+                    query.set(fallback.getName(i), (String) fallback.getVal(i));
+                }
             }
 
             long searchTime = System.currentTimeMillis() - startTime;
@@ -549,7 +986,7 @@ public abstract class AbstractSearchServer<T extends SolrServer> extends Generic
                 logDebug("Search time is " + searchTime + ", search engine time is " + queryResponse.getQTime());
             }
 
-            SearchResponse searchResponse = new SearchResponse(query, queryResponse, ruleManager, filterQueries, null, correctedTerm, matchesAll);
+            SearchResponse searchResponse = new SearchResponse(query, queryResponse, ruleManager, filterQueries, null, correctedTerm, matchesAll == null || matchesAll);
             searchResponse.setRuleQueryTime(ruleManager.getLoadRulesTime());
             return searchResponse;
         } catch (SolrServerException ex) {
@@ -561,11 +998,7 @@ public abstract class AbstractSearchServer<T extends SolrServer> extends Generic
     }
 
     public void setGroupParams(SolrQuery query, Locale locale) {
-        query.set("group", true);
-        query.set("group.ngroups", true);
-        query.set("group.limit", 50);
-        query.set("group.field", "productId");
-        query.set("group.facet", false);
+        String groupSort = null;
 
         if (isGroupSortingEnabled()) {
             List<SolrQuery.SortClause> clauses = query.getSorts();
@@ -583,9 +1016,42 @@ public abstract class AbstractSearchServer<T extends SolrServer> extends Generic
 
             if (isSortByScore) {
                 // break ties with custom sort field
-                query.set("group.sort", "isCloseout asc, salePrice" + locale.getCountry() + " asc, sort asc, score desc");
+                groupSort = "isCloseout asc, salePrice" + locale.getCountry() + " asc, sort asc, score desc";
             }
         }
+
+        if (isCollapseEnabled()) {
+            setCollapseParams(query, groupSort);
+            return;
+        }
+
+        query.set("group", true);
+        query.set("group.ngroups", true);
+        query.set("group.limit", GROUP_LIMIT);
+        query.set("group.field", GROUP_FIELD);
+        query.set("group.facet", false);
+
+        if (groupSort != null) {
+            query.set("group.sort", groupSort);
+        }
+    }
+
+    /**
+     * Collapses the results by product and expands each product into its skus, the same groups field grouping returns.
+     * The collapsed product is the highest scoring sku, the skus of each product are sorted by the group sort.
+     */
+    private void setCollapseParams(SolrQuery query, String groupSort) {
+        query.remove("group");
+        if (!ArrayUtils.contains(query.getFilterQueries(), COLLAPSE_FILTER)) {
+            query.addFilterQuery(COLLAPSE_FILTER);
+        }
+        query.set(EXPAND_ALL, true);
+        query.set(ExpandParams.EXPAND_FIELD, GROUP_FIELD);
+        query.set(ExpandParams.EXPAND_ROWS, GROUP_LIMIT);
+
+        if (groupSort != null) {
+            query.set(ExpandParams.EXPAND_SORT, groupSort);
+        }
     }
 
     /**
@@ -614,41 +1080,6 @@ public abstract class AbstractSearchServer<T extends SolrServer> extends Generic
         query.setParam(GroupCollapseParams.GROUP_COLLAPSE_FL, listPrice + "," + salePrice + "," + discountPercent+ ",color,colorFamily");
     }
 
-    private QueryResponse handleSpellCheck(SpellCheckResponse spellCheckResponse, T catalogSolrServer, SolrQuery query, String queryOp) throws SolrServerException{
-        
-        QueryResponse queryResponse;
-
-        if(spellCheckResponse != null  && StringUtils.isNotBlank(spellCheckResponse.getCollatedResult())){
-            //check if we have any spelling suggestion
-            String tentativeCorrectedTerm = spellCheckResponse.getCollatedResult();
-
-            //if we have spelling suggestions, try doing another search using 
-            //q.op as the specified queryOp param (the default one is AND so we only add it if it's OR)
-            //and use q="corrected phrase" to see if we can get results
-            if("OR".equals(queryOp)){
-                query.setParam("q.op", "OR");
-                query.setParam("mm", getMinimumMatch());
-            }
-            query.setQuery(tentativeCorrectedTerm);
-            queryResponse = catalogSolrServer.query(query);
-            
-            //if we didn't got any results from the search with q="corrected phrase" return null
-            //otherwise return the results
-            return isEmptySearch(queryResponse.getGroupResponse()) ? null : queryResponse;
-            
-        } else if("OR".equals(queryOp)) {
-            //for the match any terms scenario with no corrected terms do another query
-            query.setParam("q.op", "OR");
-            query.setParam("mm", getMinimumMatch());
-            queryResponse = catalogSolrServer.query(query);
-            return isEmptySearch(queryResponse.getGroupResponse()) ? null : queryResponse;
-        } else {
-            //if we didn't got any corrected terms and are not in the match any term scenario, 
-            //then return null
-            return null;
-        }
-    }
-
     protected boolean isEmptySearch(GroupResponse groupResponse) {
         boolean noResults = true;            
         if(groupResponse != null) {
@@ -882,6 +1313,37 @@ public abstract class AbstractSearchServer<T extends SolrServer> extends Generic
             exportSynonyms(Locale.ENGLISH);
             reloadCollections();
         }
+
+        boolean isSearchRepository = repositoryName.endsWith(getSearchRepository().getRepositoryName());
+        if (isSearchRepository && ruleSnapshot != null && isRuleOrFacetChange(itemDescriptorNames)) {
+            reloadRuleSnapshot();
+        }
+
+        if ((isSearchRepository && isRuleOrFacetChange(itemDescriptorNames)) || isCategoryChange(itemDescriptorNames)) {
+            clearRuleCache();
+        }
+
+        // any deployed item (i.e. products, rules, facets, categories or synonyms) may change the browse responses
+        clearResponseCache();
+    }
+
+    private boolean isCategoryChange(Set<String> itemDescriptorNames) {
+        return itemDescriptorNames.contains(CategoryProperty.ITEM_DESCRIPTOR) ||
+               itemDescriptorNames.contains(RuleBasedCategoryProperty.ITEM_DESCRIPTOR);
+    }
+
+    private boolean isRuleOrFacetChange(Set<String> itemDescriptorNames) {
+        return itemDescriptorNames.contains(SearchRepositoryItemDescriptor.RULE) ||
+               itemDescriptorNames.contains(SearchRepositoryItemDescriptor.BOOST_RULE) ||
+               itemDescriptorNames.contains(SearchRepositoryItemDescriptor.BLOCK_RULE) ||
+               itemDescriptorNames.contains(SearchRepositoryItemDescriptor.FACET_RULE) ||
+               itemDescriptorNames.contains(SearchRepositoryItemDescriptor.RANKING_RULE) ||
+               itemDescriptorNames.contains(SearchRepositoryItemDescriptor.REDIRECT_RULE) ||
+               itemDescriptorNames.contains(SearchRepositoryItemDescriptor.FACET) ||
+               itemDescriptorNames.contains(SearchRepositoryItemDescriptor.FIELD_FACET) ||
+               itemDescriptorNames.contains(SearchRepositoryItemDescriptor.RANGE_FACET) ||
+               itemDescriptorNames.contains(SearchRepositoryItemDescriptor.DATE_FACET) ||
+               itemDescriptorNames.contains(SearchRepositoryItemDescriptor.QUERY_FACET);
     }
 
     @Override
@@ -951,16 +1413,92 @@ public abstract class AbstractSearchServer<T extends SolrServer> extends Generic
      */
     public abstract void reloadCollection(String collectionName, Locale locale) throws SearchServerException;
 
+    /**
+     * Creates the category graph from the category tree returned by the catalog. If the response doesn't have the
+     * category tree, the graph is created from the categoryPath facet instead.
+     *
+     * @param searchResponse the browse response
+     * @param path the current category path
+     * @param catalogId the current catalog id
+     * @param categoryId the current category id. If not blank, the graph only has the sub categories of this category
+     * @param depthLimit the maximum depth of the facet categories
+     * @param separator the category path separator used to apply the depth limit to the facet categories
+     * @return the category graph
+     */
     private List<CategoryGraph> createCategoryGraph(SearchResponse searchResponse, String path, String catalogId,
             String categoryId, int depthLimit, String separator) {
-
+        List<NamedList<Object>> categoryTree = (List<NamedList<Object>>) searchResponse.getQueryResponse().getResponse().get(CategoryTreeComponent.CATEGORY_TREE);
         List<CategoryGraph> categoryGraphList = new ArrayList<CategoryGraph>();
 
-        for (Facet facet : searchResponse.getFacets()) {
-            if (CATEGORY_PATH.equalsIgnoreCase(facet.getName())) {
-                searchResponse.removeFacet(facet.getName());
-                return createCategoryGraphAux(facet, path, catalogId, categoryId, depthLimit, separator);
+        if (categoryTree == null) {
+            for (Facet facet : searchResponse.getFacets()) {
+                if (CATEGORY_PATH.equalsIgnoreCase(facet.getName())) {
+                    searchResponse.removeFacet(facet.getName());
+                    return createCategoryGraphAux(facet, path, catalogId, categoryId, depthLimit, separator);
+                }
+            }
+
+            if (isCategoryTreeEnabled()) {
+                if (isLoggingWarning()) {
+                    logWarning("The catalog response doesn't have the category tree, make sure the categoryTree component "
+                            + "is in solrconfig.xml. The category graph will be created from the categoryPath facet");
+                }
+                setCategoryTreeEnabled(false);
+            }
+            return categoryGraphList;
+        }
+
+        // the blacklist has category paths relative to the prefix, like the categoryPath facet values
+        String prefix = StringUtils.isNotBlank(path)? path : catalogId + ".";
+        Set<String> blacklist = searchResponse.getFacetBlacklist(CATEGORY_PATH);
+        categoryGraphList = createCategoryGraphNodes(searchResponse, categoryTree, null, prefix, blacklist);
+
+        if (StringUtils.isNotBlank(categoryId)) {
+            // category filtering scenario. Search hierarchy for the actual result node.
+            CategoryGraph currentLevel = searchCategoryGraph(categoryId, categoryGraphList);
+            if (currentLevel != null) {
+                categoryGraphList = currentLevel.getCategoryGraphNodes();
+            } else {
+                categoryGraphList = new ArrayList<CategoryGraph>();
+                if (isLoggingDebug()) {
+                    logDebug("The CategoryGraph is empty for catalog: "
+                            + catalogId
+                            + " and category: "
+                            + categoryId
+                            + " path: " + path
+                            + " This is expected for leaf categories");
+                }
+            }
+        }
+
+        return categoryGraphList;
+    }
+
+    private List<CategoryGraph> createCategoryGraphNodes(SearchResponse searchResponse, List<NamedList<Object>> nodes,
+            String parentPath, String prefix, Set<String> blacklist) {
+        List<CategoryGraph> categoryGraphList = new ArrayList<CategoryGraph>(nodes.size());
+
+        for (NamedList<Object> node : nodes) {
+            String id = (String) node.get(CategoryTreeComponent.ID);
+            String categoryPath = parentPath != null? parentPath + SearchConstants.CATEGORY_SEPARATOR + id : (String) node.get(CategoryTreeComponent.PATH);
+            String name = categoryPath.startsWith(prefix)? categoryPath.substring(prefix.length()) : categoryPath;
+            if (blacklist.contains(name)) {
+                // blacklisted categories are left out with their sub categories
+                continue;
+            }
+            String filterQuery = CATEGORY_PATH + ":" + ClientUtils.escapeQueryChars(categoryPath);
+            List<NamedList<Object>> children = (List<NamedList<Object>>) node.get(CategoryTreeComponent.CHILDREN);
+
+            CategoryGraph categoryGraph = new CategoryGraph();
+            categoryGraph.setId(id);
+            categoryGraph.setCount((Integer) node.get(CategoryTreeComponent.COUNT));
+            categoryGraph.setPath(searchResponse.getRuleManager().getFacetManager().getCountPath(categoryPath, CATEGORY_PATH, filterQuery, searchResponse.getFilterQueries()));
+            if (children != null) {
+                categoryGraph.setCategoryGraphNodes(createCategoryGraphNodes(searchResponse, children, categoryPath, prefix, blacklist));
+            } else {
+                categoryGraph.setCategoryGraphNodes(new ArrayList<CategoryGraph>());
             }
+            categoryGraphList.add(categoryGraph);
         }
         return categoryGraphList;
     }
@@ -972,7 +1510,7 @@ public abstract class AbstractSearchServer<T extends SolrServer> extends Generic
             CategoryGraphBuilder categoryFacetBuilder = new CategoryGraphBuilder();
 
             boolean filterByDepth = depthLimit > 0 && StringUtils.isNotBlank(separator);
-            
+
             // iterate through the flat category facet structure and create a
             // graph from it
             for (Filter filter : facet.getFilters()) {
@@ -1010,4 +1548,17 @@ public abstract class AbstractSearchServer<T extends SolrServer> extends Generic
 
         return categoryGraphList;
     }
+
+    private CategoryGraph searchCategoryGraph(String id, List<CategoryGraph> categoryGraphList) {
+        for (CategoryGraph categoryGraph : categoryGraphList) {
+            if (id.equals(categoryGraph.getId())) {
+                return categoryGraph;
+            }
+            CategoryGraph result = searchCategoryGraph(id, categoryGraph.getCategoryGraphNodes());
+            if (result != null) {
+                return result;
+            }
+        }
+        return null;
+    }
 }
@@ -27,6 +27,14 @@ import org.opencommercesearch.client.impl.Facet.Filter;
 
 import com.google.common.collect.Lists;
 
+/**
+ * Builds the category graph from the flat list of categoryPath facet filters, adding the missing intermediate nodes.
+ *
+ * @deprecated the category graph is built from the category tree returned by the categoryTree component of the
+ * catalog. This builder is only used when the component is not available, see
+ * {@link AbstractSearchServer#setCategoryTreeEnabled(boolean)}
+ */
+@Deprecated
 public class CategoryGraphBuilder {
 
     private static final String CATEGORY_PATH = "categoryPath";
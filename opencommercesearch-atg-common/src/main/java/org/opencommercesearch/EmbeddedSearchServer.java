@@ -325,6 +325,7 @@ public class EmbeddedSearchServer extends AbstractSearchServer<EmbeddedSolrServe
 
     @Override
     public void doStopService() throws ServiceException {
+        super.doStopService();
         try {
             close();
         } catch (IOException ex) {
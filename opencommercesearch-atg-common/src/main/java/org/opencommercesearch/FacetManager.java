@@ -51,33 +51,34 @@ import atg.repository.RepositoryItem;
  */
 public class FacetManager {
     private Map<String, RepositoryItem> facetMap;
+    private RuleSnapshot ruleSnapshot;
     private Logger logger = Logger.getLogger(FacetManager.class);
 
     enum FacetType {
         fieldFacet() {
             void setParams(FacetManager manager, SolrQuery query, RepositoryItem facet) {
-                String fieldName = (String) facet.getPropertyValue(FieldFacetProperty.FIELD);
+                String fieldName = (String) manager.getPropertyValue(facet, FieldFacetProperty.FIELD);
                 String localParams = "";
-                Boolean isMultiSelect = (Boolean) facet.getPropertyValue(FacetProperty.IS_MULTI_SELECT);
+                Boolean isMultiSelect = (Boolean) manager.getPropertyValue(facet, FacetProperty.IS_MULTI_SELECT);
                 if (isMultiSelect != null && isMultiSelect) {
                     localParams = "{!ex=" + fieldName + "}";
                 }
                 query.addFacetField(localParams + fieldName);
-                setParam(query, fieldName, "limit", (Integer) facet.getPropertyValue(FieldFacetProperty.LIMIT));
+                setParam(query, fieldName, "limit", (Integer) manager.getPropertyValue(facet, FieldFacetProperty.LIMIT));
                 setParam(query, fieldName, "mincount",
-                        (Integer) facet.getPropertyValue(FieldFacetProperty.MIN_COUNT));
-                setParam(query, fieldName, "sort", (String) facet.getPropertyValue(FieldFacetProperty.SORT));
-                setParam(query, fieldName, "missing", (Boolean) facet.getPropertyValue(FieldFacetProperty.MISSING));
+                        (Integer) manager.getPropertyValue(facet, FieldFacetProperty.MIN_COUNT));
+                setParam(query, fieldName, "sort", (String) manager.getPropertyValue(facet, FieldFacetProperty.SORT));
+                setParam(query, fieldName, "missing", (Boolean) manager.getPropertyValue(facet, FieldFacetProperty.MISSING));
             }
         },
         rangeFacet() {
             void setParams(FacetManager manager, SolrQuery query, RepositoryItem facet) {
-                String fieldName = (String) facet.getPropertyValue(RangeFacetProperty.FIELD);
-                Integer start = (Integer) facet.getPropertyValue(RangeFacetProperty.START);
-                Integer end = (Integer) facet.getPropertyValue(RangeFacetProperty.END);
-                Integer gap = (Integer) facet.getPropertyValue(RangeFacetProperty.GAP);
+                String fieldName = (String) manager.getPropertyValue(facet, RangeFacetProperty.FIELD);
+                Integer start = (Integer) manager.getPropertyValue(facet, RangeFacetProperty.START);
+                Integer end = (Integer) manager.getPropertyValue(facet, RangeFacetProperty.END);
+                Integer gap = (Integer) manager.getPropertyValue(facet, RangeFacetProperty.GAP);
                 String localParams = "";
-                Boolean isMultiSelect = (Boolean) facet.getPropertyValue(RangeFacetProperty.IS_MULTI_SELECT);
+                Boolean isMultiSelect = (Boolean) manager.getPropertyValue(facet, RangeFacetProperty.IS_MULTI_SELECT);
                 if (isMultiSelect != null && isMultiSelect) {
                     localParams = "{!ex=" + fieldName + "}";
                 }
@@ -86,7 +87,7 @@ public class FacetManager {
                 if (StringUtils.isNotBlank(localParams)) {
                     query.add(FacetParams.FACET_RANGE, localParams + fieldName);
                 }
-                Boolean hardened = (Boolean) facet.getPropertyValue(RangeFacetProperty.HARDENED);
+                Boolean hardened = (Boolean) manager.getPropertyValue(facet, RangeFacetProperty.HARDENED);
                 if (hardened != null) {
                     setParam(query, fieldName, "hardened", hardened);
                 }
@@ -102,14 +103,14 @@ public class FacetManager {
         },
         queryFacet() {
             void setParams(FacetManager manager, SolrQuery query, RepositoryItem facet) {
-                String fieldName = (String) facet.getPropertyValue(FieldFacetProperty.FIELD);
+                String fieldName = (String) manager.getPropertyValue(facet, FieldFacetProperty.FIELD);
                 String localParams = "";
-                Boolean isMultiSelect = (Boolean) facet.getPropertyValue(QueryFacetProperty.IS_MULTI_SELECT);
+                Boolean isMultiSelect = (Boolean) manager.getPropertyValue(facet, QueryFacetProperty.IS_MULTI_SELECT);
                 if (isMultiSelect != null && isMultiSelect) {
                     localParams = "{!ex=" + fieldName + "}";
                 }
                 @SuppressWarnings("unchecked")
-                List<String> queries = (List<String>) facet.getPropertyValue(QueryFacetProperty.QUERIES);
+                List<String> queries = (List<String>) manager.getPropertyValue(facet, QueryFacetProperty.QUERIES);
 
                 if (queries != null) {
                     for (String q : queries) {
@@ -150,6 +151,33 @@ public class FacetManager {
         }
     }
 
+    /**
+     * Sets the rule snapshot the facet properties are read from. Facets that are not in the snapshot are read from
+     * the repository.
+     *
+     * @param ruleSnapshot is the rule snapshot, or null to read all the facets from the repository
+     */
+    void setRuleSnapshot(RuleSnapshot ruleSnapshot) {
+        this.ruleSnapshot = ruleSnapshot;
+    }
+
+    /**
+     * Returns a property of the given facet, from the rule snapshot if the facet is in the snapshot
+     *
+     * @param facet is the facet item
+     * @param propertyName is the property name
+     * @return the property value
+     */
+    Object getPropertyValue(RepositoryItem facet, String propertyName) {
+        if (ruleSnapshot != null) {
+            Map<String, Object> properties = ruleSnapshot.getFacetProperties(facet.getRepositoryId());
+            if (properties != null && properties.containsKey(propertyName)) {
+                return properties.get(propertyName);
+            }
+        }
+        return facet.getPropertyValue(propertyName);
+    }
+
     public RepositoryItem getFacetItem(String fieldName) {
         if (facetMap == null) {
             return null;
@@ -178,7 +206,7 @@ public class FacetManager {
      *            the facet item from the repository
      */
     void addFacet(RepositoryItem facet) {
-        String fieldName = (String) facet.getPropertyValue(FieldFacetProperty.FIELD);
+        String fieldName = (String) getPropertyValue(facet, FieldFacetProperty.FIELD);
         addField(fieldName, facet);
     }
 
@@ -200,7 +228,7 @@ public class FacetManager {
             return;
         }
         for (RepositoryItem facet : facetMap.values()) {
-            FacetType type = FacetType.valueOf((String) facet.getPropertyValue(FacetProperty.TYPE));
+            FacetType type = FacetType.valueOf((String) getPropertyValue(facet, FacetProperty.TYPE));
             type.setParams(this, query, facet);
         }
     }
@@ -224,7 +252,7 @@ public class FacetManager {
         String facetName = fieldName;
         RepositoryItem facetItem = getFacetItem(fieldName);
         if (facetItem != null) {
-            facetName = (String) facetItem.getPropertyValue(FacetProperty.NAME);
+            facetName = (String) getPropertyValue(facetItem, FacetProperty.NAME);
         }
         return facetName;
     }
@@ -233,7 +261,7 @@ public class FacetManager {
         String facetName = facet.getName();
         RepositoryItem facetItem = getFacetItem(facet.getName());
         if (facetItem != null) {
-            facetName = (String) facetItem.getPropertyValue(FacetProperty.NAME);
+            facetName = (String) getPropertyValue(facetItem, FacetProperty.NAME);
         }
         return facetName;
     }
@@ -242,7 +270,7 @@ public class FacetManager {
         String facetName = facet.getName();
         RepositoryItem facetItem = getFacetItem(facet.getName());
         if (facetItem != null) {
-            facetName = (String) facetItem.getPropertyValue(FacetProperty.NAME);
+            facetName = (String) getPropertyValue(facetItem, FacetProperty.NAME);
         }
         return facetName;
     }
@@ -251,7 +279,7 @@ public class FacetManager {
         Integer minBuckets = 2;
         RepositoryItem facetItem = getFacetItem(fieldName);
         if (facetItem != null ) {
-            Integer persistedMinBuckets = (Integer) facetItem.getPropertyValue(FacetProperty.MIN_BUCKETS);
+            Integer persistedMinBuckets = (Integer) getPropertyValue(facetItem, FacetProperty.MIN_BUCKETS);
             if( persistedMinBuckets != null ) {
                 minBuckets = persistedMinBuckets;
             }
@@ -272,7 +300,7 @@ public class FacetManager {
         if (facetItem == null) {
             return false;
         }
-        Boolean isMultiSelect = (Boolean) facetItem.getPropertyValue(FacetProperty.IS_MULTI_SELECT);
+        Boolean isMultiSelect = (Boolean) getPropertyValue(facetItem, FacetProperty.IS_MULTI_SELECT);
         return isMultiSelect != null && isMultiSelect;
     }
 
@@ -296,7 +324,7 @@ public class FacetManager {
         if (facetItem == null) {
             return false;
         }
-        Boolean isMixedSorting = (Boolean) facetItem.getPropertyValue(FacetProperty.IS_MIXED_SORTING);
+        Boolean isMixedSorting = (Boolean) getPropertyValue(facetItem, FacetProperty.IS_MIXED_SORTING);
         return isMixedSorting != null && isMixedSorting;
     }
 
@@ -319,7 +347,7 @@ public class FacetManager {
         String uiType = null;
         RepositoryItem facetItem = getFacetItem(fieldName);
         if (facetItem != null) {
-            uiType = (String) facetItem.getPropertyValue(FacetProperty.UI_TYPE);
+            uiType = (String) getPropertyValue(facetItem, FacetProperty.UI_TYPE);
         }
         return uiType;
     }
@@ -0,0 +1,338 @@
+package org.opencommercesearch;
+
+/*
+* Licensed to OpenCommerceSearch under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. OpenCommerceSearch licenses this
+* file to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.util.JavaBinCodec;
+import org.apache.solr.common.util.NamedList;
+
+/**
+ * LRU cache of browse responses, keyed by a normalized form of the query params, the site, the locale, the browse
+ * options and the filter queries of the request. Category and brand pages are requested over and over with the same
+ * params, so a hit skips both the rules and the catalog queries.
+ *
+ * The query response is mutable and callers are free to change it (i.e. removing facets), so the cache keeps an
+ * immutable snapshot instead: the final query params and the raw response encoded in the javabin format. Every hit
+ * decodes a new query response with its own copy of the query. The encoded size is what the cache uses to bound its
+ * memory. Only the facets of the rule manager are kept, the rules and the rule documents are not. The facets are shared
+ * by all the responses created from the same snapshot, they're only read once the search is done.
+ *
+ * Entries expire after the configured TTL. The cache must be cleared when products, rules, facets or categories are
+ * deployed. Every clear starts a new generation: callers get the generation before searching and pass it to put, so a
+ * response searched before a clear is never cached after it.
+ */
+public class ResponseCache {
+
+    /**
+     * Estimated size of a facet map entry, without the field name
+     */
+    private static final int FACET_ENTRY_SIZE = 64;
+
+    private final Map<String, Entry> entries;
+    private final long maxBytes;
+    private final long ttl;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private long bytes;
+    private long generation;
+
+    /**
+     * Immutable snapshot of a search response
+     */
+    static class Entry {
+        private final ModifiableSolrParams params;
+        private final byte[] response;
+        private final RuleManager ruleManager;
+        private final FilterQuery[] filterQueries;
+        private final String redirectResponse;
+        private final String correctedTerm;
+        private final boolean matchesAll;
+        private final long creationTime;
+        private final long size;
+
+        Entry(String key, SolrQuery query, SearchResponse searchResponse, long creationTime) throws IOException {
+            this.params = new ModifiableSolrParams(query);
+            this.response = searchResponse.getQueryResponse() != null? marshal(searchResponse.getQueryResponse().getResponse()) : null;
+            this.ruleManager = searchResponse.getRuleManager() != null? searchResponse.getRuleManager().copyFacets() : null;
+            this.filterQueries = copy(searchResponse.getFilterQueries());
+            this.redirectResponse = searchResponse.getRedirectResponse();
+            this.correctedTerm = searchResponse.getCorrectedTerm();
+            this.matchesAll = searchResponse.matchesAll();
+            this.creationTime = creationTime;
+            // strings are two bytes per char
+            this.size = 2L * (key.length() + params.toString().length()) + (response != null? response.length : 0)
+                    + sizeOf(ruleManager);
+        }
+
+        /**
+         * Creates a new search response from this snapshot, with a new query that has the final query params
+         */
+        @SuppressWarnings("unchecked")
+        SearchResponse toSearchResponse(SolrServer server) throws IOException {
+            SolrQuery query = new SolrQuery();
+            query.add(params);
+
+            QueryResponse queryResponse = null;
+            if (response != null) {
+                queryResponse = new QueryResponse((NamedList<Object>) unmarshal(response), server);
+            }
+            return new SearchResponse(query, queryResponse, ruleManager, copy(filterQueries), redirectResponse,
+                    correctedTerm, matchesAll);
+        }
+
+        long getSize() {
+            return size;
+        }
+
+        boolean isExpired(long ttl, long now) {
+            return ttl > 0 && now - creationTime > ttl;
+        }
+    }
+
+    /**
+     * Creates an empty cache
+     * @param maxBytes is the maximum size of the cached responses, in bytes
+     * @param ttl is the time a response is cached, in milliseconds. Zero or a negative value means no expiration
+     */
+    public ResponseCache(long maxBytes, long ttl) {
+        this.maxBytes = maxBytes;
+        this.ttl = ttl;
+        entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    }
+
+    long currentTime() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Returns the cache key for a browse request. The key must be created before the query is modified by the browse.
+     */
+    public static String getKey(SolrQuery query, String siteId, Locale locale, BrowseOptions options, FilterQuery... filterQueries) {
+        StringBuilder key = new StringBuilder();
+        key.append(siteId).append('|').append(locale).append('|');
+
+        // params are normalized by name, the order of the values is kept because it's significant for some params
+        // (i.e. facet.field)
+        for (String name : new TreeSet<String>(query.getParameterNames())) {
+            for (String value : query.getParams(name)) {
+                key.append(name).append('=').append(value).append('&');
+            }
+        }
+
+        key.append('|').append(options.isFetchCategoryGraph()).append('|').append(options.isFetchProducts())
+           .append('|').append(options.isOnSale()).append('|').append(options.isRuleBasedPage())
+           .append('|').append(options.getMaxCategoryResults()).append('|').append(options.getBrandId())
+           .append('|').append(options.getCategoryId()).append('|').append(options.getCategoryPath())
+           .append('|').append(options.getCatalogId()).append('|').append(options.getDepthLimit())
+           .append('|').append(options.getSeparator()).append('|');
+
+        if (filterQueries != null) {
+            for (FilterQuery filterQuery : filterQueries) {
+                key.append(filterQuery).append('&');
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Returns a new response for the given key or null if the response is not cached
+     * @param key is the request key
+     * @param server is the server used to bind the documents in the response
+     */
+    public SearchResponse get(String key, SolrServer server) {
+        Entry entry;
+
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry != null && entry.isExpired(ttl, currentTime())) {
+                remove(key);
+                entry = null;
+            }
+        }
+
+        if (entry != null) {
+            try {
+                SearchResponse response = entry.toSearchResponse(server);
+                hits.incrementAndGet();
+                return response;
+            } catch (IOException ex) {
+                synchronized (entries) {
+                    remove(key);
+                }
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * @return the current generation of the cache, to be passed to put once the search is done
+     */
+    public long getGeneration() {
+        synchronized (entries) {
+            return generation;
+        }
+    }
+
+    /**
+     * Caches a snapshot of the given response. Responses larger than the cache, or searched before the cache was
+     * cleared, are not cached
+     * @param key is the request key
+     * @param generation is the generation of the cache before the search
+     * @param query is the final query of the request
+     * @param response is the response
+     * @return true if the response was cached, otherwise false
+     */
+    public boolean put(String key, long generation, SolrQuery query, SearchResponse response) {
+        Entry entry;
+        try {
+            entry = new Entry(key, query, response, currentTime());
+        } catch (IOException ex) {
+            return false;
+        }
+
+        if (entry.getSize() > maxBytes) {
+            return false;
+        }
+
+        synchronized (entries) {
+            if (generation != this.generation) {
+                return false;
+            }
+            remove(key);
+            entries.put(key, entry);
+            bytes += entry.getSize();
+
+            Iterator<Entry> it = entries.values().iterator();
+            while (bytes > maxBytes && it.hasNext()) {
+                bytes -= it.next().getSize();
+                it.remove();
+                evictions.incrementAndGet();
+            }
+        }
+        return true;
+    }
+
+    private void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            bytes -= entry.getSize();
+        }
+    }
+
+    /**
+     * Removes all the responses from the cache
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            bytes = 0;
+            generation++;
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * @return the approximate size of the cached responses, in bytes
+     */
+    public long getBytes() {
+        synchronized (entries) {
+            return bytes;
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return the ratio of lookups that found the response in the cache
+     */
+    public double getHitRatio() {
+        long hits = this.hits.get();
+        long lookups = hits + misses.get();
+        return lookups > 0? (double) hits / lookups : 0.0;
+    }
+
+    /**
+     * Estimates the memory held by the facets of a cached response. The facet items are shared with the repository
+     * item cache or the rule snapshot, so only the facet map is counted
+     */
+    private static long sizeOf(RuleManager ruleManager) {
+        if (ruleManager == null) {
+            return 0;
+        }
+
+        long size = 0;
+        for (String fieldName : ruleManager.getFacetManager().facetFieldNames()) {
+            size += 2L * fieldName.length() + FACET_ENTRY_SIZE;
+        }
+        return size;
+    }
+
+    private static byte[] marshal(NamedList<Object> response) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new JavaBinCodec().marshal(response, out);
+        return out.toByteArray();
+    }
+
+    private static Object unmarshal(byte[] response) throws IOException {
+        return new JavaBinCodec().unmarshal(new ByteArrayInputStream(response));
+    }
+
+    private static FilterQuery[] copy(FilterQuery[] filterQueries) {
+        if (filterQueries == null) {
+            return null;
+        }
+
+        FilterQuery[] copy = new FilterQuery[filterQueries.length];
+        for (int i = 0; i < filterQueries.length; i++) {
+            copy[i] = new FilterQuery(filterQueries[i].getFieldName(), filterQueries[i].getExpression());
+        }
+        return copy;
+    }
+}
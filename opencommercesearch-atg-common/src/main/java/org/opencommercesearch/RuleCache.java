@@ -0,0 +1,211 @@
+package org.opencommercesearch;
+
+/*
+* Licensed to OpenCommerceSearch under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. OpenCommerceSearch licenses this
+* file to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.solr.common.SolrDocument;
+
+import atg.repository.RepositoryItem;
+
+/**
+ * Bounded LRU cache of the rules resolved by the rule manager, keyed by the rule context of the request. Identical
+ * searches and browses reuse the resolved rules instead of querying the rules collection again.
+ *
+ * The rules collection filters rules by their start and end dates rounded to the day, so the whole cache expires when
+ * the day changes (UTC, like NOW/DAY in Solr). The cache must also be cleared when rules, facets or categories are
+ * deployed.
+ *
+ * Every clear starts a new generation. Callers get the generation before loading the rules and pass it to put, so rules
+ * loaded before a clear are never cached after it.
+ */
+public class RuleCache {
+
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+    private final Map<String, Entry> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong loadTime = new AtomicLong();
+    private long day;
+    private long generation;
+
+    /**
+     * The rules resolved for a rule context
+     */
+    public static class Entry {
+        private final Map<String, List<RepositoryItem>> rules;
+        private final Map<String, SolrDocument> ruleDocs;
+
+        Entry(Map<String, List<RepositoryItem>> rules, Map<String, SolrDocument> ruleDocs) {
+            this.rules = rules;
+            this.ruleDocs = ruleDocs;
+        }
+
+        public Map<String, List<RepositoryItem>> getRules() {
+            return rules;
+        }
+
+        public Map<String, SolrDocument> getRuleDocs() {
+            return ruleDocs;
+        }
+    }
+
+    /**
+     * Creates an empty cache
+     * @param maxSize is the maximum number of rule contexts in the cache
+     */
+    public RuleCache(final int maxSize) {
+        entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+        day = currentDay();
+    }
+
+    long currentDay() {
+        return System.currentTimeMillis() / DAY;
+    }
+
+    /**
+     * Returns the cache key for the given rule context
+     */
+    public static String getKey(String locale, String catalogId, boolean isSearch, boolean isRuleBasedPage, String q,
+                                String categoryPath, String categoryFilterQuery, String brandId, boolean isOutletPage,
+                                Set<String> includeExperiments, Set<String> excludeExperiments) {
+        StringBuilder key = new StringBuilder();
+        key.append(locale).append('|').append(catalogId).append('|').append(isSearch).append('|')
+           .append(isRuleBasedPage).append('|').append(q != null? q.toLowerCase() : null).append('|')
+           .append(categoryPath).append('|').append(categoryFilterQuery).append('|').append(brandId).append('|')
+           .append(isOutletPage).append('|').append(new TreeSet<String>(includeExperiments)).append('|')
+           .append(new TreeSet<String>(excludeExperiments));
+        return key.toString();
+    }
+
+    /**
+     * Returns the rules for the given key or null if they are not cached
+     */
+    public Entry get(String key) {
+        Entry entry;
+
+        synchronized (entries) {
+            expire();
+            entry = entries.get(key);
+        }
+
+        if (entry != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return entry;
+    }
+
+    /**
+     * @return the current generation of the cache, to be passed to put once the rules are loaded
+     */
+    public long getGeneration() {
+        synchronized (entries) {
+            expire();
+            return generation;
+        }
+    }
+
+    /**
+     * Caches the rules for the given key, unless the cache was cleared since the given generation
+     * @param key is the rule context key
+     * @param generation is the generation of the cache before the rules were loaded
+     * @param rules are the resolved rules by type
+     * @param ruleDocs are the rule documents by rule id
+     * @param time is the time it took to load the rules, in milliseconds
+     * @return true if the rules were cached, otherwise false
+     */
+    public boolean put(String key, long generation, Map<String, List<RepositoryItem>> rules, Map<String, SolrDocument> ruleDocs, long time) {
+        loadTime.addAndGet(time);
+
+        synchronized (entries) {
+            expire();
+            if (generation != this.generation) {
+                return false;
+            }
+            entries.put(key, new Entry(rules, ruleDocs));
+            return true;
+        }
+    }
+
+    private void expire() {
+        long currentDay = currentDay();
+
+        if (currentDay != day) {
+            entries.clear();
+            generation++;
+            day = currentDay;
+        }
+    }
+
+    /**
+     * Removes all the rules from the cache
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            generation++;
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the ratio of lookups that found the rules in the cache
+     */
+    public double getHitRatio() {
+        long hits = this.hits.get();
+        long lookups = hits + misses.get();
+        return lookups > 0? (double) hits / lookups : 0.0;
+    }
+
+    /**
+     * @return the average time to load the rules on a cache miss, in milliseconds
+     */
+    public double getAverageLoadTime() {
+        long misses = this.misses.get();
+        return misses > 0? (double) loadTime.get() / misses : 0.0;
+    }
+}
@@ -72,6 +72,9 @@ public class RuleManager<T extends SolrServer> {
     private Map<String, List<RepositoryItem>> rules;
     private Map<String, SolrDocument> ruleDocs;
     private Map<String, String> strengthMap;
+    private RuleSnapshot ruleSnapshot;
+    private RuleCache ruleCache;
+    private String ruleCacheLocale;
 
     /**
      * The time it took to load rules from Solr
@@ -95,7 +98,7 @@ public class RuleManager<T extends SolrServer> {
                         facetManager.clear();
                     }
 
-                    List<RepositoryItem> facets = (List<RepositoryItem>) rule.getPropertyValue(FacetRuleProperty.FACETS);
+                    List<RepositoryItem> facets = manager.getFacets(rule);
                     if (facets != null) {
                         for (RepositoryItem facet : facets) {
                             facetManager.addFacet(facet);
@@ -114,13 +117,11 @@ public class RuleManager<T extends SolrServer> {
                 }
 
                 for (RepositoryItem rule : rules) {
-                    @SuppressWarnings("unchecked")
-                    List<RepositoryItem> products = (List<RepositoryItem>) rule
-                            .getPropertyValue(BoostRuleProperty.BOOSTED_PRODUCTS);
-                    if (products != null && products.size() > 0) {
+                    List<String> productIds = manager.getBoostedProductIds(rule);
+                    if (productIds.size() > 0) {
                         StringBuilder b = new StringBuilder("fixedBoost(productId,");
-                        for (RepositoryItem product : products) {
-                            b.append("'").append(product.getRepositoryId()).append("',");
+                        for (String productId : productIds) {
+                            b.append("'").append(productId).append("',");
                         }
                         b.setLength(b.length() - 1);
                         b.append(")");
@@ -137,14 +138,8 @@ public class RuleManager<T extends SolrServer> {
             void setParams(RuleManager manager, SolrQuery query, List<RepositoryItem> rules, Map<String, SolrDocument> ruleDocs) {
 
                 for (RepositoryItem rule : rules) {
-                    @SuppressWarnings("unchecked")
-                    Set<RepositoryItem> products = (Set<RepositoryItem>) rule
-                            .getPropertyValue(BlockRuleProperty.BLOCKED_PRODUCTS);
-
-                    if (products != null) {
-                        for (RepositoryItem product : products) {
-                            query.addFilterQuery("-productId:" + product.getRepositoryId());
-                        }
+                    for (String productId : manager.getBlockedProductIds(rule)) {
+                        query.addFilterQuery("-productId:" + productId);
                     }
                 }
 
@@ -206,6 +201,41 @@ public class RuleManager<T extends SolrServer> {
         return facetManager;
     }
 
+    /**
+     * Returns a rule manager with only the facets of this one. Used to keep a response after the search (i.e. in the
+     * response cache) without holding on to the rules, the rule documents and the server
+     */
+    RuleManager<T> copyFacets() {
+        RuleManager<T> copy = new RuleManager<T>(null, null, null);
+        copy.facetManager = facetManager;
+        copy.ruleSnapshot = ruleSnapshot;
+        return copy;
+    }
+
+    public RuleSnapshot getRuleSnapshot() {
+        return ruleSnapshot;
+    }
+
+    /**
+     * Sets the rule snapshot used to resolve the rules returned by the rules collection and the properties of their
+     * facets. Rules missing in the snapshot are loaded from the repository
+     */
+    public void setRuleSnapshot(RuleSnapshot ruleSnapshot) {
+        this.ruleSnapshot = ruleSnapshot;
+        facetManager.setRuleSnapshot(ruleSnapshot);
+    }
+
+    /**
+     * Sets the cache used to reuse the rules resolved for the same rule context
+     *
+     * @param ruleCache is the rule cache
+     * @param locale is the locale of the rules collection, part of the cache key
+     */
+    public void setRuleCache(RuleCache ruleCache, String locale) {
+        this.ruleCache = ruleCache;
+        this.ruleCacheLocale = locale;
+    }
+
     public Map<String, List<RepositoryItem>> getRules() {
         return rules;
     }
@@ -290,8 +320,7 @@ public class RuleManager<T extends SolrServer> {
                     continue;
                 }
 
-                RepositoryItem rule = searchRepository.getItem((String) doc.getFieldValue("id"),
-                        SearchRepositoryItemDescriptor.RULE);
+                RepositoryItem rule = getRuleItem((String) doc.getFieldValue("id"));
 
                 //for rule based categories, include all facet rules and ranking rules of only that category
                 if (rule != null) {
@@ -305,7 +334,7 @@ public class RuleManager<T extends SolrServer> {
                         continue;
                     }
                     
-                    String ruleType = (String) rule.getPropertyValue(RuleProperty.RULE_TYPE);
+                    String ruleType = getRuleType(rule);
                     if(ruleType.equals(RuleProperty.TYPE_FACET_RULE)) {
                         buildRuleLists(ruleType, rule, doc);
                     }
@@ -336,6 +365,79 @@ public class RuleManager<T extends SolrServer> {
         loadRulesTime = queryTime;
     }
 
+    /**
+     * Returns the rule with the given id, from the rule snapshot if any
+     */
+    private RepositoryItem getRuleItem(String id) throws RepositoryException {
+        RuleSnapshot.Rule rule = getSnapshotRule(id);
+        if (rule != null) {
+            return rule.getItem();
+        }
+        return searchRepository.getItem(id, SearchRepositoryItemDescriptor.RULE);
+    }
+
+    private RuleSnapshot.Rule getSnapshotRule(String id) {
+        return ruleSnapshot != null? ruleSnapshot.getRule(id) : null;
+    }
+
+    String getRuleType(RepositoryItem rule) {
+        RuleSnapshot.Rule snapshotRule = getSnapshotRule(rule.getRepositoryId());
+        if (snapshotRule != null) {
+            return snapshotRule.getRuleType();
+        }
+        return (String) rule.getPropertyValue(RuleProperty.RULE_TYPE);
+    }
+
+    @SuppressWarnings("unchecked")
+    List<String> getBoostedProductIds(RepositoryItem rule) {
+        RuleSnapshot.Rule snapshotRule = getSnapshotRule(rule.getRepositoryId());
+        if (snapshotRule != null) {
+            return snapshotRule.getBoostedProductIds();
+        }
+        return getIds((Collection<RepositoryItem>) rule.getPropertyValue(BoostRuleProperty.BOOSTED_PRODUCTS));
+    }
+
+    @SuppressWarnings("unchecked")
+    List<String> getBlockedProductIds(RepositoryItem rule) {
+        RuleSnapshot.Rule snapshotRule = getSnapshotRule(rule.getRepositoryId());
+        if (snapshotRule != null) {
+            return snapshotRule.getBlockedProductIds();
+        }
+        return getIds((Collection<RepositoryItem>) rule.getPropertyValue(BlockRuleProperty.BLOCKED_PRODUCTS));
+    }
+
+    @SuppressWarnings("unchecked")
+    List<RepositoryItem> getFacets(RepositoryItem rule) {
+        RuleSnapshot.Rule snapshotRule = getSnapshotRule(rule.getRepositoryId());
+        if (snapshotRule != null) {
+            return snapshotRule.getFacets();
+        }
+        return (List<RepositoryItem>) rule.getPropertyValue(FacetRuleProperty.FACETS);
+    }
+
+    /**
+     * Returns the url of the given redirect rule
+     */
+    public String getRedirectUrl(RepositoryItem rule) {
+        RuleSnapshot.Rule snapshotRule = getSnapshotRule(rule.getRepositoryId());
+        if (snapshotRule != null) {
+            return snapshotRule.getRedirectUrl();
+        }
+        return (String) rule.getPropertyValue(RedirectRuleProperty.URL);
+    }
+
+    private static List<String> getIds(Collection<RepositoryItem> items) {
+        if (items == null) {
+            return Collections.emptyList();
+        }
+
+        List<String> ids = new ArrayList<String>(items.size());
+        for (RepositoryItem item : items) {
+            ids.add(item.getRepositoryId());
+        }
+        return ids;
+    }
+
     /**
      * Gets the target filter
      * @param reusableStringBuilder String builder to put data into
@@ -485,7 +587,25 @@ public class RuleManager<T extends SolrServer> {
             if(excludeExp != null) {
                 excludeExperiments = new HashSet<String>(Arrays.asList(excludeExp));
             }
-            loadRules(query.getQuery(), categoryPath, categoryFilterQuery, isSearch, isRuleBasedPage, catalog, isOutletPage, brandId, includeExperiments, excludeExperiments);
+            if (ruleCache != null) {
+                String key = RuleCache.getKey(ruleCacheLocale, catalog.getRepositoryId(), isSearch, isRuleBasedPage, query.getQuery(),
+                        categoryPath, categoryFilterQuery, brandId, isOutletPage, includeExperiments, excludeExperiments);
+                RuleCache.Entry entry = ruleCache.get(key);
+
+                if (entry != null) {
+                    rules = entry.getRules();
+                    ruleDocs = entry.getRuleDocs();
+                    loadRulesTime = 0;
+                } else {
+                    long startTime = System.currentTimeMillis();
+                    // rules loaded while the cache is cleared (i.e. a deployment) are not cached
+                    long generation = ruleCache.getGeneration();
+                    loadRules(query.getQuery(), categoryPath, categoryFilterQuery, isSearch, isRuleBasedPage, catalog, isOutletPage, brandId, includeExperiments, excludeExperiments);
+                    ruleCache.put(key, generation, rules, ruleDocs, System.currentTimeMillis() - startTime);
+                }
+            } else {
+                loadRules(query.getQuery(), categoryPath, categoryFilterQuery, isSearch, isRuleBasedPage, catalog, isOutletPage, brandId, includeExperiments, excludeExperiments);
+            }
         }
         setRuleParams(query, getRules());
         setFilterQueries(filterQueries, catalog.getRepositoryId(), query);
@@ -557,19 +677,15 @@ public class RuleManager<T extends SolrServer> {
                     query.setFacetPrefix("category", category);
                 }
             }
-            RepositoryItem facetItem = getFacetManager().getFacetItem(filterQuery.getFieldName());
-            if (facetItem != null) {
-                Boolean isMultiSelect = (Boolean) facetItem.getPropertyValue(FacetProperty.IS_MULTI_SELECT);
-                if (isMultiSelect != null && isMultiSelect) {
-                    //query.addFilterQuery( +  + + filterQuery);
-                    Set<String> expressions = multiExpressionFilters.get(filterQuery.getFieldName());
-                    if (expressions == null) {
-                        expressions = new HashSet<String>();
-                        multiExpressionFilters.put(filterQuery.getFieldName(), expressions);
-                    }
-                    expressions.add(filterQuery.getExpression());
-                    continue;
+            if (getFacetManager().isMultiSelectFacet(filterQuery.getFieldName())) {
+                //query.addFilterQuery( +  + + filterQuery);
+                Set<String> expressions = multiExpressionFilters.get(filterQuery.getFieldName());
+                if (expressions == null) {
+                    expressions = new HashSet<String>();
+                    multiExpressionFilters.put(filterQuery.getFieldName(), expressions);
                 }
+                expressions.add(filterQuery.getExpression());
+                continue;
             }
             query.addFilterQuery(filterQuery.toString());
         }
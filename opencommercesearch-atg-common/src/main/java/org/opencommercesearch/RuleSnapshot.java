@@ -0,0 +1,274 @@
+package org.opencommercesearch;
+
+/*
+* Licensed to OpenCommerceSearch under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. OpenCommerceSearch licenses this
+* file to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.opencommercesearch.repository.BlockRuleProperty;
+import org.opencommercesearch.repository.BoostRuleProperty;
+import org.opencommercesearch.repository.FacetProperty;
+import org.opencommercesearch.repository.FacetRuleProperty;
+import org.opencommercesearch.repository.FieldFacetProperty;
+import org.opencommercesearch.repository.QueryFacetProperty;
+import org.opencommercesearch.repository.RangeFacetProperty;
+import org.opencommercesearch.repository.RedirectRuleProperty;
+import org.opencommercesearch.repository.RuleProperty;
+import org.opencommercesearch.repository.SearchRepositoryItemDescriptor;
+
+import atg.repository.Repository;
+import atg.repository.RepositoryException;
+import atg.repository.RepositoryItem;
+import atg.repository.RepositoryView;
+import atg.repository.rql.RqlStatement;
+
+/**
+ * Immutable snapshot of all the rules in the search repository. The snapshot is loaded in bulk, and everything the
+ * rule manager needs to set the rule params is read once per rule: the rule type, the boosted and blocked product ids,
+ * the facets and the redirect url. The properties of the rule facets read by the facet manager are copied too. With
+ * a snapshot, resolving the rules for a request never goes to the repository, so a cold item cache (i.e. after a
+ * deployment) doesn't slow down searches.
+ *
+ * Rules created after the snapshot was loaded are not in the snapshot. The rule manager falls back to the repository
+ * for those until a new snapshot is loaded.
+ */
+public class RuleSnapshot {
+
+    private static final String[] FACET_PROPERTIES = {
+        FacetProperty.TYPE, FacetProperty.FIELD, FacetProperty.NAME, FacetProperty.IS_MULTI_SELECT,
+        FacetProperty.IS_MIXED_SORTING, FacetProperty.UI_TYPE, FacetProperty.MIN_BUCKETS, FacetProperty.BLACKLIST
+    };
+    private static final String[] FIELD_FACET_PROPERTIES = {
+        FieldFacetProperty.LIMIT, FieldFacetProperty.MIN_COUNT, FieldFacetProperty.SORT, FieldFacetProperty.MISSING
+    };
+    private static final String[] RANGE_FACET_PROPERTIES = {
+        RangeFacetProperty.START, RangeFacetProperty.END, RangeFacetProperty.GAP, RangeFacetProperty.HARDENED
+    };
+    private static final String[] QUERY_FACET_PROPERTIES = {
+        QueryFacetProperty.QUERIES
+    };
+
+    private final Map<String, Rule> rules;
+    private final Map<String, Map<String, Object>> facetProperties;
+    private final long loadTime;
+
+    /**
+     * The data of a single rule in the snapshot
+     */
+    public static class Rule {
+        private final RepositoryItem item;
+        private final String ruleType;
+        private final List<String> boostedProductIds;
+        private final List<String> blockedProductIds;
+        private final List<RepositoryItem> facets;
+        private final String redirectUrl;
+
+        Rule(RepositoryItem item, String ruleType, List<String> boostedProductIds, List<String> blockedProductIds,
+             List<RepositoryItem> facets, String redirectUrl) {
+            this.item = item;
+            this.ruleType = ruleType;
+            this.boostedProductIds = boostedProductIds;
+            this.blockedProductIds = blockedProductIds;
+            this.facets = facets;
+            this.redirectUrl = redirectUrl;
+        }
+
+        public RepositoryItem getItem() {
+            return item;
+        }
+
+        public String getRuleType() {
+            return ruleType;
+        }
+
+        public List<String> getBoostedProductIds() {
+            return boostedProductIds;
+        }
+
+        public List<String> getBlockedProductIds() {
+            return blockedProductIds;
+        }
+
+        public List<RepositoryItem> getFacets() {
+            return facets;
+        }
+
+        public String getRedirectUrl() {
+            return redirectUrl;
+        }
+    }
+
+    RuleSnapshot(Map<String, Rule> rules, long loadTime) {
+        this(rules, Collections.<String, Map<String, Object>>emptyMap(), loadTime);
+    }
+
+    RuleSnapshot(Map<String, Rule> rules, Map<String, Map<String, Object>> facetProperties, long loadTime) {
+        this.rules = Collections.unmodifiableMap(rules);
+        this.facetProperties = Collections.unmodifiableMap(facetProperties);
+        this.loadTime = loadTime;
+    }
+
+    /**
+     * Loads all the rules in the search repository
+     *
+     * @param repository is the search repository
+     * @param countRql is the statement to count the rules
+     * @param rql is the statement to load a batch of rules, with the start and batch size as arguments
+     * @param batchSize is the number of rules loaded at once
+     * @return the rule snapshot
+     * @throws RepositoryException if the rules can't be loaded
+     */
+    public static RuleSnapshot load(Repository repository, RqlStatement countRql, RqlStatement rql, int batchSize)
+            throws RepositoryException {
+        long startTime = System.currentTimeMillis();
+        RepositoryView view = repository.getView(SearchRepositoryItemDescriptor.RULE);
+        int count = countRql.executeCountQuery(view, null);
+        Map<String, Rule> rules = new HashMap<String, Rule>(count);
+        Map<String, Map<String, Object>> facetProperties = new HashMap<String, Map<String, Object>>();
+        Object[] rqlArgs = new Object[] { 0, batchSize };
+
+        for (int start = 0; start < count; start += batchSize) {
+            rqlArgs[0] = start;
+            RepositoryItem[] items = rql.executeQueryUncached(view, rqlArgs);
+
+            if (items == null || items.length == 0) {
+                break;
+            }
+            for (RepositoryItem item : items) {
+                Rule rule = createRule(item);
+                rules.put(item.getRepositoryId(), rule);
+
+                for (RepositoryItem facet : rule.getFacets()) {
+                    if (!facetProperties.containsKey(facet.getRepositoryId())) {
+                        facetProperties.put(facet.getRepositoryId(), copyFacetProperties(facet));
+                    }
+                }
+            }
+        }
+        return new RuleSnapshot(rules, facetProperties, startTime);
+    }
+
+    @SuppressWarnings("unchecked")
+    static Rule createRule(RepositoryItem item) {
+        String ruleType = (String) item.getPropertyValue(RuleProperty.RULE_TYPE);
+        List<String> boostedProductIds = Collections.emptyList();
+        List<String> blockedProductIds = Collections.emptyList();
+        List<RepositoryItem> facets = Collections.emptyList();
+        String redirectUrl = null;
+
+        if (RuleProperty.TYPE_BOOST_RULE.equals(ruleType)) {
+            boostedProductIds = getIds((Collection<RepositoryItem>) item.getPropertyValue(BoostRuleProperty.BOOSTED_PRODUCTS));
+        } else if (RuleProperty.TYPE_BLOCK_RULE.equals(ruleType)) {
+            blockedProductIds = getIds((Collection<RepositoryItem>) item.getPropertyValue(BlockRuleProperty.BLOCKED_PRODUCTS));
+        } else if (RuleProperty.TYPE_FACET_RULE.equals(ruleType)) {
+            List<RepositoryItem> ruleFacets = (List<RepositoryItem>) item.getPropertyValue(FacetRuleProperty.FACETS);
+            if (ruleFacets != null) {
+                facets = Collections.unmodifiableList(new ArrayList<RepositoryItem>(ruleFacets));
+            }
+        } else if (RuleProperty.TYPE_REDIRECT_RULE.equals(ruleType)) {
+            redirectUrl = (String) item.getPropertyValue(RedirectRuleProperty.URL);
+        }
+
+        return new Rule(item, ruleType, boostedProductIds, blockedProductIds, facets, redirectUrl);
+    }
+
+    /**
+     * Copies the properties of the given facet read by the facet manager, so they are not read from the item for
+     * every request
+     */
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> copyFacetProperties(RepositoryItem facet) {
+        Map<String, Object> properties = new HashMap<String, Object>();
+        copyProperties(facet, FACET_PROPERTIES, properties);
+
+        String type = (String) properties.get(FacetProperty.TYPE);
+        if (SearchRepositoryItemDescriptor.FIELD_FACET.equals(type)) {
+            copyProperties(facet, FIELD_FACET_PROPERTIES, properties);
+        } else if (SearchRepositoryItemDescriptor.RANGE_FACET.equals(type)) {
+            copyProperties(facet, RANGE_FACET_PROPERTIES, properties);
+        } else if (SearchRepositoryItemDescriptor.QUERY_FACET.equals(type)) {
+            copyProperties(facet, QUERY_FACET_PROPERTIES, properties);
+        }
+
+        Set<String> blacklist = (Set<String>) properties.get(FacetProperty.BLACKLIST);
+        if (blacklist != null) {
+            properties.put(FacetProperty.BLACKLIST, Collections.unmodifiableSet(new HashSet<String>(blacklist)));
+        }
+        List<String> queries = (List<String>) properties.get(QueryFacetProperty.QUERIES);
+        if (queries != null) {
+            properties.put(QueryFacetProperty.QUERIES, Collections.unmodifiableList(new ArrayList<String>(queries)));
+        }
+        return Collections.unmodifiableMap(properties);
+    }
+
+    private static void copyProperties(RepositoryItem item, String[] propertyNames, Map<String, Object> properties) {
+        for (String propertyName : propertyNames) {
+            properties.put(propertyName, item.getPropertyValue(propertyName));
+        }
+    }
+
+    private static List<String> getIds(Collection<RepositoryItem> items) {
+        if (items == null || items.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<String> ids = new ArrayList<String>(items.size());
+        for (RepositoryItem item : items) {
+            ids.add(item.getRepositoryId());
+        }
+        return Collections.unmodifiableList(ids);
+    }
+
+    /**
+     * @param id is the rule id
+     * @return the rule with the given id or null if the rule is not in the snapshot
+     */
+    public Rule getRule(String id) {
+        return rules.get(id);
+    }
+
+    /**
+     * @param facetId is the facet id
+     * @return the properties copied from the facet with the given id or null if the facet is not in the snapshot
+     */
+    public Map<String, Object> getFacetProperties(String facetId) {
+        return facetProperties.get(facetId);
+    }
+
+    /**
+     * @return the number of rules in the snapshot
+     */
+    public int size() {
+        return rules.size();
+    }
+
+    /**
+     * @return the time the snapshot started loading
+     */
+    public long getLoadTime() {
+        return loadTime;
+    }
+}
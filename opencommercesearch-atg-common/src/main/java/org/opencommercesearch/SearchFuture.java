@@ -0,0 +1,87 @@
+package org.opencommercesearch;
+
+/*
+* Licensed to OpenCommerceSearch under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. OpenCommerceSearch licenses this
+* file to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+import static org.opencommercesearch.SearchServerException.create;
+import static org.opencommercesearch.SearchServerException.Code.SEARCH_EXCEPTION;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Future of an asynchronous search or browse. Waiting with {@link #get()} is bounded by the timeout of the call: once
+ * exceeded, the search is cancelled and get fails with a {@link SearchServerException}, like any other search failure.
+ * The cause of the ExecutionException is always the SearchServerException.
+ */
+public class SearchFuture implements Future<SearchResponse> {
+
+    private final Future<SearchResponse> future;
+    private final long timeout;
+
+    /**
+     * @param future is the future of the search running in the background
+     * @param timeout is the maximum time to wait for the search in milliseconds. Zero or a negative value means no limit
+     */
+    SearchFuture(Future<SearchResponse> future, long timeout) {
+        this.future = future;
+        this.timeout = timeout;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return future.cancel(mayInterruptIfRunning);
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return future.isCancelled();
+    }
+
+    @Override
+    public boolean isDone() {
+        return future.isDone();
+    }
+
+    @Override
+    public SearchResponse get() throws InterruptedException, ExecutionException {
+        return unwrap(future, timeout);
+    }
+
+    @Override
+    public SearchResponse get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException {
+        return unwrap(future, unit.toMillis(timeout));
+    }
+
+    private static SearchResponse unwrap(Future<SearchResponse> future, long timeout) throws InterruptedException, ExecutionException {
+        try {
+            return timeout > 0? future.get(timeout, TimeUnit.MILLISECONDS) : future.get();
+        } catch (TimeoutException ex) {
+            future.cancel(true);
+            throw new ExecutionException(create(SEARCH_EXCEPTION, ex));
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof SearchServerException) {
+                throw ex;
+            }
+            throw new ExecutionException(create(SEARCH_EXCEPTION, ex.getCause()));
+        }
+    }
+}
@@ -32,9 +32,16 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.response.FacetField;
 import org.apache.solr.client.solrj.response.FacetField.Count;
+import org.apache.solr.client.solrj.response.Group;
+import org.apache.solr.client.solrj.response.GroupCommand;
+import org.apache.solr.client.solrj.response.GroupResponse;
 import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.client.solrj.response.RangeFacet;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.ExpandParams;
 import org.apache.solr.common.params.FacetParams;
+import org.apache.solr.common.util.NamedList;
 import org.apache.log4j.Logger;
 import org.opencommercesearch.client.impl.Facet.Filter;
 import org.opencommercesearch.client.impl.Facet;
@@ -54,6 +61,7 @@ public class SearchResponse {
 
     private SolrQuery query;
     private QueryResponse queryResponse;
+    private GroupResponse groupResponse;
     private RuleManager ruleManager;
     private FacetManager facetManager;
     private FilterQuery[] filterQueries;
@@ -79,6 +87,69 @@ public class SearchResponse {
         return queryResponse;
     }
 
+    /**
+     * Returns the results grouped by product. If the results were collapsed instead of grouped, the groups are created
+     * from the collapsed products and their expanded skus, so callers get the same groups in both modes. For collapsed
+     * results, the number of matches is the number of groups.
+     */
+    public GroupResponse getGroupResponse() {
+        if (queryResponse == null || queryResponse.getGroupResponse() != null || !isCollapsed()) {
+            return queryResponse != null? queryResponse.getGroupResponse() : null;
+        }
+
+        if (groupResponse == null) {
+            groupResponse = createGroupResponse();
+        }
+        return groupResponse;
+    }
+
+    private boolean isCollapsed() {
+        return query != null && query.getBool("expandall", false) && query.get(ExpandParams.EXPAND_FIELD) != null
+                && queryResponse.getResults() != null;
+    }
+
+    private GroupResponse createGroupResponse() {
+        String field = query.get(ExpandParams.EXPAND_FIELD);
+        SolrDocumentList results = queryResponse.getResults();
+        int groupCount = (int) results.getNumFound();
+        GroupCommand command = new GroupCommand(field, groupCount, groupCount);
+        Object expanded = queryResponse.getResponse().get("expanded");
+
+        for (SolrDocument doc : results) {
+            Object value = doc.getFieldValue(field);
+            String groupValue = value != null? value.toString() : null;
+            SolrDocumentList docs = getExpandedDocs(expanded, groupValue);
+
+            if (docs == null) {
+                // the expanded groups include the collapsed document, this is just in case the group wasn't expanded
+                docs = new SolrDocumentList();
+                docs.add(doc);
+                docs.setNumFound(1);
+            }
+            command.add(new Group(groupValue, docs));
+        }
+
+        GroupResponse groupResponse = new GroupResponse();
+        groupResponse.add(command);
+        return groupResponse;
+    }
+
+    @SuppressWarnings("unchecked")
+    private SolrDocumentList getExpandedDocs(Object expanded, String groupValue) {
+        if (groupValue == null) {
+            return null;
+        }
+
+        // binary responses have a map, xml responses a named list
+        if (expanded instanceof Map) {
+            return (SolrDocumentList) ((Map<String, Object>) expanded).get(groupValue);
+        }
+        if (expanded instanceof NamedList) {
+            return (SolrDocumentList) ((NamedList<Object>) expanded).get(groupValue);
+        }
+        return null;
+    }
+
     public RuleManager getRuleManager() {
         return ruleManager;
     }
@@ -124,12 +195,13 @@ public class SearchResponse {
         }
     }
 
-    private Set<String> getFacetBlacklist (String facetName) {
+    Set<String> getFacetBlacklist (String facetName) {
         HashSet<String> blackList = new HashSet<String>();
 
-            RepositoryItem facetItem =  getRuleManager().getFacetManager().getFacetItem(facetName);
+            FacetManager manager = getRuleManager().getFacetManager();
+            RepositoryItem facetItem = manager.getFacetItem(facetName);
             if (facetItem != null) {
-                Set<String> facetBlacklist = (Set<String>) facetItem.getPropertyValue(FacetProperty.BLACKLIST);
+                Set<String> facetBlacklist = (Set<String>) manager.getPropertyValue(facetItem, FacetProperty.BLACKLIST);
                 if (facetBlacklist != null && facetBlacklist.size() > 0) {
                     blackList.addAll(facetBlacklist);
                 }
@@ -239,10 +311,10 @@ public class SearchResponse {
             
             if (prevCount != null) {
                 RepositoryItem facetItem = manager.getFacetItem(range.getName());
-                Boolean hardened = (Boolean) facetItem.getPropertyValue(RangeFacetProperty.HARDENED);
-                Integer value2 = (Integer) facetItem.getPropertyValue(RangeFacetProperty.END);
+                Boolean hardened = (Boolean) manager.getPropertyValue(facetItem, RangeFacetProperty.HARDENED);
+                Integer value2 = (Integer) manager.getPropertyValue(facetItem, RangeFacetProperty.END);
                 if (hardened == null || !hardened) {
-                    Integer gap = (Integer) facetItem.getPropertyValue(RangeFacetProperty.GAP);
+                    Integer gap = (Integer) manager.getPropertyValue(facetItem, RangeFacetProperty.GAP);
                     value2 = Math.round(Float.parseFloat(prevCount.getValue()));
                     value2 += gap;
                 }
@@ -266,7 +338,7 @@ public class SearchResponse {
         }
         FacetManager manager = getRuleManager().getFacetManager();
         RepositoryItem item = manager.getFacetItem(range.getName());
-        Integer rangeStart = (Integer) item.getPropertyValue(RangeFacetProperty.START);
+        Integer rangeStart = (Integer) manager.getPropertyValue(item, RangeFacetProperty.START);
 
         return createRangeFilter(range.getName(), Utils.RESOURCE_BEFORE, "*", rangeStart.toString(), range.getBefore()
                 .intValue());
@@ -278,7 +350,7 @@ public class SearchResponse {
         }
         FacetManager manager = getRuleManager().getFacetManager();
         RepositoryItem item = manager.getFacetItem(range.getName());
-        Integer rangeEnd = (Integer) item.getPropertyValue(RangeFacetProperty.END);
+        Integer rangeEnd = (Integer) manager.getPropertyValue(item, RangeFacetProperty.END);
 
         return createRangeFilter(range.getName(), Utils.RESOURCE_AFTER, rangeEnd.toString(), "*", range.getAfter()
                 .intValue());
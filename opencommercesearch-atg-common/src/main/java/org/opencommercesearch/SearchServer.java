@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.util.Collection;
 import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.Future;
 
 import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.request.DocumentAnalysisRequest;
@@ -68,6 +69,16 @@ public interface SearchServer {
     SearchResponse search(SolrQuery query, Site site, RepositoryItem catalog, Locale locale, FilterQuery... filterQueries)
              throws SearchServerException;
 
+    /**
+     * Asynchronous versions of browse and search. The site is required because the current site is bound to the
+     * request thread. The search fails with a SearchServerException, as the cause of the ExecutionException, if
+     * it doesn't finish within the async timeout of the server.
+     */
+    Future<SearchResponse> browseAsync(BrowseOptions options, SolrQuery query, Site site, Locale locale, FilterQuery... filterQueries);
+
+    Future<SearchResponse> searchAsync(SolrQuery query, Site site, Locale locale, FilterQuery... filterQueries);
+    Future<SearchResponse> searchAsync(SolrQuery query, Site site, RepositoryItem catalog, Locale locale, FilterQuery... filterQueries);
+
     Facet getFacet(Site site, Locale locale, String fieldFacet, int facetLimit, int depthLimit, String separator, FilterQuery... filterQueries) throws SearchServerException;
     
     QueryResponse query(SolrQuery solrQuery,  String collection, Locale locale) throws SearchServerException;
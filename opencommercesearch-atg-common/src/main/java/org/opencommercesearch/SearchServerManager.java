@@ -25,6 +25,7 @@ import java.io.StringWriter;
 import java.util.Collection;
 import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.Future;
 import java.util.logging.LogManager;
 import java.util.logging.Logger;
 
@@ -400,6 +401,16 @@ public class SearchServerManager {
             return server.search(query, site, catalog, locale, filterQueries);
         }
 
+        @Override
+        public Future<SearchResponse> searchAsync(SolrQuery query, Site site, Locale locale, FilterQuery... filterQueries) {
+            return server.searchAsync(query, site, locale, filterQueries);
+        }
+
+        @Override
+        public Future<SearchResponse> searchAsync(SolrQuery query, Site site, RepositoryItem catalog, Locale locale, FilterQuery... filterQueries) {
+            return server.searchAsync(query, site, catalog, locale, filterQueries);
+        }
+
         @Override
         public UpdateResponse add(Collection<SolrInputDocument> docs) throws SearchServerException {
             throw new UnsupportedOperationException("Can't add a document to read only search server");
@@ -534,6 +545,11 @@ public class SearchServerManager {
             return server.browse(options, query, site, locale, filterQueries);
         }
 
+        @Override
+        public Future<SearchResponse> browseAsync(BrowseOptions options, SolrQuery query, Site site, Locale locale, FilterQuery... filterQueries) {
+            return server.browseAsync(options, query, site, locale, filterQueries);
+        }
+
         @Override
         public Facet getFacet(Site site, Locale locale, String fieldFacet, int facetLimit, int depthLimit, String separator, FilterQuery... filterQueries)  throws SearchServerException {
             return server.getFacet(site, locale, fieldFacet, facetLimit, depthLimit, separator, filterQueries);
@@ -21,6 +21,7 @@ package org.opencommercesearch.deployment;
 
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -220,13 +221,14 @@ public class IndexingDeploymentListener extends GenericService implements Deploy
             }
             if (affectedItemTypes != null) {
                 for (Entry<String, Set<String>> entry : affectedItemTypes.entrySet()) {
-                    String repositoryName = entry.getKey();
+                    final String repositoryName = entry.getKey();
                     Set<String> itemDescriptorNames = (Set<String>) entry.getValue();
 
                     boolean ruleRan = false;
                     boolean facetRan = false;
                     boolean categoryRan = false;
                     boolean genericRan = false;
+                    boolean notifySearchServer = false;
 
                     for (String itemDescriptorName : itemDescriptorNames) {
                         if (isLoggingInfo()) {
@@ -236,10 +238,14 @@ public class IndexingDeploymentListener extends GenericService implements Deploy
                         String descriptorName = repositoryName + ":" + itemDescriptorName;
                         if(!ruleRan && getRulesTriggerItemDescriptorNames().contains(descriptorName)) {
                         	ruleRan = true;
+                            final Set<String> ruleDescriptorNames = getTriggeredItemDescriptorNames(repositoryName,
+                                    itemDescriptorNames, getRulesTriggerItemDescriptorNames());
                             executor.execute(new Runnable() {
                                 public void run() {
                                     try {
                                         getRuleFeed().startFeed();
+                                        // the search server caches rules, they are stale once the feed is done
+                                        notifyItemChange(repositoryName, ruleDescriptorNames);
                                     }
                                     catch (Exception ex) {
                                         if(isLoggingError()) {
@@ -254,6 +260,7 @@ public class IndexingDeploymentListener extends GenericService implements Deploy
                             try {
                                 getFacetFeed().startFeed();
                                 facetRan = true;
+                                notifySearchServer = true;
                             }
                             catch (Exception ex) {
                                 if(isLoggingError()) {
@@ -266,6 +273,7 @@ public class IndexingDeploymentListener extends GenericService implements Deploy
                             try {
                                 categoryFeed.startFeed();
                                 categoryRan = true;
+                                notifySearchServer = true;
                             } catch (Exception ex) {
                                 if (isLoggingError()) {
                                     logError("Category feed failed", ex);
@@ -275,10 +283,14 @@ public class IndexingDeploymentListener extends GenericService implements Deploy
 
                         if(!genericRan && triggerItemDescriptorNames.contains(descriptorName)) {
                             doEvaluation = true;
-                            notifyItemChange(repositoryName, itemDescriptorNames);
+                            notifySearchServer = true;
                             genericRan = true;
                         }
                     }
+
+                    if (notifySearchServer) {
+                        notifyItemChange(repositoryName, itemDescriptorNames);
+                    }
                 }
             }
         }
@@ -294,6 +306,16 @@ public class IndexingDeploymentListener extends GenericService implements Deploy
         }
     }
 
+    private Set<String> getTriggeredItemDescriptorNames(String repositoryName, Set<String> itemDescriptorNames, List<String> triggerNames) {
+        Set<String> triggered = new HashSet<String>();
+        for (String itemDescriptorName : itemDescriptorNames) {
+            if (triggerNames.contains(repositoryName + ":" + itemDescriptorName)) {
+                triggered.add(itemDescriptorName);
+            }
+        }
+        return triggered;
+    }
+
     public void notifyItemChange(String repositoryName, Set<String> itemDescriptorNames) {
         if (isLoggingInfo()) {
             logInfo("Notifying search server of changes in repository " + repositoryName + " for item descriptors "
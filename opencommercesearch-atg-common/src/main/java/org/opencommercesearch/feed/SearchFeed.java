@@ -32,6 +32,7 @@ import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.util.ISO8601DateFormat;
 import org.apache.commons.lang.StringUtils;
+import org.opencommercesearch.SearchServer;
 import org.opencommercesearch.SearchServerException;
 import org.opencommercesearch.api.ProductService;
 import org.opencommercesearch.client.Product;
@@ -72,6 +73,7 @@ public abstract class SearchFeed extends GenericService {
 
     private static SendQueueItem POISON_PILL = new SendQueueItem();
 
+    private SearchServer searchServer;
     private Repository productRepository;
     private String productItemDescriptorName;
     private RqlStatement productCountRql;
@@ -107,6 +109,18 @@ public abstract class SearchFeed extends GenericService {
      */
     private int currentErrorThreshold;
 
+    public SearchServer getSearchServer() {
+        return searchServer;
+    }
+
+    /**
+     * Search server notified when a feed finishes, so it can discard any state that depends on the indexed products
+     * (i.e. cached responses). Optional
+     */
+    public void setSearchServer(SearchServer searchServer) {
+        this.searchServer = searchServer;
+    }
+
     public Repository getProductRepository() {
         return productRepository;
     }
@@ -742,6 +756,7 @@ public abstract class SearchFeed extends GenericService {
                 if(failedProductCount.get() < currentErrorThreshold) {
                     delete(feedTimestamp);
                     onFeedFinished(type, feedTimestamp);
+                    notifySearchServer();
 
                     if (isLoggingInfo()) {
                         logInfo("Full feed finished in " + ((System.currentTimeMillis() - startTime) / 1000) + " seconds, "
@@ -818,6 +833,28 @@ public abstract class SearchFeed extends GenericService {
      */
     protected abstract void onProductsSentError(FeedType type, long feedTimestamp, Locale locale, List<Product> productList, Response response);
 
+    /**
+     * Notifies the search server that the products changed
+     */
+    private void notifySearchServer() {
+        if (searchServer == null) {
+            return;
+        }
+
+        try {
+            searchServer.onRepositoryItemChanged(getProductRepository().getRepositoryName(),
+                    Collections.singleton(getProductItemDescriptorName()));
+        } catch (RepositoryException ex) {
+            if (isLoggingError()) {
+                logError("Unable to notify the search server that the feed finished", ex);
+            }
+        } catch (SearchServerException ex) {
+            if (isLoggingError()) {
+                logError("Unable to notify the search server that the feed finished", ex);
+            }
+        }
+    }
+
     /**
      * Fires an event when a feed finishes
      *
@@ -33,4 +33,9 @@ public class SearchRepositoryItemDescriptor {
     public static final String FACET_RULE = "facetRule";
     public static final String RANKING_RULE = "rankingRule";
     public static final String REDIRECT_RULE = "redirectRule";
+    public static final String FACET = "facet";
+    public static final String FIELD_FACET = "fieldFacet";
+    public static final String RANGE_FACET = "rangeFacet";
+    public static final String DATE_FACET = "dateFacet";
+    public static final String QUERY_FACET = "queryFacet";
 }
@@ -32,7 +32,13 @@ import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.request.UpdateRequest;
 import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.DisMaxParams;
 import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.handler.component.SpellCheckFallbackComponent;
+import org.apache.solr.search.QueryParsing;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
@@ -212,6 +218,7 @@ public class AbstractSearchServerUnitTest {
         when(query.getQuery()).thenReturn("my search term");
         when(query.getRows()).thenReturn(20);
         when(catalogServerEn.query(any(SolrParams.class))).thenReturn(catalogQueryResponse);
+        when(catalogQueryResponse.getResponse()).thenReturn(new NamedList<Object>());
         when(rulesServerEn.query(any(SolrParams.class))).thenReturn(rulesQueryResponse);
         when(catalogServerFr.query(any(SolrParams.class))).thenReturn(catalogQueryResponse);
         when(rulesServerFr.query(any(SolrParams.class))).thenReturn(rulesQueryResponse);
@@ -264,6 +271,21 @@ public class AbstractSearchServerUnitTest {
     	verifyNoMoreInteractions(rulesServerEn);
     	verifyNoMoreInteractions(rulesServerFr);
     }
+
+    @Test
+    public void testRuleSnapshotRetryDelay() throws Exception {
+        server.setRuleSnapshotEnabled(true);
+        when(rulesRqlCount.executeCountQuery(synonymListRepositoryView, null)).thenThrow(new RepositoryException("unavailable"));
+
+        // a failed snapshot is not loaded again by every request
+        assertNull(server.getRuleSnapshot());
+        assertNull(server.getRuleSnapshot());
+        verify(rulesRqlCount, times(1)).executeCountQuery(synonymListRepositoryView, null);
+
+        server.setRuleSnapshotRetryDelay(0);
+        assertNull(server.getRuleSnapshot());
+        verify(rulesRqlCount, times(2)).executeCountQuery(synonymListRepositoryView, null);
+    }
     
     private void verifyIndexedRules(int count, String... expectedRuleIds) throws SolrServerException, IOException {
 
@@ -309,27 +331,46 @@ public class AbstractSearchServerUnitTest {
     public void testFrenchLocaleSearch() throws SearchServerException, SolrServerException {
         server.search(query, site, getFrenchLocale());
         verify(catalogServerEn, times(0)).query(any(SolrParams.class));
-        verify(catalogServerFr, times(2)).query(any(SolrParams.class));
+        verify(catalogServerFr, times(1)).query(any(SolrParams.class));
     }
 
     @Test
     public void testEnglishLocaleSearch() throws SearchServerException, SolrServerException {
         server.search(query, site, getEnglishLocale());
-        verify(catalogServerEn, times(2)).query(any(SolrParams.class));
+        verify(catalogServerEn, times(1)).query(any(SolrParams.class));
         verify(catalogServerFr, times(0)).query(any(SolrParams.class));
     }
 
+    @Test
+    public void testSpellCheckFallback() throws SearchServerException, SolrServerException {
+        NamedList<Object> fallback = new SimpleOrderedMap<Object>();
+        fallback.add(CommonParams.Q, "my serch term");
+        fallback.add(QueryParsing.OP, "OR");
+        fallback.add(DisMaxParams.MM, "2<-1");
+        NamedList<Object> response = new NamedList<Object>();
+        response.add(SpellCheckFallbackComponent.CORRECTED_TERM, "my serch term");
+        response.add(SpellCheckFallbackComponent.MATCHES_ALL, false);
+        response.add(SpellCheckFallbackComponent.FALLBACK, fallback);
+        when(catalogQueryResponse.getResponse()).thenReturn(response);
+
+        SearchResponse searchResponse = server.search(query, site, getEnglishLocale());
+        assertEquals("my serch term", searchResponse.getCorrectedTerm());
+        verify(query).set(CommonParams.Q, "my serch term");
+        verify(query).set(QueryParsing.OP, "OR");
+        verify(query).set(DisMaxParams.MM, "2<-1");
+    }
+
     @Test
     public void testFrenchLocaleBrowse() throws SearchServerException, SolrServerException {
         server.browse(browseOptions, query, site, getFrenchLocale());
         verify(catalogServerEn, times(0)).query(any(SolrParams.class));
-        verify(catalogServerFr, times(2)).query(any(SolrParams.class));
+        verify(catalogServerFr, times(1)).query(any(SolrParams.class));
     }
 
     @Test
     public void testEnglishLocaleBrowse() throws SearchServerException, SolrServerException {
         server.browse(browseOptions, query, site, getEnglishLocale());
-        verify(catalogServerEn, times(2)).query(any(SolrParams.class));
+        verify(catalogServerEn, times(1)).query(any(SolrParams.class));
         verify(catalogServerFr, times(0)).query(any(SolrParams.class));
     }
 
@@ -406,4 +447,25 @@ public class AbstractSearchServerUnitTest {
         verifyNoMoreInteractions(query);
 
     }
+
+    @Test
+    public void testCollapse() {
+        List<SolrQuery.SortClause> clauses = Collections.emptyList();
+
+        when(query.getSorts()).thenReturn(clauses);
+        when(server.isGroupSortingEnabled()).thenReturn(true);
+        when(server.isCollapseEnabled()).thenReturn(true);
+
+        server.setGroupParams(query, getUSLocale());
+
+        verify(query).getSorts();
+        verify(query).remove("group");
+        verify(query).getFilterQueries();
+        verify(query).addFilterQuery("{!collapse field=productId}");
+        verify(query).set("expandall", true);
+        verify(query).set("expand.field", "productId");
+        verify(query).set("expand.rows", 50);
+        verify(query).set("expand.sort", "isCloseout asc, salePriceUS asc, sort asc, score desc");
+        verifyNoMoreInteractions(query);
+    }
 }
@@ -35,7 +35,9 @@ import org.mockito.Mock;
 import org.hamcrest.collection.IsIterableContainingInOrder;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
@@ -277,7 +279,24 @@ public class FacetManagerTest {
         when(count.getAsFilterQuery()).thenReturn(fieldName + ":" + name);
         return count;
     }
-	
+
+
+    @Test
+    public void testPropertiesFromRuleSnapshot() {
+        RepositoryItem snapshotFacet = mock(RepositoryItem.class);
+        when(snapshotFacet.getRepositoryId()).thenReturn("facet1");
+        Map<String, Map<String, Object>> facetProperties = Collections.singletonMap("facet1", RuleSnapshot.copyFacetProperties(rangeFacet));
+        manager.setRuleSnapshot(new RuleSnapshot(Collections.<String, RuleSnapshot.Rule>emptyMap(), facetProperties, System.currentTimeMillis()));
+
+        manager.addFacet(snapshotFacet);
+        manager.setParams(query);
+        verify(query).addNumericRangeFacet("rangeName", 0, 1000, 50);
+        assertEquals("rangeName", manager.getFacetName("rangeName"));
+        assertTrue(manager.isMultiSelectFacet("rangeName"));
+
+        // the facet properties come from the snapshot
+        verify(snapshotFacet, never()).getPropertyValue(anyString());
+    }	
 	private void addFacets(){		
 		manager.addFacet(fieldFacet);
 		manager.addFacet(rangeFacet);
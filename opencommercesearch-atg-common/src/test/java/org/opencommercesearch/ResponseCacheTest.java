@@ -0,0 +1,191 @@
+package org.opencommercesearch;
+
+/*
+* Licensed to OpenCommerceSearch under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. OpenCommerceSearch licenses this
+* file to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.Locale;
+
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.util.NamedList;
+import org.junit.Test;
+import org.opencommercesearch.repository.FieldFacetProperty;
+
+import atg.repository.RepositoryItem;
+
+public class ResponseCacheTest {
+
+    private BrowseOptions options = new BrowseOptions(false, true, false, false, 10, null, "cat1", "catalog.cat1", "catalog", -1, null);
+
+    private static SearchResponse response(SolrQuery query, String productId) {
+        return response(query, productId, null);
+    }
+
+    private static SearchResponse response(SolrQuery query, String productId, RuleManager ruleManager) {
+        SolrDocumentList docs = new SolrDocumentList();
+        SolrDocument doc = new SolrDocument();
+        doc.setField("productId", productId);
+        docs.add(doc);
+        docs.setNumFound(1);
+
+        NamedList<Object> res = new NamedList<Object>();
+        res.add("response", docs);
+        return new SearchResponse(query, new QueryResponse(res, null), ruleManager, new FilterQuery[] { new FilterQuery("brand", "1") },
+                null, "jacket", true);
+    }
+
+    @Test
+    public void testKey() {
+        SolrQuery query = new SolrQuery("jacket");
+        query.addFilterQuery("a:1", "b:2");
+        query.setRows(10);
+        SolrQuery sameQuery = new SolrQuery();
+        sameQuery.setRows(10);
+        sameQuery.addFilterQuery("a:1", "b:2");
+        sameQuery.setQuery("jacket");
+
+        String key = ResponseCache.getKey(query, "site1", Locale.US, options);
+        assertEquals(key, ResponseCache.getKey(sameQuery, "site1", Locale.US, options));
+        assertFalse(key.equals(ResponseCache.getKey(query, "site2", Locale.US, options)));
+        assertFalse(key.equals(ResponseCache.getKey(query, "site1", Locale.CANADA, options)));
+        assertFalse(key.equals(ResponseCache.getKey(query, "site1", Locale.US, options, new FilterQuery("brand", "1"))));
+
+        options.setOnSale(true);
+        assertFalse(key.equals(ResponseCache.getKey(query, "site1", Locale.US, options)));
+    }
+
+    @Test
+    public void testGetAndPut() {
+        ResponseCache cache = new ResponseCache(1024 * 1024, 0);
+        SolrQuery query = new SolrQuery("jacket");
+        query.setRows(10);
+
+        assertNull(cache.get("k1", null));
+        assertTrue(cache.put("k1", cache.getGeneration(), query, response(query, "PRD0001")));
+
+        SearchResponse hit = cache.get("k1", null);
+        assertNotNull(hit);
+        assertEquals("PRD0001", hit.getQueryResponse().getResults().get(0).getFieldValue("productId"));
+        assertEquals("jacket", hit.getCorrectedTerm());
+        assertTrue(hit.matchesAll());
+        assertEquals("brand:1", hit.getFilterQueries()[0].toString());
+
+        // changes to a response don't change the cached snapshot
+        hit.getQueryResponse().getResults().clear();
+        hit.getFilterQueries()[0].setExpression("2");
+        SearchResponse otherHit = cache.get("k1", null);
+        assertNotSame(hit.getQueryResponse(), otherHit.getQueryResponse());
+        assertEquals(1, otherHit.getQueryResponse().getResults().size());
+        assertEquals("brand:1", otherHit.getFilterQueries()[0].toString());
+
+        assertEquals(2.0 / 3, cache.getHitRatio(), 0.001);
+        assertTrue(cache.getBytes() > 0);
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getBytes());
+    }
+
+    @Test
+    public void testMaxBytes() {
+        SolrQuery query = new SolrQuery("jacket");
+        ResponseCache probe = new ResponseCache(Long.MAX_VALUE, 0);
+        probe.put("k1", probe.getGeneration(), query, response(query, "PRD0001"));
+        long size = probe.getBytes();
+
+        ResponseCache cache = new ResponseCache(size * 2, 0);
+        cache.put("k1", cache.getGeneration(), query, response(query, "PRD0001"));
+        cache.put("k2", cache.getGeneration(), query, response(query, "PRD0002"));
+        assertNotNull(cache.get("k1", null));
+        cache.put("k3", cache.getGeneration(), query, response(query, "PRD0003"));
+
+        // k2 is the least recently used
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertNull(cache.get("k2", null));
+        assertNotNull(cache.get("k1", null));
+        assertTrue(cache.getBytes() <= size * 2);
+
+        ResponseCache tinyCache = new ResponseCache(size - 1, 0);
+        assertFalse(tinyCache.put("k1", tinyCache.getGeneration(), query, response(query, "PRD0001")));
+        assertEquals(0, tinyCache.size());
+    }
+
+    @Test
+    public void testRuleManagerFacets() {
+        RepositoryItem facet = mock(RepositoryItem.class);
+        when(facet.getPropertyValue(FieldFacetProperty.FIELD)).thenReturn("brand");
+        RuleManager ruleManager = new RuleManager(null, null, null);
+        ruleManager.getFacetManager().addFacet(facet);
+        SolrQuery query = new SolrQuery("jacket");
+
+        ResponseCache noFacetsCache = new ResponseCache(1024 * 1024, 0);
+        noFacetsCache.put("k1", noFacetsCache.getGeneration(), query, response(query, "PRD0001"));
+        ResponseCache cache = new ResponseCache(1024 * 1024, 0);
+        cache.put("k1", cache.getGeneration(), query, response(query, "PRD0001", ruleManager));
+
+        // only the facets are kept, and they are part of the cache size
+        SearchResponse hit = cache.get("k1", null);
+        assertNotSame(ruleManager, hit.getRuleManager());
+        assertSame(facet, hit.getRuleManager().getFacetManager().getFacetItem("brand"));
+        assertNull(hit.getRuleManager().getRules());
+        assertTrue(cache.getBytes() > noFacetsCache.getBytes());
+    }
+
+    @Test
+    public void testTtl() {
+        final long[] time = new long[] { 1000 };
+        ResponseCache cache = new ResponseCache(1024 * 1024, 500) {
+            @Override
+            long currentTime() {
+                return time[0];
+            }
+        };
+        SolrQuery query = new SolrQuery("jacket");
+
+        cache.put("k1", cache.getGeneration(), query, response(query, "PRD0001"));
+        time[0] += 500;
+        assertNotNull(cache.get("k1", null));
+        time[0]++;
+        assertNull(cache.get("k1", null));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getBytes());
+    }
+
+    @Test
+    public void testPutAfterClear() {
+        ResponseCache cache = new ResponseCache(1024 * 1024, 0);
+        SolrQuery query = new SolrQuery("jacket");
+
+        long generation = cache.getGeneration();
+        cache.clear();
+        assertFalse(cache.put("k1", generation, query, response(query, "PRD0001")));
+        assertNull(cache.get("k1", null));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getBytes());
+
+        assertTrue(cache.put("k1", cache.getGeneration(), query, response(query, "PRD0001")));
+        assertNotNull(cache.get("k1", null));
+    }
+}
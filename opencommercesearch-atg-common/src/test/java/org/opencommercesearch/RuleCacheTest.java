@@ -0,0 +1,112 @@
+package org.opencommercesearch;
+
+/*
+* Licensed to OpenCommerceSearch under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. OpenCommerceSearch licenses this
+* file to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.solr.common.SolrDocument;
+import org.junit.Test;
+
+import atg.repository.RepositoryItem;
+
+public class RuleCacheTest {
+
+    private Set<String> none = Collections.emptySet();
+    private Map<String, List<RepositoryItem>> rules = new HashMap<String, List<RepositoryItem>>();
+    private Map<String, SolrDocument> ruleDocs = new HashMap<String, SolrDocument>();
+
+    @Test
+    public void testKey() {
+        String key = RuleCache.getKey("en_US", "cat1", true, false, "Jackets", null, null, null, false, none, none);
+        assertEquals(key, RuleCache.getKey("en_US", "cat1", true, false, "jackets", null, null, null, false, none, none));
+        assertFalse(key.equals(RuleCache.getKey("en_US", "cat1", true, false, "jackets", null, null, null, true, none, none)));
+        assertFalse(key.equals(RuleCache.getKey("en_US", "cat2", true, false, "jackets", null, null, null, false, none, none)));
+        assertEquals(
+            RuleCache.getKey("en_US", "cat1", true, false, "jackets", null, null, null, false, new HashSet<String>(Arrays.asList("r1", "r2")), none),
+            RuleCache.getKey("en_US", "cat1", true, false, "jackets", null, null, null, false, new HashSet<String>(Arrays.asList("r2", "r1")), none));
+    }
+
+    @Test
+    public void testGetAndPut() {
+        RuleCache cache = new RuleCache(2);
+
+        assertNull(cache.get("k1"));
+        cache.put("k1", cache.getGeneration(), rules, ruleDocs, 10);
+        RuleCache.Entry entry = cache.get("k1");
+        assertSame(rules, entry.getRules());
+        assertSame(ruleDocs, entry.getRuleDocs());
+        assertEquals(0.5, cache.getHitRatio(), 0.001);
+        assertEquals(10.0, cache.getAverageLoadTime(), 0.001);
+
+        cache.put("k2", cache.getGeneration(), rules, ruleDocs, 0);
+        cache.get("k1");
+        cache.put("k3", cache.getGeneration(), rules, ruleDocs, 0);
+        // k2 is the least recently used
+        assertEquals(2, cache.size());
+        assertNull(cache.get("k2"));
+        assertNotNull(cache.get("k1"));
+
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testDayExpiration() {
+        final long[] day = new long[] { 100 };
+        RuleCache cache = new RuleCache(10) {
+            @Override
+            long currentDay() {
+                return day[0];
+            }
+        };
+
+        cache.put("k1", cache.getGeneration(), rules, ruleDocs, 0);
+        assertNotNull(cache.get("k1"));
+        long generation = cache.getGeneration();
+        day[0]++;
+        assertNull(cache.get("k1"));
+        assertEquals(0, cache.size());
+        // rules loaded the day before are not cached
+        assertFalse(cache.put("k1", generation, rules, ruleDocs, 0));
+        assertNull(cache.get("k1"));
+    }
+
+    @Test
+    public void testPutAfterClear() {
+        RuleCache cache = new RuleCache(10);
+
+        long generation = cache.getGeneration();
+        cache.clear();
+        assertFalse(cache.put("k1", generation, rules, ruleDocs, 0));
+        assertNull(cache.get("k1"));
+        assertEquals(0, cache.size());
+
+        assertTrue(cache.put("k1", cache.getGeneration(), rules, ruleDocs, 0));
+        assertNotNull(cache.get("k1"));
+    }
+}
@@ -527,6 +527,42 @@ public class RuleManagerTest {
         mgr.loadRules("", null, "Men's Clothing", true, false, cataA, false, null, new HashSet<String>(), new HashSet<String>());
     }  
     
+    @Test
+    public void testLoadRulesFromSnapshot() throws RepositoryException, SolrServerException {
+        SolrDocumentList solrDocumentList = new SolrDocumentList();
+        setUpRuleData(null, "description boostRule1", "boostRule1", boostRule, boostRuleItem1, false, solrDocumentList);
+        setUpRuleData(null, "description blockRule1", "blockRule1", blockRule, blockRuleItem1, false, solrDocumentList);
+        solrDocumentList.setNumFound(solrDocumentList.size());
+        solrDocumentList.setStart(0L);
+        when(queryResponse.getResults()).thenReturn(solrDocumentList);
+        when(server.query(any(SolrParams.class))).thenReturn(queryResponse);
+
+        Map<String, RuleSnapshot.Rule> snapshotRules = new HashMap<String, RuleSnapshot.Rule>();
+        List<RepositoryItem> noFacets = Collections.emptyList();
+        List<String> noProducts = Collections.emptyList();
+        snapshotRules.put("boostRule1", new RuleSnapshot.Rule(boostRuleItem1, boostRule, Arrays.asList("product1", "product2"), noProducts, noFacets, null));
+        snapshotRules.put("blockRule1", new RuleSnapshot.Rule(blockRuleItem1, blockRule, noProducts, Arrays.asList("product3"), noFacets, null));
+
+        RuleManager mgr = new RuleManager(repository, builder, server);
+        mgr.setRuleSnapshot(new RuleSnapshot(snapshotRules, System.currentTimeMillis()));
+        mgr.loadRules("jackets", null, "Men's Clothing", true, false, cataA, false, null, new HashSet<String>(), new HashSet<String>());
+
+        Map<String, List<RepositoryItem>> rules = mgr.getRules();
+        assertEquals(2, rules.size());
+        assertThat(rules.get(boostRule), hasItem(boostRuleItem1));
+        assertThat(rules.get(blockRule), hasItem(blockRuleItem1));
+
+        SolrQuery query = mock(SolrQuery.class);
+        mgr.setRuleParams(query, rules);
+        verify(query).addSortField("fixedBoost(productId,'product1','product2')", ORDER.asc);
+        verify(query).addFilterQuery("-productId:product3");
+
+        // the rules and their properties come from the snapshot
+        verify(repository, never()).getItem(anyString(), anyString());
+        verify(boostRuleItem1, never()).getPropertyValue(anyString());
+        verify(blockRuleItem1, never()).getPropertyValue(anyString());
+    }
+
     @Test
     public void testLoadRulesNullRule() throws RepositoryException, SolrServerException {  
         SolrDocumentList solrDocumentList = new SolrDocumentList();
@@ -0,0 +1,116 @@
+package org.opencommercesearch;
+
+/*
+* Licensed to OpenCommerceSearch under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. OpenCommerceSearch licenses this
+* file to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class SearchFutureTest {
+
+    private ExecutorService executor = Executors.newSingleThreadExecutor();
+    private CountDownLatch latch = new CountDownLatch(1);
+
+    @After
+    public void tearDown() {
+        latch.countDown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testGet() throws Exception {
+        final SearchResponse response = mock(SearchResponse.class);
+        SearchFuture future = new SearchFuture(executor.submit(new Callable<SearchResponse>() {
+            @Override
+            public SearchResponse call() {
+                return response;
+            }
+        }), 1000);
+
+        assertSame(response, future.get());
+        assertTrue(future.isDone());
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        SearchFuture future = new SearchFuture(executor.submit(new Callable<SearchResponse>() {
+            @Override
+            public SearchResponse call() throws InterruptedException {
+                latch.await();
+                return null;
+            }
+        }), 50);
+
+        try {
+            future.get();
+            fail("The search should time out");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof SearchServerException.SearchException);
+            assertTrue(ex.getCause().getCause() instanceof TimeoutException);
+        }
+        assertTrue(future.isCancelled());
+    }
+
+    @Test
+    public void testSearchException() throws Exception {
+        final SearchServerException exception = SearchServerException.create(SearchServerException.Code.SEARCH_EXCEPTION);
+        SearchFuture future = new SearchFuture(executor.submit(new Callable<SearchResponse>() {
+            @Override
+            public SearchResponse call() throws SearchServerException {
+                throw exception;
+            }
+        }), 1000);
+
+        try {
+            future.get();
+            fail("The search should fail");
+        } catch (ExecutionException ex) {
+            assertSame(exception, ex.getCause());
+        }
+    }
+
+    @Test
+    public void testUnexpectedException() throws Exception {
+        final IllegalStateException exception = new IllegalStateException();
+        SearchFuture future = new SearchFuture(executor.submit(new Callable<SearchResponse>() {
+            @Override
+            public SearchResponse call() {
+                throw exception;
+            }
+        }), 0);
+
+        try {
+            future.get();
+            fail("The search should fail");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof SearchServerException);
+            assertSame(exception, ex.getCause().getCause());
+        }
+    }
+}
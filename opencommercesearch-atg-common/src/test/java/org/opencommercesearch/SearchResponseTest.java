@@ -10,7 +10,13 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.response.GroupCommand;
+import org.apache.solr.client.solrj.response.GroupResponse;
 import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.util.NamedList;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
@@ -49,4 +55,54 @@ public class SearchResponseTest {
      assertEquals(facets.get(0).getSelectedFilters().size(), 1);
      assertEquals(facets.get(0).getSelectableFilters().size(), 3);
     }
+
+    @Test
+    public void testGroupResponseFromCollapsedResults() {
+        SolrQuery query = new SolrQuery("jacket");
+        query.set("expandall", true);
+        query.set("expand.field", "productId");
+
+        SolrDocumentList results = docs("PRD0001", "PRD0002");
+        results.setNumFound(12);
+        Map<String, SolrDocumentList> expanded = new HashMap<String, SolrDocumentList>();
+        expanded.put("PRD0001", docs("PRD0001", "PRD0001", "PRD0001"));
+
+        NamedList<Object> res = new NamedList<Object>();
+        res.add("response", results);
+        res.add("expanded", expanded);
+        SearchResponse response = new SearchResponse(query, new QueryResponse(res, null), ruleManager, null, null, null, true);
+
+        GroupResponse groupResponse = response.getGroupResponse();
+        assertEquals(1, groupResponse.getValues().size());
+        GroupCommand command = groupResponse.getValues().get(0);
+        assertEquals("productId", command.getName());
+        assertEquals(12, command.getNGroups().intValue());
+        assertEquals(2, command.getValues().size());
+        assertEquals("PRD0001", command.getValues().get(0).getGroupValue());
+        assertEquals(3, command.getValues().get(0).getResult().size());
+        // groups that weren't expanded only have the collapsed document
+        assertEquals("PRD0002", command.getValues().get(1).getGroupValue());
+        assertEquals(1, command.getValues().get(1).getResult().size());
+        assertSame(groupResponse, response.getGroupResponse());
+    }
+
+    @Test
+    public void testGroupResponseFromGroupedResults() {
+        GroupResponse groupResponse = new GroupResponse();
+        when(queryResponse.getGroupResponse()).thenReturn(groupResponse);
+        SearchResponse response = new SearchResponse(new SolrQuery("jacket"), queryResponse, ruleManager, null, null, null, true);
+
+        assertSame(groupResponse, response.getGroupResponse());
+    }
+
+    private static SolrDocumentList docs(String... productIds) {
+        SolrDocumentList docs = new SolrDocumentList();
+        for (String productId : productIds) {
+            SolrDocument doc = new SolrDocument();
+            doc.setField("productId", productId);
+            docs.add(doc);
+        }
+        docs.setNumFound(productIds.length);
+        return docs;
+    }
 }
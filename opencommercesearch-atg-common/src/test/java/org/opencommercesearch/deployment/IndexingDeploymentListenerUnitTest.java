@@ -186,7 +186,7 @@ public class IndexingDeploymentListenerUnitTest {
         verify(ruleFeed, times(0)).startFeed();
         verifyZeroInteractions(ruleFeed);
         verify(categoryFeed, times(0)).startFeed();
-        verify(searchServer, times(0)).onRepositoryItemChanged("searchRepo", affectedItemSet);
+        verify(searchServer).onRepositoryItemChanged("searchRepo", affectedItemSet);
     }
 
     @Test
@@ -213,7 +213,8 @@ public class IndexingDeploymentListenerUnitTest {
         verify(ruleFeed).startFeed();
         verify(facetFeed, times(0)).startFeed();
         verify(categoryFeed, times(0)).startFeed();
-        verify(searchServer, times(0)).onRepositoryItemChanged("searchRepo", affectedItemSet);
+        // notified once the rule feed is done
+        verify(searchServer, timeout(1000)).onRepositoryItemChanged("searchRepo", affectedItemSet);
      }
 
     @Test
@@ -232,7 +233,7 @@ public class IndexingDeploymentListenerUnitTest {
         verify(ruleFeed, times(0)).startFeed();
         verifyZeroInteractions(ruleFeed);
         verify(facetFeed, times(0)).startFeed();
-        verify(searchServer, times(0)).onRepositoryItemChanged("productRepo", affectedItemSet);
+        verify(searchServer).onRepositoryItemChanged("productRepo", affectedItemSet);
     }
 
     @Test
@@ -0,0 +1,96 @@
+package org.opencommercesearch.benchmark;
+
+/*
+* Licensed to OpenCommerceSearch under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. OpenCommerceSearch licenses this
+* file to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.profile.InternalProfiler;
+import org.openjdk.jmh.profile.ProfilerResult;
+import org.openjdk.jmh.results.AggregationPolicy;
+import org.openjdk.jmh.results.Result;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Reports the allocation rate of each iteration. The GC profiler in this JMH version only reports the GC count and
+ * time, so this profiler adds up the bytes allocated by all the threads of the benchmark JVM.
+ */
+public class AllocationProfiler implements InternalProfiler {
+
+    private static final double MB = 1024 * 1024;
+
+    private long startBytes;
+    private long startTime;
+
+    @Override
+    public boolean checkSupport(List<String> msgs) {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+        if (!(threadBean instanceof com.sun.management.ThreadMXBean)
+                || !((com.sun.management.ThreadMXBean) threadBean).isThreadAllocatedMemorySupported()) {
+            msgs.add("Thread allocated memory is not supported by this JVM");
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public String label() {
+        return "alloc";
+    }
+
+    @Override
+    public String getDescription() {
+        return "Allocation rate of the benchmark JVM";
+    }
+
+    @Override
+    public void beforeIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams) {
+        startBytes = allocatedBytes();
+        startTime = System.nanoTime();
+    }
+
+    @Override
+    public Collection<? extends Result> afterIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams) {
+        double allocated = (allocatedBytes() - startBytes) / MB;
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+
+        return Arrays.asList(
+            new ProfilerResult("@alloc.rate", allocated / seconds, "MB/sec", AggregationPolicy.AVG),
+            new ProfilerResult("@alloc.total", allocated, "MB", AggregationPolicy.SUM));
+    }
+
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+        long total = 0;
+
+        for (long bytes : threadBean.getThreadAllocatedBytes(threadBean.getAllThreadIds())) {
+            if (bytes > 0) {
+                total += bytes;
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,96 @@
+package org.opencommercesearch.benchmark;
+
+/*
+* Licensed to OpenCommerceSearch under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. OpenCommerceSearch licenses this
+* file to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.solr.core.CoreContainer;
+import org.apache.solr.core.SolrCore;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Creates an embedded Solr home with the benchmark cores. Each core uses its own schema.xml from the solr resources
+ * directory, and its own solrconfig.xml if it has one or the shared one otherwise. Indexes are kept in memory.
+ */
+public class BenchmarkCores {
+
+    private final File solrHome;
+    private final CoreContainer container;
+
+    public BenchmarkCores(String... cores) throws IOException {
+        solrHome = File.createTempFile("ocs-benchmark", "");
+        solrHome.delete();
+        solrHome.mkdirs();
+
+        copy("/solr/solr.xml", new File(solrHome, "solr.xml"));
+        for (String core : cores) {
+            File coreDir = new File(solrHome, core);
+            File confDir = new File(coreDir, "conf");
+            confDir.mkdirs();
+            String solrConfig = "/solr/" + core + "/conf/solrconfig.xml";
+            if (BenchmarkCores.class.getResource(solrConfig) == null) {
+                solrConfig = "/solr/solrconfig.xml";
+            }
+            copy(solrConfig, new File(confDir, "solrconfig.xml"));
+            copy("/solr/" + core + "/conf/schema.xml", new File(confDir, "schema.xml"));
+            FileUtils.writeStringToFile(new File(coreDir, "core.properties"), "name=" + core + "\n");
+        }
+
+        container = new CoreContainer(solrHome.getAbsolutePath());
+        container.load();
+    }
+
+    public CoreContainer getContainer() {
+        return container;
+    }
+
+    public void close() throws IOException {
+        for (SolrCore core : container.getCores()) {
+            // the rule manager doesn't release the rules and facets cores it looks up, close them so their searcher
+            // threads don't keep the forked VM alive
+            while (core.getOpenCount() > 1) {
+                core.close();
+            }
+        }
+        container.shutdown();
+        FileUtils.deleteDirectory(solrHome);
+    }
+
+    private static void copy(String resource, File file) throws IOException {
+        InputStream in = BenchmarkCores.class.getResourceAsStream(resource);
+
+        if (in == null) {
+            throw new IOException("Missing resource " + resource);
+        }
+
+        OutputStream out = new FileOutputStream(file);
+        try {
+            IOUtils.copy(in, out);
+        } finally {
+            IOUtils.closeQuietly(in);
+            out.close();
+        }
+    }
+}
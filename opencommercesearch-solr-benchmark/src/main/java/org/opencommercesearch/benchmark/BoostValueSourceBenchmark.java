@@ -0,0 +1,166 @@
+package org.opencommercesearch.benchmark;
+
+/*
+* Licensed to OpenCommerceSearch under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. OpenCommerceSearch licenses this
+* file to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.queries.function.FunctionValues;
+import org.apache.lucene.queries.function.ValueSource;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.apache.solr.schema.StrFieldSource;
+import org.opencommercesearch.lucene.queries.function.valuesource.BoostValueSource;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scores all documents in a synthetic product index with the boost function.
+ *
+ * <ul>
+ *     <li>ordinalTable: boosts resolved once per segment into a cached table indexed by term ordinal</li>
+ *     <li>ordinalTableUncached: same as above, but the tables are created for every query</li>
+ *     <li>stringLookup: the previous implementation, one strVal and one map lookup per document</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BoostValueSourceBenchmark {
+
+    private static final String FIELD = "productId";
+
+    /**
+     * Number of documents (skus) in the index
+     */
+    @Param({"100000", "1000000"})
+    public int docs;
+
+    /**
+     * Number of boosted products
+     */
+    @Param({"500"})
+    public int boosts;
+
+    /**
+     * Number of skus per product
+     */
+    @Param({"5"})
+    public int skusPerProduct;
+
+    private RAMDirectory directory;
+    private DirectoryReader reader;
+    private Map<String, Float> boostMap;
+    private ValueSource fieldValueSource;
+    private BoostValueSource cachedValueSource;
+    private BoostValueSource uncachedValueSource;
+    private Map context = new HashMap();
+
+    @Setup
+    public void setup() throws IOException {
+        directory = new RAMDirectory();
+        IndexWriterConfig config = new IndexWriterConfig(Version.LUCENE_48, new KeywordAnalyzer());
+        // a few segments, like a real index
+        config.setMaxBufferedDocs(Math.max(docs / 8, 1000));
+        IndexWriter writer = new IndexWriter(directory, config);
+        int products = Math.max(docs / skusPerProduct, 1);
+
+        for (int i = 0; i < docs; i++) {
+            Document doc = new Document();
+            doc.add(new StringField(FIELD, "prod" + (i % products), Field.Store.NO));
+            writer.addDocument(doc);
+        }
+        writer.close();
+        reader = DirectoryReader.open(directory);
+
+        Random random = new Random(0);
+        boostMap = new HashMap<String, Float>(boosts);
+        for (int i = 0; i < boosts; i++) {
+            boostMap.put("prod" + random.nextInt(products), random.nextFloat());
+        }
+
+        fieldValueSource = new StrFieldSource(FIELD);
+        cachedValueSource = new BoostValueSource(FIELD, fieldValueSource, "benchmark", boostMap);
+        uncachedValueSource = new BoostValueSource(FIELD, fieldValueSource, boostMap);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        reader.close();
+        directory.close();
+    }
+
+    @Benchmark
+    public float ordinalTable() throws IOException {
+        return score(cachedValueSource);
+    }
+
+    @Benchmark
+    public float ordinalTableUncached() throws IOException {
+        return score(uncachedValueSource);
+    }
+
+    @Benchmark
+    public float stringLookup() throws IOException {
+        float sum = 0.0f;
+
+        for (AtomicReaderContext leaf : reader.leaves()) {
+            FunctionValues vals = fieldValueSource.getValues(context, leaf);
+            int maxDoc = leaf.reader().maxDoc();
+
+            for (int doc = 0; doc < maxDoc; doc++) {
+                float boost = 0.0f;
+                Float b = boostMap.get(vals.strVal(doc));
+                if (b != null) {
+                    boost = b;
+                }
+                sum += boost;
+            }
+        }
+        return sum;
+    }
+
+    private float score(ValueSource valueSource) throws IOException {
+        float sum = 0.0f;
+
+        for (AtomicReaderContext leaf : reader.leaves()) {
+            FunctionValues values = valueSource.getValues(context, leaf);
+            int maxDoc = leaf.reader().maxDoc();
+
+            for (int doc = 0; doc < maxDoc; doc++) {
+                sum += values.floatVal(doc);
+            }
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,166 @@
+package org.opencommercesearch.benchmark;
+
+/*
+* Licensed to OpenCommerceSearch under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. OpenCommerceSearch licenses this
+* file to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.ExpandParams;
+import org.apache.solr.common.params.GroupCollapseParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.handler.component.GroupCollapseComponent;
+import org.apache.solr.handler.component.ResponseBuilder;
+import org.apache.solr.handler.component.SearchComponent;
+import org.apache.solr.request.LocalSolrQueryRequest;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.response.SolrQueryResponse;
+import org.apache.solr.search.DocList;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.apache.solr.update.AddUpdateCommand;
+import org.apache.solr.update.CommitUpdateCommand;
+import org.apache.solr.util.RefCounted;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Computes the group summaries for an expanded browse page, the way GroupCollapseComponent does for each request.
+ *
+ * <ul>
+ *     <li>legacy: summary fields read from stored fields and term vectors</li>
+ *     <li>docvalues: summary fields read from doc values</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GroupCollapseSummaryBenchmark {
+
+    private static final String[] COLORS = {"Red", "Black", "Orange", "Brown", "Blue", "Green", "White", "Grey"};
+
+    /**
+     * Schema of the core used to compute the summaries
+     */
+    @Param({"legacy", "docvalues"})
+    public String schema;
+
+    /**
+     * Number of products in the index
+     */
+    @Param({"10000"})
+    public int products;
+
+    /**
+     * Number of groups (products) in a page
+     */
+    @Param({"40"})
+    public int groups;
+
+    /**
+     * Number of skus per product, same as group.limit
+     */
+    @Param({"50"})
+    public int skusPerProduct;
+
+    private BenchmarkCores cores;
+    private SolrCore core;
+    private RefCounted<SolrIndexSearcher> searcher;
+    private Map<String, DocList> page = new HashMap<String, DocList>();
+    private GroupCollapseComponent component = new GroupCollapseComponent();
+
+    @Setup
+    public void setup() throws Exception {
+        cores = new BenchmarkCores(schema);
+        core = cores.getContainer().getCore(schema);
+        SolrQueryRequest updateReq = new LocalSolrQueryRequest(core, new ModifiableSolrParams());
+        Random random = new Random(0);
+
+        for (int p = 0; p < products; p++) {
+            for (int s = 0; s < skusPerProduct; s++) {
+                SolrInputDocument doc = new SolrInputDocument();
+                float listPrice = 10 + random.nextInt(200);
+                float discount = random.nextInt(50);
+
+                doc.addField("id", "prod" + p + "-sku" + s);
+                doc.addField("productId", "prod" + p);
+                doc.addField("listPrice", listPrice);
+                doc.addField("salePrice", listPrice * (100 - discount) / 100);
+                doc.addField("discountPercent", discount);
+                doc.addField("color", COLORS[random.nextInt(COLORS.length)] + s);
+                doc.addField("colorFamily", COLORS[random.nextInt(COLORS.length)]);
+                doc.addField("colorFamily", COLORS[random.nextInt(COLORS.length)]);
+                doc.addField("isCloseout", random.nextInt(10) == 0);
+
+                AddUpdateCommand cmd = new AddUpdateCommand(updateReq);
+                cmd.solrDoc = doc;
+                core.getUpdateHandler().addDoc(cmd);
+            }
+        }
+        core.getUpdateHandler().commit(new CommitUpdateCommand(updateReq, false));
+        updateReq.close();
+
+        searcher = core.getSearcher();
+
+        for (int g = 0; g < groups; g++) {
+            String productId = "prod" + random.nextInt(products);
+            Query query = new TermQuery(new Term("productId", productId));
+            page.put(productId, searcher.get().getDocList(query, (Query) null, null, 0, skusPerProduct));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        searcher.decref();
+        core.close();
+        cores.close();
+    }
+
+    @Benchmark
+    public Object summary() throws Exception {
+        ModifiableSolrParams params = new ModifiableSolrParams();
+        params.set("expandall", true);
+        params.set(ExpandParams.EXPAND_FIELD, "productId");
+        params.set(GroupCollapseParams.GROUP_COLLAPSE, true);
+        params.set(GroupCollapseParams.GROUP_COLLAPSE_FL, "listPrice,salePrice,discountPercent,color,colorFamily");
+        params.set(GroupCollapseParams.GROUP_COLLAPSE_FF, "isCloseout");
+
+        LocalSolrQueryRequest req = new LocalSolrQueryRequest(core, params);
+        try {
+            SolrQueryResponse rsp = new SolrQueryResponse();
+            // the component replaces each group doc list with its first doc
+            rsp.add("expanded", new HashMap<String, DocList>(page));
+
+            ResponseBuilder rb = new ResponseBuilder(req, rsp, Collections.<SearchComponent>emptyList());
+            component.process(rb);
+            return rsp.getValues().get("groups_summary");
+        } finally {
+            req.close();
+        }
+    }
+}
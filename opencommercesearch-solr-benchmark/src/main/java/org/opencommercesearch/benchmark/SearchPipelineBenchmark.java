@@ -0,0 +1,208 @@
+package org.opencommercesearch.benchmark;
+
+/*
+* Licensed to OpenCommerceSearch under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. OpenCommerceSearch licenses this
+* file to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.ExpandParams;
+import org.apache.solr.common.params.FacetParams;
+import org.apache.solr.common.params.GroupCollapseParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.params.RuleManagerParams;
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.handler.component.ResponseBuilder;
+import org.apache.solr.handler.component.SearchComponent;
+import org.apache.solr.request.LocalSolrQueryRequest;
+import org.apache.solr.request.SolrRequestHandler;
+import org.apache.solr.response.SolrQueryResponse;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs search and category page requests through the product catalog search pipeline: the rule manager, the query
+ * and facet components, expand all and group collapse. The catalog, rules and facets are synthetic and live in
+ * embedded catalogPublic, rulePublic and facetsPublic cores.
+ *
+ * <ul>
+ *     <li>search: the whole request through the /select handler</li>
+ *     <li>ruleManager: only the rule manager prepare step, with the same requests</li>
+ * </ul>
+ *
+ * Requests are picked round robin from a pool. The rule cache holds 512 entries, so a small pool measures cached
+ * rules and a large one measures the rule matching and facet expansion.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SearchPipelineBenchmark {
+
+    private static final String CATALOG_CORE = "catalogPublic";
+    private static final String RULES_CORE = "rulePublic";
+    private static final String FACETS_CORE = "facetsPublic";
+
+    /**
+     * Number of products in the catalog
+     */
+    @Param({"10000"})
+    public int products;
+
+    /**
+     * Number of skus per product
+     */
+    @Param({"10"})
+    public int skusPerProduct;
+
+    /**
+     * Number of rules in the rules core
+     */
+    @Param({"1000"})
+    public int rules;
+
+    /**
+     * Number of facets in the facets core
+     */
+    @Param({"50"})
+    public int facets;
+
+    /**
+     * Number of distinct requests
+     */
+    @Param({"100", "10000"})
+    public int requests;
+
+    /**
+     * Whether expand all computes the group summaries while collecting the groups
+     */
+    @Param({"true", "false"})
+    public boolean singlePass;
+
+    private BenchmarkCores cores;
+    private SolrCore core;
+    private SolrRequestHandler handler;
+    private SearchComponent ruleManager;
+    private ModifiableSolrParams[] pool;
+    private final AtomicInteger next = new AtomicInteger();
+
+    @Setup
+    public void setup() throws Exception {
+        cores = new BenchmarkCores(CATALOG_CORE, RULES_CORE, FACETS_CORE);
+        SyntheticCatalog catalog = new SyntheticCatalog(products, skusPerProduct, rules, facets, 0);
+        SolrCore rulesCore = cores.getContainer().getCore(RULES_CORE);
+        SolrCore facetsCore = cores.getContainer().getCore(FACETS_CORE);
+
+        try {
+            catalog.indexRules(rulesCore);
+            catalog.indexFacets(facetsCore);
+        } finally {
+            rulesCore.close();
+            facetsCore.close();
+        }
+
+        core = cores.getContainer().getCore(CATALOG_CORE);
+        catalog.indexProducts(core);
+        handler = core.getRequestHandler("/select");
+        ruleManager = core.getSearchComponent("ruleManager");
+
+        pool = new ModifiableSolrParams[requests];
+        for (int i = 0; i < requests; i++) {
+            pool[i] = i % 2 == 0? searchParams(catalog.randomQuery()) : categoryParams(catalog.randomCategory());
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        core.close();
+        cores.close();
+    }
+
+    private ModifiableSolrParams searchParams(String q) {
+        ModifiableSolrParams params = commonParams();
+        params.set(CommonParams.Q, q);
+        params.set(RuleManagerParams.PAGE_TYPE, "search");
+        return params;
+    }
+
+    private ModifiableSolrParams categoryParams(String category) {
+        ModifiableSolrParams params = commonParams();
+        params.set(CommonParams.Q, "*:*");
+        params.set(RuleManagerParams.PAGE_TYPE, "category");
+        params.set(RuleManagerParams.CATEGORY_FILTER, category);
+        params.add(CommonParams.FQ, "category:" + category);
+        return params;
+    }
+
+    private ModifiableSolrParams commonParams() {
+        ModifiableSolrParams params = new ModifiableSolrParams();
+        params.set("defType", "edismax");
+        params.set("qf", "title");
+        params.set(CommonParams.ROWS, 40);
+        params.set(CommonParams.FL, "id,productId,title");
+        params.add(CommonParams.FQ, "{!collapse field=productId}");
+        params.set(FacetParams.FACET, true);
+        params.set(RuleManagerParams.RULE, true);
+        params.set(RuleManagerParams.CATALOG_ID, SyntheticCatalog.CATALOG_ID);
+        params.set(RuleManagerParams.SITE_IDS, SyntheticCatalog.SITE_ID);
+        params.set("expandall", true);
+        params.set(ExpandParams.EXPAND_FIELD, "productId");
+        params.set(ExpandParams.EXPAND_ROWS, 10);
+        params.set(GroupCollapseParams.GROUP_COLLAPSE, true);
+        params.set(GroupCollapseParams.GROUP_COLLAPSE_FL, "listPrice,salePrice,discountPercent,color,colorFamily");
+        params.set(GroupCollapseParams.GROUP_COLLAPSE_FF, "isCloseout");
+        params.set(GroupCollapseParams.GROUP_COLLAPSE_SINGLE_PASS, singlePass);
+        return params;
+    }
+
+    private ModifiableSolrParams nextParams() {
+        return new ModifiableSolrParams(pool[(next.getAndIncrement() & Integer.MAX_VALUE) % pool.length]);
+    }
+
+    @Benchmark
+    public Object search() throws Exception {
+        LocalSolrQueryRequest req = new LocalSolrQueryRequest(core, nextParams());
+        try {
+            SolrQueryResponse rsp = new SolrQueryResponse();
+            core.execute(handler, req, rsp);
+            if (rsp.getException() != null) {
+                throw rsp.getException();
+            }
+            return rsp.getValues();
+        } finally {
+            req.close();
+        }
+    }
+
+    @Benchmark
+    public Object ruleManager() throws Exception {
+        LocalSolrQueryRequest req = new LocalSolrQueryRequest(core, nextParams());
+        try {
+            SolrQueryResponse rsp = new SolrQueryResponse();
+            ResponseBuilder rb = new ResponseBuilder(req, rsp, Collections.singletonList(ruleManager));
+            ruleManager.prepare(rb);
+            return req.getParams();
+        } finally {
+            req.close();
+        }
+    }
+}
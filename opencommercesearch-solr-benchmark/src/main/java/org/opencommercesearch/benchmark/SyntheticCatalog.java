@@ -0,0 +1,237 @@
+package org.opencommercesearch.benchmark;
+
+/*
+* Licensed to OpenCommerceSearch under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. OpenCommerceSearch licenses this
+* file to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.request.LocalSolrQueryRequest;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.update.AddUpdateCommand;
+import org.apache.solr.update.CommitUpdateCommand;
+import org.opencommercesearch.FacetConstants;
+import org.opencommercesearch.RuleConstants;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Generates a synthetic catalog with its rules and facets. Products have several skus, a brand, a category and one
+ * attribute per facet. Rules are spread over the rule types, targets and categories so a request matches a few of
+ * them. The same seed always generates the same catalog.
+ */
+public class SyntheticCatalog {
+
+    public static final String CATALOG_ID = "catalog";
+    public static final String SITE_ID = "site";
+
+    static final String[] COLORS = {"Red", "Black", "Orange", "Brown", "Blue", "Green", "White", "Grey"};
+    static final String[] ADJECTIVES = {"waterproof", "insulated", "lightweight", "hiking", "running", "trail", "climbing", "ski"};
+    static final String[] NOUNS = {"jacket", "pant", "shoe", "boot", "tent", "bag", "glove", "hat", "shirt", "short"};
+    static final String[] RULE_TYPES = {"blockRule", "boostRule", "facetRule", "rankingRule"};
+    static final String[] TARGETS = {"allpages", "searchpages", "categorypages"};
+
+    static final int CATEGORIES = 20;
+    static final int BRANDS = 50;
+    static final int ATTRIBUTE_VALUES = 10;
+    static final int PRODUCTS_PER_RULE = 5;
+    static final int FACETS_PER_RULE = 5;
+
+    private final int products;
+    private final int skusPerProduct;
+    private final int rules;
+    private final int facets;
+    private final Random random;
+
+    /**
+     * @param products number of products in the catalog core
+     * @param skusPerProduct number of skus (documents) per product
+     * @param rules number of rules in the rules core
+     * @param facets number of facets in the facets core, each one with its own attribute field in the catalog
+     * @param seed random seed
+     */
+    public SyntheticCatalog(int products, int skusPerProduct, int rules, int facets, long seed) {
+        this.products = products;
+        this.skusPerProduct = skusPerProduct;
+        this.rules = rules;
+        this.facets = facets;
+        this.random = new Random(seed);
+    }
+
+    public void indexProducts(SolrCore core) throws IOException {
+        SolrQueryRequest req = new LocalSolrQueryRequest(core, new ModifiableSolrParams());
+
+        try {
+            for (int p = 0; p < products; p++) {
+                String brandId = brandId(random.nextInt(BRANDS));
+                String title = random(ADJECTIVES) + " " + random(NOUNS) + " " + brandId;
+                String category = category(random.nextInt(CATEGORIES));
+
+                for (int s = 0; s < skusPerProduct; s++) {
+                    SolrInputDocument doc = new SolrInputDocument();
+                    float listPrice = 10 + random.nextInt(200);
+                    float discount = random.nextInt(50);
+
+                    doc.addField("id", productId(p) + "-sku" + s);
+                    doc.addField("productId", productId(p));
+                    doc.addField("title", title);
+                    doc.addField("brandId", brandId);
+                    doc.addField("category", "0." + CATALOG_ID);
+                    doc.addField("category", category);
+                    doc.addField("isToos", random.nextInt(10) == 0);
+                    doc.addField("listPrice", listPrice);
+                    doc.addField("salePrice", listPrice * (100 - discount) / 100);
+                    doc.addField("discountPercent", discount);
+                    doc.addField("color", random(COLORS) + s);
+                    doc.addField("colorFamily", random(COLORS));
+                    doc.addField("colorFamily", random(COLORS));
+                    doc.addField("isCloseout", random.nextInt(10) == 0);
+
+                    for (int f = 0; f < facets; f++) {
+                        doc.addField(attributeField(f), "value" + random.nextInt(ATTRIBUTE_VALUES));
+                    }
+                    add(core, req, doc);
+                }
+            }
+            commit(core, req);
+        } finally {
+            req.close();
+        }
+    }
+
+    public void indexRules(SolrCore core) throws IOException {
+        SolrQueryRequest req = new LocalSolrQueryRequest(core, new ModifiableSolrParams());
+
+        try {
+            for (int r = 0; r < rules; r++) {
+                SolrInputDocument doc = new SolrInputDocument();
+                String ruleType = RULE_TYPES[r % RULE_TYPES.length];
+                String target = TARGETS[random.nextInt(TARGETS.length)];
+
+                doc.addField(RuleConstants.FIELD_ID, "rule" + r);
+                doc.addField(RuleConstants.FIELD_RULE_TYPE, ruleType);
+                doc.addField(RuleConstants.FIELD_TARGET, target);
+                doc.addField(RuleConstants.FIELD_SUB_TARGET, RuleConstants.WILDCARD);
+                doc.addField(RuleConstants.FIELD_SITE_ID, RuleConstants.WILDCARD);
+                doc.addField(RuleConstants.FIELD_CATALOG_ID, RuleConstants.WILDCARD);
+                doc.addField(RuleConstants.FIELD_BRAND_ID, RuleConstants.WILDCARD);
+                doc.addField(RuleConstants.FIELD_SORT_PRIORITY, random.nextInt(10));
+                doc.addField(RuleConstants.FIELD_CATEGORY, random.nextBoolean()? RuleConstants.WILDCARD : category(random.nextInt(CATEGORIES)));
+
+                if ("searchpages".equals(target) && random.nextInt(4) > 0) {
+                    doc.addField(RuleConstants.FIELD_QUERY, random.nextBoolean()? random(ADJECTIVES) : random(NOUNS));
+                } else {
+                    doc.addField(RuleConstants.FIELD_QUERY, RuleConstants.WILDCARD);
+                }
+
+                if ("blockRule".equals(ruleType)) {
+                    for (int i = 0; i < PRODUCTS_PER_RULE; i++) {
+                        doc.addField(RuleConstants.FIELD_BLOCKED_PRODUCTS, productId(random.nextInt(products)));
+                    }
+                } else if ("boostRule".equals(ruleType)) {
+                    for (int i = 0; i < PRODUCTS_PER_RULE; i++) {
+                        doc.addField(RuleConstants.FIELD_BOOSTED_PRODUCTS, productId(random.nextInt(products)));
+                    }
+                } else if ("facetRule".equals(ruleType)) {
+                    for (int i = 0; i < Math.min(FACETS_PER_RULE, facets); i++) {
+                        int facet = random.nextInt(facets);
+                        doc.addField(RuleConstants.FIELD_FACET_FIELD, attributeField(facet));
+                        doc.addField(RuleConstants.FIELD_FACET_ID, facetId(facet));
+                    }
+                } else {
+                    doc.addField(RuleConstants.FIELD_BOOST_FUNCTION, "if(exists(query({!lucene v='brandId:" + brandId(random.nextInt(BRANDS)) + "'})),1.5,1.0)");
+                }
+                add(core, req, doc);
+            }
+            commit(core, req);
+        } finally {
+            req.close();
+        }
+    }
+
+    public void indexFacets(SolrCore core) throws IOException {
+        SolrQueryRequest req = new LocalSolrQueryRequest(core, new ModifiableSolrParams());
+
+        try {
+            for (int f = 0; f < facets; f++) {
+                SolrInputDocument doc = new SolrInputDocument();
+                doc.addField(FacetConstants.FIELD_ID, facetId(f));
+                doc.addField(FacetConstants.FIELD_NAME, "Attribute " + f);
+                doc.addField(FacetConstants.FIELD_TYPE, FacetConstants.FACET_TYPE_FIELD);
+                doc.addField(FacetConstants.FIELD_FIELD_NAME, attributeField(f));
+                doc.addField(FacetConstants.FIELD_MULTISELECT, f % 2 == 0);
+                doc.addField(FacetConstants.FIELD_LIMIT, ATTRIBUTE_VALUES);
+                doc.addField(FacetConstants.FIELD_MIN_COUNT, 1);
+                add(core, req, doc);
+            }
+            commit(core, req);
+        } finally {
+            req.close();
+        }
+    }
+
+    /**
+     * @return a random search query, like the ones the rules are targeted to
+     */
+    public String randomQuery() {
+        return random(ADJECTIVES) + " " + random(NOUNS);
+    }
+
+    /**
+     * @return a random category filter for a category page
+     */
+    public String randomCategory() {
+        return category(random.nextInt(CATEGORIES));
+    }
+
+    private String random(String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    static String productId(int product) {
+        return "prod" + product;
+    }
+
+    static String brandId(int brand) {
+        return "brand" + brand;
+    }
+
+    static String category(int category) {
+        return "1." + CATALOG_ID + ".cat" + category;
+    }
+
+    static String facetId(int facet) {
+        return "facet" + facet;
+    }
+
+    static String attributeField(int facet) {
+        return "attr_" + facet;
+    }
+
+    private static void add(SolrCore core, SolrQueryRequest req, SolrInputDocument doc) throws IOException {
+        AddUpdateCommand cmd = new AddUpdateCommand(req);
+        cmd.solrDoc = doc;
+        core.getUpdateHandler().addDoc(cmd);
+    }
+
+    private static void commit(SolrCore core, SolrQueryRequest req) throws IOException {
+        core.getUpdateHandler().commit(new CommitUpdateCommand(req, false));
+    }
+}
@@ -0,0 +1,53 @@
+package org.apache.solr.common.params;
+
+/*
+* Licensed to OpenCommerceSearch under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. OpenCommerceSearch licenses this
+* file to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+
+/**
+ * Category tree parameters
+ */
+public interface CategoryTreeParams {
+    /**
+     * If true, the category tree with the counts of the matching documents is added to the response
+     */
+    public static final String CATEGORY_TREE = "categorytree";
+
+    /**
+     * The hierarchical field with the category paths. Defaults to categoryPath
+     */
+    public static final String CATEGORY_TREE_FIELD = CATEGORY_TREE + ".field";
+
+    /**
+     * Only the category paths starting with this prefix are included in the tree
+     */
+    public static final String CATEGORY_TREE_PREFIX = CATEGORY_TREE + ".prefix";
+
+    /**
+     * Maximum number of categories in the tree, the ones with the highest counts. A negative value means no limit
+     * (default)
+     */
+    public static final String CATEGORY_TREE_LIMIT = CATEGORY_TREE + ".limit";
+
+    /**
+     * Maximum number of separators in a category path after the prefix. Zero or a negative value means no limit
+     * (default)
+     */
+    public static final String CATEGORY_TREE_DEPTH = CATEGORY_TREE + ".depth";
+}
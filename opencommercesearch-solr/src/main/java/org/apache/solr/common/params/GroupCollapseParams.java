@@ -38,6 +38,12 @@ public interface GroupCollapseParams {
      */
     public static final String GROUP_COLLAPSE_SF = GROUP_COLLAPSE + ".sf";
 
+    /**
+     * If true (default), the summaries for expanded groups are computed by the expand all component while it collects
+     * the expanded docs instead of in a separate pass over the expanded doc lists.
+     */
+    public static final String GROUP_COLLAPSE_SINGLE_PASS = GROUP_COLLAPSE + ".singlepass";
+
     /**
     * Specifies the name of the field that determines what docs in the group should be ignored when creating summaries.
     * <p/>
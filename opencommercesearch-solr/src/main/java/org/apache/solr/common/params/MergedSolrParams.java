@@ -193,6 +193,23 @@ public class MergedSolrParams extends SolrQuery {
         return c;
     }
 
+    /**
+     * Creates a copy of the values set directly into this instance on top of the given defaults. Values are
+     * copied so changes to the new instance don't affect this one.
+     * @param defaults the defaults for the new instance
+     * @return a new instance with the same values than this one and the given defaults
+     */
+    public MergedSolrParams copy(SolrParams defaults) {
+        MergedSolrParams copy = new MergedSolrParams(defaults);
+
+        for (Map.Entry<String, String[]> entry : values.entrySet()) {
+            String[] val = entry.getValue();
+            copy.values.put(entry.getKey(), val != null? val.clone() : null);
+        }
+        copy.removed.addAll(removed);
+        return copy;
+    }
+
     public void replaceVariable(String param, String varName, String varValue){
         String[] entries = defaults.getParams(param);
         if (entries != null) {
@@ -58,6 +58,12 @@ public interface RuleManagerParams {
      * Whether or not rules debug information should be returned on the response.
      */
     public static final String DEBUG = "debugRule";
+
+    /**
+     * Whether or not the time spent on each stage of the rule manager and the other plugins should be returned on the
+     * response.
+     */
+    public static final String DEBUG_TIMING = "rule.debug.timing";
     
     /**
      * Indicates if we are in a brand category page
@@ -0,0 +1,36 @@
+package org.apache.solr.common.params;
+
+/*
+* Licensed to OpenCommerceSearch under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. OpenCommerceSearch licenses this
+* file to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+/**
+ * Spell check fallback parameters
+ */
+public interface SpellCheckFallbackParams {
+    /**
+     * If true, searches with no results are retried in the same request with the spell check collation, first matching
+     * all terms and then matching any term.
+     */
+    public static final String SPELLCHECK_FALLBACK = "spellcheck.fallback";
+
+    /**
+     * Minimum match for the retry that matches any term. Defaults to the minimumMatch init arg of the component.
+     */
+    public static final String SPELLCHECK_FALLBACK_MM = SPELLCHECK_FALLBACK + ".mm";
+}
@@ -0,0 +1,287 @@
+package org.apache.solr.handler.component;
+
+/*
+* Licensed to OpenCommerceSearch under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. OpenCommerceSearch licenses this
+* file to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.UnicodeUtil;
+import org.apache.solr.common.params.CategoryTreeParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.search.DocIterator;
+import org.apache.solr.search.DocSet;
+import org.opencommercesearch.SearchConstants;
+import org.opencommercesearch.search.StageTimers;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds the category tree for the matching documents from a hierarchical field like categoryPath, where each document
+ * has all the paths from the catalog down to its categories (i.e. catalog.cat1, catalog.cat1.cat2).
+ * <p/>
+ * The component counts the ordinals of the paths starting with the given prefix, then walks the categories sorted by
+ * count, like the facet component does. Each node in the response has the category id (the last element of the path),
+ * the count and its children. Top level nodes also have the full path.
+ * <p/>
+ * If the parent of a category is not in the tree (i.e. the limit left it out or the document doesn't have the parent
+ * path), the missing parent is added with its count so the sub categories stay at their level instead of showing up
+ * as top level nodes.
+ * <p/>
+ * The component must go after the query component. It uses the unfiltered doc set of the results, like the facet
+ * component does.
+ */
+public class CategoryTreeComponent extends SearchComponent {
+
+    public static final String CATEGORY_TREE = "categoryTree";
+    public static final String ID = "id";
+    public static final String COUNT = "count";
+    public static final String PATH = "path";
+    public static final String CHILDREN = "children";
+
+    private static final String DEFAULT_FIELD = "categoryPath";
+
+    static final String STAGE_CATEGORY_TREE = "categoryTree";
+    private final StageTimers stageTimers = new StageTimers(STAGE_CATEGORY_TREE);
+
+    @Override
+    public String getDescription() {
+        return "Category Tree - builds the category tree for the matching documents";
+    }
+
+    @Override
+    public String getSource() {
+        return "https://raw.github.com/rmerizalde/opencommercesearch/master/opencommercesearch-solr/src/main/java/org/apache/solr/handler/component/CategoryTreeComponent.java";
+    }
+
+    @Override
+    public void prepare(ResponseBuilder rb) throws IOException {
+        if (rb.req.getParams().getBool(CategoryTreeParams.CATEGORY_TREE, false)) {
+            rb.setNeedDocSet(true);
+        }
+    }
+
+    @Override
+    public void process(ResponseBuilder rb) throws IOException {
+        SolrParams params = rb.req.getParams();
+
+        if (!params.getBool(CategoryTreeParams.CATEGORY_TREE, false)) {
+            return;
+        }
+
+        if (rb.getResults() == null || rb.getResults().docSet == null) {
+            rb.rsp.add(CATEGORY_TREE, new ArrayList<NamedList<Object>>());
+            return;
+        }
+
+        long startTime = System.nanoTime();
+
+        try {
+            String field = params.get(CategoryTreeParams.CATEGORY_TREE_FIELD, DEFAULT_FIELD);
+            String prefix = params.get(CategoryTreeParams.CATEGORY_TREE_PREFIX, StringUtils.EMPTY);
+            int limit = params.getInt(CategoryTreeParams.CATEGORY_TREE_LIMIT, -1);
+            int depth = params.getInt(CategoryTreeParams.CATEGORY_TREE_DEPTH, 0);
+
+            rb.rsp.add(CATEGORY_TREE, getCategoryTree(rb.req.getSearcher().getAtomicReader(), rb.getResults().docSet, field, prefix, limit, depth));
+        }
+        finally {
+            stageTimers.record(STAGE_CATEGORY_TREE, startTime, rb.req);
+        }
+    }
+
+    /**
+     * Builds the category tree for the given documents
+     * @param reader The top level reader of the current searcher
+     * @param docs The documents to count
+     * @param field The hierarchical field
+     * @param prefix Only the paths starting with this prefix are included
+     * @param limit Maximum number of categories, the ones with the highest counts. A negative value means no limit
+     * @param depth Maximum number of separators after the prefix. Zero or a negative value means no limit
+     * @return the top level nodes of the tree
+     * @throws IOException If the field ordinals can't be loaded
+     */
+    static List<NamedList<Object>> getCategoryTree(AtomicReader reader, DocSet docs, String field, String prefix,
+                                                   int limit, int depth) throws IOException {
+        SortedSetDocValues ords = FieldCache.DEFAULT.getDocTermOrds(reader, field);
+        BytesRef prefixRef = new BytesRef(prefix);
+        long startOrd = ords.lookupTerm(prefixRef);
+
+        if (startOrd < 0) {
+            startOrd = -startOrd - 1;
+        }
+
+        prefixRef.append(UnicodeUtil.BIG_TERM);
+        long endOrd = ords.lookupTerm(prefixRef);
+
+        if (endOrd < 0) {
+            endOrd = -endOrd - 1;
+        }
+
+        if (endOrd <= startOrd) {
+            return new ArrayList<NamedList<Object>>();
+        }
+
+        int[] counts = new int[(int) (endOrd - startOrd)];
+
+        for (DocIterator it = docs.iterator(); it.hasNext();) {
+            ords.setDocument(it.nextDoc());
+
+            for (long ord = ords.nextOrd(); ord != SortedSetDocValues.NO_MORE_ORDS && ord < endOrd; ord = ords.nextOrd()) {
+                if (ord >= startOrd) {
+                    counts[(int) (ord - startOrd)]++;
+                }
+            }
+        }
+
+        List<Category> categories = new ArrayList<Category>();
+        BytesRef term = new BytesRef();
+
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0) {
+                continue;
+            }
+
+            ords.lookupOrd(startOrd + i, term);
+            String path = term.utf8ToString();
+
+            if (depth > 0 && StringUtils.countMatches(path.substring(prefix.length()), SearchConstants.CATEGORY_SEPARATOR) > depth) {
+                continue;
+            }
+            categories.add(new Category(path, counts[i]));
+        }
+
+        // a category never has a higher count than its parent, and the sort is stable, so parents are still before
+        // their sub categories and are kept over them by the limit
+        Collections.sort(categories, Category.BY_COUNT);
+
+        List<Category> selected = categories;
+        if (limit >= 0 && categories.size() > limit) {
+            selected = categories.subList(0, limit);
+        }
+
+        return buildTree(selected, categories, prefix);
+    }
+
+    /**
+     * Builds the tree for the selected categories
+     * @param categories The categories in the tree, sorted by count
+     * @param allCategories All the categories with a count, used for the counts of missing parents
+     * @param prefix The path prefix. Categories whose parent path doesn't start with the prefix are top level nodes
+     * @return the top level nodes of the tree
+     */
+    private static List<NamedList<Object>> buildTree(List<Category> categories, List<Category> allCategories, String prefix) {
+        List<NamedList<Object>> roots = new ArrayList<NamedList<Object>>();
+        Map<String, NamedList<Object>> nodesByPath = new HashMap<String, NamedList<Object>>(categories.size());
+
+        for (Category category : categories) {
+            nodesByPath.put(category.path, createNode(category.path, category.count));
+        }
+
+        Map<String, Integer> countsByPath = null;
+
+        for (Category category : categories) {
+            String path = category.path;
+            NamedList<Object> node = nodesByPath.get(path);
+
+            while (node != null) {
+                int index = path.lastIndexOf(SearchConstants.CATEGORY_SEPARATOR);
+                String parentPath = index > 0? path.substring(0, index) : null;
+
+                if (parentPath == null || !parentPath.startsWith(prefix)) {
+                    node.add(PATH, path);
+                    roots.add(node);
+                    break;
+                }
+
+                NamedList<Object> parent = nodesByPath.get(parentPath);
+                NamedList<Object> missingParent = null;
+
+                if (parent == null) {
+                    if (countsByPath == null) {
+                        countsByPath = new HashMap<String, Integer>(allCategories.size());
+                        for (Category c : allCategories) {
+                            countsByPath.put(c.path, c.count);
+                        }
+                    }
+                    Integer count = countsByPath.get(parentPath);
+                    parent = missingParent = createNode(parentPath, count != null? count : 0);
+                    nodesByPath.put(parentPath, parent);
+                }
+
+                @SuppressWarnings("unchecked")
+                List<NamedList<Object>> children = (List<NamedList<Object>>) parent.get(CHILDREN);
+
+                if (children == null) {
+                    children = new ArrayList<NamedList<Object>>();
+                    parent.add(CHILDREN, children);
+                }
+                children.add(node);
+
+                // a missing parent is attached to its own parent in the next iteration
+                path = parentPath;
+                node = missingParent;
+            }
+        }
+        return roots;
+    }
+
+    private static NamedList<Object> createNode(String path, int count) {
+        NamedList<Object> node = new SimpleOrderedMap<Object>();
+        node.add(ID, path.substring(path.lastIndexOf(SearchConstants.CATEGORY_SEPARATOR) + 1));
+        node.add(COUNT, count);
+        return node;
+    }
+
+    @Override
+    public NamedList getStatistics() {
+        NamedList<Object> stats = new SimpleOrderedMap<Object>();
+        stageTimers.addTo(stats);
+        return stats;
+    }
+
+    /**
+     * A category path with its count
+     */
+    private static class Category {
+        static final Comparator<Category> BY_COUNT = new Comparator<Category>() {
+            @Override
+            public int compare(Category c1, Category c2) {
+                return c2.count - c1.count;
+            }
+        };
+
+        String path;
+        int count;
+
+        Category(String path, int count) {
+            this.path = path;
+            this.count = count;
+        }
+    }
+}
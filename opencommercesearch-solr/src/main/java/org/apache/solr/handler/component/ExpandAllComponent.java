@@ -17,23 +17,19 @@
 
 package org.apache.solr.handler.component;
 
-import org.apache.lucene.index.AtomicReader;
 import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.ReaderUtil;
 import org.apache.lucene.index.SortedDocValues;
-import org.apache.lucene.search.DocIdSetIterator;
-import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.FieldComparator;
+import org.apache.lucene.search.ScoreCachingWrappingScorer;
 import org.apache.lucene.search.Scorer;
 import org.apache.lucene.search.Sort;
-import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.SortField;
 import org.apache.lucene.search.FieldCache;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.Collector;
-import org.apache.lucene.search.TopDocsCollector;
-import org.apache.lucene.search.TopFieldCollector;
-import org.apache.lucene.search.TopScoreDocCollector;
 import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.CharsRef;
-import org.apache.lucene.util.FixedBitSet;
 import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.params.ShardParams;
 import org.apache.solr.search.CollapsingQParserPlugin;
@@ -44,7 +40,9 @@ import org.apache.solr.search.QueryParsing;
 import org.apache.solr.schema.FieldType;
 import org.apache.solr.common.params.SolrParams;
 import org.apache.solr.common.params.ExpandParams;
+import org.apache.solr.common.params.GroupCollapseParams;
 import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
 import org.apache.solr.request.SolrQueryRequest;
 import org.apache.solr.search.DocSlice;
 import org.apache.solr.search.SolrIndexSearcher;
@@ -52,17 +50,17 @@ import org.apache.solr.util.plugin.PluginInfoInitialized;
 import org.apache.solr.util.plugin.SolrCoreAware;
 import org.apache.solr.core.PluginInfo;
 import org.apache.solr.core.SolrCore;
-import com.carrotsearch.hppc.IntObjectOpenHashMap;
-import com.carrotsearch.hppc.IntOpenHashSet;
-import com.carrotsearch.hppc.cursors.IntObjectCursor;
+import org.opencommercesearch.search.StageTimers;
+import com.carrotsearch.hppc.IntIntOpenHashMap;
 import java.io.IOException;
-import java.net.MalformedURLException;
-import java.net.URL;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
   * The ExpandComponent is designed to work with the CollapsingPostFilter.
@@ -83,7 +81,17 @@ import java.util.Map;
   **/
     
 public class ExpandAllComponent extends SearchComponent implements PluginInfoInitialized, SolrCoreAware {
+  /**
+   * Latency of the group expansion and the group summaries computed while expanding, and counts of the expanded and
+   * summarized groups
+   */
+  static final String STAGE_EXPAND = "expand";
+  static final String STAGE_GROUP_SUMMARY = "groupSummary";
+
   private PluginInfo info = PluginInfo.EMPTY_INFO;
+  private final StageTimers stageTimers = new StageTimers(STAGE_EXPAND, STAGE_GROUP_SUMMARY);
+  private final AtomicLong groupsExpanded = new AtomicLong();
+  private final AtomicLong groupsSummarized = new AtomicLong();
 
   @Override
   public void init(PluginInfo info) {
@@ -94,6 +102,24 @@ public class ExpandAllComponent extends SearchComponent implements PluginInfoIni
     return  rb.req.getParams().getBool("expandall",false);
   }
 
+  /**
+   * @return true if the group collapse summaries can be computed while expanding the groups
+   */
+  private boolean doSummary(ResponseBuilder rb) {
+    SolrParams params = rb.req.getParams();
+    if(!params.getBool(GroupCollapseParams.GROUP_COLLAPSE, false) || params.get(GroupCollapseParams.GROUP_COLLAPSE_FL) == null
+        || !params.getBool(GroupCollapseParams.GROUP_COLLAPSE_SINGLE_PASS, true)) {
+      return false;
+    }
+
+    for(SearchComponent component : rb.components) {
+      if(component instanceof GroupCollapseComponent) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   @Override
   public void prepare(ResponseBuilder rb) throws IOException {
   }
@@ -120,6 +146,8 @@ public class ExpandAllComponent extends SearchComponent implements PluginInfoIni
       return;
     }
 
+    long startTime = System.nanoTime();
+
     String field = params.get(ExpandParams.EXPAND_FIELD);
     if(field == null) {
       List<Query> filters = rb.getFilters();
@@ -185,25 +213,47 @@ public class ExpandAllComponent extends SearchComponent implements PluginInfoIni
     }
 
     SolrIndexSearcher searcher = req.getSearcher();
-    AtomicReader reader = searcher.getAtomicReader();
-    SortedDocValues values = FieldCache.DEFAULT.getTermsIndex(reader, field);
-    FixedBitSet groupBits = new FixedBitSet(values.getValueCount());
+    List<AtomicReaderContext> leaves = searcher.getTopReaderContext().leaves();
     DocList docList = rb.getResults().docList;
-    IntOpenHashSet collapsedSet = new IntOpenHashSet(docList.size()*2);
+    List<BytesRef> groupTerms = new ArrayList<BytesRef>(docList.size());
+    Set<BytesRef> groupTermSet = new HashSet<BytesRef>(docList.size() * 2);
+    BytesRef bytesRef = new BytesRef();
 
     DocIterator idit = docList.iterator();
 
     while(idit.hasNext()) {
       int doc = idit.nextDoc();
-      int ord = values.getOrd(doc);
+      AtomicReaderContext leaf = leaves.get(ReaderUtil.subIndex(doc, leaves));
+      SortedDocValues values = FieldCache.DEFAULT.getTermsIndex(leaf.reader(), field);
+      int ord = values.getOrd(doc - leaf.docBase);
       if(ord > -1) {
-        groupBits.set(ord);
-        collapsedSet.add(doc);
+        values.lookupOrd(ord, bytesRef);
+        if(!groupTermSet.contains(bytesRef)) {
+          BytesRef groupTerm = BytesRef.deepCopyOf(bytesRef);
+          groupTerms.add(groupTerm);
+          groupTermSet.add(groupTerm);
+        }
       }
     }
 
     Collector collector = null;
-    GroupExpandCollector groupExpandCollector = new GroupExpandCollector(values, groupBits, collapsedSet, limit, sort);
+    GroupExpandCollector groupExpandCollector = new GroupExpandCollector(field, groupTerms.toArray(new BytesRef[groupTerms.size()]), limit, sort);
+    GroupCollapseSummary summary = null;
+    GroupCollapseSummary.SlotValues slotValues = null;
+
+    if(doSummary(rb)) {
+      // the group collapse summaries are computed from the expanded docs in the same pass
+      String fieldList = params.get(GroupCollapseParams.GROUP_COLLAPSE_FL);
+      String[] summaryFqs = params.getParams(GroupCollapseParams.GROUP_COLLAPSE_FQ);
+      Set<String> fieldNames = GroupCollapseComponent.getSummaryFields(fieldList, summaryFqs, req.getSchema());
+
+      if(fieldNames.size() > 0) {
+        summary = new GroupCollapseSummary(field, searcher, fieldNames, GroupCollapseComponent.getFilterField(params, req.getSchema()));
+        slotValues = summary.newSlotValues(groupExpandCollector.getNumSlots(), GroupCollapseComponent.getSummaryFilters(summaryFqs, req));
+        groupExpandCollector.setSlotValues(slotValues);
+      }
+    }
+
     SolrIndexSearcher.ProcessedFilter pfilter = searcher.getProcessedFilter(null, newFilters);
     if(pfilter.postFilter != null) {
       pfilter.postFilter.setLastDelegate(groupExpandCollector);
@@ -213,36 +263,48 @@ public class ExpandAllComponent extends SearchComponent implements PluginInfoIni
     }
 
     searcher.search(query, pfilter.filter, collector);
-    IntObjectOpenHashMap groups = groupExpandCollector.getGroups();
-    Iterator<IntObjectCursor> it = groups.iterator();
-    Map<String, DocSlice> outMap = new HashMap();
-    BytesRef bytesRef = new BytesRef();
+    Map<String, DocList> outMap = new HashMap();
     CharsRef charsRef = new CharsRef();
     FieldType fieldType = searcher.getSchema().getField(field).getType();
-
-    while(it.hasNext()) {
-      IntObjectCursor cursor = it.next();
-      int ord = cursor.key;
-      TopDocsCollector topDocsCollector = (TopDocsCollector)cursor.value;
-      TopDocs topDocs = topDocsCollector.topDocs();
-      ScoreDoc[] scoreDocs = topDocs.scoreDocs;
-      if(scoreDocs.length > 0) {
-        int[] docs = new int[scoreDocs.length];
-        float[] scores = new float[scoreDocs.length];
-        for(int i=0; i<docs.length; i++) {
-          ScoreDoc scoreDoc = scoreDocs[i];
-          docs[i] = scoreDoc.doc;
-          scores[i] = scoreDoc.score;
+    long summaryTime = 0;
+
+    for(int group = 0; group < groupTerms.size(); group++) {
+      int[] slots = groupExpandCollector.popSlots(group);
+      if(slots.length > 0) {
+        fieldType.indexedToReadable(groupTerms.get(group), charsRef);
+        String groupValue = charsRef.toString();
+        outMap.put(groupValue, groupExpandCollector.toDocSlice(group, slots));
+        if(summary != null) {
+          long summaryStartTime = System.nanoTime();
+          summary.processSlots(groupValue, slots, slotValues, params);
+          summaryTime += System.nanoTime() - summaryStartTime;
         }
-        DocSlice slice = new DocSlice(0, docs.length, docs, scores, topDocs.totalHits, topDocs.getMaxScore());
-        values.lookupOrd(ord, bytesRef);
-        fieldType.indexedToReadable(bytesRef, charsRef);
-        String group = charsRef.toString();
-        outMap.put(group, slice);
       }
     }
 
     rb.rsp.add("expanded", outMap);
+    groupsExpanded.addAndGet(outMap.size());
+
+    if(summary != null) {
+      long summaryStartTime = System.nanoTime();
+      NamedList groupSummaryRsp = new NamedList();
+      summary.addSlotValues(outMap, slotValues, groupSummaryRsp, params);
+      rb.rsp.add("groups_summary", groupSummaryRsp);
+      req.getContext().put(GroupCollapseComponent.SUMMARY_CONTEXT, Boolean.TRUE);
+      groupsSummarized.addAndGet(GroupCollapseComponent.countGroups(groupSummaryRsp));
+      summaryTime += System.nanoTime() - summaryStartTime;
+      stageTimers.update(STAGE_GROUP_SUMMARY, summaryTime, req);
+    }
+    stageTimers.record(STAGE_EXPAND, startTime, req);
+  }
+
+  @Override
+  public NamedList getStatistics() {
+    NamedList<Object> stats = new SimpleOrderedMap<Object>();
+    stats.add("groupsExpanded", groupsExpanded.get());
+    stats.add("groupsSummarized", groupsSummarized.get());
+    stageTimers.addTo(stats);
+    return stats;
   }
 
   @Override
@@ -298,33 +360,70 @@ public class ExpandAllComponent extends SearchComponent implements PluginInfoIni
     rb.rsp.add("expanded", expanded);
   }
 
-  private class GroupExpandCollector extends Collector {
-    private SortedDocValues docValues;
-    private IntObjectOpenHashMap groups;
+  /**
+   * Collects the top docs of each collapsed group. The group terms are resolved to segment ordinals once per segment.
+   * All groups share a single set of sort comparators: each group owns limit comparator slots arranged as a bounded
+   * heap with its least competitive doc on top, plus one scratch slot to compare new docs against the heaps.
+   */
+  static class GroupExpandCollector extends Collector {
+    private final String field;
+    private final BytesRef[] groupTerms;
+    private final int limit;
+    private final boolean trackScores;
+    private final FieldComparator<?>[] comparators;
+    private final int[] reverseMul;
+    // the heap of a group starts at group * limit, values are comparator slots
+    private final int[] heaps;
+    private final int[] heapSizes;
+    private final int[] totalHits;
+    private final int[] docs;
+    private final float[] scores;
+    private int scratchSlot;
+    private final IntIntOpenHashMap ordToGroup;
+    private SortedDocValues values;
     private int docBase;
-    private FixedBitSet groupBits;
-    private IntOpenHashSet collapsedSet;
-    private List<Collector> collectors;
-
-    public GroupExpandCollector(SortedDocValues docValues, FixedBitSet groupBits, IntOpenHashSet collapsedSet, int limit, Sort sort) throws IOException {
-      int numGroups = collapsedSet.size();
-      groups = new IntObjectOpenHashMap(numGroups*2);
-      collectors = new ArrayList();
-      DocIdSetIterator iterator = groupBits.iterator();
-      int group = -1;
-      while((group = iterator.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
-        Collector collector = (sort == null) ? TopScoreDocCollector.create(limit, true) : TopFieldCollector.create(sort,limit, false, false,false, true);
-        groups.put(group, collector);
-        collectors.add(collector);
+    private Scorer scorer;
+    private GroupCollapseSummary.SlotValues slotValues;
+
+    /**
+     * @param field the collapse field
+     * @param groupTerms the indexed terms of the groups to expand
+     * @param limit the max number of docs per group
+     * @param sort the sort for the docs within each group, null to sort by score
+     */
+    GroupExpandCollector(String field, BytesRef[] groupTerms, int limit, Sort sort) throws IOException {
+      this.field = field;
+      this.groupTerms = groupTerms;
+      this.limit = Math.max(limit, 0);
+      this.trackScores = sort == null;
+
+      SortField[] sortFields = (sort == null) ? new SortField[] { SortField.FIELD_SCORE } : sort.getSort();
+      int numSlots = groupTerms.length * this.limit + 1;
+      comparators = new FieldComparator<?>[sortFields.length];
+      reverseMul = new int[sortFields.length];
+      for(int i = 0; i < sortFields.length; i++) {
+        comparators[i] = sortFields[i].getComparator(numSlots, i);
+        reverseMul[i] = sortFields[i].getReverse() ? -1 : 1;
       }
 
-      this.collapsedSet = collapsedSet;
-      this.groupBits = groupBits;
-      this.docValues = docValues;
+      heaps = new int[groupTerms.length * this.limit];
+      heapSizes = new int[groupTerms.length];
+      totalHits = new int[groupTerms.length];
+      docs = new int[numSlots];
+      scores = trackScores ? new float[numSlots] : null;
+      scratchSlot = numSlots - 1;
+      ordToGroup = new IntIntOpenHashMap(groupTerms.length * 2);
+    }
+
+    int getNumSlots() {
+      return docs.length;
     }
 
-    public IntObjectOpenHashMap getGroups() {
-      return this.groups;
+    /**
+     * Sets the summary values to read when a doc enters the top docs of a group
+     */
+    void setSlotValues(GroupCollapseSummary.SlotValues slotValues) {
+      this.slotValues = slotValues;
     }
 
     public boolean acceptsDocsOutOfOrder() {
@@ -332,25 +431,180 @@ public class ExpandAllComponent extends SearchComponent implements PluginInfoIni
     }
 
     public void collect(int docId) throws IOException {
-      int doc = docId+docBase;
-      int ord = docValues.getOrd(doc);
-      if(ord > -1 && groupBits.get(ord)) {
-        Collector c = (Collector)groups.get(ord);
-        c.collect(docId);
+      int ord = values.getOrd(docId);
+      if(ord < 0 || !ordToGroup.containsKey(ord)) {
+        return;
+      }
+
+      int group = ordToGroup.lget();
+      totalHits[group]++;
+      if(limit == 0) {
+        return;
+      }
+
+      int heapStart = group * limit;
+      int size = heapSizes[group];
+
+      if(size < limit) {
+        // until the heap is full the group uses its own slots in order
+        int slot = heapStart + size;
+        copy(slot, docId);
+        if(slotValues != null) {
+          slotValues.copy(slot, docId);
+        }
+        heaps[heapStart + size] = slot;
+        heapSizes[group] = ++size;
+        upHeap(heapStart, size - 1);
+      } else {
+        int bottom = heaps[heapStart];
+        copy(scratchSlot, docId);
+        if(compare(scratchSlot, bottom) < 0) {
+          // the scratch slot takes the bottom's place, the bottom's slot becomes the scratch slot
+          if(slotValues != null) {
+            slotValues.copy(scratchSlot, docId);
+          }
+          heaps[heapStart] = scratchSlot;
+          scratchSlot = bottom;
+          downHeap(heapStart, size);
+        }
       }
     }
 
     public void setNextReader(AtomicReaderContext context) throws IOException {
       this.docBase = context.docBase;
-      for(Collector c : collectors) {
-        c.setNextReader(context);
+      this.values = FieldCache.DEFAULT.getTermsIndex(context.reader(), field);
+
+      ordToGroup.clear();
+      for(int group = 0; group < groupTerms.length; group++) {
+        int ord = values.lookupTerm(groupTerms[group]);
+        if(ord > -1) {
+          ordToGroup.put(ord, group);
+        }
+      }
+
+      for(int i = 0; i < comparators.length; i++) {
+        comparators[i] = comparators[i].setNextReader(context);
+      }
+
+      if(slotValues != null) {
+        slotValues.setNextReader(context);
       }
     }
 
     public void setScorer(Scorer scorer) throws IOException {
-      for(Collector c : collectors) {
-        c.setScorer(scorer);
+      if(trackScores) {
+        scorer = new ScoreCachingWrappingScorer(scorer);
+      }
+      this.scorer = scorer;
+      for(FieldComparator<?> comparator : comparators) {
+        comparator.setScorer(scorer);
+      }
+    }
+
+    /**
+     * Gets the top docs of a group. The heap of the group is emptied.
+     *
+     * @param group the group index in the group terms
+     * @return the top docs of the group or null if no doc was collected for the group
+     */
+    DocSlice getDocSlice(int group) {
+      int[] slots = popSlots(group);
+      return slots.length > 0 ? toDocSlice(group, slots) : null;
+    }
+
+    /**
+     * Empties the heap of a group.
+     *
+     * @param group the group index in the group terms
+     * @return the slots of the group's top docs in sort order
+     */
+    int[] popSlots(int group) {
+      int size = heapSizes[group];
+      int heapStart = group * limit;
+      int[] slots = new int[size];
+
+      // pop the least competitive doc first
+      for(int i = size - 1; i >= 0; i--) {
+        slots[i] = heaps[heapStart];
+        heaps[heapStart] = heaps[heapStart + i];
+        downHeap(heapStart, i);
+      }
+      heapSizes[group] = 0;
+      return slots;
+    }
+
+    /**
+     * @param group the group index in the group terms
+     * @param slots the slots of the group's top docs, see {@link #popSlots(int)}
+     * @return the top docs in the given slots
+     */
+    DocSlice toDocSlice(int group, int[] slots) {
+      int[] groupDocs = new int[slots.length];
+      float[] groupScores = new float[slots.length];
+
+      for(int i = 0; i < slots.length; i++) {
+        groupDocs[i] = docs[slots[i]];
+        groupScores[i] = trackScores ? scores[slots[i]] : Float.NaN;
+      }
+      return new DocSlice(0, slots.length, groupDocs, groupScores, totalHits[group], groupScores[0]);
+    }
+
+    private void copy(int slot, int docId) throws IOException {
+      for(FieldComparator<?> comparator : comparators) {
+        comparator.copy(slot, docId);
+      }
+      docs[slot] = docBase + docId;
+      if(trackScores) {
+        scores[slot] = scorer.score();
+      }
+    }
+
+    /**
+     * Compares two slots in sort order, ties are broken by doc id
+     */
+    private int compare(int slot1, int slot2) {
+      for(int i = 0; i < comparators.length; i++) {
+        int c = reverseMul[i] * comparators[i].compare(slot1, slot2);
+        if(c != 0) {
+          return c;
+        }
+      }
+      return docs[slot1] - docs[slot2];
+    }
+
+    private void upHeap(int heapStart, int i) {
+      int slot = heaps[heapStart + i];
+      while(i > 0) {
+        int parent = (i - 1) >>> 1;
+        int parentSlot = heaps[heapStart + parent];
+        if(compare(slot, parentSlot) <= 0) {
+          break;
+        }
+        heaps[heapStart + i] = parentSlot;
+        i = parent;
+      }
+      heaps[heapStart + i] = slot;
+    }
+
+    private void downHeap(int heapStart, int size) {
+      int i = 0;
+      int slot = heaps[heapStart];
+      while(true) {
+        int child = 2 * i + 1;
+        if(child >= size) {
+          break;
+        }
+        if(child + 1 < size && compare(heaps[heapStart + child + 1], heaps[heapStart + child]) > 0) {
+          child++;
+        }
+        int childSlot = heaps[heapStart + child];
+        if(compare(slot, childSlot) >= 0) {
+          break;
+        }
+        heaps[heapStart + i] = childSlot;
+        i = child;
       }
+      heaps[heapStart + i] = slot;
     }
   }
 
@@ -25,6 +25,8 @@ import org.apache.solr.common.params.GroupCollapseParams;
 import org.apache.solr.core.SolrCore;
 import org.apache.solr.common.params.SolrParams;
 import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.request.SolrQueryRequest;
 import org.apache.solr.schema.FieldType;
 import org.apache.solr.schema.IndexSchema;
 import org.apache.solr.search.CollapsingQParserPlugin;
@@ -32,11 +34,13 @@ import org.apache.solr.search.DocList;
 import org.apache.solr.search.QParser;
 import org.apache.solr.util.SolrPluginUtils;
 import org.apache.solr.util.plugin.SolrCoreAware;
+import org.opencommercesearch.search.StageTimers;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author rmerizalde
@@ -46,6 +50,18 @@ public class GroupCollapseComponent extends SearchComponent implements SolrCoreA
     public static String COLOR_FIELD = "color";
     public static String COLORFAMILY_FIELD = "colorFamily";
 
+    /**
+     * Request context key set when the group summaries were computed by the {@link ExpandAllComponent}
+     */
+    static final String SUMMARY_CONTEXT = "groupcollapse.summary";
+
+    /**
+     * Latency of the group summaries and count of summarized groups
+     */
+    static final String STAGE_GROUP_SUMMARY = "groupSummary";
+    private final StageTimers stageTimers = new StageTimers(STAGE_GROUP_SUMMARY);
+    private final AtomicLong groupsSummarized = new AtomicLong();
+
     private SolrParams initArgs = null;
 
     @Override
@@ -90,34 +106,9 @@ public class GroupCollapseComponent extends SearchComponent implements SolrCoreA
             return;
         }
 
-        String[] wantedFields = SolrPluginUtils.split(fieldList);
-        Set<String> fieldNames = new HashSet<String>();
-        IndexSchema schema = rb.req.getSchema();
         String[] fqs = params.getParams(GroupCollapseParams.GROUP_COLLAPSE_FQ);
-
-        for (String wantedField : wantedFields) {
-            FieldType fieldType = schema.getFieldType(wantedField);
-
-            // @todo: this won't be need when we stop supporting the old summary generation approach
-            if (fieldType.getNumericType() != null || fieldType.getTypeName().equals("string") || fqs != null) {
-                fieldNames.add(wantedField);
-            }
-            
-            else {
-                log.warn("Unsupported field summary type: " + fieldType.getTypeName());
-            }
-       }
-
-        String filterField = params.get(GroupCollapseParams.GROUP_COLLAPSE_FF);
-
-        if(filterField != null) {
-            FieldType fieldType = schema.getFieldType(filterField);
-
-            if(!fieldType.getTypeName().equals("boolean")) {
-              log.warn("Group collapse filter field is not boolean, no filtering will be done. Check if the param GROUP_COLLAPSE_FF is correct.");
-              filterField = null;
-            }
-        }
+        Set<String> fieldNames = getSummaryFields(fieldList, fqs, rb.req.getSchema());
+        String filterField = getFilterField(params, rb.req.getSchema());
 
         if (fieldNames.size() == 0) {
             log.info("No query response found");
@@ -136,21 +127,12 @@ public class GroupCollapseComponent extends SearchComponent implements SolrCoreA
             return;
         }
 
+        long startTime = System.nanoTime();
         NamedList grouped = (NamedList) values.get("grouped");
 
         if (grouped != null) {
             if (fqs != null) {
-                List<Query> newFilters = new ArrayList<Query>();
-                try {
-                    for (String fq : fqs) {
-                        if (fq != null && fq.trim().length() != 0 && !fq.equals("*:*")) {
-                            QParser fqp = QParser.getParser(fq, null, rb.req);
-                            newFilters.add(fqp.getQuery());
-                        }
-                    }
-                } catch (Exception e) {
-                    throw new IOException(e);
-                }
+                List<Query> newFilters = getSummaryFilters(fqs, rb.req);
 
                 if (rb.getGroupingSpec().getFields().length > 0) {
                     String field = rb.getGroupingSpec().getFields()[0];
@@ -159,7 +141,7 @@ public class GroupCollapseComponent extends SearchComponent implements SolrCoreA
                     Map<String, DocList> expanded = groupsToMap((NamedList) grouped.get(field));
 
                     groupFieldSummary.processExpandedOrds(expanded, newFilters, groupSummaryRsp, params);
-                    rb.rsp.add("groups_summary", groupSummaryRsp);
+                    addSummary(rb, groupSummaryRsp, startTime);
                 }
             } else {
 
@@ -175,10 +157,15 @@ public class GroupCollapseComponent extends SearchComponent implements SolrCoreA
                         groupFieldSummary.addValues(groupSummaryRsp);
                     }
                 }
-                rb.rsp.add("groups_summary", groupSummaryRsp);
+                addSummary(rb, groupSummaryRsp, startTime);
             }
 
         } else {
+            if (rb.req.getContext().containsKey(SUMMARY_CONTEXT)) {
+                // already summarized while expanding the groups
+                return;
+            }
+
             Map<String, DocList> expanded = (Map<String, DocList>) values.get("expanded");
             NamedList groupSummaryRsp = new NamedList();
 
@@ -186,32 +173,120 @@ public class GroupCollapseComponent extends SearchComponent implements SolrCoreA
                 GroupCollapseSummary groupFieldSummary = new GroupCollapseSummary(getExpandField(params, rb), rb.req.getSearcher(), fieldNames, filterField);
 
                 if (fqs != null) {
-                    List<Query> newFilters = new ArrayList<Query>();
-                    try {
-                        for (String fq : fqs) {
-                            if (fq != null && fq.trim().length() != 0 && !fq.equals("*:*")) {
-                                QParser fqp = QParser.getParser(fq, null, rb.req);
-                                newFilters.add(fqp.getQuery());
-                            }
-                        }
-                    } catch (Exception e) {
-                        throw new IOException(e);
-                    }
-
-
+                    List<Query> newFilters = getSummaryFilters(fqs, rb.req);
                     groupFieldSummary.processExpandedOrds(expanded, newFilters, groupSummaryRsp, params);
                 } else {
                     groupFieldSummary.processExpanded(expanded);
                     groupFieldSummary.addValues(groupSummaryRsp);
                 }
 
-                rb.rsp.add("groups_summary", groupSummaryRsp);
+                addSummary(rb, groupSummaryRsp, startTime);
             } else {
                 log.info("No groups found in query response");
             }
         }
     }
 
+    /**
+     * Adds the group summaries to the response and records the time spent summarizing them
+     */
+    private void addSummary(ResponseBuilder rb, NamedList groupSummaryRsp, long startTime) {
+        rb.rsp.add("groups_summary", groupSummaryRsp);
+        groupsSummarized.addAndGet(countGroups(groupSummaryRsp));
+        stageTimers.record(STAGE_GROUP_SUMMARY, startTime, rb.req);
+    }
+
+    /**
+     * @param groupSummaryRsp the group summaries, by group field
+     * @return the number of summarized groups
+     */
+    static int countGroups(NamedList groupSummaryRsp) {
+        int count = 0;
+
+        for (int i = 0; i < groupSummaryRsp.size(); i++) {
+            Object groups = groupSummaryRsp.getVal(i);
+            if (groups instanceof NamedList) {
+                count += ((NamedList) groups).size();
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public NamedList getStatistics() {
+        NamedList<Object> stats = new SimpleOrderedMap<Object>();
+        stats.add("groupsSummarized", groupsSummarized.get());
+        stageTimers.addTo(stats);
+        return stats;
+    }
+
+    /**
+     * Gets the fields to summarize. Unsupported fields are logged and skipped.
+     *
+     * @param fieldList the {@link GroupCollapseParams#GROUP_COLLAPSE_FL} param
+     * @param fqs the {@link GroupCollapseParams#GROUP_COLLAPSE_FQ} params, any field is supported with summary filters
+     * @param schema the index schema
+     * @return the summary fields
+     */
+    static Set<String> getSummaryFields(String fieldList, String[] fqs, IndexSchema schema) {
+        String[] wantedFields = SolrPluginUtils.split(fieldList);
+        Set<String> fieldNames = new HashSet<String>();
+
+        for (String wantedField : wantedFields) {
+            FieldType fieldType = schema.getFieldType(wantedField);
+
+            // @todo: this won't be need when we stop supporting the old summary generation approach
+            if (fieldType.getNumericType() != null || fieldType.getTypeName().equals("string") || fqs != null) {
+                fieldNames.add(wantedField);
+            }
+            
+            else {
+                log.warn("Unsupported field summary type: " + fieldType.getTypeName());
+            }
+        }
+        return fieldNames;
+    }
+
+    /**
+     * @return the filter field or null if there is no filter field or it isn't boolean
+     */
+    static String getFilterField(SolrParams params, IndexSchema schema) {
+        String filterField = params.get(GroupCollapseParams.GROUP_COLLAPSE_FF);
+
+        if(filterField != null) {
+            FieldType fieldType = schema.getFieldType(filterField);
+
+            if(!fieldType.getTypeName().equals("boolean")) {
+              log.warn("Group collapse filter field is not boolean, no filtering will be done. Check if the param GROUP_COLLAPSE_FF is correct.");
+              filterField = null;
+            }
+        }
+        return filterField;
+    }
+
+    /**
+     * @param fqs the {@link GroupCollapseParams#GROUP_COLLAPSE_FQ} params
+     * @return the parsed summary filter queries or null if there are no summary filters
+     */
+    static List<Query> getSummaryFilters(String[] fqs, SolrQueryRequest req) throws IOException {
+        if (fqs == null) {
+            return null;
+        }
+
+        List<Query> newFilters = new ArrayList<Query>();
+        try {
+            for (String fq : fqs) {
+                if (fq != null && fq.trim().length() != 0 && !fq.equals("*:*")) {
+                    QParser fqp = QParser.getParser(fq, null, req);
+                    newFilters.add(fqp.getQuery());
+                }
+            }
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+        return newFilters;
+    }
+
     private Map<String, DocList> groupsToMap(NamedList groupField) {
         log.debug("Converting group field to map: %s", groupField);
         List<NamedList> groups = (List<NamedList>) groupField.get("groups");
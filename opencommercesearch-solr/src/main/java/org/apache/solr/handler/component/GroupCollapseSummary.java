@@ -1,10 +1,12 @@
 package org.apache.solr.handler.component;
 
-import org.apache.commons.lang.ObjectUtils;
+import com.carrotsearch.hppc.LongIntOpenHashMap;
+import com.carrotsearch.hppc.ObjectIntOpenHashMap;
 import org.apache.commons.lang.StringUtils;
-import org.apache.commons.lang.math.NumberUtils;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.*;
+import org.apache.lucene.queries.function.FunctionValues;
+import org.apache.lucene.queries.function.ValueSource;
 import org.apache.lucene.search.FieldCache;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.util.BytesRef;
@@ -13,7 +15,9 @@ import org.apache.solr.common.params.GroupCollapseParams;
 import org.apache.solr.common.params.SolrParams;
 import org.apache.solr.common.util.NamedList;
 import org.apache.solr.schema.FieldType;
+import org.apache.solr.schema.IndexSchema;
 import org.apache.solr.schema.SchemaField;
+import org.apache.solr.schema.StrField;
 import org.apache.solr.search.DocIterator;
 import org.apache.solr.search.DocList;
 import org.apache.solr.search.DocSet;
@@ -37,6 +41,13 @@ public class GroupCollapseSummary {
     private Set<String> fieldNames;
     private Map<String, Map<String, GroupFieldSummary>> groupFieldSummaries;
     private String filterField;
+
+    // doc values summaries, see getDocValuesFields
+    private boolean docValuesChecked;
+    private SummaryField[] docValuesFields;
+    private List<AtomicReaderContext> leaves;
+    private SegmentValues[] segments;
+    private Map<Object, Object> context;
     
     /**
      * Default constructor. Creates a new group collapse summary.
@@ -97,107 +108,46 @@ public class GroupCollapseSummary {
     void processExpandedOrds(Map<String, DocList> expanded, List<Query> filterQueries, NamedList groupSummaryRsp, SolrParams params) throws IOException {
         log.debug("Processing expanded results: %s", expanded.keySet());
 
-        AtomicReader reader = searcher.getAtomicReader();
-        SolrIndexSearcher.ProcessedFilter processedFilter = searcher.getProcessedFilter(null, filterQueries);
+        List<AtomicReaderContext> leaves = searcher.getTopReaderContext().leaves();
+        Map<Object, Object> context = ValueSource.newContext(searcher);
+        DocSet filter = searcher.getProcessedFilter(null, filterQueries).answer;
 
-        BytesRef bytesRef = new BytesRef();
         NamedList groups = new NamedList();
-        String[] summaryFunctions = params.getParams(GroupCollapseParams.GROUP_COLLAPSE_SF);
 
-        if (summaryFunctions == null) {
-            summaryFunctions = DEFAULT_SUMMARY_FUNCTIONS;
-        }
+        // reused for every field and group
+        SlotAccumulator accumulator = new SlotAccumulator();
 
         for (String fieldName : fieldNames) {
-            // use doc values?
-            SortedSetDocValues valueSet = FieldCache.DEFAULT.getDocTermOrds(reader, fieldName);
             SchemaField schemaField = searcher.getSchema().getField(fieldName);
-            FieldType fieldType = schemaField.getType();
-
-            String[] fieldSummaryFunctions = params.getFieldParams(fieldName, "sf");
-
-            if (fieldSummaryFunctions == null) {
-                fieldSummaryFunctions = summaryFunctions;
-            }
+            ValueSlots slots = newValueSlots(schemaField, leaves, context, false);
+            String[] fieldSummaryFunctions = getSummaryFunctions(params, fieldName);
 
             for (Map.Entry<String, DocList> entry : expanded.entrySet()) {
                 String groupValue = entry.getKey();
+                DocList docList = entry.getValue();
 
-                    NamedList group = (NamedList) groups.get(groupValue);
+                NamedList group = (NamedList) groups.get(groupValue);
                 if (group == null){
                     group = new NamedList();
                     groups.add(groupValue, group);
                 }
 
-                Map<Long, Integer> ordMap = new LinkedHashMap<Long, Integer>();
-                long max = Long.MIN_VALUE;
-                long min = Long.MAX_VALUE;
-
-
-                DocSet docSet = entry.getValue();
+                // only the docs matching the filters are summarized, unless none of them does
+                boolean filterDocs = filter != null && matchesAny(docList, filter);
+                accumulator.clear();
 
-                if (processedFilter.answer != null) {
-                    entry.getValue().intersection(processedFilter.answer);
-                }
-
-                if (docSet.size() == 0) {
-                    docSet = entry.getValue();
-                }
-
-                for (DocIterator it = entry.getValue().iterator(); it.hasNext(); ) {
+                for (DocIterator it = docList.iterator(); it.hasNext(); ) {
                     int docId = it.nextDoc();
 
-                    if (docSet.exists(docId)) {
-                        valueSet.setDocument(docId);
-                        // take first ord
-                        long ord = valueSet.nextOrd();
-                        if (ord != SortedSetDocValues.NO_MORE_ORDS) {
-                            max = Math.max(ord, max);
-                            min = Math.min(ord, min);
-
-                            Integer count = (Integer) ObjectUtils.defaultIfNull(ordMap.get(ord), NumberUtils.INTEGER_ZERO);
-                            ordMap.put(ord, count + 1);
+                    if (!filterDocs || filter.exists(docId)) {
+                        int slot = slots.getSlot(docId);
+                        if (slot >= 0) {
+                            accumulator.add(slot);
                         }
                     }
                 }
 
-                NamedList fieldSummary = new NamedList();
-
-                for (String function : fieldSummaryFunctions) {
-                    if ("min".equals(function)) {
-                        if (ordMap.size() > 0 ) {
-                            valueSet.lookupOrd(min, bytesRef);
-                            fieldSummary.add("min", fieldType.toObject(schemaField, bytesRef));
-                        }
-                    } else if ("max".equals(function)) {
-                        if (ordMap.size() > 0 ) {
-                            valueSet.lookupOrd(max, bytesRef);
-                            fieldSummary.add("max", fieldType.toObject(schemaField, bytesRef));
-                        }
-                    } else if ("count".equals(function)) {
-                        fieldSummary.add("count", ordMap.size());
-                    } else if ("distinct".equals(function)) {
-                        Set<Object> objSet = new LinkedHashSet<Object>(ordMap.size());
-                        for (Long ord : ordMap.keySet()) {
-                            valueSet.lookupOrd(ord, bytesRef);
-                            objSet.add(fieldType.toObject(schemaField, bytesRef));
-                        }
-                        fieldSummary.add("distinct", objSet);
-                    } else if ("bucket".equals(function)) {
-                        if (ordMap.size() > 0) {
-                            Map<Object, Integer> map = new LinkedHashMap<Object, Integer>(ordMap.size());
-
-                            for (Map.Entry<Long, Integer> e : ordMap.entrySet()) {
-                                valueSet.lookupOrd(e.getKey(), bytesRef);
-                                map.put(fieldType.toObject(schemaField, bytesRef), e.getValue());
-                            }
-
-                            fieldSummary.add("buckets", map);
-                        }
-                    } else {
-                        throw new IllegalArgumentException("Invalid function " + function);
-                    }
-                }
+                NamedList fieldSummary = summarize(slots, accumulator, fieldSummaryFunctions);
 
                 if (fieldSummary.size() > 0) {
                     group.add(fieldName, fieldSummary);
@@ -219,6 +169,177 @@ public class GroupCollapseSummary {
         }
     }
 
+    /**
+     * Creates the values for the docs in the slots of an expand collector, see {@link SlotValues}.
+     *
+     * @param numSlots the number of slots in the collector
+     * @param filterQueries the summary filters or null if the summary uses the filter field
+     */
+    SlotValues newSlotValues(int numSlots, List<Query> filterQueries) throws IOException {
+        DocSet filter = null;
+        if (filterQueries != null) {
+            filter = searcher.getProcessedFilter(null, filterQueries).answer;
+        }
+        return new SlotValues(numSlots, filterQueries != null, filter);
+    }
+
+    /**
+     * Summarizes a group from the docs in the given slots. Like {@link #processExpandedOrds} if the slot values have
+     * summary filters, otherwise like {@link #processExpanded}.
+     *
+     * @param groupValue the group value
+     * @param slots the slots holding the group docs, in the group's sort order
+     * @param values the slot values
+     * @param params the request params
+     */
+    void processSlots(String groupValue, int[] slots, SlotValues values, SolrParams params) {
+        boolean filterDocs = false;
+        for (int slot : slots) {
+            if (!values.excluded[slot]) {
+                filterDocs = true;
+                break;
+            }
+        }
+
+        if (values.ords) {
+            NamedList group = new NamedList();
+
+            for (int i = 0; i < values.fields.length; i++) {
+                values.accumulator.clear();
+                for (int slot : slots) {
+                    int valueSlot = values.fieldSlots[i][slot];
+                    if (valueSlot >= 0 && (!filterDocs || !values.excluded[slot])) {
+                        values.accumulator.add(valueSlot);
+                    }
+                }
+
+                NamedList fieldSummary = summarize(values.valueSlots[i], values.accumulator, getSummaryFunctions(params, values.fields[i]));
+                if (fieldSummary.size() > 0) {
+                    group.add(values.fields[i], fieldSummary);
+                }
+            }
+            values.groups.add(groupValue, group);
+            return;
+        }
+
+        for (int i = 0; i < values.fields.length; i++) {
+            GroupFieldSummary summary = getSummary(groupValue, values.fields[i]);
+
+            for (int slot : slots) {
+                int valueSlot = values.fieldSlots[i][slot];
+                if (valueSlot >= 0 && (!filterDocs || !values.excluded[slot])) {
+                    Object value = values.valueSlots[i].getValue(valueSlot);
+                    if (value instanceof Number) {
+                        summary.processFieldValue(((Number) value).floatValue());
+                    } else if (value != null && StringUtils.isNotEmpty(value.toString())) {
+                        summary.processFieldValue(value.toString());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the summaries computed by {@link #processSlots} to the response and removes all but the first doc of each
+     * group, same as the summaries computed from the expanded doc lists.
+     */
+    void addSlotValues(Map<String, DocList> expanded, SlotValues values, NamedList groupSummaryRsp, SolrParams params) {
+        if (!values.ords || !params.getBool(CommonParams.DEBUG, false)) {
+            for (Map.Entry<String, DocList> entry : expanded.entrySet()) {
+                entry.setValue(entry.getValue().subset(0, 1));
+            }
+        }
+
+        if (!values.ords) {
+            addValues(groupSummaryRsp);
+        } else if (values.groups.size() > 0) {
+            groupSummaryRsp.add(groupField, values.groups);
+        }
+    }
+
+    private static String[] getSummaryFunctions(SolrParams params, String fieldName) {
+        String[] summaryFunctions = params.getFieldParams(fieldName, "sf");
+
+        if (summaryFunctions == null) {
+            summaryFunctions = params.getParams(GroupCollapseParams.GROUP_COLLAPSE_SF);
+        }
+        if (summaryFunctions == null) {
+            summaryFunctions = DEFAULT_SUMMARY_FUNCTIONS;
+        }
+        return summaryFunctions;
+    }
+
+    /**
+     * Applies the summary functions to the slots in the given accumulator
+     */
+    private static NamedList summarize(ValueSlots slots, SlotAccumulator accumulator, String[] summaryFunctions) {
+        int size = accumulator.size();
+        NamedList fieldSummary = new NamedList();
+
+        for (String function : summaryFunctions) {
+            if ("min".equals(function)) {
+                if (size > 0) {
+                    fieldSummary.add("min", slots.getValue(accumulator.min(slots)));
+                }
+            } else if ("max".equals(function)) {
+                if (size > 0) {
+                    fieldSummary.add("max", slots.getValue(accumulator.max(slots)));
+                }
+            } else if ("count".equals(function)) {
+                fieldSummary.add("count", size);
+            } else if ("distinct".equals(function)) {
+                // slots are unique, no need for a set
+                List<Object> distinct = new ArrayList<Object>(size);
+                for (int i = 0; i < size; i++) {
+                    distinct.add(slots.getValue(accumulator.slot(i)));
+                }
+                fieldSummary.add("distinct", distinct);
+            } else if ("bucket".equals(function)) {
+                if (size > 0) {
+                    Map<Object, Integer> buckets = new LinkedHashMap<Object, Integer>(size * 2);
+
+                    for (int i = 0; i < size; i++) {
+                        int slot = accumulator.slot(i);
+                        buckets.put(slots.getValue(slot), accumulator.count(slot));
+                    }
+
+                    fieldSummary.add("buckets", buckets);
+                }
+            } else {
+                throw new IllegalArgumentException("Invalid function " + function);
+            }
+        }
+        return fieldSummary;
+    }
+
+    /**
+     * Creates the value slots for a field. Single valued numeric fields with doc values are read through their value
+     * source, any other field through its per segment term ordinals.
+     *
+     * @param joinValues if true, the values of multivalued string fields are joined with a space. Otherwise only the
+     *                   first value is used
+     */
+    private ValueSlots newValueSlots(SchemaField schemaField, List<AtomicReaderContext> leaves, Map<Object, Object> context, boolean joinValues) {
+        FieldType fieldType = schemaField.getType();
+
+        if (fieldType.getNumericType() != null) {
+            if (schemaField.hasDocValues() && !schemaField.multiValued()) {
+                return new NumericSlots(schemaField, leaves, fieldType.getValueSource(schemaField, null), context);
+            }
+            joinValues = false;
+        }
+        return new TermSlots(schemaField, leaves, joinValues && schemaField.multiValued());
+    }
+
+    private static boolean matchesAny(DocList docList, DocSet filter) {
+        for (DocIterator it = docList.iterator(); it.hasNext(); ) {
+            if (filter.exists(it.nextDoc())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Process docs within the group. All wanted fields for this each doc will be summarized into a single group value.
      * <p/>
@@ -230,6 +351,10 @@ public class GroupCollapseSummary {
      * @throws IOException If doc fields can't be retrieved from the index.
      */
     private boolean processDocs(String groupValue, DocList docList, boolean filterDocs) throws IOException {
+        if (getDocValuesFields() != null) {
+            return processDocValues(groupValue, docList, filterDocs);
+        }
+
         boolean allFiltered = true;
         
         for (DocIterator it = docList.iterator(); it.hasNext();) {
@@ -259,6 +384,111 @@ public class GroupCollapseSummary {
         return allFiltered;
     }
     
+    /**
+     * Same as {@link #processDocs(String, DocList, boolean)}, but reads the field values from the per segment doc
+     * values instead of loading the stored fields and term vectors of each doc.
+     */
+    private boolean processDocValues(String groupValue, DocList docList, boolean filterDocs) throws IOException {
+        boolean allFiltered = true;
+
+        if (docList.size() == 0) {
+            return allFiltered;
+        }
+
+        GroupFieldSummary[] summaries = new GroupFieldSummary[docValuesFields.length];
+        for (int i = 0; i < docValuesFields.length; i++) {
+            summaries[i] = getSummary(groupValue, docValuesFields[i].name);
+        }
+
+        for (DocIterator it = docList.iterator(); it.hasNext();) {
+            int docId = it.nextDoc();
+            SegmentValues segment = getSegmentValues(ReaderUtil.subIndex(docId, leaves));
+            int segmentDocId = docId - segment.docBase;
+
+            if (filterDocs && segment.isFiltered(segmentDocId)) {
+                continue;
+            }
+
+            allFiltered = false;
+            for (int i = 0; i < summaries.length; i++) {
+                segment.readers[i].process(segmentDocId, summaries[i]);
+            }
+        }
+        return allFiltered;
+    }
+
+    /**
+     * Gets the summary fields if all of them have doc values. Numeric fields are read through their value source and
+     * string fields through their sorted or sorted set doc values. The filter field is read from the field cache terms
+     * index, boolean fields don't support doc values.
+     *
+     * @return the summary fields or null if the stored fields have to be used
+     */
+    private SummaryField[] getDocValuesFields() {
+        if (docValuesChecked) {
+            return docValuesFields;
+        }
+        docValuesChecked = true;
+
+        IndexSchema schema = searcher.getSchema();
+        if (schema == null) {
+            return null;
+        }
+
+        if (filterField != null) {
+            SchemaField schemaField = schema.getFieldOrNull(filterField);
+            if (schemaField == null || !schemaField.indexed() || schemaField.multiValued()) {
+                return null;
+            }
+        }
+
+        SummaryField[] fields = new SummaryField[fieldNames.size()];
+        int i = 0;
+
+        for (String fieldName : fieldNames) {
+            SchemaField schemaField = schema.getFieldOrNull(fieldName);
+
+            if (schemaField == null || !schemaField.hasDocValues()) {
+                return null;
+            }
+
+            FieldType fieldType = schemaField.getType();
+            if (fieldType.getNumericType() != null && !schemaField.multiValued()) {
+                fields[i++] = new NumericSummaryField(fieldName, fieldType.getValueSource(schemaField, null));
+            } else if (fieldType instanceof StrField) {
+                fields[i++] = new StringSummaryField(fieldName, schemaField.multiValued());
+            } else {
+                return null;
+            }
+        }
+
+        leaves = searcher.getTopReaderContext().leaves();
+        segments = new SegmentValues[leaves.size()];
+        context = ValueSource.newContext(searcher);
+        docValuesFields = fields;
+        return docValuesFields;
+    }
+
+    private SegmentValues getSegmentValues(int leafIndex) throws IOException {
+        SegmentValues segment = segments[leafIndex];
+
+        if (segment == null) {
+            AtomicReaderContext leaf = leaves.get(leafIndex);
+            segment = new SegmentValues(leaf.docBase, docValuesFields.length);
+
+            for (int i = 0; i < docValuesFields.length; i++) {
+                segment.readers[i] = docValuesFields[i].newReader(context, leaf);
+            }
+
+            if (filterField != null) {
+                segment.filter = FieldCache.DEFAULT.getTermsIndex(leaf.reader(), filterField);
+                segment.falseOrd = segment.filter.lookupTerm(new BytesRef("F"));
+            }
+            segments[leafIndex] = segment;
+        }
+        return segment;
+    }
+
 	protected String getFieldValueFromTermVector(int docId, String fieldName) throws IOException {
 		Terms terms = searcher.getAtomicReader().getTermVector(docId, fieldName);
 		if (terms != null) {
@@ -319,4 +549,461 @@ public class GroupCollapseSummary {
         }
         rsp.add(groupField, groupFieldRsp);
     }
+
+    /**
+     * Field values for a segment
+     */
+    private static class SegmentValues {
+        final int docBase;
+        final FieldReader[] readers;
+        SortedDocValues filter;
+        int falseOrd;
+
+        SegmentValues(int docBase, int fieldCount) {
+            this.docBase = docBase;
+            this.readers = new FieldReader[fieldCount];
+        }
+
+        /**
+         * @return true if the filter field is set to anything but false for the given doc
+         */
+        boolean isFiltered(int docId) {
+            if (filter == null) {
+                return false;
+            }
+            int ord = filter.getOrd(docId);
+            return ord >= 0 && ord != falseOrd;
+        }
+    }
+
+    private static abstract class SummaryField {
+        final String name;
+
+        SummaryField(String name) {
+            this.name = name;
+        }
+
+        abstract FieldReader newReader(Map<Object, Object> context, AtomicReaderContext leaf) throws IOException;
+    }
+
+    private static abstract class FieldReader {
+        abstract void process(int docId, GroupFieldSummary summary);
+    }
+
+    private static class NumericSummaryField extends SummaryField {
+        private final ValueSource valueSource;
+
+        NumericSummaryField(String name, ValueSource valueSource) {
+            super(name);
+            this.valueSource = valueSource;
+        }
+
+        @Override
+        FieldReader newReader(Map<Object, Object> context, AtomicReaderContext leaf) throws IOException {
+            final FunctionValues values = valueSource.getValues(context, leaf);
+
+            return new FieldReader() {
+                @Override
+                @SuppressWarnings("unchecked")
+                void process(int docId, GroupFieldSummary summary) {
+                    if (values.exists(docId)) {
+                        summary.processFieldValue(values.floatVal(docId));
+                    }
+                }
+            };
+        }
+    }
+
+    /**
+     * Reads string fields. Like term vectors, multiple values for a doc are joined with a space.
+     */
+    private static class StringSummaryField extends SummaryField {
+        private final boolean multiValued;
+
+        StringSummaryField(String name, boolean multiValued) {
+            super(name);
+            this.multiValued = multiValued;
+        }
+
+        @Override
+        FieldReader newReader(Map<Object, Object> context, AtomicReaderContext leaf) throws IOException {
+            final BytesRef term = new BytesRef();
+
+            if (!multiValued) {
+                final SortedDocValues values = FieldCache.DEFAULT.getTermsIndex(leaf.reader(), name);
+
+                return new FieldReader() {
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    void process(int docId, GroupFieldSummary summary) {
+                        int ord = values.getOrd(docId);
+                        if (ord >= 0) {
+                            values.lookupOrd(ord, term);
+                            if (term.length > 0) {
+                                summary.processFieldValue(term.utf8ToString());
+                            }
+                        }
+                    }
+                };
+            }
+
+            final SortedSetDocValues values = FieldCache.DEFAULT.getDocTermOrds(leaf.reader(), name);
+            final StringBuilder fieldValue = new StringBuilder();
+
+            return new FieldReader() {
+                @Override
+                @SuppressWarnings("unchecked")
+                void process(int docId, GroupFieldSummary summary) {
+                    fieldValue.setLength(0);
+                    values.setDocument(docId);
+
+                    for (long ord = values.nextOrd(); ord != SortedSetDocValues.NO_MORE_ORDS; ord = values.nextOrd()) {
+                        if (fieldValue.length() > 0) {
+                            fieldValue.append(" ");
+                        }
+                        values.lookupOrd(ord, term);
+                        fieldValue.append(term.utf8ToString());
+                    }
+
+                    if (fieldValue.length() > 0) {
+                        summary.processFieldValue(fieldValue.toString());
+                    }
+                }
+            };
+        }
+    }
+
+    /**
+     * Summary values of the docs in the slots of an expand collector. The values are read when a doc enters a group's
+     * top docs while the collector is on the doc's segment, so the groups can be summarized without another pass over
+     * the expanded docs. A slot is excluded if its doc doesn't match the summary filters or, without summary filters,
+     * if the filter field is set.
+     */
+    class SlotValues {
+        private final boolean ords;
+        private final DocSet filter;
+        private final String[] fields;
+        private final ValueSlots[] valueSlots;
+        // value slot for each field and collector slot, -1 if the doc has no value
+        private final int[][] fieldSlots;
+        private final boolean[] excluded;
+        private final SlotAccumulator accumulator = new SlotAccumulator();
+        private final NamedList groups = new NamedList();
+        private int leafIndex;
+        private int docBase;
+        private SortedDocValues filterValues;
+        private int falseOrd;
+
+        private SlotValues(int numSlots, boolean ords, DocSet filter) {
+            this.ords = ords;
+            this.filter = filter;
+
+            List<AtomicReaderContext> leaves = searcher.getTopReaderContext().leaves();
+            Map<Object, Object> context = ValueSource.newContext(searcher);
+            fields = fieldNames.toArray(new String[fieldNames.size()]);
+            valueSlots = new ValueSlots[fields.length];
+            fieldSlots = new int[fields.length][];
+
+            for (int i = 0; i < fields.length; i++) {
+                valueSlots[i] = newValueSlots(searcher.getSchema().getField(fields[i]), leaves, context, !ords);
+                fieldSlots[i] = new int[numSlots];
+            }
+            excluded = new boolean[numSlots];
+        }
+
+        void setNextReader(AtomicReaderContext leaf) throws IOException {
+            leafIndex = leaf.ord;
+            docBase = leaf.docBase;
+
+            if (!ords && filterField != null) {
+                filterValues = FieldCache.DEFAULT.getTermsIndex(leaf.reader(), filterField);
+                falseOrd = filterValues.lookupTerm(new BytesRef("F"));
+            }
+        }
+
+        /**
+         * Reads the values of the given doc in the current segment into a slot
+         */
+        void copy(int slot, int docId) throws IOException {
+            for (int i = 0; i < fields.length; i++) {
+                fieldSlots[i][slot] = valueSlots[i].getSlot(leafIndex, docId);
+            }
+
+            if (filter != null) {
+                excluded[slot] = !filter.exists(docBase + docId);
+            } else if (filterValues != null) {
+                int ord = filterValues.getOrd(docId);
+                excluded[slot] = ord >= 0 && ord != falseOrd;
+            }
+        }
+    }
+
+    /**
+     * Assigns a slot to each distinct value of a field seen during a request. The slots are shared by all groups so
+     * each value is converted to an object only once.
+     */
+    private static abstract class ValueSlots {
+        final SchemaField schemaField;
+        final List<AtomicReaderContext> leaves;
+        Object[] values = new Object[16];
+        int size;
+
+        ValueSlots(SchemaField schemaField, List<AtomicReaderContext> leaves) {
+            this.schemaField = schemaField;
+            this.leaves = leaves;
+        }
+
+        /**
+         * @return the slot for the value of the given doc or -1 if the doc has no value
+         */
+        int getSlot(int docId) throws IOException {
+            int leafIndex = ReaderUtil.subIndex(docId, leaves);
+            return getSlot(leafIndex, docId - leaves.get(leafIndex).docBase);
+        }
+
+        /**
+         * @return the slot for the value of the given segment doc or -1 if the doc has no value
+         */
+        abstract int getSlot(int leafIndex, int docId) throws IOException;
+
+        /**
+         * Compares the values in the given slots using the field's sort order
+         */
+        abstract int compare(int slot1, int slot2);
+
+        abstract Object toObject(int slot);
+
+        Object getValue(int slot) {
+            Object value = values[slot];
+            if (value == null) {
+                value = values[slot] = toObject(slot);
+            }
+            return value;
+        }
+
+        int newSlot() {
+            if (size == values.length) {
+                grow(size * 2);
+            }
+            return size++;
+        }
+
+        void grow(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+    }
+
+    /**
+     * Slots for the terms of a field. Segment ordinals are mapped to slots by term, so the same term in different
+     * segments gets the same slot. For multivalued fields only the first term of a doc is used, unless the terms are
+     * joined. Joined terms are separated by a space like the term vector values.
+     */
+    private static class TermSlots extends ValueSlots {
+        private static final BytesRef SEPARATOR = new BytesRef(" ");
+
+        private final boolean joinValues;
+        private final SortedSetDocValues[] segmentOrds;
+        private final LongIntOpenHashMap[] segmentSlots;
+        private final ObjectIntOpenHashMap<BytesRef> termSlots = new ObjectIntOpenHashMap<BytesRef>();
+        private final BytesRef term = new BytesRef();
+        private final BytesRef joined = new BytesRef();
+        private BytesRef[] terms = new BytesRef[16];
+
+        TermSlots(SchemaField schemaField, List<AtomicReaderContext> leaves, boolean joinValues) {
+            super(schemaField, leaves);
+            this.joinValues = joinValues;
+            segmentOrds = new SortedSetDocValues[leaves.size()];
+            segmentSlots = new LongIntOpenHashMap[leaves.size()];
+        }
+
+        @Override
+        int getSlot(int leafIndex, int docId) throws IOException {
+            SortedSetDocValues ords = segmentOrds[leafIndex];
+
+            if (ords == null) {
+                ords = segmentOrds[leafIndex] = FieldCache.DEFAULT.getDocTermOrds(leaves.get(leafIndex).reader(), schemaField.getName());
+                segmentSlots[leafIndex] = new LongIntOpenHashMap();
+            }
+
+            ords.setDocument(docId);
+            long ord = ords.nextOrd();
+            if (ord == SortedSetDocValues.NO_MORE_ORDS) {
+                return -1;
+            }
+
+            if (joinValues) {
+                joined.length = 0;
+                for (; ord != SortedSetDocValues.NO_MORE_ORDS; ord = ords.nextOrd()) {
+                    if (joined.length > 0) {
+                        joined.append(SEPARATOR);
+                    }
+                    ords.lookupOrd(ord, term);
+                    joined.append(term);
+                }
+                return getTermSlot(joined);
+            }
+
+            LongIntOpenHashMap slots = segmentSlots[leafIndex];
+            if (slots.containsKey(ord)) {
+                return slots.lget();
+            }
+
+            ords.lookupOrd(ord, term);
+            int slot = getTermSlot(term);
+            slots.put(ord, slot);
+            return slot;
+        }
+
+        private int getTermSlot(BytesRef term) {
+            if (termSlots.containsKey(term)) {
+                return termSlots.lget();
+            }
+
+            int slot = newSlot();
+            terms[slot] = BytesRef.deepCopyOf(term);
+            termSlots.put(terms[slot], slot);
+            return slot;
+        }
+
+        @Override
+        int compare(int slot1, int slot2) {
+            return terms[slot1].compareTo(terms[slot2]);
+        }
+
+        @Override
+        Object toObject(int slot) {
+            if (joinValues) {
+                return terms[slot].utf8ToString();
+            }
+            return schemaField.getType().toObject(schemaField, terms[slot]);
+        }
+
+        @Override
+        void grow(int capacity) {
+            super.grow(capacity);
+            terms = Arrays.copyOf(terms, capacity);
+        }
+    }
+
+    /**
+     * Slots for the values of a single valued numeric field with doc values
+     */
+    private static class NumericSlots extends ValueSlots {
+        private final ValueSource valueSource;
+        private final Map<Object, Object> context;
+        private final FunctionValues[] segmentValues;
+        private final LongIntOpenHashMap valueSlots = new LongIntOpenHashMap();
+        private double[] numbers = new double[16];
+
+        NumericSlots(SchemaField schemaField, List<AtomicReaderContext> leaves, ValueSource valueSource, Map<Object, Object> context) {
+            super(schemaField, leaves);
+            this.valueSource = valueSource;
+            this.context = context;
+            segmentValues = new FunctionValues[leaves.size()];
+        }
+
+        @Override
+        int getSlot(int leafIndex, int docId) throws IOException {
+            FunctionValues vals = segmentValues[leafIndex];
+
+            if (vals == null) {
+                vals = segmentValues[leafIndex] = valueSource.getValues(context, leaves.get(leafIndex));
+            }
+
+            if (!vals.exists(docId)) {
+                return -1;
+            }
+
+            double number = vals.doubleVal(docId);
+            long bits = Double.doubleToLongBits(number);
+            if (valueSlots.containsKey(bits)) {
+                return valueSlots.lget();
+            }
+
+            int slot = newSlot();
+            numbers[slot] = number;
+            values[slot] = vals.objectVal(docId);
+            valueSlots.put(bits, slot);
+            return slot;
+        }
+
+        @Override
+        int compare(int slot1, int slot2) {
+            return Double.compare(numbers[slot1], numbers[slot2]);
+        }
+
+        @Override
+        Object toObject(int slot) {
+            return numbers[slot];
+        }
+
+        @Override
+        void grow(int capacity) {
+            super.grow(capacity);
+            numbers = Arrays.copyOf(numbers, capacity);
+        }
+    }
+
+    /**
+     * Counts the value slots in a group. Clearing only resets the slots that were used, so a single accumulator
+     * is reused for all groups and fields in a request.
+     */
+    private static class SlotAccumulator {
+        private int[] counts = new int[16];
+        // slots in the order they were first seen
+        private int[] slots = new int[16];
+        private int size;
+
+        void add(int slot) {
+            if (slot >= counts.length) {
+                counts = Arrays.copyOf(counts, Math.max(slot + 1, counts.length * 2));
+            }
+
+            if (counts[slot]++ == 0) {
+                if (size == slots.length) {
+                    slots = Arrays.copyOf(slots, size * 2);
+                }
+                slots[size++] = slot;
+            }
+        }
+
+        void clear() {
+            for (int i = 0; i < size; i++) {
+                counts[slots[i]] = 0;
+            }
+            size = 0;
+        }
+
+        int size() {
+            return size;
+        }
+
+        int slot(int index) {
+            return slots[index];
+        }
+
+        int count(int slot) {
+            return counts[slot];
+        }
+
+        int min(ValueSlots values) {
+            int min = slots[0];
+            for (int i = 1; i < size; i++) {
+                if (values.compare(slots[i], min) < 0) {
+                    min = slots[i];
+                }
+            }
+            return min;
+        }
+
+        int max(ValueSlots values) {
+            int max = slots[0];
+            for (int i = 1; i < size; i++) {
+                if (values.compare(slots[i], max) > 0) {
+                    max = slots[i];
+                }
+            }
+            return max;
+        }
+    }
 }
@@ -0,0 +1,175 @@
+package org.apache.solr.handler.component;
+
+/*
+* Licensed to OpenCommerceSearch under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. OpenCommerceSearch licenses this
+* file to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.ShardParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.core.CloseHook;
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.util.plugin.SolrCoreAware;
+import org.opencommercesearch.search.QuerySample;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the params of the production requests in a rolling {@link QuerySample}. The most frequent requests in the
+ * sample are replayed by the {@link org.opencommercesearch.search.QueryWarmingListener} through the full search
+ * handler, so the plugin caches of a new searcher are warm before it serves its first request.
+ * <p/>
+ * Requests replayed by the listener have the {@link #WARMING} param and are not recorded. Neither are the retries of
+ * the {@link SpellCheckFallbackComponent}, the original request was recorded already. The sample is written to
+ * the core data directory when the core closes and read back when the core starts, so the first searcher can be
+ * warmed too.
+ * <p/>
+ * The component should be the first component of the search handler.
+ */
+public class QuerySampleComponent extends SearchComponent implements SolrCoreAware {
+
+    /**
+     * Marks the requests replayed to warm a searcher
+     */
+    public static final String WARMING = "warming";
+
+    public static final String SAMPLE_FILE = "querysample.txt";
+
+    private static final List<String> DEFAULT_EXCLUDED_PARAMS = Arrays.asList(
+        WARMING, CommonParams.WT, CommonParams.DEBUG, CommonParams.DEBUG_QUERY, CommonParams.HEADER_ECHO_PARAMS,
+        "indent", "json.wrf", "_"
+    );
+
+    private static Logger log = LoggerFactory.getLogger(QuerySampleComponent.class);
+
+    private int sampleSize = 1000;
+    private boolean persistent = true;
+    private QuerySample sample;
+    private File sampleFile;
+    private final AtomicLong recorded = new AtomicLong();
+
+    @Override
+    public void init(NamedList args) {
+        SolrParams initArgs = SolrParams.toSolrParams(args);
+        List<String> excludedParams = DEFAULT_EXCLUDED_PARAMS;
+
+        sampleSize = initArgs.getInt("sampleSize", sampleSize);
+        persistent = initArgs.getBool("persistent", persistent);
+
+        String excludeParams = initArgs.get("excludeParams");
+        if (excludeParams != null) {
+            excludedParams = Arrays.asList(StringUtils.split(excludeParams, ", "));
+        }
+        sample = new QuerySample(sampleSize, excludedParams);
+    }
+
+    @Override
+    public void inform(SolrCore core) {
+        if (!persistent) {
+            return;
+        }
+
+        sampleFile = new File(core.getDataDir(), SAMPLE_FILE);
+        if (sampleFile.exists()) {
+            try {
+                log.info("Loaded " + sample.read(sampleFile) + " requests from query sample " + sampleFile);
+            } catch (IOException ex) {
+                log.error("Cannot load query sample " + sampleFile, ex);
+            }
+        }
+
+        core.addCloseHook(new CloseHook() {
+            @Override
+            public void preClose(SolrCore core) {
+            }
+
+            @Override
+            public void postClose(SolrCore core) {
+                writeSample();
+            }
+        });
+    }
+
+    /**
+     * Writes the sample to the core data directory, if the sample is persistent
+     */
+    public void writeSample() {
+        if (sampleFile == null || sample.size() == 0) {
+            return;
+        }
+
+        try {
+            sample.write(sampleFile);
+            if (log.isDebugEnabled()) log.debug("Wrote " + sample.size() + " requests to query sample " + sampleFile);
+        } catch (IOException ex) {
+            log.error("Cannot write query sample " + sampleFile, ex);
+        }
+    }
+
+    /**
+     * @return the sample with the most recent requests
+     */
+    public QuerySample getSample() {
+        return sample;
+    }
+
+    @Override
+    public void prepare(ResponseBuilder rb) throws IOException {
+        SolrParams params = rb.req.getParams();
+
+        if (params.getBool(WARMING, false) || params.getBool(ShardParams.IS_SHARD, false)
+                || SpellCheckFallbackComponent.isRetry(rb.req)) {
+            return;
+        }
+
+        sample.record(params);
+        recorded.incrementAndGet();
+    }
+
+    @Override
+    public void process(ResponseBuilder rb) throws IOException {
+        // nothing to do here
+    }
+
+    @Override
+    public NamedList getStatistics() {
+        NamedList<Object> stats = new SimpleOrderedMap<Object>();
+        stats.add("sampleSize", sample.size());
+        stats.add("recorded", recorded.get());
+        return stats;
+    }
+
+    @Override
+    public String getDescription() {
+        return "Query Sample - records a rolling sample of the requests to warm new searchers";
+    }
+
+    @Override
+    public String getSource() {
+        return "https://raw.github.com/rmerizalde/opencommercesearch/master/opencommercesearch-solr/src/main/java/org/apache/solr/handler/component/QuerySampleComponent.java";
+    }
+}
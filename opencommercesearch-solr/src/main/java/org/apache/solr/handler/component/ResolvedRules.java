@@ -0,0 +1,105 @@
+package org.apache.solr.handler.component;
+
+/*
+* Licensed to OpenCommerceSearch under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. OpenCommerceSearch licenses this
+* file to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+import org.apache.lucene.document.Document;
+import org.apache.solr.common.params.MergedSolrParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.handler.component.RuleManagerComponent.RuleType;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The outcome of applying the rules to a request: the matching rules, the params added to the request and the
+ * additional response values. Instances are stored in the rule cache and shared by all requests with the same rule
+ * context, so they should never be modified.
+ */
+public class ResolvedRules {
+
+    private final Map<RuleType, List<Document>> rules;
+    private final MergedSolrParams params;
+    private final String redirectUrl;
+    private final Collection<NamedList> facets;
+    private final long rulesVersion;
+    private final long facetsVersion;
+    private final long expirationTime;
+
+    ResolvedRules(Map<RuleType, List<Document>> rules, MergedSolrParams augmentedParams, String redirectUrl,
+                  Collection<NamedList> facets, long rulesVersion, long facetsVersion, long expirationTime) {
+        this.rules = rules;
+        this.params = augmentedParams.copy(new ModifiableSolrParams());
+        this.redirectUrl = redirectUrl;
+        this.facets = facets;
+        this.rulesVersion = rulesVersion;
+        this.facetsVersion = facetsVersion;
+        this.expirationTime = expirationTime;
+    }
+
+    /**
+     * Creates an empty rule set, used when a request falls back to no rules. Empty rule sets shouldn't be cached.
+     * @return rules that don't add any params, facets or redirects to the request
+     */
+    static ResolvedRules empty(long rulesVersion, long facetsVersion, long expirationTime) {
+        return new ResolvedRules(Collections.<RuleType, List<Document>>emptyMap(), new MergedSolrParams(), null,
+                Collections.<NamedList>emptyList(), rulesVersion, facetsVersion, expirationTime);
+    }
+
+    Map<RuleType, List<Document>> getRules() {
+        return rules;
+    }
+
+    /**
+     * Applies the params added by the rules on top of the given request params
+     * @param requestParams the request params
+     * @return the augmented params
+     */
+    MergedSolrParams apply(SolrParams requestParams) {
+        return params.copy(requestParams);
+    }
+
+    String getRedirectUrl() {
+        return redirectUrl;
+    }
+
+    Collection<NamedList> getFacets() {
+        return facets;
+    }
+
+    /**
+     * @return true if the rules were resolved from the given rules and facets index versions
+     */
+    boolean isCurrent(long rulesVersion, long facetsVersion) {
+        return this.rulesVersion == rulesVersion && this.facetsVersion == facetsVersion;
+    }
+
+    /**
+     * Rules have start and end dates, so resolved rules are only good for the day they were resolved.
+     * @param time the current time in milliseconds
+     * @return true if this entry should not be used after the given time
+     */
+    public boolean isExpired(long time) {
+        return time >= expirationTime;
+    }
+}
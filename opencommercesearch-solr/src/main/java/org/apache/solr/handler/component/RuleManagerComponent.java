@@ -27,28 +27,53 @@ import org.apache.commons.lang.BooleanUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.search.Query;
 import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.beans.DocumentObjectBinder;
 import org.apache.solr.client.solrj.util.ClientUtils;
 import org.apache.solr.common.params.*;
 import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.core.CloseHook;
 import org.apache.solr.core.CoreContainer;
 import org.apache.solr.core.SolrCore;
 import org.apache.solr.request.LocalSolrQueryRequest;
+import org.apache.solr.request.SolrQueryRequest;
 import org.apache.solr.response.ResultContext;
 import org.apache.solr.response.SolrQueryResponse;
 import org.apache.solr.search.DocIterator;
 import org.apache.solr.search.DocList;
+import org.apache.solr.search.DocSet;
+import org.apache.solr.search.QParser;
+import org.apache.solr.search.SolrCache;
 import org.apache.solr.search.SolrIndexSearcher;
+import org.apache.solr.search.SyntaxError;
 import org.apache.solr.util.RefCounted;
 import org.apache.solr.util.plugin.SolrCoreAware;
 import org.opencommercesearch.*;
+import org.opencommercesearch.search.BlockRulesQParserPlugin;
+import org.opencommercesearch.search.DaemonThreadFactory;
+import org.opencommercesearch.search.RankingRuleQParserPlugin;
+import org.opencommercesearch.search.StageTimers;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Component that will read rules from the configured core and filter or modify search results accordingly.
@@ -73,6 +98,45 @@ public class RuleManagerComponent extends SearchComponent implements SolrCoreAwa
      */
     public static final String CUSTOM_RANKING_PARAM_NAME = "customRankingRule";
 
+    /**
+     * Local params added to the ranking rule boost functions, so the parsed functions are cached and reused by other
+     * requests with the same ranking rules
+     */
+    public static final String RANKING_RULE_PARSER = "{!" + RankingRuleQParserPlugin.NAME + "}";
+
+    /**
+     * Name of the product catalog searcher cache that holds the resolved rules. If the cache is not configured,
+     * rules are resolved for every request.
+     */
+    public static final String RULE_CACHE = "ruleCache";
+
+    /**
+     * Name of the rules searcher cache that holds the rule matcher compiled by the {@link RuleMatcherListener}. If the
+     * cache is not configured, the matcher is compiled on the first request served by a new rules searcher.
+     */
+    public static final String RULE_MATCHER_CACHE = "ruleMatcher";
+
+    /**
+     * Name of the facets searcher cache that holds the facet definitions loaded by the
+     * {@link FacetDefinitionStoreListener}. If the cache is not configured, the definitions are loaded on the first
+     * request served by a new facets searcher.
+     */
+    public static final String FACET_DEFINITION_CACHE = "facetDefinitions";
+
+    /**
+     * Response entry added when the rules are not resolved within the rule budget. The value is {@link #FALLBACK_STALE}
+     * if the request was served with the rules cached for an older rules or facets searcher, or {@link #FALLBACK_NONE}
+     * if it was served with no rules.
+     */
+    public static final String RULE_FALLBACK = "rule_fallback";
+    public static final String FALLBACK_STALE = "stale";
+    public static final String FALLBACK_NONE = "none";
+
+    /**
+     * Maximum number of rule resolutions waiting for a thread when there is a rule budget
+     */
+    static final int RULE_QUEUE_SIZE = 1000;
+
     /**
      * Default token replacement for the $SEASON variable in rule category pages & ranking rules
      */
@@ -124,6 +188,86 @@ public class RuleManagerComponent extends SearchComponent implements SolrCoreAwa
      */
     DocumentObjectBinder binder = new DocumentObjectBinder();
 
+    /**
+     * Whether or not rules are resolved with the in-memory rule matcher. If disabled, rules are searched on the rules
+     * core for every request.
+     */
+    boolean ruleMatcherEnabled = true;
+
+    /**
+     * Field in the rules core used to match the search query against the rules query.
+     */
+    String rulesQueryField = "text";
+
+    /**
+     * Rule matcher compiled from the current rules searcher, if the rules core has no rule matcher cache
+     */
+    private volatile RuleMatcher ruleMatcher;
+
+    /**
+     * Whether or not facet rules are resolved with the facet definition store. If disabled, facets are searched on the
+     * facets core for every request.
+     */
+    boolean facetStoreEnabled = true;
+
+    /**
+     * Facet definitions loaded from the current facets searcher, if the facets core has no facet definition cache
+     */
+    private volatile FacetDefinitionStore facetDefinitionStore;
+
+    /**
+     * Maximum time in milliseconds a request waits for its rules to be resolved. If exceeded, the request is served with
+     * the last rules resolved for the same context, or with no rules. The resolution keeps going in the background and
+     * its rules are cached for the next requests. Zero or a negative value disables the budget, and rules are resolved
+     * in the request thread.
+     */
+    int ruleBudget = 0;
+
+    /**
+     * Number of threads resolving rules when there is a rule budget
+     */
+    int ruleThreads = 4;
+
+    /**
+     * Executor resolving rules when there is a rule budget
+     */
+    ThreadPoolExecutor ruleExecutor;
+
+    /**
+     * Rule resolutions in progress, so requests with the same rule context wait for the same resolution
+     */
+    private final ConcurrentMap<List<Object>, Future<ResolvedRules>> inFlight = new ConcurrentHashMap<List<Object>, Future<ResolvedRules>>();
+
+    /**
+     * Rule cache statistics
+     */
+    private final AtomicLong ruleCacheHits = new AtomicLong();
+    private final AtomicLong ruleCacheMisses = new AtomicLong();
+    private final AtomicLong ruleCacheStale = new AtomicLong();
+
+    /**
+     * Rule budget statistics
+     */
+    private final AtomicLong ruleBudgetExceeded = new AtomicLong();
+    private final AtomicLong ruleFallbackStale = new AtomicLong();
+    private final AtomicLong ruleFallbackNone = new AtomicLong();
+
+    /**
+     * Latency of the rule manager stages and counts of rules matched and facets added
+     */
+    static final String STAGE_RULE_LOOKUP = "ruleLookup";
+    static final String STAGE_RULE_MATCH = "ruleMatch";
+    static final String STAGE_FACET_EXPANSION = "facetExpansion";
+    private final StageTimers stageTimers = new StageTimers(STAGE_RULE_LOOKUP, STAGE_RULE_MATCH, STAGE_FACET_EXPANSION);
+    private final Map<RuleType, AtomicLong> ruleMatches = new EnumMap<RuleType, AtomicLong>(RuleType.class);
+    private final AtomicLong facetsAdded = new AtomicLong();
+
+    {
+        for (RuleType type : RuleType.values()) {
+            ruleMatches.put(type, new AtomicLong());
+        }
+    }
+
     /**
      * Enumeration of valid page types understood by RuleManager
      *
@@ -155,9 +299,28 @@ public class RuleManagerComponent extends SearchComponent implements SolrCoreAwa
             this.facetsCoreBaseName = facetsCoreBaseName;
         }
         
+        ruleMatcherEnabled = initArgs.getBool("ruleMatcher", ruleMatcherEnabled);
+        facetStoreEnabled = initArgs.getBool("facetStore", facetStoreEnabled);
+
+        String rulesQueryField = initArgs.get("rulesQueryField");
+        if(rulesQueryField != null) {
+            this.rulesQueryField = rulesQueryField;
+        }
+
+        ruleBudget = initArgs.getInt("ruleBudget", ruleBudget);
+        ruleThreads = initArgs.getInt("ruleThreads", ruleThreads);
+        if(ruleBudget > 0) {
+            ruleExecutor = createRuleExecutor(ruleThreads);
+        }
+
         initSeasonMappings(initArgs.get("seasonMapping"));
     }
 
+    private static ThreadPoolExecutor createRuleExecutor(int threads) {
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(RULE_QUEUE_SIZE), new DaemonThreadFactory("ruleResolver-"));
+    }
+
     /**
      * Initialize the season mappings configuration used during replacements of the
      * $SEASON token in rule base categories & ranking rule boost expressions.
@@ -216,6 +379,19 @@ public class RuleManagerComponent extends SearchComponent implements SolrCoreAwa
             logger.debug("Rules core name: " + rulesCoreName);
             logger.debug("Facets core name: " + facetsCoreName);
         }
+
+        if(ruleExecutor != null) {
+            core.addCloseHook(new CloseHook() {
+                @Override
+                public void preClose(SolrCore core) {
+                    ruleExecutor.shutdownNow();
+                }
+
+                @Override
+                public void postClose(SolrCore core) {
+                }
+            });
+        }
     }
 
     @Override
@@ -231,6 +407,7 @@ public class RuleManagerComponent extends SearchComponent implements SolrCoreAwa
     @Override
     public void prepare(ResponseBuilder rb) {
         SolrParams requestParams = rb.req.getParams();
+        StageTimers.startRequestTiming(rb.req, rb.rsp);
         Boolean rulesEnabled = requestParams.getBool(RuleManagerParams.RULE);
 
         if(rulesEnabled == null || !rulesEnabled) {
@@ -251,75 +428,78 @@ public class RuleManagerComponent extends SearchComponent implements SolrCoreAwa
             return;
         }
 
-        try {
-            //Get matching rules from rulesCore
-            Map<RuleType, List<Document>> rulesMap = searchRules(requestParams, pageType);
+        long startTime = System.nanoTime();
 
-            //Now add params to the original query
-            MergedSolrParams augmentedParams;
+        try {
+            long endOfDay = RuleMatcher.getEndOfDay(System.currentTimeMillis());
+            SolrCache ruleCache = getRuleCache(rb.req);
+            List<Object> cacheKey = null;
+            long rulesVersion = 0, facetsVersion = 0;
+            ResolvedRules resolvedRules = null;
+            ResolvedRules staleRules = null;
+
+            if(ruleCache != null) {
+                cacheKey = getRuleCacheKey(requestParams, pageType, endOfDay);
+                rulesVersion = getIndexVersion(rulesCoreName);
+                facetsVersion = getIndexVersion(facetsCoreName);
+                resolvedRules = (ResolvedRules) ruleCache.get(cacheKey);
+
+                if(resolvedRules != null && !resolvedRules.isCurrent(rulesVersion, facetsVersion)) {
+                    //Resolved from an older rules or facets searcher
+                    ruleCacheStale.incrementAndGet();
+                    staleRules = resolvedRules;
+                    resolvedRules = null;
+                }
 
-            //Check if there are any redirect rules
-            if(rulesMap.containsKey(RuleType.redirectRule)) {
-                //we need a bunch of the request param default values to avoid exceptions, but to
-                //cut the rest of calculations and return only the redirect we are putting the q to be empty
-                augmentedParams = new MergedSolrParams(requestParams);
-                augmentedParams.set(CommonParams.Q, StringUtils.EMPTY);
-                List<Document> redirects = rulesMap.get(RuleType.redirectRule);
-                if(redirects != null && redirects.size() > 0) {
-                    rb.rsp.add("redirect_url", redirects.get(0).get(RuleConstants.FIELD_REDIRECT_URL));
+                if(resolvedRules != null) {
+                    ruleCacheHits.incrementAndGet();
                 }
                 else {
-                    //Shouldn't happen
-                    logger.error("Found no redirect rules although there should be, bypassing this request");
-                    return;
+                    ruleCacheMisses.incrementAndGet();
                 }
             }
-            else {
-                augmentedParams = new MergedSolrParams(requestParams);
-
-                //Set sorting options (re-arrange sort incoming fields)
-                String sorts = requestParams.get(CommonParams.SORT);
 
-                //Always push the products out of stock to the bottom, even when manual boosts have been selected
-                augmentedParams.setSort(RuleConstants.FIELD_IS_TOOS, SolrQuery.ORDER.asc);
+            if(resolvedRules == null && ruleExecutor != null) {
+                resolvedRules = resolveRules(requestParams, pageType, rulesVersion, facetsVersion, endOfDay, ruleCache, cacheKey, staleRules, rb.rsp);
 
-                //Now put any incoming sort options (if any)
-                if (sorts != null) {
-                    String[] sortFields = sorts.split(",");
+                if(resolvedRules == null) {
+                    return;
+                }
+            }
 
-                    Set<String> sortFieldSet = new HashSet<String>(sortFields.length);
+            if(resolvedRules == null) {
+                resolvedRules = resolveRules(rb.req, requestParams, pageType, rulesVersion, facetsVersion, endOfDay);
 
-                    for (String sortField : sortFields) {
-                        String[] parts = StringUtils.split(sortField, ' ');
-                        String fieldName = parts[0];
-                        String order = parts[1];
+                if(resolvedRules == null) {
+                    return;
+                }
 
-                        if (!("score".equals(fieldName) || sortFieldSet.contains(fieldName))) {
-                            augmentedParams.addSort(fieldName, SolrQuery.ORDER.valueOf(order));
-                            sortFieldSet.add(fieldName); //Ensure there are no duplicates
-                        }
-                    }
+                if(ruleCache != null) {
+                    ruleCache.put(cacheKey, resolvedRules);
                 }
+            }
+            else if(BooleanUtils.toBoolean(requestParams.get(RuleManagerParams.RULE_PAGE))) {
+                //The cached, stale or empty rules don't replace the variables in the request filter queries
+                replaceVariables(new MergedSolrParams(requestParams));
+            }
 
-                //Initialize facet manager
-                FacetHandler facetHandler = new FacetHandler();
-                
-                for (Map.Entry<RuleType, List<Document>> rule: rulesMap.entrySet()) {
-                    RuleType type = rule.getKey();
+            Map<RuleType, List<Document>> rulesMap = resolvedRules.getRules();
+            MergedSolrParams augmentedParams = resolvedRules.apply(requestParams);
 
-                    if (type != null) {
-                        //If there are boost rules, these will change the sort parameters.
-                        type.setParams(this, augmentedParams, rule.getValue(), facetHandler);
-                    }
+            for (Map.Entry<RuleType, List<Document>> entry : rulesMap.entrySet()) {
+                if (entry.getKey() != null) {
+                    ruleMatches.get(entry.getKey()).addAndGet(entry.getValue().size());
                 }
+            }
+            if (resolvedRules.getFacets() != null) {
+                facetsAdded.addAndGet(resolvedRules.getFacets().size());
+            }
 
-                //Finally add the score and version fields to the sorting spec. These will be a tie breaker when other sort specs are added
-                augmentedParams.addSort("score", SolrQuery.ORDER.desc);
-                augmentedParams.addSort("_version_", SolrQuery.ORDER.desc);
-
-                Map<String, NamedList> facets = facetHandler.getFacets(augmentedParams);
-                setFilterQueries(facets, requestParams, augmentedParams);
-                rb.rsp.add("rule_facets", facets.values());
+            if(rulesMap.containsKey(RuleType.redirectRule)) {
+                rb.rsp.add("redirect_url", resolvedRules.getRedirectUrl());
+            }
+            else {
+                rb.rsp.add("rule_facets", resolvedRules.getFacets());
             }
 
             logger.debug("Augmented request: " + augmentedParams.toString());
@@ -332,10 +512,304 @@ public class RuleManagerComponent extends SearchComponent implements SolrCoreAwa
             rb.rsp.add("category_prefix", augmentedParams.get("f.category."+FacetParams.FACET_PREFIX));
             rb.req.setParams(augmentedParams);
         }
-        catch(Throwable e) {
-            e.printStackTrace();
+        catch(IOException e) {
+            logger.error("Failed to handle this request", e);
+        }
+        catch(RuntimeException e) {
             logger.error("Failed to handle this request", e);
         }
+        finally {
+            stageTimers.record(STAGE_RULE_LOOKUP, startTime, rb.req);
+        }
+    }
+
+    /**
+     * Resolves the rules in the background, waiting up to the rule budget for them. If the rules are not resolved by
+     * then, or the resolution fails, the request is served with the given stale rules, or with an empty rule set if
+     * there are none. The resolved rules are cached when the resolution completes, even if the request didn't wait for them.
+     * @param requestParams Incoming search params.
+     * @param pageType Current page type.
+     * @param rulesVersion Version of the rules index the rules are resolved from.
+     * @param facetsVersion Version of the facets index the facets are resolved from.
+     * @param endOfDay Time when the resolved rules expire.
+     * @param ruleCache The rule cache, or null if the cache is not configured.
+     * @param cacheKey The rule cache key for the request.
+     * @param staleRules Rules cached for an older rules or facets searcher, or null if there are none.
+     * @param rsp The current response, flagged if the request falls back to stale or no rules.
+     * @return the resolved rules, the stale rules, an empty rule set or null if the request should be bypassed.
+     */
+    private ResolvedRules resolveRules(SolrParams requestParams, final PageType pageType, final long rulesVersion, final long facetsVersion,
+                                       final long endOfDay, final SolrCache ruleCache, List<Object> cacheKey, ResolvedRules staleRules,
+                                       SolrQueryResponse rsp) {
+        final List<Object> key = cacheKey != null? cacheKey : getRuleCacheKey(requestParams, pageType, endOfDay);
+        Future<ResolvedRules> future = inFlight.get(key);
+
+        if(future == null) {
+            //Rule pages replace variables in the filter queries in place, so the request params are copied
+            final SolrParams resolveParams = copyParams(requestParams);
+            FutureTask<ResolvedRules> task = new FutureTask<ResolvedRules>(new Callable<ResolvedRules>() {
+                @Override
+                public ResolvedRules call() throws IOException {
+                    //The request may be done by the time the rules are resolved, so stage times are not added to it
+                    ResolvedRules resolvedRules = resolveRules(null, resolveParams, pageType, rulesVersion, facetsVersion, endOfDay);
+
+                    if(resolvedRules != null && ruleCache != null) {
+                        ruleCache.put(key, resolvedRules);
+                    }
+                    return resolvedRules;
+                }
+            }) {
+                @Override
+                protected void done() {
+                    inFlight.remove(key, this);
+                }
+            };
+
+            future = inFlight.putIfAbsent(key, task);
+
+            if(future == null) {
+                future = task;
+
+                try {
+                    ruleExecutor.execute(task);
+                }
+                catch(RejectedExecutionException e) {
+                    logger.error("Cannot schedule rule resolution, there are " + ruleExecutor.getQueue().size() + " pending resolutions");
+                    task.cancel(false);
+                }
+            }
+        }
+
+        try {
+            return future.get(ruleBudget, TimeUnit.MILLISECONDS);
+        }
+        catch(TimeoutException e) {
+            ruleBudgetExceeded.incrementAndGet();
+            logger.warn("Rules not resolved after " + ruleBudget + "ms for " + key);
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch(CancellationException e) {
+            //Rejected by the executor
+        }
+        catch(ExecutionException e) {
+            logger.error("Failed to resolve the rules for " + key, e.getCause());
+        }
+
+        if(staleRules != null) {
+            ruleFallbackStale.incrementAndGet();
+            rsp.add(RULE_FALLBACK, FALLBACK_STALE);
+            return staleRules;
+        }
+
+        ruleFallbackNone.incrementAndGet();
+        rsp.add(RULE_FALLBACK, FALLBACK_NONE);
+        return ResolvedRules.empty(rulesVersion, facetsVersion, endOfDay);
+    }
+
+    /**
+     * Copies the given params, including the value arrays.
+     */
+    private static SolrParams copyParams(SolrParams params) {
+        ModifiableSolrParams copy = new ModifiableSolrParams();
+
+        for(Iterator<String> it = params.getParameterNamesIterator(); it.hasNext();) {
+            String name = it.next();
+            copy.set(name, params.getParams(name).clone());
+        }
+        return copy;
+    }
+
+    /**
+     * Find the rules for the given request and calculate the params that should be added to the request.
+     * @param req The current request.
+     * @param requestParams Incoming search params.
+     * @param pageType Current page type.
+     * @param rulesVersion Version of the rules index the rules are resolved from.
+     * @param facetsVersion Version of the facets index the facets are resolved from.
+     * @param endOfDay Time when the resolved rules expire.
+     * @return the resolved rules or null if the request should be bypassed.
+     * @throws IOException If there are issues getting the rules or facets.
+     */
+    private ResolvedRules resolveRules(SolrQueryRequest req, SolrParams requestParams, PageType pageType, long rulesVersion, long facetsVersion, long endOfDay) throws IOException {
+        //Get matching rules from rulesCore
+        long startTime = System.nanoTime();
+        Map<RuleType, List<Document>> rulesMap = searchRules(requestParams, pageType);
+        stageTimers.record(STAGE_RULE_MATCH, startTime, req);
+
+        //Now add params to the original query
+        MergedSolrParams augmentedParams;
+        String redirectUrl = null;
+        Collection<NamedList> ruleFacets = null;
+
+        //Check if there are any redirect rules
+        if(rulesMap.containsKey(RuleType.redirectRule)) {
+            //we need a bunch of the request param default values to avoid exceptions, but to
+            //cut the rest of calculations and return only the redirect we are putting the q to be empty
+            augmentedParams = new MergedSolrParams(requestParams);
+            augmentedParams.set(CommonParams.Q, StringUtils.EMPTY);
+            List<Document> redirects = rulesMap.get(RuleType.redirectRule);
+            if(redirects != null && redirects.size() > 0) {
+                redirectUrl = redirects.get(0).get(RuleConstants.FIELD_REDIRECT_URL);
+            }
+            else {
+                //Shouldn't happen
+                logger.error("Found no redirect rules although there should be, bypassing this request");
+                return null;
+            }
+        }
+        else {
+            augmentedParams = new MergedSolrParams(requestParams);
+
+            //Set sorting options (re-arrange sort incoming fields)
+            String sorts = requestParams.get(CommonParams.SORT);
+
+            //Always push the products out of stock to the bottom, even when manual boosts have been selected
+            augmentedParams.setSort(RuleConstants.FIELD_IS_TOOS, SolrQuery.ORDER.asc);
+
+            //Now put any incoming sort options (if any)
+            if (sorts != null) {
+                String[] sortFields = sorts.split(",");
+
+                Set<String> sortFieldSet = new HashSet<String>(sortFields.length);
+
+                for (String sortField : sortFields) {
+                    String[] parts = StringUtils.split(sortField, ' ');
+                    String fieldName = parts[0];
+                    String order = parts[1];
+
+                    if (!("score".equals(fieldName) || sortFieldSet.contains(fieldName))) {
+                        augmentedParams.addSort(fieldName, SolrQuery.ORDER.valueOf(order));
+                        sortFieldSet.add(fieldName); //Ensure there are no duplicates
+                    }
+                }
+            }
+
+            //Initialize facet manager
+            FacetHandler facetHandler = new FacetHandler();
+
+            for (Map.Entry<RuleType, List<Document>> rule: rulesMap.entrySet()) {
+                RuleType type = rule.getKey();
+
+                if (type != null) {
+                    //If there are boost rules, these will change the sort parameters.
+                    type.setParams(this, augmentedParams, rule.getValue(), facetHandler);
+                }
+            }
+
+            //Finally add the score and version fields to the sorting spec. These will be a tie breaker when other sort specs are added
+            augmentedParams.addSort("score", SolrQuery.ORDER.desc);
+            augmentedParams.addSort("_version_", SolrQuery.ORDER.desc);
+
+            startTime = System.nanoTime();
+            Map<String, NamedList> facets = facetHandler.getFacets(augmentedParams);
+            setFilterQueries(facets, requestParams, augmentedParams);
+            stageTimers.record(STAGE_FACET_EXPANSION, startTime, req);
+            ruleFacets = facets.values();
+        }
+
+        return new ResolvedRules(rulesMap, augmentedParams, redirectUrl, ruleFacets, rulesVersion, facetsVersion, endOfDay);
+    }
+
+    /**
+     * Gets the rule cache from the searcher of the given request.
+     * @param req The current request.
+     * @return the rule cache or null if the cache is not configured.
+     */
+    private SolrCache getRuleCache(SolrQueryRequest req) {
+        SolrIndexSearcher searcher = req.getSearcher();
+        return searcher != null? searcher.getCache(RULE_CACHE) : null;
+    }
+
+    /**
+     * Builds the rule cache key for the given request. The key includes every param that changes the matching rules
+     * or the params added to the request.
+     * @param requestParams Incoming search params.
+     * @param pageType Current page type.
+     * @param endOfDay Midnight today, rules are only valid for the current day.
+     * @return the rule cache key.
+     */
+    static List<Object> getRuleCacheKey(SolrParams requestParams, PageType pageType, long endOfDay) {
+        List<Object> key = new ArrayList<Object>(18);
+        String q = requestParams.get(CommonParams.Q);
+        Calendar calendar = Calendar.getInstance();
+
+        key.add(pageType);
+        //Only search pages match the rules query
+        key.add(pageType == PageType.search && q != null? q.toLowerCase() : null);
+        key.add(requestParams.get(RuleManagerParams.CATALOG_ID));
+        key.add(requestParams.get(RuleManagerParams.CATEGORY_FILTER));
+        key.add(toSortedList(requestParams.getParams(RuleManagerParams.SITE_IDS)));
+        key.add(requestParams.get(RuleManagerParams.BRAND_ID));
+        key.add(isOutletRequest(requestParams.getParams(CommonParams.FQ)));
+        key.add(requestParams.get("includeRules"));
+        key.add(requestParams.get("excludeRules"));
+        key.add(BooleanUtils.toBoolean(requestParams.getBool(FacetParams.FACET)));
+        key.add(requestParams.getBool("redirects"));
+        key.add(requestParams.get(RuleManagerParams.RULE_PAGE));
+        key.add(requestParams.get(RuleManagerParams.COUNTRY_ID));
+        key.add(requestParams.get(CommonParams.SORT));
+        key.add(toSortedList(requestParams.getParams("rule.fq")));
+        key.add(endOfDay);
+        //The $YEAR and $SEASON variables use the local time
+        key.add(calendar.get(Calendar.YEAR));
+        key.add(calendar.get(Calendar.MONTH));
+        return key;
+    }
+
+    /**
+     * Helper method to turn multi-valued params into an order independent value.
+     */
+    private static List<String> toSortedList(String[] values) {
+        if(values == null) {
+            return null;
+        }
+
+        List<String> list = new ArrayList<String>(Arrays.asList(values));
+        Collections.sort(list);
+        return list;
+    }
+
+    /**
+     * Gets the version of the index currently opened by the given core.
+     * @param coreName The core name.
+     * @return the index version.
+     * @throws IOException If the core doesn't exist.
+     */
+    private long getIndexVersion(String coreName) throws IOException {
+        SolrCore core = coreContainer.getCore(coreName);
+
+        if(core == null) {
+            throw new IOException("Cannot process any requests because a required core was not found. Check that you created a core called " + coreName + ".");
+        }
+
+        RefCounted<SolrIndexSearcher> searcher = core.getSearcher();
+
+        try {
+            return searcher.get().getIndexReader().getVersion();
+        }
+        finally {
+            searcher.decref();
+        }
+    }
+
+    @Override
+    public NamedList getStatistics() {
+        NamedList<Object> stats = new SimpleOrderedMap<Object>();
+        stats.add("ruleCacheHits", ruleCacheHits.get());
+        stats.add("ruleCacheMisses", ruleCacheMisses.get());
+        stats.add("ruleCacheStale", ruleCacheStale.get());
+        stats.add("ruleBudgetExceeded", ruleBudgetExceeded.get());
+        stats.add("ruleFallbackStale", ruleFallbackStale.get());
+        stats.add("ruleFallbackNone", ruleFallbackNone.get());
+
+        for (Map.Entry<RuleType, AtomicLong> entry : ruleMatches.entrySet()) {
+            stats.add(entry.getKey() + "Matches", entry.getValue().get());
+        }
+        stats.add("facetsAdded", facetsAdded.get());
+        stageTimers.addTo(stats);
+        return stats;
     }
 
     @Override
@@ -424,6 +898,10 @@ public class RuleManagerComponent extends SearchComponent implements SolrCoreAwa
      * @throws IOException If there are issues getting the rules core.
      */
     private Map<RuleType, List<Document>> searchRules(SolrParams requestParams, PageType pageType) throws IOException {
+        if(ruleMatcherEnabled) {
+            return matchRules(requestParams, pageType);
+        }
+
         Map<RuleType, List<Document>> rulesMap = new HashMap<RuleType, List<Document>>();
 
         //Prepare query to rules index
@@ -503,6 +981,122 @@ public class RuleManagerComponent extends SearchComponent implements SolrCoreAwa
         return rulesMap;
     }
 
+    /**
+     * Find matching rules with the rule matcher compiled from the current rules searcher.
+     * @param requestParams Incoming search params.
+     * @param pageType Current page type.
+     * @return Map of rules where the key is the rule type.
+     * @throws IOException If there are issues getting the rules core.
+     */
+    private Map<RuleType, List<Document>> matchRules(SolrParams requestParams, PageType pageType) throws IOException {
+        final SolrCore rulesCore = coreContainer.getCore(rulesCoreName);
+
+        if(rulesCore == null) {
+            throw new IOException("Cannot process any requests because a required core was not found. Check that you created a core called " + rulesCoreName + ".");
+        }
+
+        RefCounted<SolrIndexSearcher> rulesSearcher = rulesCore.getSearcher();
+
+        try {
+            final SolrIndexSearcher searcher = rulesSearcher.get();
+
+            return getRuleMatcher(searcher).match(requestParams, pageType, new RuleMatcher.QueryMatcher() {
+                @Override
+                public DocSet getDocSet(String q) throws IOException {
+                    ModifiableSolrParams params = new ModifiableSolrParams();
+                    params.set(CommonParams.DF, rulesQueryField);
+                    LocalSolrQueryRequest request = new LocalSolrQueryRequest(rulesCore, params);
+
+                    try {
+                        Query query = QParser.getParser(q, null, request).getQuery();
+                        return searcher.getDocSet(query);
+                    } catch (SyntaxError ex) {
+                        logger.error("An error occurred when searching for matching rules", ex);
+                        return null;
+                    } finally {
+                        request.close();
+                    }
+                }
+            });
+        }
+        finally {
+            rulesSearcher.decref();
+        }
+    }
+
+    /**
+     * Gets the facet definition store for the current facets searcher. The store is loaded by the
+     * {@link FacetDefinitionStoreListener} while the searcher warms up. If the listener is not configured, or it failed,
+     * and the searcher changed since the last time the store was loaded a new store is created.
+     * @return the facet definition store for the current facets searcher
+     * @throws IOException If the facets core is not found or the facets can't be loaded.
+     */
+    FacetDefinitionStore getFacetDefinitionStore() throws IOException {
+        SolrCore facetsCore = getFacetsCore();
+
+        if(facetsCore == null) {
+            throw new IOException("Cannot process any requests because a required core was not found. Check that you created a core called " + facetsCoreName + ".");
+        }
+
+        RefCounted<SolrIndexSearcher> facetsSearcher = facetsCore.getSearcher();
+
+        try {
+            SolrIndexSearcher searcher = facetsSearcher.get();
+            SolrCache cache = searcher.getCache(FACET_DEFINITION_CACHE);
+            FacetDefinitionStore store = cache != null? (FacetDefinitionStore) cache.get(FACET_DEFINITION_CACHE) : null;
+
+            if(store != null && store.isLoadedFrom(searcher)) {
+                return store;
+            }
+
+            store = facetDefinitionStore;
+
+            if(store == null || !store.isLoadedFrom(searcher)) {
+                synchronized (this) {
+                    store = facetDefinitionStore;
+                    if(store == null || !store.isLoadedFrom(searcher)) {
+                        store = FacetDefinitionStore.load(searcher);
+                        facetDefinitionStore = store;
+                    }
+                }
+            }
+            return store;
+        }
+        finally {
+            facetsSearcher.decref();
+        }
+    }
+
+    /**
+     * Gets the rule matcher for the given rules searcher. The matcher is compiled by the {@link RuleMatcherListener}
+     * while the searcher warms up. If the listener is not configured, or it failed, and the searcher changed since the
+     * last time the matcher was compiled a new matcher is created.
+     * @param searcher The current rules searcher
+     * @return the rule matcher for the given searcher
+     * @throws IOException If the rules can't be loaded.
+     */
+    RuleMatcher getRuleMatcher(SolrIndexSearcher searcher) throws IOException {
+        SolrCache cache = searcher.getCache(RULE_MATCHER_CACHE);
+        RuleMatcher matcher = cache != null? (RuleMatcher) cache.get(RULE_MATCHER_CACHE) : null;
+
+        if(matcher != null && matcher.isCompiledFrom(searcher)) {
+            return matcher;
+        }
+
+        matcher = ruleMatcher;
+
+        if(matcher == null || !matcher.isCompiledFrom(searcher)) {
+            synchronized (this) {
+                matcher = ruleMatcher;
+                if(matcher == null || !matcher.isCompiledFrom(searcher)) {
+                    matcher = RuleMatcher.compile(searcher);
+                    ruleMatcher = matcher;
+                }
+            }
+        }
+        return matcher;
+    }
+
     /**
      * Checks if the given rule was configured as an exact match and the query 'q' matches the query in the rule.
      * <p/>
@@ -530,7 +1124,7 @@ public class RuleManagerComponent extends SearchComponent implements SolrCoreAwa
      * Return true if the given query is an exact match, owtherwise false. The exact match syntax is to put the query
      * in the rule between brackets. For example ("the bike").
      */
-    private boolean isExactMatch(String query) {
+    static boolean isExactMatch(String query) {
         return query != null && query.startsWith("[") && query.endsWith("]");
 
     }
@@ -538,7 +1132,7 @@ public class RuleManagerComponent extends SearchComponent implements SolrCoreAwa
     /**
      * Just a helper method to strip off the characters
      */
-    private String removeBrackets(String query) {
+    static String removeBrackets(String query) {
         return query.substring(1, query.length() - 1);
     }
 
@@ -726,7 +1320,7 @@ public class RuleManagerComponent extends SearchComponent implements SolrCoreAwa
      * @param filterQueries Array of filter queries to inspect.
      * @return True if the current search will include outlet results, false otherwise.
      */
-    private boolean isOutletRequest(String[] filterQueries) {
+    static boolean isOutletRequest(String[] filterQueries) {
         if(filterQueries != null) {
             for(String filterQuery : filterQueries) {
                 if(filterQuery.startsWith(SearchConstants.FIELD_IS_CLOSEOUT + ":true")) {
@@ -789,11 +1383,7 @@ public class RuleManagerComponent extends SearchComponent implements SolrCoreAwa
         }
 
         if (BooleanUtils.toBoolean(isRulePage)) {
-            //if we are in a rule page, we need to replace the FQ from the original request for possible
-            //appearances of the $YEAR & $SEASON variables, to set the corresponding value
-            Calendar calendar = Calendar.getInstance();
-            ruleParams.replaceVariable(CommonParams.FQ, "$YEAR", Integer.toString(calendar.get(Calendar.YEAR)));
-            ruleParams.replaceVariable(CommonParams.FQ, "$SEASON", seasonMapper[calendar.get(Calendar.MONTH)]);
+            replaceVariables(ruleParams);
         }
 
         String[] filterQueries = requestParams.getParams("rule.fq");
@@ -857,6 +1447,17 @@ public class RuleManagerComponent extends SearchComponent implements SolrCoreAwa
 
     }
 
+    /**
+     * If we are in a rule page, we need to replace the FQ from the original request for possible
+     * appearances of the $YEAR & $SEASON variables, to set the corresponding value
+     * @param ruleParams The params to replace the variables in.
+     */
+    private void replaceVariables(MergedSolrParams ruleParams) {
+        Calendar calendar = Calendar.getInstance();
+        ruleParams.replaceVariable(CommonParams.FQ, "$YEAR", Integer.toString(calendar.get(Calendar.YEAR)));
+        ruleParams.replaceVariable(CommonParams.FQ, "$SEASON", seasonMapper[calendar.get(Calendar.MONTH)]);
+    }
+
     /**
      * Creates a named list with all rules that are being applied to the current request.
      * <p/>
@@ -897,13 +1498,27 @@ public class RuleManagerComponent extends SearchComponent implements SolrCoreAwa
     public enum RuleType {
         facetRule() {
             void setParams(RuleManagerComponent component, MergedSolrParams ruleParams, List<Document> rules, FacetHandler facetHandler) throws IOException {
+                FacetDefinitionStore facetStore = null;
+
                 for(Document rule : rules) {
                     if(RuleConstants.COMBINE_MODE_REPLACE.equals(rule.get(RuleConstants.FIELD_COMBINE_MODE))) {
                         facetHandler.clear();
                     }
                     
                     String[] facetField = rule.getValues(RuleConstants.FIELD_FACET_FIELD);
-                    if(facetField != null) {
+                    if(facetField != null && component.facetStoreEnabled) {
+                        String[] facetIds = rule.getValues(RuleConstants.FIELD_FACET_ID);
+                        if(facetIds.length == 0) {
+                            continue;
+                        }
+
+                        if(facetStore == null) {
+                            facetStore = component.getFacetDefinitionStore();
+                        }
+                        facetHandler.addFacet(facetField);
+                        addFacets(facetStore, facetIds, facetHandler);
+                    }
+                    else if(facetField != null) {
                         String facetsQueryString = getQueryString(rule);
                         if(StringUtils.isBlank(facetsQueryString)) {
                             continue;
@@ -917,6 +1532,25 @@ public class RuleManagerComponent extends SearchComponent implements SolrCoreAwa
                 facetHandler.setParams(ruleParams);
             }
 
+            /**
+             * Add the facets with the given ids from the facet definition store.
+             * @param facetStore The facet definition store.
+             * @param facetIds The facet ids to add.
+             * @param facetHandler Facet handler where found facets will be stored.
+             */
+            private void addFacets(FacetDefinitionStore facetStore, String[] facetIds, FacetHandler facetHandler) {
+                for(String facetId : facetIds) {
+                    FacetDefinition facet = facetStore.get(facetId);
+
+                    if(facet != null) {
+                        facetHandler.addFacet(facet);
+                    }
+                    else {
+                        logger.debug("Facet not found: " + facetId);
+                    }
+                }
+            }
+
             /**
              * Search for matching facets.
              * @param component The rules component.
@@ -1030,16 +1664,37 @@ public class RuleManagerComponent extends SearchComponent implements SolrCoreAwa
             }
         },
         blockRule() {
+            /**
+             * All block rules are added as a single filter query, so Solr caches the blocked products of the rule set
+             * in one filter cache entry. Rules are sorted by id to get the same filter for the same rule set.
+             */
             void setParams(RuleManagerComponent component, MergedSolrParams query, List<Document> rules, FacetHandler facetHandler) {
+                Map<String, String[]> blockedProducts = new TreeMap<String, String[]>();
+
                 for (Document rule : rules) {
                     String[] products = rule.getValues(RuleConstants.FIELD_BLOCKED_PRODUCTS);
 
-                    if (products != null) {
-                        for (String product : products) {
-                            query.addFilterQuery("-productId:" + product);
-                        }
+                    if (products != null && products.length > 0) {
+                        blockedProducts.put(rule.get(RuleConstants.FIELD_ID), products);
+                    }
+                }
+
+                if (blockedProducts.isEmpty()) {
+                    return;
+                }
+
+                StringBuilder b = new StringBuilder("{!").append(BlockRulesQParserPlugin.NAME).append("}");
+
+                for (Map.Entry<String, String[]> entry : blockedProducts.entrySet()) {
+                    b.append(BlockRulesQParserPlugin.escape(entry.getKey())).append(':');
+
+                    for (String product : entry.getValue()) {
+                        b.append(BlockRulesQParserPlugin.escape(product)).append(',');
                     }
+                    b.setCharAt(b.length() - 1, ' ');
                 }
+                b.setLength(b.length() - 1);
+                query.addFilterQuery(b.toString());
             }
         },
         redirectRule() {
@@ -1054,6 +1709,9 @@ public class RuleManagerComponent extends SearchComponent implements SolrCoreAwa
         rankingRule() {
             @Override
             void setParams(RuleManagerComponent component, MergedSolrParams query, List<Document> rules, FacetHandler facetHandler) {
+                Calendar calendar = Calendar.getInstance();
+                String year = Integer.toString(calendar.get(Calendar.YEAR));
+                String season = component.seasonMapper[calendar.get(Calendar.MONTH)];
 
                 for (Document rule : rules) {
 
@@ -1065,9 +1723,8 @@ public class RuleManagerComponent extends SearchComponent implements SolrCoreAwa
                     
                     if (boostFunction != null) {
                         //If the $YEAR or $SEASON variables appear in the boost function, replace them for the corresponding value
-                        Calendar calendar = Calendar.getInstance();
-                        boostFunction = StringUtils.replace(boostFunction, "$YEAR", Integer.toString(calendar.get(Calendar.YEAR)));
-                        boostFunction = StringUtils.replace(boostFunction, "$SEASON", component.seasonMapper[calendar.get(Calendar.MONTH)]);
+                        boostFunction = StringUtils.replace(boostFunction, "$YEAR", year);
+                        boostFunction = StringUtils.replace(boostFunction, "$SEASON", season);
 
                         if(StringUtils.contains(boostFunction, RANKING_SEPARATOR)) {
                             // If the ranking rule has our custom ranking separator, split the rule by that
@@ -1078,13 +1735,13 @@ public class RuleManagerComponent extends SearchComponent implements SolrCoreAwa
                             // the a/b test framework to test many variations of the same expression
                             String[] boostRules = StringUtils.split(boostFunction, RANKING_SEPARATOR);
                             if(boostRules.length == 2) {
-                                query.add(RuleConstants.FIELD_BOOST, boostRules[0]);
+                                query.add(RuleConstants.FIELD_BOOST, RANKING_RULE_PARSER + boostRules[0]);
                                 query.add(CUSTOM_RANKING_PARAM_NAME, boostRules[1]);
                             } else {
                                 logger.error("Incorrect use of the '"+ RANKING_SEPARATOR + "' operator in the following ranking rule:" + boostFunction);
                             }
                         } else {
-                            query.add(RuleConstants.FIELD_BOOST, boostFunction);
+                            query.add(RuleConstants.FIELD_BOOST, RANKING_RULE_PARSER + boostFunction);
                         }
                     }
                 }
@@ -0,0 +1,451 @@
+package org.apache.solr.handler.component;
+
+/*
+* Licensed to OpenCommerceSearch under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. OpenCommerceSearch licenses this
+* file to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+import org.apache.commons.lang.BooleanUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.util.Bits;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.RuleManagerParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.DateUtil;
+import org.apache.solr.handler.component.RuleManagerComponent.PageType;
+import org.apache.solr.handler.component.RuleManagerComponent.RuleType;
+import org.apache.solr.search.DocSet;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.opencommercesearch.FilterQuery;
+import org.opencommercesearch.RuleConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * Immutable in-memory copy of the rules core. The matcher is compiled once per rules searcher and resolves the rules
+ * that apply to a request without running a sub-request against the rules core or loading stored fields.
+ * <p/>
+ * Rules are indexed by target, catalog, site, brand, category, subTarget, rule type and query. Each index maps a field
+ * value to the bit set of rule positions with that value. Positions follow the same order used by the rules query
+ * (sortPriority, score, id), so iterating the resulting bit set preserves rule ordering.
+ * <p/>
+ * Only rules with a non exact query need the rules core at request time. For those, the query is evaluated as a
+ * {@link DocSet} through the {@link QueryMatcher} which is served by the rules core filter cache.
+ */
+class RuleMatcher {
+
+    private static Logger logger = LoggerFactory.getLogger(RuleMatcher.class);
+
+    static final String TARGET_ALL_PAGES = "allpages";
+    static final String TARGET_SEARCH_PAGES = "searchpages";
+    static final String TARGET_CATEGORY_PAGES = "categorypages";
+
+    private static final long DAY_MS = 24 * 60 * 60 * 1000L;
+
+    /**
+     * Evaluates a search query against the rules core.
+     */
+    interface QueryMatcher {
+
+        /**
+         * Gets the rule documents matching the given query.
+         * @param q The query from the original request
+         * @return the set of matching rule documents, or null if the query can't be evaluated.
+         * @throws IOException If the rules core can't be searched.
+         */
+        DocSet getDocSet(String q) throws IOException;
+    }
+
+    /**
+     * Pre-parsed rule. Holds the stored rule document so rule types can still read the rule content.
+     */
+    static class CompiledRule {
+        final int docId;
+        final String id;
+        final RuleType ruleType;
+        final int sortPriority;
+        final boolean experimental;
+        final long startDate;
+        final long endDate;
+        final Document document;
+
+        CompiledRule(int docId, Document document) {
+            this.docId = docId;
+            this.document = document;
+            this.id = document.get(RuleConstants.FIELD_ID);
+            this.ruleType = RuleType.valueOf(document.get(RuleConstants.FIELD_RULE_TYPE));
+            this.experimental = Boolean.TRUE.equals(BooleanUtils.toBooleanObject(document.get(RuleConstants.FIELD_EXPERIMENTAL)));
+            this.sortPriority = (int) getLong(document.getField(RuleConstants.FIELD_SORT_PRIORITY), 0);
+            this.startDate = getLong(document.getField(RuleConstants.FIELD_START_DATE), Long.MIN_VALUE);
+            this.endDate = getLong(document.getField(RuleConstants.FIELD_END_DATE), Long.MAX_VALUE);
+        }
+
+        /**
+         * Equivalent to the date filter query in {@link RuleManagerComponent#getRulesQuery(SolrParams, PageType)}.
+         * Rules with no start or end dates are always active.
+         * @param endOfDay Midnight today (NOW/DAY+1DAY)
+         * @return true if the rule is active, otherwise false
+         */
+        boolean isActive(long endOfDay) {
+            return startDate <= endOfDay && endDate >= endOfDay;
+        }
+    }
+
+    /**
+     * Orders rules the same way the rules query does. The score sort is a tie since the rules query is always *:*
+     */
+    private static final Comparator<CompiledRule> RULE_ORDER = new Comparator<CompiledRule>() {
+        @Override
+        public int compare(CompiledRule rule1, CompiledRule rule2) {
+            if (rule1.sortPriority != rule2.sortPriority) {
+                return rule1.sortPriority < rule2.sortPriority ? -1 : 1;
+            }
+            if (rule1.id == null || rule2.id == null) {
+                return rule1.id == null ? (rule2.id == null ? 0 : 1) : -1;
+            }
+            return rule1.id.compareTo(rule2.id);
+        }
+    };
+
+    private final WeakReference<SolrIndexSearcher> searcherRef;
+    private final CompiledRule[] rules;
+    private final Map<String, BitSet> targetIndex = new HashMap<String, BitSet>();
+    private final Map<String, BitSet> catalogIndex = new HashMap<String, BitSet>();
+    private final Map<String, BitSet> siteIndex = new HashMap<String, BitSet>();
+    private final Map<String, BitSet> brandIndex = new HashMap<String, BitSet>();
+    private final Map<String, BitSet> categoryIndex = new HashMap<String, BitSet>();
+    private final Map<String, BitSet> subTargetIndex = new HashMap<String, BitSet>();
+    private final Map<RuleType, BitSet> ruleTypeIndex = new EnumMap<RuleType, BitSet>(RuleType.class);
+    private final Map<String, BitSet> exactQueryIndex = new HashMap<String, BitSet>();
+    private final BitSet allQueryRules = new BitSet();
+    private final BitSet termQueryRules = new BitSet();
+
+    /**
+     * Compiles a matcher out of the rules in the given searcher.
+     * @param searcher The rules core searcher
+     * @return a new rule matcher
+     * @throws IOException If the rule documents can't be loaded
+     */
+    static RuleMatcher compile(SolrIndexSearcher searcher) throws IOException {
+        long startTime = System.currentTimeMillis();
+        int maxDoc = searcher.maxDoc();
+        Bits liveDocs = MultiFields.getLiveDocs(searcher.getIndexReader());
+        List<CompiledRule> rules = new ArrayList<CompiledRule>(searcher.getIndexReader().numDocs());
+
+        for (int docId = 0; docId < maxDoc; docId++) {
+            if (liveDocs != null && !liveDocs.get(docId)) {
+                continue;
+            }
+            addRule(rules, docId, searcher.doc(docId));
+        }
+
+        RuleMatcher matcher = new RuleMatcher(searcher, rules);
+        logger.info("Compiled " + rules.size() + " rules from " + searcher.getName() + " in " + (System.currentTimeMillis() - startTime) + "ms");
+        return matcher;
+    }
+
+    /**
+     * Creates a new matcher for the given rule documents.
+     * @param searcher The searcher the rules were loaded from
+     * @param docIds The rule document ids
+     * @param documents The rule documents
+     */
+    RuleMatcher(SolrIndexSearcher searcher, int[] docIds, Document[] documents) {
+        this(searcher, toRules(docIds, documents));
+    }
+
+    private RuleMatcher(SolrIndexSearcher searcher, List<CompiledRule> ruleList) {
+        this.searcherRef = new WeakReference<SolrIndexSearcher>(searcher);
+        Collections.sort(ruleList, RULE_ORDER);
+        this.rules = ruleList.toArray(new CompiledRule[ruleList.size()]);
+
+        for (int position = 0; position < rules.length; position++) {
+            CompiledRule rule = rules[position];
+            Document doc = rule.document;
+
+            index(targetIndex, doc.getValues(RuleConstants.FIELD_TARGET), position);
+            index(catalogIndex, doc.getValues(RuleConstants.FIELD_CATALOG_ID), position);
+            index(siteIndex, doc.getValues(RuleConstants.FIELD_SITE_ID), position);
+            index(brandIndex, doc.getValues(RuleConstants.FIELD_BRAND_ID), position);
+            index(categoryIndex, doc.getValues(RuleConstants.FIELD_CATEGORY), position);
+            index(subTargetIndex, doc.getValues(RuleConstants.FIELD_SUB_TARGET), position);
+
+            BitSet typeBits = ruleTypeIndex.get(rule.ruleType);
+            if (typeBits == null) {
+                typeBits = new BitSet();
+                ruleTypeIndex.put(rule.ruleType, typeBits);
+            }
+            typeBits.set(position);
+
+            String query = doc.get(RuleConstants.FIELD_QUERY);
+            if (RuleConstants.WILDCARD.equals(query)) {
+                allQueryRules.set(position);
+            } else if (RuleManagerComponent.isExactMatch(query)) {
+                index(exactQueryIndex, new String[] { RuleManagerComponent.removeBrackets(query).toLowerCase() }, position);
+            } else if (query != null) {
+                termQueryRules.set(position);
+            }
+        }
+    }
+
+    /**
+     * Tells whether or not this matcher was compiled from the given searcher.
+     * @param searcher The current rules core searcher
+     * @return true if the matcher is up to date with the searcher, otherwise false
+     */
+    boolean isCompiledFrom(SolrIndexSearcher searcher) {
+        return searcherRef.get() == searcher;
+    }
+
+    /**
+     * @return the number of rules in this matcher
+     */
+    int size() {
+        return rules.length;
+    }
+
+    /**
+     * Finds the rules matching the given request. The filters are equivalent to the ones used by
+     * {@link RuleManagerComponent#getRulesQuery(SolrParams, PageType)}.
+     * @param requestParams Incoming search params.
+     * @param pageType Current page type.
+     * @param queryMatcher Used to match the rules query field for search pages.
+     * @return Map of rules where the key is the rule type.
+     * @throws IOException If the search query is empty or the rules core can't be searched.
+     */
+    Map<RuleType, List<Document>> match(SolrParams requestParams, PageType pageType, QueryMatcher queryMatcher) throws IOException {
+        Map<RuleType, List<Document>> rulesMap = new HashMap<RuleType, List<Document>>();
+        String catalogId = requestParams.get(RuleManagerParams.CATALOG_ID);
+
+        if (catalogId == null) {
+            logger.debug("No catalog ID provided, bypassing this request.");
+            return rulesMap;
+        }
+
+        String q = requestParams.get(CommonParams.Q);
+
+        if (pageType == PageType.search && StringUtils.isEmpty(q)) {
+            throw new IOException("Cannot process search request because the 'q' param is empty.");
+        }
+
+        BitSet candidates = union(targetIndex, TARGET_ALL_PAGES, pageType == PageType.search ? TARGET_SEARCH_PAGES : TARGET_CATEGORY_PAGES);
+        String categoryToken = requestParams.get(RuleManagerParams.CATEGORY_FILTER);
+        candidates.and(union(categoryIndex, StringUtils.isNotBlank(categoryToken) ? FilterQuery.unescapeQueryChars(categoryToken) : null));
+        candidates.and(union(siteIndex, requestParams.getParams(RuleManagerParams.SITE_IDS)));
+        String brandId = requestParams.get(RuleManagerParams.BRAND_ID);
+        candidates.and(union(brandIndex, StringUtils.isNotBlank(brandId) ? brandId : null));
+        boolean isOutlet = RuleManagerComponent.isOutletRequest(requestParams.getParams(CommonParams.FQ));
+        candidates.and(union(subTargetIndex, isOutlet ? RuleConstants.SUB_TARGET_OUTLET : RuleConstants.SUB_TARGET_RETAIL));
+        candidates.and(union(catalogIndex, catalogId));
+
+        if (requestParams.get("redirects") != null && !requestParams.getBool("redirects")) {
+            andNot(candidates, RuleType.redirectRule);
+        }
+
+        if (!BooleanUtils.toBoolean(requestParams.getBool("facet"))) {
+            andNot(candidates, RuleType.facetRule);
+        }
+
+        if (pageType == PageType.search && !matchQuery(candidates, q, queryMatcher)) {
+            return rulesMap;
+        }
+
+        long endOfDay = getEndOfDay(System.currentTimeMillis());
+        List<String> excludeRules = split(requestParams.get("excludeRules"));
+        List<String> includeRules = split(requestParams.get("includeRules"));
+
+        for (int position = candidates.nextSetBit(0); position >= 0; position = candidates.nextSetBit(position + 1)) {
+            CompiledRule rule = rules[position];
+
+            if (!rule.isActive(endOfDay)) {
+                continue;
+            }
+
+            if (excludeRules != null && excludeRules.contains(rule.id)) {
+                continue;
+            }
+
+            if (rule.experimental && includeRules != null && !includeRules.contains(rule.id)) {
+                continue;
+            }
+
+            List<Document> ruleList = rulesMap.get(rule.ruleType);
+
+            if (ruleList == null) {
+                ruleList = new LinkedList<Document>();
+                rulesMap.put(rule.ruleType, ruleList);
+            }
+            ruleList.add(rule.document);
+        }
+
+        logger.debug("Rules found: " + candidates.cardinality());
+        return rulesMap;
+    }
+
+    /**
+     * Restricts the candidates to the rules matching the given search query. Rules that apply to all queries always
+     * match. Rules with an exact query match are resolved in memory. Everything else is evaluated against the rules
+     * core, but only if there are candidates left that need it.
+     * @return false if the query couldn't be evaluated against the rules core, otherwise true
+     */
+    private boolean matchQuery(BitSet candidates, String q, QueryMatcher queryMatcher) throws IOException {
+        BitSet queryRules = (BitSet) allQueryRules.clone();
+
+        if (!(q.equals("*") || q.equals("*:*"))) {
+            BitSet exactRules = exactQueryIndex.get(q.toLowerCase());
+            if (exactRules != null) {
+                queryRules.or(exactRules);
+            }
+
+            BitSet termRules = (BitSet) termQueryRules.clone();
+            termRules.and(candidates);
+
+            if (!termRules.isEmpty()) {
+                DocSet docSet = queryMatcher.getDocSet(q);
+
+                if (docSet == null) {
+                    return false;
+                }
+
+                for (int position = termRules.nextSetBit(0); position >= 0; position = termRules.nextSetBit(position + 1)) {
+                    if (docSet.exists(rules[position].docId)) {
+                        queryRules.set(position);
+                    }
+                }
+            }
+        }
+
+        candidates.and(queryRules);
+        return true;
+    }
+
+    private void andNot(BitSet candidates, RuleType ruleType) {
+        BitSet typeBits = ruleTypeIndex.get(ruleType);
+        if (typeBits != null) {
+            candidates.andNot(typeBits);
+        }
+    }
+
+    /**
+     * Gets the rules with the wildcard value or any of the given values.
+     */
+    private static BitSet union(Map<String, BitSet> index, String... values) {
+        BitSet result = new BitSet();
+        BitSet bits = index.get(RuleConstants.WILDCARD);
+
+        if (bits != null) {
+            result.or(bits);
+        }
+
+        if (values != null) {
+            for (String value : values) {
+                if (value != null && (bits = index.get(value)) != null) {
+                    result.or(bits);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static void index(Map<String, BitSet> index, String[] values, int position) {
+        if (values == null) {
+            return;
+        }
+
+        for (String value : values) {
+            BitSet bits = index.get(value);
+
+            if (bits == null) {
+                bits = new BitSet();
+                index.put(value, bits);
+            }
+            bits.set(position);
+        }
+    }
+
+    private static List<CompiledRule> toRules(int[] docIds, Document[] documents) {
+        List<CompiledRule> rules = new ArrayList<CompiledRule>(documents.length);
+
+        for (int i = 0; i < documents.length; i++) {
+            addRule(rules, docIds[i], documents[i]);
+        }
+        return rules;
+    }
+
+    private static void addRule(List<CompiledRule> rules, int docId, Document document) {
+        String ruleType = document.get(RuleConstants.FIELD_RULE_TYPE);
+
+        if (ruleType == null) {
+            logger.error("Skipping rule " + document.get(RuleConstants.FIELD_ID) + " with no rule type");
+            return;
+        }
+
+        try {
+            rules.add(new CompiledRule(docId, document));
+        } catch (IllegalArgumentException ex) {
+            logger.error("Skipping rule " + document.get(RuleConstants.FIELD_ID) + " with invalid rule type " + ruleType);
+        }
+    }
+
+    private static List<String> split(String param) {
+        return param != null ? Arrays.asList(param.split(",")) : null;
+    }
+
+    /**
+     * Gets the numeric value of a stored field. Numeric fields are stored as numbers, but tolerate string values
+     * for dates and ints.
+     */
+    private static long getLong(IndexableField field, long defaultValue) {
+        if (field == null) {
+            return defaultValue;
+        }
+
+        Number number = field.numericValue();
+
+        if (number != null) {
+            return number.longValue();
+        }
+
+        String value = field.stringValue();
+
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException ex) {
+            try {
+                return DateUtil.parseDate(value).getTime();
+            } catch (ParseException pex) {
+                logger.error("Invalid value for rule field " + field.name() + ": " + value);
+                return defaultValue;
+            }
+        }
+    }
+
+    /**
+     * Solr date math rounds in UTC, so NOW/DAY+1DAY is the next UTC midnight
+     */
+    static long getEndOfDay(long time) {
+        return (time / DAY_MS + 1) * DAY_MS;
+    }
+}
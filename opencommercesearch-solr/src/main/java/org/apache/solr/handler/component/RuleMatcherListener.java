@@ -0,0 +1,61 @@
+package org.apache.solr.handler.component;
+
+/*
+* Licensed to OpenCommerceSearch under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. OpenCommerceSearch licenses this
+* file to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+import org.apache.solr.core.AbstractSolrEventListener;
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.search.SolrCache;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+
+/**
+ * Compiles the {@link RuleMatcher} of a new rules searcher while it warms up, so the rule manager doesn't compile it on
+ * the first request served by the searcher. The matcher is kept in the {@link RuleManagerComponent#RULE_MATCHER_CACHE}
+ * cache of the searcher and shared by the rule manager of every product catalog core. Should be registered in the rules
+ * core for both the newSearcher and firstSearcher events.
+ */
+public class RuleMatcherListener extends AbstractSolrEventListener {
+
+    private static Logger log = LoggerFactory.getLogger(RuleMatcherListener.class);
+
+    public RuleMatcherListener(SolrCore core) {
+        super(core);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void newSearcher(SolrIndexSearcher newSearcher, SolrIndexSearcher currentSearcher) {
+        SolrCache<String, RuleMatcher> cache = newSearcher.getCache(RuleManagerComponent.RULE_MATCHER_CACHE);
+
+        if (cache == null) {
+            log.warn("Rule matcher cache " + RuleManagerComponent.RULE_MATCHER_CACHE + " not found, skipping compilation");
+            return;
+        }
+
+        try {
+            cache.put(RuleManagerComponent.RULE_MATCHER_CACHE, RuleMatcher.compile(newSearcher));
+        } catch (IOException ex) {
+            log.error("Cannot compile the rules of searcher " + newSearcher.getName() + ", they will be compiled on the first request", ex);
+        }
+    }
+}
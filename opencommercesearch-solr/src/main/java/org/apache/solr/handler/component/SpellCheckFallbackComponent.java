@@ -0,0 +1,320 @@
+package org.apache.solr.handler.component;
+
+/*
+* Licensed to OpenCommerceSearch under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. OpenCommerceSearch licenses this
+* file to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.DisMaxParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.params.SpellCheckFallbackParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.response.ResultContext;
+import org.apache.solr.response.SolrQueryResponse;
+import org.apache.solr.search.DocList;
+import org.apache.solr.search.QueryParsing;
+import org.opencommercesearch.search.StageTimers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Retries searches with no results using the spell check collation, in the same request instead of new requests from
+ * the client. The first retry searches the collation matching all terms. If it has no results either, the second retry
+ * searches the collation, or the original query if there is no collation, matching any term with the configured
+ * minimum match.
+ * <p/>
+ * Each retry runs the prepare and process steps of the components before this one, except the spell check and the
+ * rule manager. The rules resolved for the original query are reused. While a retry runs, the request context has
+ * the {@link #RETRY} entry so components can skip side effects already done for the original query (i.e. the query
+ * sample). If a retry has results, its response entries replace the original ones and the correctedTerm and
+ * matchesAll entries are added to the response. The {@link #FALLBACK} entry lists the q, q.op and mm params the retry
+ * applied, so clients can copy them back onto their query.
+ * <p/>
+ * The component must go after the spell check component and before the expand all and group collapse components.
+ * Only non distributed requests are retried.
+ */
+public class SpellCheckFallbackComponent extends SearchComponent {
+    private static Logger log = LoggerFactory.getLogger(SpellCheckFallbackComponent.class);
+
+    public static final String CORRECTED_TERM = "correctedTerm";
+    public static final String MATCHES_ALL = "matchesAll";
+
+    /**
+     * Response entry with the query params applied by the retry with results
+     */
+    public static final String FALLBACK = SpellCheckFallbackParams.SPELLCHECK_FALLBACK;
+
+    /**
+     * Request context key marking the retries
+     */
+    public static final String RETRY = "spellCheckFallbackRetry";
+
+    /**
+     * Latency of the retries and their outcome
+     */
+    static final String STAGE_FALLBACK = "fallback";
+    private final StageTimers stageTimers = new StageTimers(STAGE_FALLBACK);
+    private final AtomicLong matchedAllTerms = new AtomicLong();
+    private final AtomicLong matchedAnyTerm = new AtomicLong();
+    private final AtomicLong notMatched = new AtomicLong();
+
+    private String minimumMatch;
+
+    @Override
+    public void init(NamedList args) {
+        SolrParams initArgs = SolrParams.toSolrParams(args);
+        minimumMatch = initArgs.get("minimumMatch");
+    }
+
+    @Override
+    public String getDescription() {
+        return "Spell Check Fallback - retries searches with no results using the spell check collation";
+    }
+
+    @Override
+    public String getSource() {
+        return "https://raw.github.com/rmerizalde/opencommercesearch/master/opencommercesearch-solr/src/main/java/org/apache/solr/handler/component/SpellCheckFallbackComponent.java";
+    }
+
+    @Override
+    public void prepare(ResponseBuilder rb) throws IOException {
+    }
+
+    @Override
+    public void process(ResponseBuilder rb) throws IOException {
+        SolrParams params = rb.req.getParams();
+
+        if (!params.getBool(SpellCheckFallbackParams.SPELLCHECK_FALLBACK, false)) {
+            return;
+        }
+
+        String q = params.get(CommonParams.Q);
+
+        if (StringUtils.isBlank(q) || params.getInt(CommonParams.ROWS, 1) <= 0 || hasResults(rb.rsp)) {
+            return;
+        }
+
+        long startTime = System.nanoTime();
+
+        try {
+            String collation = getCollation(rb.rsp);
+
+            if (collation != null && search(rb, params, collation, false)) {
+                matchedAllTerms.incrementAndGet();
+                addCorrection(rb.rsp, collation, true, rb.req.getParams());
+                return;
+            }
+
+            String anyTermQuery = collation != null? collation : q;
+
+            if (search(rb, params, anyTermQuery, true)) {
+                matchedAnyTerm.incrementAndGet();
+                addCorrection(rb.rsp, anyTermQuery, false, rb.req.getParams());
+                return;
+            }
+
+            notMatched.incrementAndGet();
+            rb.req.setParams(params);
+        }
+        finally {
+            stageTimers.record(STAGE_FALLBACK, startTime, rb.req);
+        }
+    }
+
+    /**
+     * Runs the search again with the given query. If it has results, its response entries replace the original ones.
+     * @param rb The response builder
+     * @param params The original request params
+     * @param q The query to search
+     * @param matchAnyTerm Whether to match any term or all terms
+     * @return true if the search had results, otherwise false
+     * @throws IOException If the search fails
+     */
+    private boolean search(ResponseBuilder rb, SolrParams params, String q, boolean matchAnyTerm) throws IOException {
+        ModifiableSolrParams fallbackParams = new ModifiableSolrParams(params);
+        fallbackParams.set(CommonParams.Q, q);
+
+        if (matchAnyTerm) {
+            fallbackParams.set(QueryParsing.OP, "OR");
+            String mm = params.get(SpellCheckFallbackParams.SPELLCHECK_FALLBACK_MM, minimumMatch);
+            if (mm != null) {
+                fallbackParams.set(DisMaxParams.MM, mm);
+            }
+        }
+
+        log.debug("Retrying search with q=" + q + ", match any term: " + matchAnyTerm);
+        rb.req.setParams(fallbackParams);
+
+        SolrQueryResponse rsp = rb.rsp;
+        SolrQueryResponse fallbackRsp = new SolrQueryResponse();
+        rb.rsp = fallbackRsp;
+        rb.req.getContext().put(RETRY, Boolean.TRUE);
+
+        try {
+            for (SearchComponent component : rb.components) {
+                if (component == this) {
+                    break;
+                }
+                if (isRetried(component)) {
+                    component.prepare(rb);
+                }
+            }
+            for (SearchComponent component : rb.components) {
+                if (component == this) {
+                    break;
+                }
+                if (isRetried(component)) {
+                    component.process(rb);
+                }
+            }
+        }
+        finally {
+            rb.rsp = rsp;
+            rb.req.getContext().remove(RETRY);
+        }
+
+        if (!hasResults(fallbackRsp)) {
+            return false;
+        }
+
+        NamedList values = rsp.getValues();
+        NamedList fallbackValues = fallbackRsp.getValues();
+
+        for (int i = 0; i < fallbackValues.size(); i++) {
+            String name = fallbackValues.getName(i);
+            int index = values.indexOf(name, 0);
+
+            if (index >= 0) {
+                values.setVal(index, fallbackValues.getVal(i));
+            }
+            else {
+                values.add(name, fallbackValues.getVal(i));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param req The request
+     * @return true if the request is running a retry, otherwise false
+     */
+    public static boolean isRetry(SolrQueryRequest req) {
+        return req.getContext().containsKey(RETRY);
+    }
+
+    private boolean isRetried(SearchComponent component) {
+        return !(component instanceof SpellCheckComponent || component instanceof RuleManagerComponent);
+    }
+
+    private void addCorrection(SolrQueryResponse rsp, String correctedTerm, boolean matchesAll, SolrParams fallbackParams) {
+        rsp.add(CORRECTED_TERM, correctedTerm);
+        rsp.add(MATCHES_ALL, matchesAll);
+
+        NamedList<Object> fallback = new SimpleOrderedMap<Object>();
+        fallback.add(CommonParams.Q, fallbackParams.get(CommonParams.Q));
+        if (!matchesAll) {
+            fallback.add(QueryParsing.OP, fallbackParams.get(QueryParsing.OP));
+            String mm = fallbackParams.get(DisMaxParams.MM);
+            if (mm != null) {
+                fallback.add(DisMaxParams.MM, mm);
+            }
+        }
+        rsp.add(FALLBACK, fallback);
+    }
+
+    /**
+     * Gets the first collation from the spell check response
+     * @param rsp The current response
+     * @return the collated query, or null if the response has no collations
+     */
+    static String getCollation(SolrQueryResponse rsp) {
+        NamedList spellCheck = (NamedList) rsp.getValues().get("spellcheck");
+
+        if (spellCheck == null) {
+            return null;
+        }
+
+        NamedList suggestions = (NamedList) spellCheck.get("suggestions");
+
+        if (suggestions == null) {
+            return null;
+        }
+
+        Object collation = suggestions.get("collation");
+
+        if (collation instanceof NamedList) {
+            // extended collation results
+            collation = ((NamedList) collation).get("collationQuery");
+        }
+
+        return StringUtils.isNotBlank((String) collation)? (String) collation : null;
+    }
+
+    /**
+     * Checks if the given response has results. For grouped responses, at least one of the group commands must have
+     * groups.
+     * @param rsp The response to check
+     * @return true if the response has results, otherwise false
+     */
+    static boolean hasResults(SolrQueryResponse rsp) {
+        NamedList grouped = (NamedList) rsp.getValues().get("grouped");
+
+        if (grouped != null) {
+            for (int i = 0; i < grouped.size(); i++) {
+                NamedList command = (NamedList) grouped.getVal(i);
+                Number count = (Number) command.get("ngroups");
+
+                if (count == null) {
+                    count = (Number) command.get("matches");
+                }
+                if (count != null && count.intValue() > 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        Object response = rsp.getValues().get("response");
+        DocList docs = null;
+
+        if (response instanceof ResultContext) {
+            docs = ((ResultContext) response).docs;
+        }
+        else if (response instanceof DocList) {
+            docs = (DocList) response;
+        }
+        return docs != null && docs.matches() > 0;
+    }
+
+    @Override
+    public NamedList getStatistics() {
+        NamedList<Object> stats = new SimpleOrderedMap<Object>();
+        stats.add("matchedAllTerms", matchedAllTerms.get());
+        stats.add("matchedAnyTerm", matchedAnyTerm.get());
+        stats.add("notMatched", notMatched.get());
+        stageTimers.addTo(stats);
+        return stats;
+    }
+}
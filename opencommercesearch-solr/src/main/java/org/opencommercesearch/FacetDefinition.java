@@ -0,0 +1,209 @@
+package org.opencommercesearch;
+
+/*
+* Licensed to OpenCommerceSearch under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. OpenCommerceSearch licenses this
+* file to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+import org.apache.commons.lang.BooleanUtils;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexableField;
+import org.apache.solr.client.solrj.util.ClientUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Immutable facet definition parsed from a facets core document. Numbers and flags are parsed once so facet params
+ * can be generated without reading the stored fields again.
+ */
+public class FacetDefinition {
+
+    private final Document document;
+    private final String id;
+    private final String fieldName;
+    private final FacetHandler.FacetType type;
+    private final boolean multiSelect;
+    private final boolean byCountry;
+    private final boolean bySite;
+
+    // field facets
+    private final String limit;
+    private final String minCount;
+    private final String sort;
+    private final boolean missing;
+
+    // range facets
+    private final int start;
+    private final int end;
+    private final int gap;
+    private final boolean hardened;
+
+    // query facets
+    private final String[] queries;
+
+    // stored fields returned in the rule facets
+    private final String[] responseNames;
+    private final String[] responseValues;
+
+    /**
+     * Creates a new facet definition from the given facet document.
+     * @param facet The facet document
+     * @throws IllegalArgumentException if the facet type is invalid
+     * @throws NumberFormatException if a range facet has invalid start, end or gap values
+     */
+    public FacetDefinition(Document facet) {
+        String facetType = facet.get(FacetConstants.FIELD_TYPE);
+
+        if (facetType == null) {
+            throw new IllegalArgumentException("Missing facet type for facet " + facet.get(FacetConstants.FIELD_ID));
+        }
+
+        this.document = facet;
+        this.id = facet.get(FacetConstants.FIELD_ID);
+        this.fieldName = facet.get(FacetConstants.FIELD_FIELD_NAME);
+        this.type = FacetHandler.FacetType.valueOf(facetType);
+        this.multiSelect = FacetHandler.getBooleanFromField(facet.get(FacetConstants.FIELD_MULTISELECT));
+        this.byCountry = BooleanUtils.toBoolean(facet.get(FacetConstants.FIELD_BY_COUNTRY));
+        this.bySite = BooleanUtils.toBoolean(facet.get(FacetConstants.FIELD_BY_SITE));
+
+        this.limit = facet.get(FacetConstants.FIELD_LIMIT);
+        this.minCount = facet.get(FacetConstants.FIELD_MIN_COUNT);
+        this.sort = facet.get(FacetConstants.FIELD_SORT);
+        this.missing = FacetHandler.getBooleanFromField(facet.get(FacetConstants.FIELD_MISSING));
+
+        int start = 0, end = 0, gap = 0;
+        if (type == FacetHandler.FacetType.rangeFacet) {
+            start = getInt(facet, FacetConstants.FIELD_START);
+            end = getInt(facet, FacetConstants.FIELD_END);
+            gap = getInt(facet, FacetConstants.FIELD_GAP);
+        }
+        this.start = start;
+        this.end = end;
+        this.gap = gap;
+        this.hardened = FacetHandler.getBooleanFromField(facet.get(FacetConstants.FIELD_HARDENED));
+
+        String[] queries = facet.getValues(FacetConstants.FIELD_QUERIES);
+        for (int i = 0; i < queries.length; i++) {
+            String q = queries[i].trim();
+
+            if(!q.startsWith("[") && !q.endsWith("]")) {
+                q = ClientUtils.escapeQueryChars(q);
+            }
+            queries[i] = q;
+        }
+        this.queries = queries;
+
+        List<String> names = new ArrayList<String>();
+        List<String> values = new ArrayList<String>();
+        for (IndexableField field : facet) {
+            if (!FacetHandler.isIgnoredField(field.name())) {
+                names.add(field.name());
+                values.add(field.stringValue());
+            }
+        }
+        this.responseNames = names.toArray(new String[names.size()]);
+        this.responseValues = values.toArray(new String[values.size()]);
+    }
+
+    private static int getInt(Document facet, String name) {
+        String value = facet.get(name);
+        return value != null? Integer.parseInt(value) : 0;
+    }
+
+    /**
+     * @return the document this definition was parsed from
+     */
+    public Document getDocument() {
+        return document;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getFieldName() {
+        return fieldName;
+    }
+
+    FacetHandler.FacetType getType() {
+        return type;
+    }
+
+    public boolean isMultiSelect() {
+        return multiSelect;
+    }
+
+    public boolean isByCountry() {
+        return byCountry;
+    }
+
+    public boolean isBySite() {
+        return bySite;
+    }
+
+    public String getLimit() {
+        return limit;
+    }
+
+    public String getMinCount() {
+        return minCount;
+    }
+
+    public String getSort() {
+        return sort;
+    }
+
+    public boolean isMissing() {
+        return missing;
+    }
+
+    public int getStart() {
+        return start;
+    }
+
+    public int getEnd() {
+        return end;
+    }
+
+    public int getGap() {
+        return gap;
+    }
+
+    public boolean isHardened() {
+        return hardened;
+    }
+
+    /**
+     * @return the facet queries, already escaped
+     */
+    String[] getQueries() {
+        return queries;
+    }
+
+    int getResponseFieldCount() {
+        return responseNames.length;
+    }
+
+    String getResponseFieldName(int index) {
+        return responseNames[index];
+    }
+
+    String getResponseFieldValue(int index) {
+        return responseValues[index];
+    }
+}
@@ -0,0 +1,123 @@
+package org.opencommercesearch;
+
+/*
+* Licensed to OpenCommerceSearch under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. OpenCommerceSearch licenses this
+* file to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.util.Bits;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable table of facet definitions loaded from the facets core. The store is loaded once per facets searcher so
+ * facet rules can resolve their facets by id without searching the facets core or loading stored fields.
+ */
+public class FacetDefinitionStore {
+
+    private static Logger logger = LoggerFactory.getLogger(FacetDefinitionStore.class);
+
+    private final WeakReference<SolrIndexSearcher> searcherRef;
+    private final Map<String, FacetDefinition> definitions;
+
+    /**
+     * Loads the facet definitions in the given searcher. Invalid facets are logged and skipped.
+     * @param searcher The facets core searcher
+     * @return a new facet definition store
+     * @throws IOException If the facet documents can't be loaded
+     */
+    public static FacetDefinitionStore load(SolrIndexSearcher searcher) throws IOException {
+        long startTime = System.currentTimeMillis();
+        int maxDoc = searcher.maxDoc();
+        Bits liveDocs = MultiFields.getLiveDocs(searcher.getIndexReader());
+        Map<String, FacetDefinition> definitions = new HashMap<String, FacetDefinition>(searcher.getIndexReader().numDocs());
+
+        for (int docId = 0; docId < maxDoc; docId++) {
+            if (liveDocs != null && !liveDocs.get(docId)) {
+                continue;
+            }
+
+            Document doc = searcher.doc(docId);
+            try {
+                FacetDefinition definition = new FacetDefinition(doc);
+                definitions.put(definition.getId(), definition);
+            } catch (IllegalArgumentException ex) {
+                // includes number format exceptions
+                logger.error("Skipping invalid facet " + doc.get(FacetConstants.FIELD_ID), ex);
+            }
+        }
+
+        FacetDefinitionStore store = new FacetDefinitionStore(searcher, definitions);
+        logger.info("Loaded " + definitions.size() + " facets from " + searcher.getName() + " in " + (System.currentTimeMillis() - startTime) + "ms");
+        return store;
+    }
+
+    /**
+     * Creates a new store for the given facet definitions.
+     * @param searcher The searcher the facets were loaded from
+     * @param definitions The facet definitions
+     */
+    FacetDefinitionStore(SolrIndexSearcher searcher, Collection<FacetDefinition> definitions) {
+        this(searcher, toMap(definitions));
+    }
+
+    private FacetDefinitionStore(SolrIndexSearcher searcher, Map<String, FacetDefinition> definitions) {
+        this.searcherRef = new WeakReference<SolrIndexSearcher>(searcher);
+        this.definitions = Collections.unmodifiableMap(definitions);
+    }
+
+    private static Map<String, FacetDefinition> toMap(Collection<FacetDefinition> definitions) {
+        Map<String, FacetDefinition> map = new HashMap<String, FacetDefinition>(definitions.size());
+        for (FacetDefinition definition : definitions) {
+            map.put(definition.getId(), definition);
+        }
+        return map;
+    }
+
+    /**
+     * Gets the facet definition with the given id.
+     * @param id The facet id
+     * @return the facet definition or null if there is no facet with the given id
+     */
+    public FacetDefinition get(String id) {
+        return definitions.get(id);
+    }
+
+    /**
+     * @return the number of facets in this store
+     */
+    public int size() {
+        return definitions.size();
+    }
+
+    /**
+     * @return true if this store was loaded from the given searcher
+     */
+    public boolean isLoadedFrom(SolrIndexSearcher searcher) {
+        return searcherRef.get() == searcher;
+    }
+}
@@ -19,18 +19,14 @@ package org.opencommercesearch;
 * under the License.
 */
 
-import org.apache.commons.lang.BooleanUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.lucene.document.Document;
-import org.apache.lucene.index.IndexableField;
 import org.apache.solr.client.solrj.SolrQuery;
-import org.apache.solr.client.solrj.util.ClientUtils;
 import org.apache.solr.common.params.FacetParams;
 import org.apache.solr.common.params.MergedSolrParams;
 import org.apache.solr.common.params.RuleManagerParams;
 import org.apache.solr.common.params.SolrParams;
 import org.apache.solr.common.util.NamedList;
-import org.apache.solr.handler.component.RuleManagerComponent;
 
 import java.util.*;
 
@@ -58,54 +54,46 @@ public class FacetHandler {
     /**
      * List of facets registered on this facet handler. The list is indexed by facet field name.
      */
-    private LinkedHashMap<String, Document> facets = new LinkedHashMap<String, Document>();
+    private LinkedHashMap<String, FacetDefinition> facets = new LinkedHashMap<String, FacetDefinition>();
 
     /**
      * Enum of valid facet types known to the facet handler.
      */
     enum FacetType {
         fieldFacet() {
-            void setParams(MergedSolrParams query, Document facet) {
-                String fieldName = fieldName(facet.get(FacetConstants.FIELD_FIELD_NAME), query, facet);
+            void setParams(MergedSolrParams query, FacetDefinition facet) {
+                String fieldName = fieldName(facet.getFieldName(), query, facet);
                 String localParams = "{!ex=collapse}";
-                boolean isMultiSelect = getBooleanFromField(facet.get(FacetConstants.FIELD_MULTISELECT));
 
-                if(isMultiSelect) {
+                if(facet.isMultiSelect()) {
                     localParams = "{!ex=collapse," + fieldName + "}";
                 }
 
                 query.addFacetField(localParams + fieldName);
-                setParam(query, fieldName, "limit", facet.get(FacetConstants.FIELD_LIMIT));
-                setParam(query, fieldName, "mincount", facet.get(FacetConstants.FIELD_MIN_COUNT));
-                setParam(query, fieldName, "sort", facet.get(FacetConstants.FIELD_SORT));
+                setParam(query, fieldName, "limit", facet.getLimit());
+                setParam(query, fieldName, "mincount", facet.getMinCount());
+                setParam(query, fieldName, "sort", facet.getSort());
 
-                boolean missing = getBooleanFromField(facet.get(FacetConstants.FIELD_MISSING));
-                if(missing) {
-                    setParam(query, fieldName, "missing", missing);
+                if(facet.isMissing()) {
+                    setParam(query, fieldName, "missing", true);
                 }
             }
         },
         rangeFacet() {
-            void setParams(MergedSolrParams query, Document facet) {
-                String fieldName = fieldName(facet.get(FacetConstants.FIELD_FIELD_NAME), query, facet);
-                int start = facet.get(FacetConstants.FIELD_START) != null? Integer.valueOf(facet.get(FacetConstants.FIELD_START)) : 0;
-                int end = facet.get(FacetConstants.FIELD_END) != null? Integer.valueOf(facet.get(FacetConstants.FIELD_END)) : 0;
-                int gap = facet.get(FacetConstants.FIELD_GAP) != null? Integer.valueOf(facet.get(FacetConstants.FIELD_GAP)) : 0;
-
+            void setParams(MergedSolrParams query, FacetDefinition facet) {
+                String fieldName = fieldName(facet.getFieldName(), query, facet);
                 String localParams = "{!ex=collapse}";
-                boolean isMultiSelect = getBooleanFromField(facet.get(FacetConstants.FIELD_MULTISELECT));
 
-                if(isMultiSelect) {
+                if(facet.isMultiSelect()) {
                     localParams = "{!ex=collapse," + fieldName + "}";
                 }
 
-                query.addNumericRangeFacet(fieldName, start, end, gap);
+                query.addNumericRangeFacet(fieldName, facet.getStart(), facet.getEnd(), facet.getGap());
                 query.remove(FacetParams.FACET_RANGE, fieldName);
                 query.add(FacetParams.FACET_RANGE, localParams + fieldName);
 
-                boolean hardened = getBooleanFromField(facet.get(FacetConstants.FIELD_HARDENED));
-                if(hardened) {
-                    setParam(query, fieldName, "hardened", hardened);
+                if(facet.isHardened()) {
+                    setParam(query, fieldName, "hardened", true);
                 }
 
                 setParam(query, fieldName, "mincount", 1);
@@ -115,36 +103,25 @@ public class FacetHandler {
             }
         },
         dateFacet() {
-            void setParams(MergedSolrParams query, Document facet) {
+            void setParams(MergedSolrParams query, FacetDefinition facet) {
             }
         },
         queryFacet() {
-            void setParams(MergedSolrParams query, Document facet) {
-                String fieldName = fieldName(facet.get(FacetConstants.FIELD_FIELD_NAME), query, facet);
+            void setParams(MergedSolrParams query, FacetDefinition facet) {
+                String fieldName = fieldName(facet.getFieldName(), query, facet);
                 String localParams = "{!ex=collapse}";
-                boolean isMultiSelect = getBooleanFromField(facet.get(FacetConstants.FIELD_MULTISELECT));
 
-                if(isMultiSelect) {
+                if(facet.isMultiSelect()) {
                     localParams = "{!ex=collapse," + fieldName + "}";
                 }
 
-                String[] queries = facet.getValues(FacetConstants.FIELD_QUERIES);
-
-                if(queries != null) {
-                    for(String q : queries) {
-                        q = q.trim();
-
-                        if(!q.startsWith("[") && !q.endsWith("]")) {
-                            q = ClientUtils.escapeQueryChars(q);
-                        }
-                        query.addFacetQuery(localParams + fieldName + ":" + q);
-                    }
+                for(String q : facet.getQueries()) {
+                    query.addFacetQuery(localParams + fieldName + ":" + q);
                 }
             }
         };
 
-        abstract void setParams(MergedSolrParams query, Document facet);
-
+        abstract void setParams(MergedSolrParams query, FacetDefinition facet);
         void setParam(SolrQuery query, String fieldName, String paramName, Object value) {
             if (value != null) {
                 query.set("f." + fieldName + ".facet." + paramName, value.toString());
@@ -174,10 +151,10 @@ public class FacetHandler {
      * Appends the country and/or site if the facet is country and/or site specific. If the fieldName already ends
      * with the country code, nothing gets appended.
      * @param fieldName is the field name
-     * @param facet is the facet's document
+     * @param facet is the facet's definition
      * @return the calculated facet name
      */
-    static String fieldName(String fieldName, SolrQuery query, Document facet) {
+    static String fieldName(String fieldName, SolrQuery query, FacetDefinition facet) {
         if (fieldName == null || facet == null) {
             return fieldName;
         }
@@ -185,15 +162,24 @@ public class FacetHandler {
         String country = query.get(RuleManagerParams.COUNTRY_ID, "US");
         String site = query.get(RuleManagerParams.CATALOG_ID);
 
-        if (BooleanUtils.toBoolean(facet.get(FacetConstants.FIELD_BY_COUNTRY)) == Boolean.TRUE && !fieldName.endsWith(country)) {
+        if (facet.isByCountry() && !fieldName.endsWith(country)) {
             fieldName += country;
         }
-        if (BooleanUtils.toBoolean(facet.get(FIELD_BY_SITE)) == Boolean.TRUE && site != null) {
+        if (facet.isBySite() && site != null) {
             fieldName += site;
         }
         return fieldName;
     }
 
+    /**
+     * Whether or not the given stored field should be ignored when returning all fields from a facet.
+     * @param fieldName The stored field name
+     * @return true if the field should not be returned
+     */
+    static boolean isIgnoredField(String fieldName) {
+        return ignoredFields.contains(fieldName);
+    }
+
     /**
      * Utility method that gets a boolean value out of a Solr boolean field value.
      * @param value A Solr boolean field value.
@@ -214,8 +200,17 @@ public class FacetHandler {
      *            the facet item from the repository
      */
     public void addFacet(Document facet) {
-        String fieldName = facet.get(FacetConstants.FIELD_FIELD_NAME);
-        addField(fieldName, facet);
+        addFacet(new FacetDefinition(facet));
+    }
+
+    /**
+     * Registers a pre-parsed facet definition. See {@link #addFacet(Document)}.
+     *
+     * @param facet
+     *            the facet definition
+     */
+    public void addFacet(FacetDefinition facet) {
+        addField(facet.getFieldName(), facet);
     }
 
     /**
@@ -251,12 +246,10 @@ public class FacetHandler {
             return;
         }
 
-        for (String key : facets.keySet()) {
-        	Document facet = facets.get(key);
-        	if(facet != null) {
-	            FacetType type = FacetType.valueOf(facet.get(FacetConstants.FIELD_TYPE));
-	            type.setParams(query, facet);
-        	}
+        for (FacetDefinition facet : facets.values()) {
+            if(facet != null) {
+                facet.getType().setParams(query, facet);
+            }
         }
     }
 
@@ -268,7 +261,7 @@ public class FacetHandler {
      * @param fieldName the field name of the facet
      * @param fieldFacet the facet object
      */
-    private void addField(String fieldName, Document fieldFacet) {
+    private void addField(String fieldName, FacetDefinition fieldFacet) {
         if( ! facets.containsKey(fieldName)) {
             addFacet(new String[]{fieldName});
         }
@@ -282,7 +275,8 @@ public class FacetHandler {
      * @return A facet item document if found, null otherwise.
      */
     public Document getFacetItem(String fieldName) {
-        return facets.get(fieldName);
+        FacetDefinition facet = facets.get(fieldName);
+        return facet != null? facet.getDocument() : null;
     }
 
     /**
@@ -291,22 +285,23 @@ public class FacetHandler {
      */
     public Map<String, NamedList> getFacets(SolrQuery query) {
         Map<String, NamedList> result = new LinkedHashMap<String, NamedList>();
-        for(String fieldName : facets.keySet()) {
-            NamedList<String> namedList = new NamedList<String>();
-            Document facet = getFacetItem(fieldName);
-            String facetFieldName = fieldName(fieldName, query, facet);
+        for(Map.Entry<String, FacetDefinition> entry : facets.entrySet()) {
+            String fieldName = entry.getKey();
+            FacetDefinition facet = entry.getValue();
 
             if(facet != null) {
-                for (IndexableField field : facet) {
-                    if(!ignoredFields.contains(field.name())) {
-                        if (field.name().equals("fieldName")) {
-                            namedList.add(field.name(), facetFieldName);
-                            if (!facetFieldName.equals(fieldName)) {
-                                namedList.add("originalFieldName", fieldName);
-                            }
-                        } else {
-                            namedList.add(field.name(), field.stringValue());
+                NamedList<String> namedList = new NamedList<String>();
+                String facetFieldName = fieldName(fieldName, query, facet);
+
+                for (int i = 0; i < facet.getResponseFieldCount(); i++) {
+                    String name = facet.getResponseFieldName(i);
+                    if (name.equals("fieldName")) {
+                        namedList.add(name, facetFieldName);
+                        if (!facetFieldName.equals(fieldName)) {
+                            namedList.add("originalFieldName", fieldName);
                         }
+                    } else {
+                        namedList.add(name, facet.getResponseFieldValue(i));
                     }
                 }
                 result.put(facetFieldName, namedList);
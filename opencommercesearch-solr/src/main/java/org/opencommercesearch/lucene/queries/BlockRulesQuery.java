@@ -0,0 +1,207 @@
+package org.opencommercesearch.lucene.queries;
+
+/*
+* Licensed to OpenCommerceSearch under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. OpenCommerceSearch licenses this
+* file to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.FixedBitSet;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Matches the documents blocked by a set of block rules, that is, the documents whose field value is one of the
+ * blocked products of any of the rules. The rule manager adds the negation of this query as a single filter query,
+ * so the blocked documents end up in one filter cache entry instead of one entry per blocked product.
+ *
+ * Every time the blocked documents are collected for all the segments of an index, the number of documents blocked
+ * by each rule is reported to the given stats map. The query is cached and shared by concurrent searches, so the counts
+ * are kept by the filter created for each search when the query is rewritten.
+ */
+public class BlockRulesQuery extends Query {
+
+    private final String field;
+    private final String[] ruleIds;
+    private final BytesRef[][] products;
+    private final Map<String, Long> blockedDocs;
+    private final int hashCode;
+
+    /**
+     * Creates a new block rules query
+     * @param field the field with the blocked values, usually productId
+     * @param ruleIds the ids of the block rules
+     * @param products the blocked products for each rule
+     * @param blockedDocs map where the number of blocked documents by rule id is reported. Can be null.
+     */
+    public BlockRulesQuery(String field, String[] ruleIds, BytesRef[][] products, Map<String, Long> blockedDocs) {
+        this.field = field;
+        this.ruleIds = ruleIds;
+        this.products = products;
+        this.blockedDocs = blockedDocs;
+
+        int hashCode = field.hashCode();
+        for (int i = 0; i < ruleIds.length; i++) {
+            hashCode = 31 * hashCode + ruleIds[i].hashCode();
+            hashCode = 31 * hashCode + Arrays.hashCode(products[i]);
+        }
+        this.hashCode = hashCode;
+    }
+
+    public String getField() {
+        return field;
+    }
+
+    public String[] getRuleIds() {
+        return ruleIds;
+    }
+
+    @Override
+    public Query rewrite(IndexReader reader) throws IOException {
+        Query query = new ConstantScoreQuery(new BlockRulesFilter());
+        query.setBoost(getBoost());
+        return query;
+    }
+
+    @Override
+    public String toString(String field) {
+        StringBuilder b = new StringBuilder("blockRules(").append(this.field).append(",");
+        for (int i = 0; i < ruleIds.length; i++) {
+            b.append(ruleIds[i]).append(":");
+            for (BytesRef product : products[i]) {
+                b.append(product.utf8ToString()).append(",");
+            }
+            b.setCharAt(b.length() - 1, ' ');
+        }
+        b.setCharAt(b.length() - 1, ')');
+        return b.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof BlockRulesQuery) || !super.equals(o)) {
+            return false;
+        }
+
+        BlockRulesQuery other = (BlockRulesQuery) o;
+        return hashCode == other.hashCode && field.equals(other.field) && Arrays.equals(ruleIds, other.ruleIds)
+                && Arrays.deepEquals(products, other.products);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * super.hashCode() + hashCode;
+    }
+
+    /**
+     * Builds a bit set per segment with the documents blocked by the rules. A new filter is created for each search,
+     * so it counts the blocked documents of that search only.
+     */
+    private class BlockRulesFilter extends Filter {
+
+        private final long[] counts = new long[ruleIds.length];
+        private int segments;
+
+        @Override
+        public DocIdSet getDocIdSet(AtomicReaderContext context, Bits acceptDocs) throws IOException {
+            long[] segmentCounts = new long[ruleIds.length];
+            FixedBitSet bits = null;
+            Terms terms = context.reader().terms(field);
+
+            if (terms != null) {
+                TermsEnum termsEnum = terms.iterator(null);
+                DocsEnum docs = null;
+
+                for (int i = 0; i < ruleIds.length; i++) {
+                    for (BytesRef product : products[i]) {
+                        if (!termsEnum.seekExact(product)) {
+                            continue;
+                        }
+
+                        docs = termsEnum.docs(acceptDocs, docs, DocsEnum.FLAG_NONE);
+                        int doc;
+                        while ((doc = docs.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+                            if (bits == null) {
+                                bits = new FixedBitSet(context.reader().maxDoc());
+                            }
+                            bits.set(doc);
+                            segmentCounts[i]++;
+                        }
+                    }
+                }
+            }
+
+            count(context, segmentCounts);
+            return bits;
+        }
+
+        /**
+         * Adds the documents blocked by each rule in the given segment to the blocked document counts. Once all the
+         * segments are counted, the totals are reported and the counts are reset.
+         */
+        private void count(AtomicReaderContext context, long[] segmentCounts) {
+            if (blockedDocs == null) {
+                return;
+            }
+
+            synchronized (counts) {
+                for (int i = 0; i < counts.length; i++) {
+                    counts[i] += segmentCounts[i];
+                }
+
+                if (++segments == ReaderUtil.getTopLevelContext(context).leaves().size()) {
+                    for (int i = 0; i < counts.length; i++) {
+                        blockedDocs.put(ruleIds[i], counts[i]);
+                    }
+                    Arrays.fill(counts, 0);
+                    segments = 0;
+                }
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof BlockRulesFilter && BlockRulesQuery.this.equals(((BlockRulesFilter) o).getQuery());
+        }
+
+        @Override
+        public int hashCode() {
+            return BlockRulesQuery.this.hashCode();
+        }
+
+        private BlockRulesQuery getQuery() {
+            return BlockRulesQuery.this;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package org.opencommercesearch.lucene.queries.function.valuesource;
+
+/*
+* Licensed to OpenCommerceSearch under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. OpenCommerceSearch licenses this
+* file to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+import java.util.Map;
+
+/**
+ * Boosts for a boost id as cached in the boost cache, along with the time they were loaded from the boost API.
+ */
+public class BoostEntry {
+
+    private final Map<String, Float> boosts;
+    private final long loadTime;
+
+    public BoostEntry(Map<String, Float> boosts, long loadTime) {
+        this.boosts = boosts;
+        this.loadTime = loadTime;
+    }
+
+    /**
+     * @return the boost value for each product id
+     */
+    public Map<String, Float> getBoosts() {
+        return boosts;
+    }
+
+    /**
+     * @return the time in milliseconds the boosts were loaded
+     */
+    public long getLoadTime() {
+        return loadTime;
+    }
+
+    /**
+     * @return true if the boosts were loaded more than the given amount of milliseconds before the given time
+     */
+    public boolean isOlderThan(long ageMs, long time) {
+        return time - loadTime >= ageMs;
+    }
+}
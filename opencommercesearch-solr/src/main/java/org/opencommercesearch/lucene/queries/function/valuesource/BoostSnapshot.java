@@ -0,0 +1,167 @@
+package org.opencommercesearch.lucene.queries.function.valuesource;
+
+/*
+* Licensed to OpenCommerceSearch under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. OpenCommerceSearch licenses this
+* file to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Binary snapshot of the boost cache. The snapshot is written to a temporary file and then renamed, so readers never
+ * see a partial snapshot. Snapshots are memory mapped when read.
+ *
+ * The format is a header (magic, version and entry count) followed by each entry: the boost id, the load time, the
+ * number of boosts, the product ids and the boost values. Strings are stored as their UTF-8 length and bytes.
+ */
+class BoostSnapshot {
+
+    static final int MAGIC = 0x4f435342;
+    static final int VERSION = 1;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private BoostSnapshot() {
+    }
+
+    /**
+     * Writes the given boosts to the snapshot file, replacing any previous snapshot.
+     *
+     * @param file is the snapshot file
+     * @param entries are the boosts by boost id
+     * @throws IOException if the snapshot can't be written
+     */
+    static void write(File file, Map<String, BoostEntry> entries) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+
+            for (Map.Entry<String, BoostEntry> entry : entries.entrySet()) {
+                Map<String, Float> boosts = entry.getValue().getBoosts();
+                float[] values = new float[boosts.size()];
+                int i = 0;
+
+                writeString(out, entry.getKey());
+                out.writeLong(entry.getValue().getLoadTime());
+                out.writeInt(boosts.size());
+                for (Map.Entry<String, Float> boost : boosts.entrySet()) {
+                    writeString(out, boost.getKey());
+                    values[i++] = boost.getValue();
+                }
+                for (float value : values) {
+                    out.writeFloat(value);
+                }
+            }
+        } finally {
+            out.close();
+        }
+
+        if (!tmp.renameTo(file)) {
+            // some platforms can't rename over an existing file
+            file.delete();
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Cannot rename " + tmp + " to " + file);
+            }
+        }
+    }
+
+    /**
+     * Reads the boosts in the snapshot file.
+     *
+     * @param file is the snapshot file
+     * @return the boosts by boost id
+     * @throws IOException if the snapshot can't be read or is invalid
+     */
+    static Map<String, BoostEntry> read(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        MappedByteBuffer buffer;
+
+        try {
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally {
+            raf.close();
+        }
+
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("Invalid boost snapshot " + file);
+            }
+
+            int count = checkSize(buffer, buffer.getInt());
+            Map<String, BoostEntry> entries = new HashMap<String, BoostEntry>(count);
+
+            for (int i = 0; i < count; i++) {
+                String boostId = readString(buffer);
+                long loadTime = buffer.getLong();
+                int size = checkSize(buffer, buffer.getInt());
+                String[] ids = new String[size];
+                Map<String, Float> boosts = new HashMap<String, Float>(size);
+
+                for (int j = 0; j < size; j++) {
+                    ids[j] = readString(buffer);
+                }
+                for (int j = 0; j < size; j++) {
+                    boosts.put(ids[j], buffer.getFloat());
+                }
+                entries.put(boostId, new BoostEntry(boosts, loadTime));
+            }
+            return entries;
+        } catch (BufferUnderflowException ex) {
+            throw new IOException("Truncated boost snapshot " + file, ex);
+        } catch (IllegalArgumentException ex) {
+            throw new IOException("Corrupted boost snapshot " + file, ex);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the size can't be right for the remaining bytes in the snapshot
+     */
+    private static int checkSize(ByteBuffer buffer, int size) {
+        if (size < 0 || size > buffer.remaining()) {
+            throw new IllegalArgumentException("Invalid size " + size);
+        }
+        return size;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[checkSize(buffer, buffer.getInt())];
+        buffer.get(bytes);
+        return new String(bytes, UTF8);
+    }
+}
@@ -0,0 +1,205 @@
+package org.opencommercesearch.lucene.queries.function.valuesource;
+
+/*
+* Licensed to OpenCommerceSearch under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. OpenCommerceSearch licenses this
+* file to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.SegmentReader;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.util.BytesRef;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Cache of per segment boost tables. A boost table maps the ordinal of each term in the boost key field to its boost
+ * value. Tables are keyed by boost id, field and segment core key so concurrent queries and new searchers that share
+ * segments share the same tables.
+ *
+ * The cache is bounded by the total number of boost values held in all tables. The least recently used tables are
+ * evicted first. The limit can be configured with the boost.tableCacheSize system property. Tables for a segment are
+ * purged when the segment core is closed.
+ */
+class BoostTableCache {
+
+    private static Logger log = LoggerFactory.getLogger(BoostTableCache.class);
+
+    static final BoostTableCache INSTANCE = new BoostTableCache(getMaxSize());
+
+    private final long maxSize;
+    private long size;
+    private final LinkedHashMap<Key, Table> tables = new LinkedHashMap<Key, Table>(64, 0.75f, true);
+    private final Set<Object> listenedCores = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+    private final SegmentReader.CoreClosedListener purgeListener = new SegmentReader.CoreClosedListener() {
+        @Override
+        public void onClose(Object coreKey) {
+            purge(coreKey);
+        }
+    };
+
+    BoostTableCache(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    private static long getMaxSize() {
+        long maxSize = 16 * 1024 * 1024;
+        String tableCacheSize = System.getProperty("boost.tableCacheSize");
+
+        if (tableCacheSize != null) {
+            try {
+                maxSize = Long.parseLong(tableCacheSize);
+                log.info("Setting boost table cache size to " + maxSize);
+            } catch (NumberFormatException ex) {
+                log.error("Invalid boost table cache size " + tableCacheSize);
+            }
+        }
+        return maxSize;
+    }
+
+    /**
+     * Gets the boost table for the given segment. The table is created if it's not cached or if it was created for
+     * a different boost map.
+     *
+     * @param boostId is the boost id
+     * @param field is the boost key field
+     * @param reader is the segment reader
+     * @param ords are the segment term ordinals for the boost key field
+     * @param boosts is the boost map
+     * @return the boost table for the segment
+     */
+    float[] getTable(String boostId, String field, AtomicReader reader, SortedDocValues ords, Map<String, Float> boosts) {
+        Object coreKey = reader.getCoreCacheKey();
+        Key key = new Key(boostId, field, coreKey);
+        Table table;
+
+        synchronized (this) {
+            table = tables.get(key);
+        }
+
+        if (table != null && table.boosts == boosts) {
+            return table.values;
+        }
+
+        table = new Table(boosts, createTable(ords, boosts));
+
+        synchronized (this) {
+            if (reader instanceof SegmentReader && listenedCores.add(coreKey)) {
+                ((SegmentReader) reader).addCoreClosedListener(purgeListener);
+            }
+
+            Table old = tables.put(key, table);
+            if (old != null) {
+                size -= old.values.length;
+            }
+            size += table.values.length;
+
+            Iterator<Table> it = tables.values().iterator();
+            while (size > maxSize && it.hasNext()) {
+                Table eldest = it.next();
+                if (eldest != table) {
+                    size -= eldest.values.length;
+                    it.remove();
+                }
+            }
+        }
+        return table.values;
+    }
+
+    /**
+     * Creates a boost table for the given segment ordinals. Terms without a boost get a zero boost.
+     *
+     * @param ords are the segment term ordinals for the boost key field
+     * @param boosts is the boost map
+     * @return a table with the boost value for each ordinal
+     */
+    static float[] createTable(SortedDocValues ords, Map<String, Float> boosts) {
+        float[] values = new float[ords.getValueCount()];
+        BytesRef term = new BytesRef();
+
+        for (Map.Entry<String, Float> boost : boosts.entrySet()) {
+            term.copyChars(boost.getKey());
+            int ord = ords.lookupTerm(term);
+            if (ord >= 0) {
+                values[ord] = boost.getValue();
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Removes all tables for the given segment
+     *
+     * @param coreKey is the segment core key
+     */
+    synchronized void purge(Object coreKey) {
+        listenedCores.remove(coreKey);
+        Iterator<Map.Entry<Key, Table>> it = tables.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Key, Table> entry = it.next();
+            if (entry.getKey().coreKey == coreKey) {
+                size -= entry.getValue().values.length;
+                it.remove();
+            }
+        }
+    }
+
+    synchronized int size() {
+        return tables.size();
+    }
+
+    private static class Table {
+        final Map<String, Float> boosts;
+        final float[] values;
+
+        Table(Map<String, Float> boosts, float[] values) {
+            this.boosts = boosts;
+            this.values = values;
+        }
+    }
+
+    private static class Key {
+        final String boostId;
+        final String field;
+        final Object coreKey;
+
+        Key(String boostId, String field, Object coreKey) {
+            this.boostId = boostId;
+            this.field = field;
+            this.coreKey = coreKey;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return boostId.equals(other.boostId) && field.equals(other.field) && coreKey == other.coreKey;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * boostId.hashCode() + field.hashCode()) + System.identityHashCode(coreKey);
+        }
+    }
+}
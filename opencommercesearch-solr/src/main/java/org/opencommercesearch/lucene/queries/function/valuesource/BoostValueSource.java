@@ -19,11 +19,14 @@ package org.opencommercesearch.lucene.queries.function.valuesource;
 * under the License.
 */
 
+import org.apache.lucene.index.AtomicReader;
 import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.SortedDocValues;
 import org.apache.lucene.queries.function.FunctionValues;
 import org.apache.lucene.queries.function.ValueSource;
 import org.apache.lucene.queries.function.docvalues.FloatDocValues;
-import org.apache.lucene.queries.function.docvalues.IntDocValues;
+import org.apache.lucene.search.FieldCache;
+import org.apache.solr.schema.StrFieldSource;
 
 import java.io.IOException;
 import java.util.Map;
@@ -32,11 +35,16 @@ import java.util.Map;
  * Value source for dynamic boosts. A dynamic boost can be associated with a product or a sku. The function first parameter
  * is the field name to be used as the boost key.
  *
+ * For string fields, the boosts are resolved once per segment into a table indexed by the term ordinal of the boost
+ * key, so scoring a document is an ordinal lookup plus an array read. Tables are shared through the
+ * {@link BoostTableCache}.
+ *
  * @author rmerizalde
  */
 public class BoostValueSource extends ValueSource {
     private final String field;
     private final ValueSource fieldValueSource;
+    private final String boostId;
     private final Map<String, Float> boosts;
 
     /**
@@ -47,13 +55,51 @@ public class BoostValueSource extends ValueSource {
      * @param boosts is the boost map
      */
     public BoostValueSource(String field, ValueSource fieldValueSource, Map<String, Float> boosts) {
+        this(field, fieldValueSource, null, boosts);
+    }
+
+    /**
+     * Create a new value source
+     *
+     * @param field is the field use as the boost value key (e.g. sku or product id)
+     * @param fieldValueSource is the value source to retrieve the boost key values
+     * @param boostId is the boost id used to cache the per segment boost tables. If null, tables are not cached
+     * @param boosts is the boost map
+     */
+    public BoostValueSource(String field, ValueSource fieldValueSource, String boostId, Map<String, Float> boosts) {
         this.field = field;
         this.fieldValueSource = fieldValueSource;
+        this.boostId = boostId;
         this.boosts = boosts;
     }
 
     @Override
     public FunctionValues getValues(Map context, AtomicReaderContext readerContext) throws IOException {
+        if (boosts.isEmpty()) {
+            return new FloatDocValues(this) {
+                @Override
+                public float floatVal(int doc) {
+                    return 0.0f;
+                }
+            };
+        }
+
+        if (readerContext != null && fieldValueSource instanceof StrFieldSource) {
+            AtomicReader reader = readerContext.reader();
+            final SortedDocValues ords = FieldCache.DEFAULT.getTermsIndex(reader, field);
+            final float[] table = boostId != null?
+                    BoostTableCache.INSTANCE.getTable(boostId, field, reader, ords, boosts) :
+                    BoostTableCache.createTable(ords, boosts);
+
+            return new FloatDocValues(this) {
+                @Override
+                public float floatVal(int doc) {
+                    int ord = ords.getOrd(doc);
+                    return ord < 0? 0.0f : table[ord];
+                }
+            };
+        }
+
         final FunctionValues vals = fieldValueSource.getValues(context, readerContext);
 
         return new FloatDocValues(this) {
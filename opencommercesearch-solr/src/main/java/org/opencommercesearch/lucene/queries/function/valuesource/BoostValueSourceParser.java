@@ -19,10 +19,30 @@ package org.opencommercesearch.lucene.queries.function.valuesource;
 * under the License.
 */
 
+import java.io.File;
 import java.io.IOException;
+import java.net.URL;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.math.NumberUtils;
@@ -39,6 +59,10 @@ import org.apache.solr.common.params.CommonParams;
 import org.apache.solr.common.params.ModifiableSolrParams;
 import org.apache.solr.common.params.SolrParams;
 import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.core.CloseHook;
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.core.SolrInfoMBean;
 import org.apache.solr.schema.SchemaField;
 import org.apache.solr.search.FunctionQParser;
 import org.apache.solr.search.SolrCache;
@@ -46,6 +70,9 @@ import org.apache.solr.search.SyntaxError;
 import org.apache.solr.search.ValueSourceParser;
 import org.json.JSONArray;
 import org.json.JSONObject;
+import org.opencommercesearch.search.BoostCacheRegenerator;
+import org.opencommercesearch.search.DaemonThreadFactory;
+import org.opencommercesearch.search.StageTimers;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -53,13 +80,30 @@ import org.slf4j.LoggerFactory;
  * The boost value source parser is in charge of loading the boosts for the current request. To minimize the amount of
  * calls to the Boost API it keeps a cache with most recently used boosts.
  *
+ * Boosts are fetched by a small pool of loader threads so query parsing never blocks on the Boost API for longer than
+ * the configured wait time. Pending fetches are queued up to the loader queue size, fetches beyond that are dropped
+ * and the query gets no boosts (or the stale cached boosts) instead of piling up behind a slow API. Concurrent misses for the same boost id share a single fetch. Cached boosts older than the
+ * refresh interval are still served while they get reloaded in the background. If a fetch fails, the boost id is not
+ * fetched again until the retry delay has passed.
+ *
+ * The latest boosts are periodically written to a snapshot in the core data directory. The snapshot is loaded into the
+ * boost cache of the first searcher by the {@link org.opencommercesearch.search.BoostSnapshotListener}, so a restarted
+ * core starts with warm boosts.
+ *
  * todo: support boosts for faceted pages?
  *
  * @author rmerizalde
  */
-public class BoostValueSourceParser extends ValueSourceParser {
+public class BoostValueSourceParser extends ValueSourceParser implements SolrInfoMBean {
     public static final String BOOST_API_HOST = "boostApiHost";
     public static final String BOOST_LIMIT = "boostLimit";
+    public static final String BOOST_WAIT_TIME = "boostWaitTime";
+    public static final String BOOST_REFRESH_INTERVAL = "boostRefreshInterval";
+    public static final String BOOST_RETRY_DELAY = "boostRetryDelay";
+    public static final String BOOST_LOADER_THREADS = "boostLoaderThreads";
+    public static final String BOOST_LOADER_QUEUE_SIZE = "boostLoaderQueueSize";
+    public static final String BOOST_SNAPSHOT_INTERVAL = "boostSnapshotInterval";
+    public static final String SNAPSHOT_FILE = "boosts.snapshot";
     public static final String BOOST_ID = "boostId";
     public static final String TREATMENT_ID = "treatmentId";
 
@@ -71,7 +115,42 @@ public class BoostValueSourceParser extends ValueSourceParser {
     private int connectionTimeout = 1000;
     private int maxConnections = 500;
     private int maxConnectionsPerHost = 500;
+    private int waitTime = 100;
+    private long refreshInterval = 30 * 60 * 1000;
+    private long retryDelay = 10 * 1000;
+    private int loaderThreads = 4;
+    private int loaderQueueSize = 500;
+    private long snapshotInterval = 5 * 60 * 1000;
     protected HttpClient defaultClient;
+    protected ExecutorService executor;
+
+    private volatile boolean registered;
+    private volatile File snapshotFile;
+    private volatile boolean snapshotDirty;
+    private ScheduledExecutorService snapshotExecutor;
+    private final ConcurrentMap<String, BoostEntry> latestBoosts = new ConcurrentHashMap<String, BoostEntry>();
+    private final ConcurrentMap<String, FetchTask> inFlight = new ConcurrentHashMap<String, FetchTask>();
+    private final ConcurrentMap<String, Long> failures = new ConcurrentHashMap<String, Long>();
+
+    private final AtomicLong fetches = new AtomicLong();
+    private final AtomicLong fetchErrors = new AtomicLong();
+    private final AtomicLong fetchTime = new AtomicLong();
+    private final AtomicLong maxFetchTime = new AtomicLong();
+    private final AtomicLong coalescedWaits = new AtomicLong();
+    private final AtomicLong waitTimeouts = new AtomicLong();
+    private final AtomicLong staleServes = new AtomicLong();
+    private final AtomicLong skippedFetches = new AtomicLong();
+    private final AtomicLong rejectedFetches = new AtomicLong();
+    private final AtomicLong snapshotWrites = new AtomicLong();
+    private final AtomicLong snapshotLoads = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+
+    /**
+     * Latency of the boost lookups, including the time waiting for boosts missing from the cache
+     */
+    static final String STAGE_BOOST_FETCH = "boostFetch";
+    private final StageTimers stageTimers = new StageTimers(STAGE_BOOST_FETCH);
 
     @Override
     public void init(NamedList args) {
@@ -81,6 +160,12 @@ public class BoostValueSourceParser extends ValueSourceParser {
         connectionTimeout = getParameter(args, HttpClientUtil.PROP_CONNECTION_TIMEOUT, connectionTimeout);
         maxConnections = getParameter(args, HttpClientUtil.PROP_MAX_CONNECTIONS_PER_HOST, maxConnections);
         maxConnectionsPerHost = getParameter(args, HttpClientUtil.PROP_MAX_CONNECTIONS_PER_HOST, maxConnectionsPerHost);
+        waitTime = getParameter(args, BOOST_WAIT_TIME, waitTime);
+        refreshInterval = getParameter(args, BOOST_REFRESH_INTERVAL, refreshInterval);
+        retryDelay = getParameter(args, BOOST_RETRY_DELAY, retryDelay);
+        loaderThreads = getParameter(args, BOOST_LOADER_THREADS, loaderThreads);
+        loaderQueueSize = getParameter(args, BOOST_LOADER_QUEUE_SIZE, loaderQueueSize);
+        snapshotInterval = getParameter(args, BOOST_SNAPSHOT_INTERVAL, snapshotInterval);
 
         ModifiableSolrParams clientParams = new ModifiableSolrParams();
 
@@ -91,6 +176,12 @@ public class BoostValueSourceParser extends ValueSourceParser {
         clientParams.set(HttpClientUtil.PROP_CONNECTION_TIMEOUT, connectionTimeout);
         clientParams.set(HttpClientUtil.PROP_USE_RETRY, false);
         defaultClient = HttpClientUtil.createClient(clientParams);
+        executor = createExecutor(loaderThreads, loaderQueueSize);
+    }
+
+    private static ExecutorService createExecutor(int threads, int queueSize) {
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize), new DaemonThreadFactory("boostLoader-"));
     }
 
     @SuppressWarnings("unchecked")
@@ -109,6 +200,7 @@ public class BoostValueSourceParser extends ValueSourceParser {
 
     @Override
     public ValueSource parse(FunctionQParser fp) throws SyntaxError {
+        register(fp.getReq().getCore());
         String field = fp.parseArg();
 
         SolrParams params = fp.getReq().getParams();
@@ -142,25 +234,335 @@ public class BoostValueSourceParser extends ValueSourceParser {
         }
 
         @SuppressWarnings("unchecked")
-        SolrCache<String, Map<String, Float>> cache = (SolrCache<String, Map<String, Float>>) fp.getReq().getSearcher().getCache("boostCache");
-        return new BoostValueSource(field, fieldValueSource, loadBoosts(boostId, cache));
+        SolrCache<String, BoostEntry> cache = (SolrCache<String, BoostEntry>) fp.getReq().getSearcher().getCache("boostCache");
+        long startTime = System.nanoTime();
+        Map<String, Float> boostMap = loadBoosts(boostId, cache);
+        stageTimers.record(STAGE_BOOST_FETCH, startTime, fp.getReq());
+        return new BoostValueSource(field, fieldValueSource, boostId, boostMap);
+    }
+
+    /**
+     * Registers this parser in the core's info registry so the loader statistics are available through JMX and the
+     * admin handlers, and starts writing the boost snapshot. The loader threads are stopped and a last snapshot written
+     * when the core is closed.
+     */
+    private void register(SolrCore core) {
+        if (registered || core == null) {
+            return;
+        }
+
+        synchronized (this) {
+            if (!registered) {
+                core.getInfoRegistry().put(getName(), this);
+
+                if (snapshotInterval > 0) {
+                    snapshotFile = new File(core.getDataDir(), SNAPSHOT_FILE);
+                    snapshotExecutor = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("boostSnapshot-"));
+                    snapshotExecutor.scheduleWithFixedDelay(new Runnable() {
+                        @Override
+                        public void run() {
+                            writeSnapshot();
+                        }
+                    }, snapshotInterval, snapshotInterval, TimeUnit.MILLISECONDS);
+                }
+
+                core.addCloseHook(new CloseHook() {
+                    @Override
+                    public void preClose(SolrCore core) {
+                        if (executor != null) {
+                            executor.shutdownNow();
+                        }
+                        if (snapshotExecutor != null) {
+                            snapshotExecutor.shutdownNow();
+                            writeSnapshot();
+                        }
+                    }
+
+                    @Override
+                    public void postClose(SolrCore core) {
+                    }
+                });
+                registered = true;
+            }
+        }
     }
 
     /**
-     * Loads the boosts for the given boostId through the API.
+     * Loads the boosts for the given boostId. Cached boosts are returned right away, refreshing them in the background
+     * if they are older than the refresh interval. Otherwise, waits up to the configured wait time for the boosts to be
+     * fetched and returns no boosts if they are not available by then.
      *
      * @param boostId is the boost id
+     * @param cache is the boost cache
      * @return the boost mappings
      */
-    private Map<String, Float> loadBoosts(String boostId, SolrCache<String, Map<String, Float>> cache) {
-        Map<String, Float> boosts = cache.get(boostId);
+    Map<String, Float> loadBoosts(String boostId, SolrCache<String, BoostEntry> cache) {
+        long time = System.currentTimeMillis();
+        BoostEntry entry = cache.get(boostId);
+
+        if (entry != null) {
+            cacheHits.incrementAndGet();
+            if (log.isDebugEnabled()) log.debug("Found " + entry.getBoosts().size() + " for " + boostId + " in cache");
+
+            if (entry.isOlderThan(refreshInterval, time)) {
+                staleServes.incrementAndGet();
+                if (canFetch(boostId, time)) {
+                    fetch(boostId, cache, false);
+                }
+            }
+            return entry.getBoosts();
+        }
+
+        Map<String, Float> boosts = Collections.emptyMap();
+        cacheMisses.incrementAndGet();
+
+        if (!canFetch(boostId, time)) {
+            return boosts;
+        }
+
+        Future<BoostEntry> future = fetch(boostId, cache, true);
 
-        if (boosts != null) {
-            if (log.isDebugEnabled()) log.debug("Found " + boosts.size() + " for " + boostId + " in cache");
+        if (future == null) {
             return boosts;
         }
 
-        boosts = Collections.emptyMap();
+        try {
+            entry = future.get(waitTime, TimeUnit.MILLISECONDS);
+            if (entry != null) {
+                boosts = entry.getBoosts();
+            }
+        } catch (TimeoutException ex) {
+            waitTimeouts.incrementAndGet();
+            if (log.isDebugEnabled()) log.debug("Boosts for " + boostId + " not available after " + waitTime + "ms");
+        } catch (CancellationException ex) {
+            if (log.isDebugEnabled()) log.debug("Boost fetch for " + boostId + " was dropped");
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            log.error("Cannot retrieve boosts for " + boostId, ex.getCause());
+        }
+        return boosts;
+    }
+
+    /**
+     * @return false if the last fetch for the given boost id failed less than the retry delay ago
+     */
+    private boolean canFetch(String boostId, long time) {
+        Long failureTime = failures.get(boostId);
+
+        if (failureTime != null && time - failureTime < retryDelay) {
+            skippedFetches.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Refreshes the boosts for the given boost id in the background. Used to reload boosts about to expire when a new
+     * searcher is warmed.
+     *
+     * @param boostId is the boost id
+     * @param cache is the boost cache where the refreshed boosts are put
+     * @return the future for the refresh or null if the last fetch for the boost id failed recently or the loader queue
+     * is full
+     */
+    public Future<BoostEntry> refresh(String boostId, SolrCache<String, BoostEntry> cache) {
+        if (!canFetch(boostId, System.currentTimeMillis())) {
+            return null;
+        }
+        return fetch(boostId, cache, false);
+    }
+
+    /**
+     * Starts fetching the boosts for the given boost id unless there is a fetch in progress already. Fetched boosts are
+     * put in the given cache, also when the fetch in progress was started for another cache (e.g. the cache of the
+     * previous searcher).
+     *
+     * @param boostId is the boost id
+     * @param cache is the boost cache
+     * @param waiting is true if the caller will wait for the fetch to complete
+     * @return the future for the fetch in progress or null if the loader queue is full
+     */
+    private Future<BoostEntry> fetch(final String boostId, SolrCache<String, BoostEntry> cache, boolean waiting) {
+        FetchTask task = inFlight.get(boostId);
+
+        if (task != null) {
+            if (waiting) {
+                coalescedWaits.incrementAndGet();
+            }
+            task.addCache(cache);
+            return task;
+        }
+
+        task = new FetchTask(boostId, cache);
+
+        FetchTask current = inFlight.putIfAbsent(boostId, task);
+        if (current != null) {
+            if (waiting) {
+                coalescedWaits.incrementAndGet();
+            }
+            current.addCache(cache);
+            return current;
+        }
+
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException ex) {
+            rejectedFetches.incrementAndGet();
+            log.warn("Boost loader queue is full, dropping fetch for " + boostId);
+            // callers that joined the task meanwhile get a CancellationException instead of waiting for the timeout
+            inFlight.remove(boostId, task);
+            task.cancel(false);
+            return null;
+        }
+        return task;
+    }
+
+    /**
+     * A boost fetch shared by all callers requesting the same boost id while it is in progress. Once completed, the
+     * fetched boosts are put in the cache of every caller.
+     */
+    private class FetchTask extends FutureTask<BoostEntry> {
+        private final String boostId;
+        private final CopyOnWriteArrayList<SolrCache<String, BoostEntry>> caches = new CopyOnWriteArrayList<SolrCache<String, BoostEntry>>();
+
+        FetchTask(final String boostId, SolrCache<String, BoostEntry> cache) {
+            super(new Callable<BoostEntry>() {
+                @Override
+                public BoostEntry call() {
+                    BoostEntry entry = fetchBoosts(boostId);
+
+                    if (entry != null) {
+                        failures.remove(boostId);
+                        latestBoosts.put(boostId, entry);
+                        snapshotDirty = true;
+                    } else {
+                        failures.put(boostId, System.currentTimeMillis());
+                    }
+                    return entry;
+                }
+            });
+            this.boostId = boostId;
+            caches.add(cache);
+        }
+
+        /**
+         * Adds a cache for the fetched boosts. If the fetch completed already, the boosts are put right away.
+         */
+        void addCache(SolrCache<String, BoostEntry> cache) {
+            if (caches.addIfAbsent(cache) && isDone()) {
+                put(cache);
+            }
+        }
+
+        @Override
+        protected void done() {
+            inFlight.remove(boostId, this);
+            for (SolrCache<String, BoostEntry> cache : caches) {
+                put(cache);
+            }
+        }
+
+        private void put(SolrCache<String, BoostEntry> cache) {
+            if (isCancelled()) {
+                return;
+            }
+
+            try {
+                BoostEntry entry = get();
+                if (entry != null) {
+                    cache.put(boostId, entry);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException ex) {
+                log.error("Cannot retrieve boosts for " + boostId, ex.getCause());
+            }
+        }
+    }
+
+    /**
+     * Writes the latest boosts to the snapshot file if they changed since the last snapshot. Boosts that exceeded
+     * their ttl are left out.
+     */
+    void writeSnapshot() {
+        File file = snapshotFile;
+
+        if (file == null || !snapshotDirty) {
+            return;
+        }
+        snapshotDirty = false;
+
+        long time = System.currentTimeMillis();
+        long ttl = BoostCacheRegenerator.getTtl();
+        Map<String, BoostEntry> entries = new HashMap<String, BoostEntry>(latestBoosts.size());
+
+        for (Iterator<Map.Entry<String, BoostEntry>> it = latestBoosts.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<String, BoostEntry> entry = it.next();
+
+            if (entry.getValue().isOlderThan(ttl, time)) {
+                it.remove();
+            } else {
+                entries.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        try {
+            BoostSnapshot.write(file, entries);
+            snapshotWrites.incrementAndGet();
+            if (log.isDebugEnabled()) log.debug("Wrote " + entries.size() + " boosts to snapshot " + file);
+        } catch (IOException ex) {
+            snapshotDirty = true;
+            log.error("Cannot write boost snapshot " + file, ex);
+        }
+    }
+
+    /**
+     * Loads the boost snapshot in the core data directory into the given cache. Boosts that exceeded their ttl are
+     * skipped.
+     *
+     * @param core is the core
+     * @param cache is the boost cache
+     * @return the number of boost ids loaded
+     */
+    public int loadSnapshot(SolrCore core, SolrCache<String, BoostEntry> cache) {
+        register(core);
+
+        File file = new File(core.getDataDir(), SNAPSHOT_FILE);
+        int count = 0;
+
+        if (!file.exists()) {
+            return count;
+        }
+
+        try {
+            long time = System.currentTimeMillis();
+            long ttl = BoostCacheRegenerator.getTtl();
+
+            for (Map.Entry<String, BoostEntry> entry : BoostSnapshot.read(file).entrySet()) {
+                if (!entry.getValue().isOlderThan(ttl, time)) {
+                    cache.put(entry.getKey(), entry.getValue());
+                    latestBoosts.putIfAbsent(entry.getKey(), entry.getValue());
+                    count++;
+                }
+            }
+            snapshotLoads.addAndGet(count);
+            log.info("Loaded " + count + " boosts from snapshot " + file);
+        } catch (IOException ex) {
+            log.error("Cannot load boost snapshot " + file, ex);
+        }
+        return count;
+    }
+
+    /**
+     * Fetches the boosts for the given boostId through the API.
+     *
+     * @param boostId is the boost id
+     * @return the boost mappings or null if the boosts couldn't be retrieved
+     */
+    private BoostEntry fetchBoosts(String boostId) {
+        long startTime = System.currentTimeMillis();
+        fetches.incrementAndGet();
 
         try {
             String uri = boostApiHost + "/v1/boosts/" + boostId + "?limit=" + boostLimit;
@@ -172,7 +574,7 @@ public class BoostValueSourceParser extends ValueSourceParser {
                 HttpEntity entity = response.getEntity();
                 JSONObject json = new JSONObject(EntityUtils.toString(entity));
 
-                boosts = new HashMap<String, Float>();
+                Map<String, Float> boosts = new HashMap<String, Float>();
 
                 if (json.has("boosts")) {
                     JSONArray boostArray = json.getJSONArray("boosts");
@@ -189,11 +591,10 @@ public class BoostValueSourceParser extends ValueSourceParser {
                 }
 
                 log.info("Found " + boosts.size() + " for " + boostId);
-                cache.put(boostId, boosts);
-                return boosts;
+                return new BoostEntry(boosts, System.currentTimeMillis());
             } else if (statusCode == HttpStatus.SC_NOT_FOUND) {
                 log.info("No boosts found for " + boostId);
-                cache.put(boostId, boosts);
+                return new BoostEntry(Collections.<String, Float>emptyMap(), System.currentTimeMillis());
             } else {
                 log.error("Cannot retrieve boosts for " + boostId + ". API response code was " + statusCode);
             }
@@ -201,9 +602,73 @@ public class BoostValueSourceParser extends ValueSourceParser {
             log.error("Cannot retrieve boosts for " + boostId, ex);
         } catch (IOException ex) {
             log.error("Cannot retrieve boosts for " + boostId, ex);
+        } finally {
+            long elapsed = System.currentTimeMillis() - startTime;
+            fetchTime.addAndGet(elapsed);
+
+            long max = maxFetchTime.get();
+            while (elapsed > max && !maxFetchTime.compareAndSet(max, elapsed)) {
+                max = maxFetchTime.get();
+            }
         }
-        return boosts;
+        fetchErrors.incrementAndGet();
+        return null;
     }
 
+    @Override
+    public String getName() {
+        return BoostValueSourceParser.class.getName();
+    }
 
+    @Override
+    public String getVersion() {
+        return "1.0";
+    }
+
+    @Override
+    public String getDescription() {
+        return "Boost value source parser - loads boosts from the Boost API";
+    }
+
+    @Override
+    public Category getCategory() {
+        return Category.OTHER;
+    }
+
+    @Override
+    public String getSource() {
+        return null;
+    }
+
+    @Override
+    public URL[] getDocs() {
+        return null;
+    }
+
+    @Override
+    public NamedList getStatistics() {
+        NamedList<Object> stats = new SimpleOrderedMap<Object>();
+        long fetchCount = fetches.get();
+
+        stats.add("fetches", fetchCount);
+        stats.add("fetchErrors", fetchErrors.get());
+        stats.add("avgFetchTime", fetchCount > 0? fetchTime.get() / fetchCount : 0);
+        stats.add("maxFetchTime", maxFetchTime.get());
+        stats.add("inFlightFetches", inFlight.size());
+        stats.add("coalescedWaits", coalescedWaits.get());
+        stats.add("waitTimeouts", waitTimeouts.get());
+        stats.add("staleServes", staleServes.get());
+        stats.add("skippedFetches", skippedFetches.get());
+        stats.add("rejectedFetches", rejectedFetches.get());
+        stats.add("snapshotWrites", snapshotWrites.get());
+        stats.add("snapshotLoads", snapshotLoads.get());
+
+        long hits = cacheHits.get();
+        long lookups = hits + cacheMisses.get();
+        stats.add("cacheHits", hits);
+        stats.add("cacheMisses", lookups - hits);
+        stats.add("cacheHitRatio", lookups > 0? (float) hits / lookups : 0.0f);
+        stageTimers.addTo(stats);
+        return stats;
+    }
 }
@@ -20,20 +20,39 @@ package org.opencommercesearch.lucene.queries.function.valuesource;
 */
 
 import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.SortedDocValues;
 import org.apache.lucene.queries.function.FunctionValues;
 import org.apache.lucene.queries.function.ValueSource;
 import org.apache.lucene.queries.function.docvalues.IntDocValues;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.util.BytesRef;
+import org.apache.solr.schema.StrFieldSource;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Map;
+import java.util.WeakHashMap;
 
 /**
+ * Value source for fixed boosts. Documents whose field value is one of the boosted values get the value position,
+ * everything else gets the number of boosted values.
+ *
+ * For string fields, the boosted values are resolved once per segment into term ordinals. If many values are boosted
+ * the positions are kept in an array indexed by ordinal, otherwise in a small sorted ordinal to position map. Instances
+ * are cached by the parser, so the segment positions are shared by all requests using the same boost rule.
+ *
  * @rmerizalde
  */
 public class FixedBoostValueSource extends ValueSource {
+    /**
+     * Boosted values per term ordinal that switch from a sparse map to an array of positions
+     */
+    private static final int DENSE_RATIO = 64;
+
     private final String field;
     private final ValueSource fieldValueSource;
     private final Map<String, Integer> positions;
+    private final Map<Object, SegmentPositions> segmentPositions = new WeakHashMap<Object, SegmentPositions>();
 
     public FixedBoostValueSource(String field, ValueSource fieldValueSource, Map<String, Integer> positions) {
         this.field = field;
@@ -43,6 +62,18 @@ public class FixedBoostValueSource extends ValueSource {
 
   @Override
   public FunctionValues getValues(Map context, AtomicReaderContext readerContext) throws IOException {
+      if (readerContext != null && fieldValueSource instanceof StrFieldSource) {
+          final SortedDocValues ords = FieldCache.DEFAULT.getTermsIndex(readerContext.reader(), field);
+          final SegmentPositions segment = getSegmentPositions(readerContext.reader().getCoreCacheKey(), ords);
+
+          return new IntDocValues(this) {
+              @Override
+              public int intVal(int doc) {
+                  return segment.get(ords.getOrd(doc));
+              }
+          };
+      }
+
       final FunctionValues vals = fieldValueSource.getValues(context, readerContext);
 
       return new IntDocValues(this) {
@@ -60,6 +91,108 @@ public class FixedBoostValueSource extends ValueSource {
       };
   }
 
+    /**
+     * Gets the positions for the given segment, resolving the boosted values to term ordinals the first time the
+     * segment is seen.
+     */
+    private SegmentPositions getSegmentPositions(Object coreKey, SortedDocValues ords) {
+        SegmentPositions segment;
+
+        synchronized (segmentPositions) {
+            segment = segmentPositions.get(coreKey);
+        }
+
+        if (segment == null) {
+            segment = createSegmentPositions(ords);
+            synchronized (segmentPositions) {
+                segmentPositions.put(coreKey, segment);
+            }
+        }
+        return segment;
+    }
+
+    private SegmentPositions createSegmentPositions(SortedDocValues ords) {
+        int defaultPosition = positions.size();
+        int[] boostedOrds = new int[positions.size()];
+        int[] boostedPositions = new int[positions.size()];
+        int count = 0;
+        BytesRef term = new BytesRef();
+
+        for (Map.Entry<String, Integer> entry : positions.entrySet()) {
+            term.copyChars(entry.getKey());
+            int ord = ords.lookupTerm(term);
+            if (ord >= 0) {
+                boostedOrds[count] = ord;
+                boostedPositions[count++] = entry.getValue();
+            }
+        }
+
+        if (count > 0 && count >= ords.getValueCount() / DENSE_RATIO) {
+            int[] positionByOrd = new int[ords.getValueCount()];
+            Arrays.fill(positionByOrd, defaultPosition);
+            for (int i = 0; i < count; i++) {
+                positionByOrd[boostedOrds[i]] = boostedPositions[i];
+            }
+            return new DensePositions(positionByOrd, defaultPosition);
+        }
+        return new SparsePositions(boostedOrds, boostedPositions, count, defaultPosition);
+    }
+
+    /**
+     * Positions of the boosted values in a segment by term ordinal
+     */
+    private static abstract class SegmentPositions {
+        final int defaultPosition;
+
+        SegmentPositions(int defaultPosition) {
+            this.defaultPosition = defaultPosition;
+        }
+
+        abstract int get(int ord);
+    }
+
+    private static class DensePositions extends SegmentPositions {
+        private final int[] positionByOrd;
+
+        DensePositions(int[] positionByOrd, int defaultPosition) {
+            super(defaultPosition);
+            this.positionByOrd = positionByOrd;
+        }
+
+        @Override
+        int get(int ord) {
+            return ord < 0? defaultPosition : positionByOrd[ord];
+        }
+    }
+
+    private static class SparsePositions extends SegmentPositions {
+        private final int[] ords;
+        private final int[] positions;
+
+        SparsePositions(int[] ords, int[] positions, int count, int defaultPosition) {
+            super(defaultPosition);
+            this.ords = new int[count];
+            this.positions = new int[count];
+
+            // sort the ordinals along with their positions
+            int[] sorted = Arrays.copyOf(ords, count);
+            Arrays.sort(sorted);
+            for (int i = 0; i < count; i++) {
+                int index = Arrays.binarySearch(sorted, ords[i]);
+                this.ords[index] = ords[i];
+                this.positions[index] = positions[i];
+            }
+        }
+
+        @Override
+        int get(int ord) {
+            if (ord < 0) {
+                return defaultPosition;
+            }
+            int index = Arrays.binarySearch(ords, ord);
+            return index < 0? defaultPosition : positions[index];
+        }
+    }
 
     @Override
     public boolean equals(Object o) {
@@ -30,28 +30,69 @@ import org.apache.solr.search.SyntaxError;
 import java.util.*;
 
 /**
+ * Parses fixed boost functions. Parsed functions are cached by their argument list so the boosted values are resolved
+ * into term ordinals once per segment instead of once per request. The cache size can be configured with the
+ * cacheSize init arg.
+ *
  @author rmerizalde
  */
 public class FixedBoostValueSourceParser extends ValueSourceParser {
 
+    public static final String CACHE_SIZE = "cacheSize";
+
     private static final int DEFAULT_BOOST_COUNT = 10;
+    private static final int DEFAULT_CACHE_SIZE = 512;
+
+    private Map<List<String>, FixedBoostValueSource> cache = createCache(DEFAULT_CACHE_SIZE);
 
     @Override
     public void init(NamedList namedList) {
+        if (namedList != null) {
+            Object cacheSize = namedList.get(CACHE_SIZE);
+            if (cacheSize != null) {
+                cache = createCache(Integer.parseInt(cacheSize.toString()));
+            }
+        }
+    }
+
+    private static Map<List<String>, FixedBoostValueSource> createCache(final int maxSize) {
+        return Collections.synchronizedMap(new LinkedHashMap<List<String>, FixedBoostValueSource>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<String>, FixedBoostValueSource> eldest) {
+                return size() > maxSize;
+            }
+        });
     }
 
     @Override
     public ValueSource parse(FunctionQParser fp) throws SyntaxError {
+        List<String> args = new ArrayList<String>(DEFAULT_BOOST_COUNT + 1);
         String field = fp.parseArg();
+        args.add(field);
+
+        while (fp.hasMoreArguments()) {
+            args.add(fp.parseArg());
+        }
+
+        FixedBoostValueSource valueSource = cache.get(args);
+        if (valueSource != null) {
+            return valueSource;
+        }
 
         SchemaField f = fp.getReq().getSchema().getField(field);
         ValueSource fieldValueSource = f.getType().getValueSource(f, fp);
         Map<String, Integer> positions = new HashMap<String, Integer>(DEFAULT_BOOST_COUNT);
         int position = 0;
 
-        while (fp.hasMoreArguments()) {
-            positions.put(fp.parseArg(), position++);
+        for (String value : args.subList(1, args.size())) {
+            positions.put(value, position++);
         }
-        return new FixedBoostValueSource(field, fieldValueSource, positions);
+        valueSource = new FixedBoostValueSource(field, fieldValueSource, positions);
+        cache.put(args, valueSource);
+        return valueSource;
+    }
+
+    int getCacheSize() {
+        return cache.size();
     }
 }
@@ -0,0 +1,218 @@
+package org.opencommercesearch.search;
+
+/*
+* Licensed to OpenCommerceSearch under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. OpenCommerceSearch licenses this
+* file to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.util.BytesRef;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.schema.FieldType;
+import org.apache.solr.search.QParser;
+import org.apache.solr.search.QParserPlugin;
+import org.apache.solr.search.SyntaxError;
+import org.opencommercesearch.lucene.queries.BlockRulesQuery;
+
+import java.util.*;
+
+/**
+ * Parses the block rules filter added by the rule manager. The query string is a space separated list of rules, each
+ * one with the rule id and its comma separated blocked products. For example:
+ *
+ * {!blockRules}rule1:prod1,prod2 rule2:prod3
+ *
+ * Whitespace, colons, commas and backslashes in the rule ids and products must be escaped with a backslash, see
+ * {@link #escape(String)}.
+ *
+ * The parsed query excludes all the documents of the blocked products. Solr caches the blocked documents as a single
+ * filter cache entry per searcher. Parsed queries are cached by their query string, so the products are only parsed
+ * once per rule set. The cache size can be configured with the cacheSize init arg.
+ */
+public class BlockRulesQParserPlugin extends QParserPlugin {
+
+    public static final String NAME = "blockRules";
+    public static final String CACHE_SIZE = "cacheSize";
+
+    private static final String DEFAULT_FIELD = "productId";
+    private static final int DEFAULT_CACHE_SIZE = 512;
+    private static final int MAX_STATS_SIZE = 1024;
+
+    private Map<String, BlockRulesQuery> cache = createCache(DEFAULT_CACHE_SIZE);
+    private final Map<String, Long> blockedDocs = createCache(MAX_STATS_SIZE);
+
+    @Override
+    public void init(NamedList namedList) {
+        if (namedList != null) {
+            Object cacheSize = namedList.get(CACHE_SIZE);
+            if (cacheSize != null) {
+                cache = createCache(Integer.parseInt(cacheSize.toString()));
+            }
+        }
+    }
+
+    private static <T> Map<String, T> createCache(final int maxSize) {
+        return Collections.synchronizedMap(new LinkedHashMap<String, T>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, T> eldest) {
+                return size() > maxSize;
+            }
+        });
+    }
+
+    @Override
+    public QParser createParser(String qstr, SolrParams localParams, SolrParams params, SolrQueryRequest req) {
+        return new QParser(qstr, localParams, params, req) {
+            @Override
+            public Query parse() throws SyntaxError {
+                String field = localParams != null? localParams.get(CommonParams.FIELD, DEFAULT_FIELD) : DEFAULT_FIELD;
+                String key = field + ":" + qstr;
+                BlockRulesQuery blockRulesQuery = cache.get(key);
+
+                if (blockRulesQuery == null) {
+                    blockRulesQuery = parseRules(field, qstr, req.getSchema().getFieldType(field));
+                    cache.put(key, blockRulesQuery);
+                }
+
+                BooleanQuery query = new BooleanQuery();
+                query.add(blockRulesQuery, BooleanClause.Occur.MUST_NOT);
+                return query;
+            }
+        };
+    }
+
+    private BlockRulesQuery parseRules(String field, String qstr, FieldType fieldType) throws SyntaxError {
+        List<String> ruleIds = new ArrayList<String>();
+        List<BytesRef[]> products = new ArrayList<BytesRef[]>();
+        List<String> values = new ArrayList<String>();
+        StringBuilder token = new StringBuilder();
+        String ruleId = null;
+        int ruleStart = 0;
+
+        for (int i = 0; i <= qstr.length(); i++) {
+            char c = i < qstr.length()? qstr.charAt(i) : ' ';
+
+            if (c == '\\') {
+                if (++i == qstr.length()) {
+                    throw new SyntaxError("Invalid block rule, dangling escape at the end of: " + qstr);
+                }
+                token.append(qstr.charAt(i));
+            } else if (Character.isWhitespace(c)) {
+                if (ruleId == null && token.length() == 0) {
+                    ruleStart = i + 1;
+                    continue;
+                }
+                if (ruleId == null || ruleId.length() == 0) {
+                    throw new SyntaxError("Invalid block rule, expected ruleId:product1,product2,... but got: "
+                            + qstr.substring(ruleStart, Math.min(i, qstr.length())));
+                }
+                addValue(values, token);
+                ruleIds.add(ruleId);
+                products.add(toIndexed(values, fieldType));
+                values.clear();
+                ruleId = null;
+                ruleStart = i + 1;
+            } else if (c == ':' && ruleId == null) {
+                ruleId = token.toString();
+                token.setLength(0);
+            } else if (c == ',' && ruleId != null) {
+                addValue(values, token);
+            } else {
+                token.append(c);
+            }
+        }
+
+        if (ruleIds.isEmpty()) {
+            throw new SyntaxError("No block rules found in: " + qstr);
+        }
+        return new BlockRulesQuery(field, ruleIds.toArray(new String[ruleIds.size()]),
+                products.toArray(new BytesRef[products.size()][]), blockedDocs);
+    }
+
+    private void addValue(List<String> values, StringBuilder token) {
+        if (token.length() > 0) {
+            values.add(token.toString());
+            token.setLength(0);
+        }
+    }
+
+    private BytesRef[] toIndexed(List<String> values, FieldType fieldType) {
+        BytesRef[] products = new BytesRef[values.size()];
+
+        for (int i = 0; i < products.length; i++) {
+            BytesRef product = new BytesRef();
+            fieldType.readableToIndexed(values.get(i), product);
+            products[i] = product;
+        }
+        return products;
+    }
+
+    /**
+     * Escapes a rule id or product for the block rules query string
+     * @param value the rule id or product
+     * @return the escaped value
+     */
+    public static String escape(String value) {
+        StringBuilder b = new StringBuilder(value.length());
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == ':' || c == ',' || Character.isWhitespace(c)) {
+                b.append('\\');
+            }
+            b.append(c);
+        }
+        return b.toString();
+    }
+
+    /**
+     * @return the number of documents blocked by each rule when the filter was last built
+     */
+    public NamedList<Long> getBlockedDocs() {
+        NamedList<Long> list = new SimpleOrderedMap<Long>();
+
+        synchronized (blockedDocs) {
+            for (Map.Entry<String, Long> entry : blockedDocs.entrySet()) {
+                list.add(entry.getKey(), entry.getValue());
+            }
+        }
+        return list;
+    }
+
+    int getCacheSize() {
+        return cache.size();
+    }
+
+    @Override
+    public String getDescription() {
+        return "Block rules filter - excludes the products blocked by the rule manager";
+    }
+
+    @Override
+    public NamedList getStatistics() {
+        NamedList<Object> stats = new SimpleOrderedMap<Object>();
+        stats.add("cacheSize", getCacheSize());
+        stats.add("blockedDocs", getBlockedDocs());
+        return stats;
+    }
+}
@@ -19,54 +19,226 @@ package org.opencommercesearch.search;
 * under the License.
 */
 
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.core.SolrInfoMBean;
 import org.apache.solr.search.CacheRegenerator;
-import org.apache.solr.search.LRUCache;
 import org.apache.solr.search.SolrCache;
 import org.apache.solr.search.SolrIndexSearcher;
+import org.apache.solr.search.ValueSourceParser;
+import org.opencommercesearch.lucene.queries.function.valuesource.BoostEntry;
+import org.opencommercesearch.lucene.queries.function.valuesource.BoostValueSourceParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.net.URL;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Boosts are retrieved from a external source. We don't rely on the new index data so
  * we simply copy the entries from the old cache to the new one.
  *
- * Optionally, the regenerator can be configured to purge all entries when a certain
- * amount time has been exceed.
+ * Each entry expires once its ttl has been exceeded. Entries within the refresh window of
+ * their ttl are reloaded in the background by the boost value source parser loader threads,
+ * so a new searcher starts with a warm cache instead of every boost expiring at once. Expired
+ * entries are reloaded while the warming time budget lasts and put in the new cache, otherwise
+ * they are dropped. If the loader drops the refresh because its queue is full, the expired entry
+ * is carried over and reloaded the next time it is requested.
+ *
+ * The ttl, refresh window and warming budget can be configured with the boost.ttl,
+ * boost.refreshWindow and boost.warmBudget system properties. The boost.parserName property
+ * is the name of the boost value source parser in solrconfig.xml.
  *
  * @author rmerizalde
  */
-public class BoostCacheRegenerator implements CacheRegenerator {
+public class BoostCacheRegenerator implements CacheRegenerator, SolrInfoMBean {
 
     private static Logger log = LoggerFactory.getLogger(BoostCacheRegenerator.class);
 
-    private long ttlMs = 60 * 60 * 1000;
-    private long loadTime = System.currentTimeMillis();
+    private static final long TTL_MS = getProperty("boost.ttl", 60 * 60 * 1000);
+
+    private long ttlMs = TTL_MS;
+    private long refreshWindowMs = getProperty("boost.refreshWindow", 15 * 60 * 1000);
+    private long warmBudgetMs = getProperty("boost.warmBudget", 2000);
+    private String parserName = System.getProperty("boost.parserName", "boost");
+
+    private Object warmingCache;
+    private long warmStartTime;
+    private volatile boolean registered;
 
-    public BoostCacheRegenerator() {
-        String ttl = System.getProperty("boost.ttl");
+    private final AtomicLong refreshed = new AtomicLong();
+    private final AtomicLong backgroundRefreshes = new AtomicLong();
+    private final AtomicLong carriedOver = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
 
-        if (ttl != null) {
+    private static long getProperty(String name, long defaultValue) {
+        String value = System.getProperty(name);
+
+        if (value != null) {
             try {
-                ttlMs = Long.parseLong(ttl);
-                log.info("Setting boosts ttl to " + ttlMs);
+                long parsed = Long.parseLong(value);
+                log.info("Setting " + name + " to " + parsed);
+                return parsed;
             } catch (NumberFormatException ex) {
-                log.error("Invalid boost ttl " + ttl);
+                log.error("Invalid " + name + " " + value);
             }
         }
+        return defaultValue;
+    }
+
+    /**
+     * @return the time in milliseconds cached boosts are valid, as configured with the boost.ttl system property
+     */
+    public static long getTtl() {
+        return TTL_MS;
     }
 
     public boolean regenerateItem(SolrIndexSearcher newSearcher, SolrCache newCache, SolrCache oldCache, Object oldKey, Object oldVal) throws IOException {
         long time = System.currentTimeMillis();
+        SolrCore core = newSearcher.getCore();
 
-        if (time - loadTime > ttlMs) {
-            log.info("Boost ttl exceeded, stopping regeneration");
-            newCache.clear();
-            loadTime = time;
-            return false;
+        register(core);
+        if (warmingCache != newCache) {
+            warmingCache = newCache;
+            warmStartTime = time;
+        }
+
+        if (!(oldVal instanceof BoostEntry)) {
+            newCache.put(oldKey, oldVal);
+            carriedOver.incrementAndGet();
+            return true;
+        }
+
+        BoostEntry entry = (BoostEntry) oldVal;
+        boolean expired = entry.isOlderThan(ttlMs, time);
+        long remainingBudget = warmBudgetMs - (time - warmStartTime);
+
+        if (!expired) {
+            newCache.put(oldKey, oldVal);
+            carriedOver.incrementAndGet();
+        }
+
+        if (entry.isOlderThan(ttlMs - refreshWindowMs, time) && (!expired || remainingBudget > 0)) {
+            Future<BoostEntry> future = refresh(core, (String) oldKey, newCache);
+
+            if (future != null) {
+                if (!expired) {
+                    // the refreshed boosts replace the carried over entry once the fetch completes
+                    backgroundRefreshes.incrementAndGet();
+                    return true;
+                }
+
+                BoostEntry refreshedEntry;
+                try {
+                    refreshedEntry = waitForRefresh(future, (String) oldKey, remainingBudget);
+                } catch (CancellationException ex) {
+                    newCache.put(oldKey, oldVal);
+                    carriedOver.incrementAndGet();
+                    if (log.isDebugEnabled()) log.debug("Refresh dropped, carrying over expired boosts for " + oldKey);
+                    return true;
+                }
+
+                if (refreshedEntry != null) {
+                    newCache.put(oldKey, refreshedEntry);
+                    refreshed.incrementAndGet();
+                    return true;
+                }
+            }
+        }
+
+        if (expired) {
+            dropped.incrementAndGet();
+            if (log.isDebugEnabled()) log.debug("Dropping expired boosts for " + oldKey);
         }
-        newCache.put(oldKey, oldVal);
         return true;
     }
+
+    @SuppressWarnings("unchecked")
+    private Future<BoostEntry> refresh(SolrCore core, String boostId, SolrCache newCache) {
+        ValueSourceParser parser = core.getValueSourceParser(parserName);
+
+        if (!(parser instanceof BoostValueSourceParser)) {
+            return null;
+        }
+        return ((BoostValueSourceParser) parser).refresh(boostId, (SolrCache<String, BoostEntry>) newCache);
+    }
+
+    /**
+     * Waits for the given refresh to complete
+     *
+     * @return the refreshed boosts or null if the refresh failed or didn't complete within the timeout
+     * @throws CancellationException if the refresh was dropped by the boost value source parser
+     */
+    private BoostEntry waitForRefresh(Future<BoostEntry> future, String boostId, long timeout) {
+        try {
+            return future.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException ex) {
+            if (log.isDebugEnabled()) log.debug("Warming budget exceeded while refreshing boosts for " + boostId);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            log.error("Cannot refresh boosts for " + boostId, ex.getCause());
+        }
+        return null;
+    }
+
+    private void register(SolrCore core) {
+        if (registered || core == null) {
+            return;
+        }
+
+        synchronized (this) {
+            if (!registered) {
+                core.getInfoRegistry().put(getName(), this);
+                registered = true;
+            }
+        }
+    }
+
+    @Override
+    public String getName() {
+        return BoostCacheRegenerator.class.getName();
+    }
+
+    @Override
+    public String getVersion() {
+        return "1.0";
+    }
+
+    @Override
+    public String getDescription() {
+        return "Boost cache regenerator - carries over and refreshes boosts when a new searcher is warmed";
+    }
+
+    @Override
+    public Category getCategory() {
+        return Category.CACHE;
+    }
+
+    @Override
+    public String getSource() {
+        return null;
+    }
+
+    @Override
+    public URL[] getDocs() {
+        return null;
+    }
+
+    @Override
+    public NamedList getStatistics() {
+        NamedList<Object> stats = new SimpleOrderedMap<Object>();
+        stats.add("refreshed", refreshed.get());
+        stats.add("backgroundRefreshes", backgroundRefreshes.get());
+        stats.add("carriedOver", carriedOver.get());
+        stats.add("dropped", dropped.get());
+        return stats;
+    }
 }
@@ -0,0 +1,58 @@
+package org.opencommercesearch.search;
+
+/*
+* Licensed to OpenCommerceSearch under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. OpenCommerceSearch licenses this
+* file to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+import org.apache.solr.core.AbstractSolrEventListener;
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.search.SolrCache;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.apache.solr.search.ValueSourceParser;
+import org.opencommercesearch.lucene.queries.function.valuesource.BoostEntry;
+import org.opencommercesearch.lucene.queries.function.valuesource.BoostValueSourceParser;
+
+/**
+ * Warms the boost cache of the first searcher with the boost snapshot in the core data directory, so a restarted core
+ * doesn't have to load every boost from the Boost API. Should be registered for the firstSearcher event.
+ *
+ * The parserName arg is the name of the boost value source parser in solrconfig.xml, "boost" by default.
+ */
+public class BoostSnapshotListener extends AbstractSolrEventListener {
+
+    public BoostSnapshotListener(SolrCore core) {
+        super(core);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void newSearcher(SolrIndexSearcher newSearcher, SolrIndexSearcher currentSearcher) {
+        if (currentSearcher != null) {
+            // new searchers are warmed by the boost cache regenerator
+            return;
+        }
+
+        String parserName = getArgs() != null? (String) getArgs().get("parserName") : null;
+        ValueSourceParser parser = getCore().getValueSourceParser(parserName != null? parserName : "boost");
+        SolrCache<String, BoostEntry> cache = newSearcher.getCache("boostCache");
+
+        if (parser instanceof BoostValueSourceParser && cache != null) {
+            ((BoostValueSourceParser) parser).loadSnapshot(getCore(), cache);
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package org.opencommercesearch.search;
+
+/*
+* Licensed to OpenCommerceSearch under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. OpenCommerceSearch licenses this
+* file to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.params.SolrParams;
+
+/**
+ * Rolling sample of the params of the most recent requests. The sample is a fixed size ring, so recording a request is
+ * a single array write. The most frequent requests in the ring are replayed by the {@link QueryWarmingListener} to
+ * warm a new searcher.
+ *
+ * Requests are stored in a canonical form: the params sorted by name and URL encoded, so the same request sent with
+ * its params in a different order counts as the same request. The sample can be written to and read from a text file
+ * with one request per line, so a restarted core can warm its first searcher too.
+ */
+public class QuerySample {
+
+    private static final String UTF8 = "UTF-8";
+
+    private final AtomicReferenceArray<String> requests;
+    private final AtomicLong count = new AtomicLong();
+    private final Set<String> excludedParams;
+
+    /**
+     * Creates an empty sample
+     * @param size the number of requests kept in the sample
+     * @param excludedParams the params that are not recorded, like the ones that only change the response format
+     */
+    public QuerySample(int size, Collection<String> excludedParams) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Invalid query sample size " + size);
+        }
+        this.requests = new AtomicReferenceArray<String>(size);
+        this.excludedParams = new TreeSet<String>(excludedParams);
+    }
+
+    /**
+     * Records the given request params, replacing the oldest request in the sample once it's full
+     * @param params the request params
+     */
+    public void record(SolrParams params) {
+        String request = toString(params);
+
+        if (request.length() > 0) {
+            add(request);
+        }
+    }
+
+    private void add(String request) {
+        requests.set((int) (count.getAndIncrement() % requests.length()), request);
+    }
+
+    /**
+     * @return the number of requests in the sample
+     */
+    public int size() {
+        return (int) Math.min(count.get(), requests.length());
+    }
+
+    /**
+     * Returns the most frequent requests in the sample. Requests with the same frequency are returned most recent first
+     * @param limit the maximum number of requests returned
+     * @return the request params, most frequent first
+     */
+    public List<SolrParams> getTop(int limit) {
+        final Map<String, int[]> frequencies = new HashMap<String, int[]>();
+        final Map<String, Long> lastSeen = new HashMap<String, Long>();
+        long end = count.get();
+        long start = Math.max(0, end - requests.length());
+
+        for (long i = start; i < end; i++) {
+            String request = requests.get((int) (i % requests.length()));
+
+            if (request == null) {
+                continue;
+            }
+
+            int[] frequency = frequencies.get(request);
+            if (frequency == null) {
+                frequency = new int[1];
+                frequencies.put(request, frequency);
+            }
+            frequency[0]++;
+            lastSeen.put(request, i);
+        }
+
+        List<String> sorted = new ArrayList<String>(frequencies.keySet());
+        Collections.sort(sorted, new Comparator<String>() {
+            @Override
+            public int compare(String r1, String r2) {
+                int diff = frequencies.get(r2)[0] - frequencies.get(r1)[0];
+
+                if (diff != 0) {
+                    return diff;
+                }
+                return lastSeen.get(r2).compareTo(lastSeen.get(r1));
+            }
+        });
+
+        List<SolrParams> top = new ArrayList<SolrParams>(Math.min(limit, sorted.size()));
+        for (String request : sorted) {
+            if (top.size() >= limit) {
+                break;
+            }
+            top.add(toParams(request));
+        }
+        return top;
+    }
+
+    /**
+     * Writes the sample to the given file, oldest request first. The file is written to a temporary file and then
+     * renamed, so readers never see a partial sample
+     * @param file the sample file
+     * @throws IOException if the sample can't be written
+     */
+    public void write(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), UTF8));
+        long end = count.get();
+        long start = Math.max(0, end - requests.length());
+
+        try {
+            for (long i = start; i < end; i++) {
+                String request = requests.get((int) (i % requests.length()));
+
+                if (request != null) {
+                    writer.write(request);
+                    writer.newLine();
+                }
+            }
+        } finally {
+            writer.close();
+        }
+
+        if (!tmp.renameTo(file)) {
+            file.delete();
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Cannot rename " + tmp + " to " + file);
+            }
+        }
+    }
+
+    /**
+     * Adds the requests in the given file to the sample, as if they were the most recent requests
+     * @param file the sample file
+     * @return the number of requests read
+     * @throws IOException if the sample can't be read
+     */
+    public int read(File file) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8));
+        int read = 0;
+
+        try {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                if (line.length() > 0) {
+                    add(line);
+                    read++;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return read;
+    }
+
+    String toString(SolrParams params) {
+        Set<String> names = new TreeSet<String>();
+
+        for (Iterator<String> it = params.getParameterNamesIterator(); it.hasNext();) {
+            String name = it.next();
+
+            if (!excludedParams.contains(name)) {
+                names.add(name);
+            }
+        }
+
+        StringBuilder request = new StringBuilder();
+        try {
+            for (String name : names) {
+                String[] values = params.getParams(name);
+
+                if (values == null) {
+                    continue;
+                }
+                for (String value : values) {
+                    if (request.length() > 0) {
+                        request.append('&');
+                    }
+                    request.append(URLEncoder.encode(name, UTF8)).append('=').append(URLEncoder.encode(value, UTF8));
+                }
+            }
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return request.toString();
+    }
+
+    static SolrParams toParams(String request) {
+        ModifiableSolrParams params = new ModifiableSolrParams();
+
+        try {
+            for (String param : request.split("&")) {
+                int index = param.indexOf('=');
+
+                if (index > 0) {
+                    params.add(URLDecoder.decode(param.substring(0, index), UTF8),
+                               URLDecoder.decode(param.substring(index + 1), UTF8));
+                }
+            }
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return params;
+    }
+}
@@ -0,0 +1,130 @@
+package org.opencommercesearch.search;
+
+/*
+* Licensed to OpenCommerceSearch under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. OpenCommerceSearch licenses this
+* file to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.core.AbstractSolrEventListener;
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.handler.component.QuerySampleComponent;
+import org.apache.solr.handler.component.SearchComponent;
+import org.apache.solr.request.LocalSolrQueryRequest;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.request.SolrRequestHandler;
+import org.apache.solr.request.SolrRequestInfo;
+import org.apache.solr.response.SolrQueryResponse;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Warms a new searcher by replaying the most frequent requests recorded by the {@link QuerySampleComponent} through
+ * the search handler, like the QuerySenderListener does with a fixed list of queries. The replayed requests go through
+ * every component, so they load the rules, the boosts and the group collapse fields for the new searcher before it
+ * serves the first production request. Should be registered for both the newSearcher and firstSearcher events.
+ *
+ * The args are the name of the query sample component ("querySample"), the handler the requests are replayed through
+ * ("/select"), the number of requests replayed ("count", 50) and the time budget in milliseconds ("budget", 10000).
+ * Replaying stops once the budget is exceeded.
+ */
+public class QueryWarmingListener extends AbstractSolrEventListener {
+
+    private static Logger log = LoggerFactory.getLogger(QueryWarmingListener.class);
+
+    public QueryWarmingListener(SolrCore core) {
+        super(core);
+    }
+
+    @Override
+    public void newSearcher(final SolrIndexSearcher newSearcher, SolrIndexSearcher currentSearcher) {
+        SolrParams args = getArgs() != null? SolrParams.toSolrParams(getArgs()) : new ModifiableSolrParams();
+        String componentName = args.get("componentName", "querySample");
+        String handlerName = args.get("handler", "/select");
+        int count = args.getInt("count", 50);
+        long budget = TimeUnit.MILLISECONDS.toNanos(args.getLong("budget", 10000));
+
+        SearchComponent component = getCore().getSearchComponent(componentName);
+        if (!(component instanceof QuerySampleComponent)) {
+            log.warn("Query sample component " + componentName + " not found, skipping warming");
+            return;
+        }
+
+        SolrRequestHandler handler = getCore().getRequestHandler(handlerName);
+        if (handler == null) {
+            log.warn("Request handler " + handlerName + " not found, skipping warming");
+            return;
+        }
+
+        QuerySampleComponent sampleComponent = (QuerySampleComponent) component;
+        List<SolrParams> requests = sampleComponent.getSample().getTop(count);
+        long startTime = System.nanoTime();
+        int replayed = 0;
+
+        for (SolrParams request : requests) {
+            if (System.nanoTime() - startTime > budget) {
+                break;
+            }
+
+            ModifiableSolrParams params = new ModifiableSolrParams(request);
+            params.set(QuerySampleComponent.WARMING, true);
+            if (params.get("distrib") == null) {
+                params.set("distrib", false);
+            }
+            params.remove(CommonParams.QT);
+
+            // bind the request to the new searcher
+            SolrQueryRequest req = new LocalSolrQueryRequest(getCore(), params) {
+                @Override
+                public SolrIndexSearcher getSearcher() {
+                    return newSearcher;
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+
+            try {
+                SolrQueryResponse rsp = new SolrQueryResponse();
+                SolrRequestInfo.setRequestInfo(new SolrRequestInfo(req, rsp));
+                getCore().execute(handler, req, rsp);
+                replayed++;
+            } catch (Exception ex) {
+                // keep warming with the other requests, the failure was already logged by the handler
+                if (log.isDebugEnabled()) log.debug("Cannot replay warming request " + params, ex);
+            } finally {
+                req.close();
+                SolrRequestInfo.clearRequestInfo();
+            }
+        }
+
+        log.info("Warmed searcher " + newSearcher.getName() + " with " + replayed + " of " + requests.size()
+                + " sampled requests in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) + "ms");
+
+        if (currentSearcher != null) {
+            // keep the sample on disk up to date in case the core doesn't close cleanly
+            sampleComponent.writeSample();
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package org.opencommercesearch.search;
+
+/*
+* Licensed to OpenCommerceSearch under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. OpenCommerceSearch licenses this
+* file to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+import org.apache.lucene.queries.function.FunctionQuery;
+import org.apache.lucene.queries.function.ValueSource;
+import org.apache.lucene.search.Query;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.search.FunctionQParser;
+import org.apache.solr.search.QParser;
+import org.apache.solr.search.QParserPlugin;
+import org.apache.solr.search.SyntaxError;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Parses the boost functions of ranking rules. The rule manager replaces the $YEAR and $SEASON variables before adding
+ * the boost function to the request, so the function string is the same for a given rule, season and year. Parsed
+ * functions are cached by their string and reused by every request with the same ranking rules, instead of parsing the
+ * function for every request. When the season rolls over, the new function string is parsed and the old one eventually
+ * expires from the cache. The cache size can be configured with the cacheSize init arg.
+ *
+ * Only functions built from a fixed set of value sources and query parsers that don't read the request params, the
+ * searcher caches or the current time are cached. Other functions, like boost(), the ones that dereference params or
+ * the ones that use NOW, are parsed every time.
+ */
+public class RankingRuleQParserPlugin extends QParserPlugin {
+
+    public static final String NAME = "rankingRule";
+    public static final String CACHE_SIZE = "cacheSize";
+
+    private static final int DEFAULT_CACHE_SIZE = 512;
+
+    /**
+     * Value sources that only depend on their arguments and the index
+     */
+    private static final Set<String> CACHEABLE_FUNCTIONS = new HashSet<String>(Arrays.asList(
+        "abs", "add", "and", "cbrt", "def", "div", "exists", "exp", "field", "if", "linear", "ln", "log", "map", "max",
+        "min", "mod", "ms", "mul", "not", "or", "pow", "product", "query", "recip", "sqrt", "sub", "sum", "termfreq",
+        "tf", "xor"
+    ));
+
+    /**
+     * Query parsers that don't read their defaults from the request params
+     */
+    private static final Set<String> CACHEABLE_PARSERS = new HashSet<String>(Arrays.asList(
+        "lucene", "field", "term", "prefix", "raw", "func", "frange"
+    ));
+
+    private static final Pattern FUNCTION_PATTERN = Pattern.compile("(?<![\\w.])([A-Za-z_][\\w.]*)\\s*\\(");
+    private static final Pattern PARSER_PATTERN = Pattern.compile("\\{!\\s*(?:type\\s*=\\s*)?([\\w.]*)");
+    private static final Pattern NOW_PATTERN = Pattern.compile("(?<![\\w.])ms\\s*\\(\\s*\\)");
+
+    private Map<String, ValueSource> cache = createCache(DEFAULT_CACHE_SIZE);
+
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+    private final AtomicLong uncacheable = new AtomicLong();
+
+    @Override
+    public void init(NamedList namedList) {
+        if (namedList != null) {
+            Object cacheSize = namedList.get(CACHE_SIZE);
+            if (cacheSize != null) {
+                cache = createCache(Integer.parseInt(cacheSize.toString()));
+            }
+        }
+    }
+
+    private static Map<String, ValueSource> createCache(final int maxSize) {
+        return Collections.synchronizedMap(new LinkedHashMap<String, ValueSource>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ValueSource> eldest) {
+                return size() > maxSize;
+            }
+        });
+    }
+
+    @Override
+    public QParser createParser(String qstr, SolrParams localParams, SolrParams params, SolrQueryRequest req) {
+        return new FunctionQParser(qstr, localParams, params, req) {
+            @Override
+            public Query parse() throws SyntaxError {
+                if (!isCacheable(qstr)) {
+                    uncacheable.incrementAndGet();
+                    return super.parse();
+                }
+
+                ValueSource valueSource = cache.get(qstr);
+
+                if (valueSource != null) {
+                    cacheHits.incrementAndGet();
+                } else {
+                    cacheMisses.incrementAndGet();
+                    Query query = super.parse();
+
+                    if (!(query instanceof FunctionQuery)) {
+                        return query;
+                    }
+                    valueSource = ((FunctionQuery) query).getValueSource();
+                    cache.put(qstr, valueSource);
+                }
+                return new FunctionQuery(valueSource);
+            }
+        };
+    }
+
+    /**
+     * Checks if the parsed function can be reused by other requests
+     * @param function the boost function
+     * @return true if the function only uses value sources and query parsers that don't depend on the request params,
+     * the searcher or the current time, otherwise false
+     */
+    static boolean isCacheable(String function) {
+        if (function.indexOf('$') >= 0 || function.contains("NOW") || NOW_PATTERN.matcher(function).find()) {
+            return false;
+        }
+
+        Matcher matcher = FUNCTION_PATTERN.matcher(function);
+        while (matcher.find()) {
+            if (!CACHEABLE_FUNCTIONS.contains(matcher.group(1))) {
+                return false;
+            }
+        }
+
+        matcher = PARSER_PATTERN.matcher(function);
+        while (matcher.find()) {
+            if (!CACHEABLE_PARSERS.contains(matcher.group(1))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    int getCacheSize() {
+        return cache.size();
+    }
+
+    @Override
+    public String getDescription() {
+        return "Ranking rule parser - caches the parsed boost functions of ranking rules";
+    }
+
+    @Override
+    public NamedList getStatistics() {
+        NamedList<Object> stats = new SimpleOrderedMap<Object>();
+        stats.add("cacheSize", getCacheSize());
+        stats.add("cacheHits", cacheHits.get());
+        stats.add("cacheMisses", cacheMisses.get());
+        stats.add("uncacheable", uncacheable.get());
+        return stats;
+    }
+}
@@ -0,0 +1,44 @@
+package org.opencommercesearch.search;
+
+/*
+* Licensed to OpenCommerceSearch under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. OpenCommerceSearch licenses this
+* file to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+import org.apache.solr.handler.component.ResolvedRules;
+import org.apache.solr.search.CacheRegenerator;
+import org.apache.solr.search.SolrCache;
+import org.apache.solr.search.SolrIndexSearcher;
+
+import java.io.IOException;
+
+/**
+ * Rules are resolved from the rules and facets cores, so a new product catalog searcher doesn't change them. The
+ * regenerator simply copies the entries from the old cache to the new one, skipping the ones that already expired.
+ *
+ * Entries resolved from an older rules or facets searcher are discarded by the rule manager when looked up.
+ */
+public class RuleCacheRegenerator implements CacheRegenerator {
+
+    public boolean regenerateItem(SolrIndexSearcher newSearcher, SolrCache newCache, SolrCache oldCache, Object oldKey, Object oldVal) throws IOException {
+        if (oldVal instanceof ResolvedRules && ((ResolvedRules) oldVal).isExpired(System.currentTimeMillis())) {
+            return true;
+        }
+        newCache.put(oldKey, oldVal);
+        return true;
+    }
+}
@@ -0,0 +1,129 @@
+package org.opencommercesearch.search;
+
+/*
+* Licensed to OpenCommerceSearch under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. OpenCommerceSearch licenses this
+* file to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+import org.apache.solr.common.params.RuleManagerParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.response.SolrQueryResponse;
+import org.apache.solr.util.stats.Snapshot;
+import org.apache.solr.util.stats.Timer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency histograms for the stages of a search plugin. Each stage has a timer like the one used by the request
+ * handlers for the request times, so the statistics include percentiles over the recent requests and not only the
+ * average time.
+ *
+ * If the request has the {@link RuleManagerParams#DEBUG_TIMING} param, the time of each stage is also added to the
+ * response in the {@link #TIMING} list, in milliseconds. The rule manager starts the breakdown since it's the first
+ * component of the search handler.
+ */
+public class StageTimers {
+
+    /**
+     * Name of the per request timing breakdown, in the response and the request context
+     */
+    public static final String TIMING = "rule_timing";
+
+    private final Map<String, Timer> timers = new LinkedHashMap<String, Timer>();
+
+    /**
+     * Creates the timers for the given stages
+     * @param stages the stage names, in the order they are listed in the statistics
+     */
+    public StageTimers(String... stages) {
+        for (String stage : stages) {
+            timers.put(stage, new Timer());
+        }
+    }
+
+    /**
+     * Records the latency of a stage
+     * @param stage the stage name
+     * @param startTime the stage start time, from {@link System#nanoTime()}
+     * @param req the current request
+     * @return the stage latency in nanoseconds
+     */
+    public long record(String stage, long startTime, SolrQueryRequest req) {
+        long elapsed = System.nanoTime() - startTime;
+        update(stage, elapsed, req);
+        return elapsed;
+    }
+
+    /**
+     * Records the latency of a stage
+     * @param stage the stage name
+     * @param elapsed the stage latency in nanoseconds
+     * @param req the current request
+     */
+    public void update(String stage, long elapsed, SolrQueryRequest req) {
+        timers.get(stage).update(elapsed, TimeUnit.NANOSECONDS);
+
+        if (req != null) {
+            @SuppressWarnings("unchecked")
+            NamedList<Object> timing = (NamedList<Object>) req.getContext().get(TIMING);
+            if (timing != null) {
+                timing.add(stage, elapsed / 1000000.0);
+            }
+        }
+    }
+
+    /**
+     * Starts the timing breakdown for the given request if it has the {@link RuleManagerParams#DEBUG_TIMING} param.
+     * The stages recorded afterwards by any plugin are added to the breakdown.
+     * @param req the current request
+     * @param rsp the current response
+     */
+    public static void startRequestTiming(SolrQueryRequest req, SolrQueryResponse rsp) {
+        if (!req.getParams().getBool(RuleManagerParams.DEBUG_TIMING, false) || req.getContext().containsKey(TIMING)) {
+            return;
+        }
+
+        NamedList<Object> timing = new SimpleOrderedMap<Object>();
+        req.getContext().put(TIMING, timing);
+        rsp.add(TIMING, timing);
+    }
+
+    /**
+     * Adds the count, average and percentile latencies of each stage to the given statistics. Times are in
+     * milliseconds.
+     * @param stats the plugin statistics
+     */
+    public void addTo(NamedList<Object> stats) {
+        for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+            String stage = entry.getKey();
+            Timer timer = entry.getValue();
+            Snapshot snapshot = timer.getSnapshot();
+
+            stats.add(stage + "Count", timer.getCount());
+            stats.add(stage + "AvgTime", timer.getMean());
+            stats.add(stage + "MedianTime", snapshot.getMedian());
+            stats.add(stage + "75thPcTime", snapshot.get75thPercentile());
+            stats.add(stage + "95thPcTime", snapshot.get95thPercentile());
+            stats.add(stage + "99thPcTime", snapshot.get99thPercentile());
+            stats.add(stage + "999thPcTime", snapshot.get999thPercentile());
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package org.apache.solr.handler.component;
+
+/*
+* Licensed to OpenCommerceSearch under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. OpenCommerceSearch licenses this
+* file to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.SlowCompositeReaderWrapper;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.search.SortedIntDocSet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CategoryTreeComponentTest {
+
+    private static final String FIELD = "categoryPath";
+
+    private RAMDirectory directory = new RAMDirectory();
+    private DirectoryReader reader;
+    private AtomicReader atomicReader;
+
+    @Before
+    public void setUp() throws Exception {
+        IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(Version.LUCENE_48, new KeywordAnalyzer()));
+
+        // two segments
+        addDoc(writer, "mycatalog", "mycatalog.cat1", "mycatalog.cat1.cat11", "mycatalog.cat1.cat11.cat111");
+        addDoc(writer, "mycatalog", "mycatalog.cat1", "mycatalog.cat1.cat12");
+        writer.commit();
+        addDoc(writer, "mycatalog", "mycatalog.cat1", "mycatalog.cat1.cat11", "mycatalog.cat2", "mycatalog.cat2.cat21");
+        addDoc(writer, "othercatalog", "othercatalog.cat3");
+        addDoc(writer, "mycatalog", "mycatalog.cat10");
+        // documents missing their parent paths
+        addDoc(writer, "mycatalog", "mycatalog.cat4.cat41.cat411");
+        addDoc(writer, "mycatalog", "mycatalog.cat4.cat41.cat411");
+        addDoc(writer, "mycatalog", "mycatalog.cat4", "mycatalog.cat4.cat41", "mycatalog.cat4.cat41.cat411");
+        writer.close();
+        reader = DirectoryReader.open(directory);
+        atomicReader = SlowCompositeReaderWrapper.wrap(reader);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        reader.close();
+        directory.close();
+    }
+
+    @Test
+    public void testCategoryTree() throws Exception {
+        List<NamedList<Object>> tree = getCategoryTree(new int[] {0, 1, 2, 3}, "mycatalog.", -1, 0);
+
+        assertEquals(2, tree.size());
+        assertNode(tree.get(0), "cat1", 3, "mycatalog.cat1");
+        assertNode(tree.get(1), "cat2", 1, "mycatalog.cat2");
+
+        List<NamedList<Object>> children = getChildren(tree.get(0));
+        assertEquals(2, children.size());
+        assertNode(children.get(0), "cat11", 2, null);
+        assertNode(children.get(1), "cat12", 1, null);
+        assertNull(getChildren(children.get(1)));
+
+        List<NamedList<Object>> grandChildren = getChildren(children.get(0));
+        assertEquals(1, grandChildren.size());
+        assertNode(grandChildren.get(0), "cat111", 1, null);
+
+        children = getChildren(tree.get(1));
+        assertEquals(1, children.size());
+        assertNode(children.get(0), "cat21", 1, null);
+    }
+
+    @Test
+    public void testCategoryPrefix() throws Exception {
+        List<NamedList<Object>> tree = getCategoryTree(new int[] {0, 1, 2, 3, 4}, "mycatalog.cat1", -1, 0);
+
+        // the prefix also matches sibling categories starting with the same id
+        assertEquals(2, tree.size());
+        assertNode(tree.get(0), "cat1", 3, "mycatalog.cat1");
+        assertEquals(2, getChildren(tree.get(0)).size());
+        assertNode(tree.get(1), "cat10", 1, "mycatalog.cat10");
+    }
+
+    @Test
+    public void testCategoryTreeDepth() throws Exception {
+        List<NamedList<Object>> tree = getCategoryTree(new int[] {0, 1, 2, 3}, "mycatalog.", -1, 1);
+
+        assertEquals(2, tree.size());
+        List<NamedList<Object>> children = getChildren(tree.get(0));
+        assertEquals(2, children.size());
+        assertNull(getChildren(children.get(0)));
+    }
+
+    @Test
+    public void testCategoryTreeLimit() throws Exception {
+        List<NamedList<Object>> tree = getCategoryTree(new int[] {0, 1, 2, 3}, "mycatalog.", 3, 0);
+
+        // cat1 (3), cat11 (2) and cat111 (1), the first category with the lowest count
+        assertEquals(1, tree.size());
+        assertNode(tree.get(0), "cat1", 3, "mycatalog.cat1");
+        List<NamedList<Object>> children = getChildren(tree.get(0));
+        assertEquals(1, children.size());
+        assertNode(children.get(0), "cat11", 2, null);
+        assertEquals(1, getChildren(children.get(0)).size());
+    }
+
+    @Test
+    public void testCategoryTreeLimitMissingParents() throws Exception {
+        List<NamedList<Object>> tree = getCategoryTree(new int[] {5, 6, 7}, "mycatalog.", 1, 0);
+
+        // the limit only keeps cat411 (3), its parents are added with their counts instead of promoting it to the top
+        assertEquals(1, tree.size());
+        assertNode(tree.get(0), "cat4", 1, "mycatalog.cat4");
+        List<NamedList<Object>> children = getChildren(tree.get(0));
+        assertEquals(1, children.size());
+        assertNode(children.get(0), "cat41", 1, null);
+        List<NamedList<Object>> grandChildren = getChildren(children.get(0));
+        assertEquals(1, grandChildren.size());
+        assertNode(grandChildren.get(0), "cat411", 3, null);
+        assertNull(getChildren(grandChildren.get(0)));
+    }
+
+    @Test
+    public void testCategoryTreeMissingParentSelected() throws Exception {
+        List<NamedList<Object>> tree = getCategoryTree(new int[] {5, 6, 7}, "mycatalog.", 2, 0);
+
+        // cat411 (3) and cat4 (1) are kept, cat41 is added between them
+        assertEquals(1, tree.size());
+        assertNode(tree.get(0), "cat4", 1, "mycatalog.cat4");
+        List<NamedList<Object>> children = getChildren(tree.get(0));
+        assertEquals(1, children.size());
+        assertNode(children.get(0), "cat41", 1, null);
+        assertNode(getChildren(children.get(0)).get(0), "cat411", 3, null);
+    }
+
+    @Test
+    public void testNoMatches() throws Exception {
+        assertTrue(getCategoryTree(new int[] {3}, "mycatalog.", -1, 0).isEmpty());
+        assertTrue(getCategoryTree(new int[] {0, 1, 2}, "nocatalog.", -1, 0).isEmpty());
+        assertTrue(getCategoryTree(new int[] {0, 1, 2}, "zzz", -1, 0).isEmpty());
+    }
+
+    private List<NamedList<Object>> getCategoryTree(int[] docs, String prefix, int limit, int depth) throws Exception {
+        return CategoryTreeComponent.getCategoryTree(atomicReader, new SortedIntDocSet(docs), FIELD, prefix, limit, depth);
+    }
+
+    private void assertNode(NamedList<Object> node, String id, int count, String path) {
+        assertEquals(id, node.get(CategoryTreeComponent.ID));
+        assertEquals(count, node.get(CategoryTreeComponent.COUNT));
+        assertEquals(path, node.get(CategoryTreeComponent.PATH));
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<NamedList<Object>> getChildren(NamedList<Object> node) {
+        return (List<NamedList<Object>>) node.get(CategoryTreeComponent.CHILDREN);
+    }
+
+    private void addDoc(IndexWriter writer, String... paths) throws Exception {
+        Document doc = new Document();
+        for (String path : paths) {
+            doc.add(new StringField(FIELD, path, Field.Store.NO));
+        }
+        writer.addDocument(doc);
+    }
+}
@@ -0,0 +1,134 @@
+package org.apache.solr.handler.component;
+
+/*
+* Licensed to OpenCommerceSearch under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. OpenCommerceSearch licenses this
+* file to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FloatDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.queries.function.FunctionQuery;
+import org.apache.lucene.queries.function.valuesource.FloatFieldSource;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.Version;
+import org.apache.solr.search.DocIterator;
+import org.apache.solr.search.DocSlice;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the per segment expand collector
+ */
+public class ExpandAllComponentTest {
+
+    private static final BytesRef[] GROUPS = {new BytesRef("prod1"), new BytesRef("prod2"), new BytesRef("prod9")};
+
+    private RAMDirectory directory = new RAMDirectory();
+    private DirectoryReader reader;
+    private IndexSearcher searcher;
+
+    @Before
+    public void setUp() throws Exception {
+        IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(Version.LUCENE_48, new KeywordAnalyzer()));
+
+        // two segments, prod1 and prod2 skus are in both
+        addSku(writer, "prod1", 1.0f);
+        addSku(writer, "prod2", 5.0f);
+        addSku(writer, "prod1", 3.0f);
+        addSku(writer, "prod3", 2.0f);
+        writer.commit();
+        addSku(writer, "prod1", 4.0f);
+        addSku(writer, "prod2", 1.0f);
+        addSku(writer, "prod1", 2.0f);
+        writer.close();
+        reader = DirectoryReader.open(directory);
+        searcher = new IndexSearcher(reader);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        reader.close();
+        directory.close();
+    }
+
+    @Test
+    public void testScoreSort() throws Exception {
+        ExpandAllComponent.GroupExpandCollector collector = collect(2, null);
+
+        DocSlice prod1 = collector.getDocSlice(0);
+        verifyDocs(prod1, 4, 2);
+        assertEquals(4, prod1.matches());
+        assertEquals(4.0f, prod1.maxScore(), 0.0f);
+        DocIterator it = prod1.iterator();
+        it.nextDoc();
+        assertEquals(4.0f, it.score(), 0.0f);
+        it.nextDoc();
+        assertEquals(3.0f, it.score(), 0.0f);
+
+        DocSlice prod2 = collector.getDocSlice(1);
+        verifyDocs(prod2, 1, 5);
+        assertEquals(2, prod2.matches());
+
+        assertNull(collector.getDocSlice(2));
+    }
+
+    @Test
+    public void testFieldSort() throws Exception {
+        ExpandAllComponent.GroupExpandCollector collector = collect(3, new Sort(new SortField("rank", SortField.Type.FLOAT)));
+
+        DocSlice prod1 = collector.getDocSlice(0);
+        verifyDocs(prod1, 0, 6, 2);
+        assertEquals(4, prod1.matches());
+        assertTrue(Float.isNaN(prod1.maxScore()));
+
+        verifyDocs(collector.getDocSlice(1), 5, 1);
+    }
+
+    private ExpandAllComponent.GroupExpandCollector collect(int limit, Sort sort) throws Exception {
+        ExpandAllComponent.GroupExpandCollector collector = new ExpandAllComponent.GroupExpandCollector("productId", GROUPS, limit, sort);
+        searcher.search(new FunctionQuery(new FloatFieldSource("rank")), collector);
+        return collector;
+    }
+
+    private void verifyDocs(DocSlice slice, int... expectedDocs) {
+        assertEquals(expectedDocs.length, slice.size());
+        DocIterator it = slice.iterator();
+        for (int expectedDoc : expectedDocs) {
+            assertEquals(expectedDoc, it.nextDoc());
+        }
+    }
+
+    private void addSku(IndexWriter writer, String productId, float rank) throws Exception {
+        Document doc = new Document();
+        doc.add(new StringField("productId", productId, Field.Store.NO));
+        doc.add(new FloatDocValuesField("rank", rank));
+        writer.addDocument(doc);
+    }
+}
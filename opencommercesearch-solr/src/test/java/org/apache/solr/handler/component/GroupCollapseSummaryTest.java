@@ -0,0 +1,326 @@
+package org.apache.solr.handler.component;
+
+/*
+* Licensed to OpenCommerceSearch under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. OpenCommerceSearch licenses this
+* file to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FloatDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.SortedSetDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.queries.function.valuesource.FloatFieldSource;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.Version;
+import org.apache.solr.common.params.GroupCollapseParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.schema.FieldType;
+import org.apache.solr.schema.IndexSchema;
+import org.apache.solr.schema.SchemaField;
+import org.apache.solr.schema.StrField;
+import org.apache.solr.search.DocList;
+import org.apache.solr.search.DocSlice;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.apache.solr.search.SortedIntDocSet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests the group summaries computed from doc values
+ */
+@RunWith(PowerMockRunner.class)
+@PowerMockIgnore("org.jacoco.agent.rt.*")
+@PrepareForTest({IndexSchema.class, SchemaField.class, SolrIndexSearcher.class, org.apache.lucene.document.FieldType.NumericType.class})
+public class GroupCollapseSummaryTest {
+
+    private RAMDirectory directory = new RAMDirectory();
+    private DirectoryReader reader;
+    private SolrIndexSearcher searcher;
+    private List<Query> filters = new ArrayList<Query>();
+    private SolrIndexSearcher.ProcessedFilter processedFilter = new SolrIndexSearcher.ProcessedFilter();
+    private Set<String> fieldNames = new LinkedHashSet<String>(Arrays.asList("price", "color", "colorFamily"));
+
+    @Before
+    public void setUp() throws Exception {
+        IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(Version.LUCENE_48, new KeywordAnalyzer()));
+
+        // two segments, product1 skus are in both
+        addSku(writer, 100.0f, "RedColor", false, "RedColorFamily");
+        addSku(writer, 80.0f, "BlackColor", true, "BlackColorFamily", "GreyColorFamily");
+        writer.commit();
+        addSku(writer, 80.0f, "OrangeColor", true, "OrangeColorFamily");
+        addSku(writer, 60.0f, "BrownColor", false, "BrownColorFamily");
+        addSku(writer, 60.0f, "RedColor", false, "RedColorFamily");
+        writer.close();
+        reader = DirectoryReader.open(directory);
+
+        IndexSchema schema = PowerMockito.mock(IndexSchema.class);
+        FieldType priceType = mock(FieldType.class);
+        FieldType stringType = mock(StrField.class);
+        when(stringType.toObject(any(SchemaField.class), any(BytesRef.class))).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                return ((BytesRef) invocation.getArguments()[1]).utf8ToString();
+            }
+        });
+        when(priceType.getNumericType()).thenReturn(PowerMockito.mock(org.apache.lucene.document.FieldType.NumericType.class));
+        mockField(schema, "price", priceType, false);
+        mockField(schema, "color", stringType, false);
+        mockField(schema, "colorFamily", stringType, true);
+        mockField(schema, "isCloseout", mock(FieldType.class), false);
+        SchemaField price = schema.getFieldOrNull("price");
+        when(priceType.getValueSource(price, null)).thenReturn(new FloatFieldSource("price"));
+
+        searcher = PowerMockito.mock(SolrIndexSearcher.class);
+        when(searcher.getSchema()).thenReturn(schema);
+        when(searcher.getTopReaderContext()).thenReturn(reader.getContext());
+        when(searcher.getProcessedFilter(null, filters)).thenReturn(processedFilter);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        reader.close();
+        directory.close();
+    }
+
+    @Test
+    public void testDocValuesSummary() throws Exception {
+        NamedList product1 = summarize(null);
+        verifyFloatField((NamedList) product1.get("price"), 80.0f, 100.0f);
+        assertEquals(3, ((NamedList) product1.get("color")).get("count"));
+        assertEquals(new LinkedHashSet<String>(Arrays.asList("RedColorFamily", "BlackColorFamily GreyColorFamily", "OrangeColorFamily")),
+                ((NamedList) product1.get("colorFamily")).get("families"));
+    }
+
+    @Test
+    public void testDocValuesSummaryFilterField() throws Exception {
+        NamedList product1 = summarize("isCloseout");
+        verifyFloatField((NamedList) product1.get("price"), 100.0f, 100.0f);
+        assertEquals(1, ((NamedList) product1.get("color")).get("count"));
+    }
+
+    @Test
+    public void testExpandedOrds() throws Exception {
+        // product1 has RedColor skus in both segments
+        verifyOrdsSummary(summarizeOrds(new int[] {0, 4, 1, 2}, new int[] {3}));
+    }
+
+    @Test
+    public void testSlotValuesOrds() throws Exception {
+        GroupCollapseSummary summary = new GroupCollapseSummary("productId", searcher, fieldNames, null);
+        GroupCollapseSummary.SlotValues values = summary.newSlotValues(5, filters);
+        ModifiableSolrParams params = new ModifiableSolrParams();
+        params.set(GroupCollapseParams.GROUP_COLLAPSE_SF, "min", "max", "count", "distinct", "bucket");
+
+        summary.processSlots("product1", copySlots(values, 0, 0, 4, 1, 2), values, params);
+        summary.processSlots("product2", copySlots(values, 4, 3), values, params);
+
+        Map<String, DocList> expanded = new HashMap<String, DocList>();
+        expanded.put("product1", new DocSlice(0, 4, new int[] {0, 4, 1, 2}, null, 4, 0.0f));
+        NamedList rsp = new NamedList();
+        summary.addSlotValues(expanded, values, rsp, params);
+
+        NamedList productId = (NamedList) rsp.get("productId");
+        verifyOrdsSummary((NamedList) productId.get("product1"));
+        verifyFloatField((NamedList) ((NamedList) productId.get("product2")).get("price"), 60.0f, 60.0f);
+        assertEquals(1, expanded.get("product1").size());
+    }
+
+    @Test
+    public void testSlotValuesFilterField() throws Exception {
+        GroupCollapseSummary summary = new GroupCollapseSummary("productId", searcher, fieldNames, "isCloseout");
+        GroupCollapseSummary.SlotValues values = summary.newSlotValues(4, null);
+        ModifiableSolrParams params = new ModifiableSolrParams();
+
+        summary.processSlots("product1", copySlots(values, 0, 0, 1, 2), values, params);
+        // all skus are closeout, the filter field is ignored
+        summary.processSlots("product2", copySlots(values, 3, 2), values, params);
+
+        Map<String, DocList> expanded = new HashMap<String, DocList>();
+        expanded.put("product1", new DocSlice(0, 3, new int[] {0, 1, 2}, null, 3, 0.0f));
+        NamedList rsp = new NamedList();
+        summary.addSlotValues(expanded, values, rsp, params);
+
+        NamedList productId = (NamedList) rsp.get("productId");
+        NamedList product1 = (NamedList) productId.get("product1");
+        verifyFloatField((NamedList) product1.get("price"), 100.0f, 100.0f);
+        assertEquals(1, ((NamedList) product1.get("color")).get("count"));
+        assertEquals(new LinkedHashSet<String>(Arrays.asList("RedColorFamily")), ((NamedList) product1.get("colorFamily")).get("families"));
+        NamedList product2 = (NamedList) productId.get("product2");
+        verifyFloatField((NamedList) product2.get("price"), 80.0f, 80.0f);
+        assertEquals(new LinkedHashSet<String>(Arrays.asList("OrangeColorFamily")), ((NamedList) product2.get("colorFamily")).get("families"));
+        assertEquals(1, expanded.get("product1").size());
+    }
+
+    @Test
+    public void testSlotValuesJoinsValues() throws Exception {
+        GroupCollapseSummary summary = new GroupCollapseSummary("productId", searcher, fieldNames, null);
+        GroupCollapseSummary.SlotValues values = summary.newSlotValues(3, null);
+
+        summary.processSlots("product1", copySlots(values, 0, 0, 1, 2), values, new ModifiableSolrParams());
+        NamedList rsp = new NamedList();
+        summary.addSlotValues(new HashMap<String, DocList>(), values, rsp, new ModifiableSolrParams());
+
+        NamedList product1 = (NamedList) ((NamedList) rsp.get("productId")).get("product1");
+        verifyFloatField((NamedList) product1.get("price"), 80.0f, 100.0f);
+        assertEquals(new LinkedHashSet<String>(Arrays.asList("RedColorFamily", "BlackColorFamily GreyColorFamily", "OrangeColorFamily")),
+                ((NamedList) product1.get("colorFamily")).get("families"));
+    }
+
+    /**
+     * Copies the given docs into consecutive slots like the expand collector does
+     */
+    private int[] copySlots(GroupCollapseSummary.SlotValues values, int firstSlot, int... docs) throws Exception {
+        List<AtomicReaderContext> leaves = reader.leaves();
+        int[] slots = new int[docs.length];
+
+        for (int i = 0; i < docs.length; i++) {
+            AtomicReaderContext leaf = leaves.get(ReaderUtil.subIndex(docs[i], leaves));
+            values.setNextReader(leaf);
+            slots[i] = firstSlot + i;
+            values.copy(slots[i], docs[i] - leaf.docBase);
+        }
+        return slots;
+    }
+
+    private void verifyOrdsSummary(NamedList product1) {
+        NamedList price = (NamedList) product1.get("price");
+        verifyFloatField(price, 60.0f, 100.0f);
+        assertEquals(3, price.get("count"));
+        assertEquals(Arrays.asList(100.0f, 60.0f, 80.0f), price.get("distinct"));
+        Map<Object, Integer> priceBuckets = new LinkedHashMap<Object, Integer>();
+        priceBuckets.put(100.0f, 1);
+        priceBuckets.put(60.0f, 1);
+        priceBuckets.put(80.0f, 2);
+        assertEquals(priceBuckets, price.get("buckets"));
+
+        NamedList color = (NamedList) product1.get("color");
+        assertEquals("BlackColor", color.get("min"));
+        assertEquals("RedColor", color.get("max"));
+        assertEquals(3, color.get("count"));
+        Map<Object, Integer> colorBuckets = new LinkedHashMap<Object, Integer>();
+        colorBuckets.put("RedColor", 2);
+        colorBuckets.put("BlackColor", 1);
+        colorBuckets.put("OrangeColor", 1);
+        assertEquals(colorBuckets, color.get("buckets"));
+
+        // only the first value of a multivalued field
+        assertEquals(Arrays.asList("RedColorFamily", "BlackColorFamily", "OrangeColorFamily"),
+                ((NamedList) product1.get("colorFamily")).get("distinct"));
+    }
+
+    @Test
+    public void testExpandedOrdsFilters() throws Exception {
+        processedFilter.answer = new SortedIntDocSet(new int[] {1, 2, 3});
+        NamedList product1 = summarizeOrds(new int[] {0, 1, 2}, new int[] {0});
+
+        verifyFloatField((NamedList) product1.get("price"), 80.0f, 80.0f);
+        assertEquals(Arrays.asList("BlackColor", "OrangeColor"), ((NamedList) product1.get("color")).get("distinct"));
+    }
+
+    private NamedList summarizeOrds(int[] product1Docs, int[] product2Docs) throws Exception {
+        GroupCollapseSummary summary = new GroupCollapseSummary("productId", searcher, fieldNames, null);
+        Map<String, DocList> expanded = new LinkedHashMap<String, DocList>();
+        expanded.put("product1", new DocSlice(0, product1Docs.length, product1Docs, null, product1Docs.length, 0.0f));
+        expanded.put("product2", new DocSlice(0, product2Docs.length, product2Docs, null, product2Docs.length, 0.0f));
+        ModifiableSolrParams params = new ModifiableSolrParams();
+        params.set(GroupCollapseParams.GROUP_COLLAPSE_SF, "min", "max", "count", "distinct", "bucket");
+
+        NamedList rsp = new NamedList();
+        summary.processExpandedOrds(expanded, filters, rsp, params);
+        NamedList productId = (NamedList) rsp.get("productId");
+
+        // product2 doesn't match the filters (if any), all its docs are summarized
+        NamedList product2 = (NamedList) productId.get("product2");
+        assertEquals(1, ((NamedList) product2.get("price")).get("count"));
+        assertEquals(1, expanded.get("product1").size());
+        return (NamedList) productId.get("product1");
+    }
+
+    private NamedList summarize(String filterField) throws Exception {
+        GroupCollapseSummary summary = new GroupCollapseSummary("productId", searcher, fieldNames, filterField);
+        Map<String, DocList> expanded = new HashMap<String, DocList>();
+        expanded.put("product1", new DocSlice(0, 3, new int[] {0, 1, 2}, null, 3, 0.0f));
+        expanded.put("product2", new DocSlice(0, 1, new int[] {3}, null, 1, 0.0f));
+        summary.processExpanded(expanded);
+
+        NamedList rsp = new NamedList();
+        summary.addValues(rsp);
+        NamedList productId = (NamedList) rsp.get("productId");
+        verifyFloatField((NamedList) ((NamedList) productId.get("product2")).get("price"), 60.0f, 60.0f);
+        assertEquals(1, expanded.get("product1").size());
+        return (NamedList) productId.get("product1");
+    }
+
+    private void verifyFloatField(NamedList field, Float expectedMin, Float expectedMax) {
+        assertEquals(expectedMin, field.get("min"));
+        assertEquals(expectedMax, field.get("max"));
+    }
+
+    private void mockField(IndexSchema schema, String name, FieldType type, boolean multiValued) {
+        SchemaField field = PowerMockito.mock(SchemaField.class);
+        when(field.getType()).thenReturn(type);
+        when(field.hasDocValues()).thenReturn(!"isCloseout".equals(name));
+        when(field.indexed()).thenReturn(true);
+        when(field.multiValued()).thenReturn(multiValued);
+        when(field.getName()).thenReturn(name);
+        when(schema.getFieldOrNull(name)).thenReturn(field);
+        when(schema.getField(name)).thenReturn(field);
+    }
+
+    private void addSku(IndexWriter writer, float price, String color, boolean closeout, String... colorFamilies) throws Exception {
+        Document doc = new Document();
+        doc.add(new FloatDocValuesField("price", price));
+        doc.add(new SortedDocValuesField("color", new BytesRef(color)));
+        for (String colorFamily : colorFamilies) {
+            doc.add(new SortedSetDocValuesField("colorFamily", new BytesRef(colorFamily)));
+        }
+        doc.add(new StringField("isCloseout", closeout? "T" : "F", Field.Store.NO));
+        writer.addDocument(doc);
+    }
+}
@@ -23,6 +23,7 @@ import com.google.common.collect.Lists;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.FieldType;
+import org.apache.lucene.index.DirectoryReader;
 import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.util.ClientUtils;
 import org.apache.solr.common.params.*;
@@ -34,6 +35,7 @@ import org.apache.solr.request.SolrRequestHandler;
 import org.apache.solr.response.ResultContext;
 import org.apache.solr.response.SolrQueryResponse;
 import org.apache.solr.search.DocSlice;
+import org.apache.solr.search.LRUCache;
 import org.apache.solr.search.SolrIndexSearcher;
 import org.apache.solr.util.RefCounted;
 import org.junit.Before;
@@ -44,6 +46,7 @@ import org.mockito.Mock;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 import org.opencommercesearch.FacetConstants;
+import org.opencommercesearch.FacetDefinitionStore;
 import org.opencommercesearch.RuleConstants;
 import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PowerMockIgnore;
@@ -54,7 +57,10 @@ import static org.hamcrest.CoreMatchers.hasItems;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
@@ -64,7 +70,7 @@ import static org.mockito.MockitoAnnotations.initMocks;
  * @author Javier Mendez
  */
 @RunWith(PowerMockRunner.class)
-@PrepareForTest({SolrCore.class})
+@PrepareForTest({SolrCore.class, SolrIndexSearcher.class})
 @PowerMockIgnore("org.jacoco.agent.rt.*")
 public class RuleManagerComponentTest {
 
@@ -82,10 +88,10 @@ public class RuleManagerComponentTest {
     @Mock private CoreContainer coreContainer;
     private SolrCore rulesCore;
     @Mock private SearchHandler searchHandler;
-    @Mock private SolrIndexSearcher rulesIndexSearcher;
+    private SolrIndexSearcher rulesIndexSearcher;
 
     private SolrCore facetsCore;
-    @Mock private SolrIndexSearcher facetsIndexSearcher;
+    private SolrIndexSearcher facetsIndexSearcher;
 
     RuleManagerComponent component = new RuleManagerComponent();
     ModifiableSolrParams params = new ModifiableSolrParams();
@@ -95,12 +101,17 @@ public class RuleManagerComponentTest {
         initMocks(this);
         rulesCore = PowerMockito.mock(SolrCore.class);
         facetsCore = PowerMockito.mock(SolrCore.class);
+        rulesIndexSearcher = PowerMockito.mock(SolrIndexSearcher.class);
+        facetsIndexSearcher = PowerMockito.mock(SolrIndexSearcher.class);
 
         rb.req = req;
         rb.rsp = rsp;
         component.rulesCoreName = "rulesCore";
         component.facetsCoreName = "facetsCore";
         component.coreContainer = coreContainer;
+        // rule and facet docs are mocked through the rules and facets core search handlers
+        component.ruleMatcherEnabled = false;
+        component.facetStoreEnabled = false;
         component.initSeasonMappings(null);
 
         when(req.getParams()).thenReturn(params);
@@ -137,6 +148,36 @@ public class RuleManagerComponentTest {
         }
     }
 
+    @Test
+    public void testRuleMatcherListener() throws IOException {
+        LRUCache matcherCache = new LRUCache();
+        matcherCache.init(new HashMap(), null, null);
+        when(rulesIndexSearcher.getCache(RuleManagerComponent.RULE_MATCHER_CACHE)).thenReturn(matcherCache);
+        when(rulesIndexSearcher.getIndexReader()).thenReturn(mock(DirectoryReader.class));
+
+        new RuleMatcherListener(rulesCore).newSearcher(rulesIndexSearcher, null);
+        RuleMatcher matcher = (RuleMatcher) matcherCache.get(RuleManagerComponent.RULE_MATCHER_CACHE);
+
+        assertNotNull(matcher);
+        assertSame(matcher, component.getRuleMatcher(rulesIndexSearcher));
+        assertEquals(0, matcher.size());
+    }
+
+    @Test
+    public void testFacetDefinitionStoreListener() throws IOException {
+        LRUCache storeCache = new LRUCache();
+        storeCache.init(new HashMap(), null, null);
+        when(facetsIndexSearcher.getCache(RuleManagerComponent.FACET_DEFINITION_CACHE)).thenReturn(storeCache);
+        when(facetsIndexSearcher.getIndexReader()).thenReturn(mock(DirectoryReader.class));
+
+        new FacetDefinitionStoreListener(facetsCore).newSearcher(facetsIndexSearcher, null);
+        FacetDefinitionStore store = (FacetDefinitionStore) storeCache.get(RuleManagerComponent.FACET_DEFINITION_CACHE);
+
+        assertNotNull(store);
+        assertSame(store, component.getFacetDefinitionStore());
+        assertEquals(0, store.size());
+    }
+
     @Test
     public void testInitComponentIncorrectSeasonMapping() throws IOException {
         NamedList<String> list = new NamedList<String>();
@@ -201,10 +242,9 @@ public class RuleManagerComponentTest {
         assertEquals("isToos asc,score desc,_version_ desc", outParams.get(CommonParams.SORT));
         assertEquals("1.paulcatalog.", outParams.get("f.category.facet.prefix"));
         String[] filterQueries = outParams.getParams(CommonParams.FQ);
-        assertEquals(3, filterQueries.length);
-        assertEquals("-productId:product0", filterQueries[0]);
-        assertEquals("-productId:product1", filterQueries[1]);
-        assertEquals("category:0.paulcatalog", filterQueries[2]);
+        assertEquals(2, filterQueries.length);
+        assertEquals("{!blockRules}0:product0 1:product1", filterQueries[0]);
+        assertEquals("category:0.paulcatalog", filterQueries[1]);
     }
 
     @Test
@@ -286,7 +326,7 @@ public class RuleManagerComponentTest {
         String expectedSeason = component.seasonMapper[calendar.get(Calendar.MONTH)];
         String expectedYear = Integer.toString(calendar.get(Calendar.YEAR));
         String expectedBoost = "if(exists(query({!lucene v='(season:" + expectedSeason + " OR year:" + expectedYear + " OR season:SS1)'})),0.5,1.0)";
-        assertEquals(expectedBoost, outParams.get("boost"));
+        assertEquals("{!rankingRule}" + expectedBoost, outParams.get("boost"));
     }
 
     @Test
@@ -499,6 +539,178 @@ public class RuleManagerComponentTest {
                                     "(someField:val OR season:" + expectedSeason + " OR year:" + expectedYear + ")"));
     }
 
+    @Test
+    public void testRuleCache() throws IOException {
+        SolrIndexSearcher productIndexSearcher = mock(SolrIndexSearcher.class);
+        DirectoryReader rulesReader = mock(DirectoryReader.class);
+        DirectoryReader facetsReader = mock(DirectoryReader.class);
+        LRUCache ruleCache = new LRUCache();
+        ruleCache.init(new HashMap(), null, null);
+
+        when(req.getSearcher()).thenReturn(productIndexSearcher);
+        when(productIndexSearcher.getCache(RuleManagerComponent.RULE_CACHE)).thenReturn(ruleCache);
+        when(rulesIndexSearcher.getIndexReader()).thenReturn(rulesReader);
+        when(facetsIndexSearcher.getIndexReader()).thenReturn(facetsReader);
+        when(rulesReader.getVersion()).thenReturn(1L);
+        when(facetsReader.getVersion()).thenReturn(1L);
+
+        prepareRuleDocs(TestSetType.blockRules);
+        setBaseParams();
+        component.prepare(rb);
+        params.set(CommonParams.Q, "Some Books");
+        component.prepare(rb);
+
+        ArgumentCaptor<MergedSolrParams> argumentCaptor = ArgumentCaptor.forClass(MergedSolrParams.class);
+        verify(req, times(2)).setParams(argumentCaptor.capture());
+        verify(rulesCore, times(1)).execute((SolrRequestHandler) anyObject(), (SolrQueryRequest) anyObject(), (SolrQueryResponse) anyObject());
+        assertEquals(1, ruleCache.size());
+
+        SolrParams outParams = argumentCaptor.getAllValues().get(1);
+        assertEquals("Some Books", outParams.get(CommonParams.Q));
+        assertEquals("isToos asc,score desc,_version_ desc", outParams.get(CommonParams.SORT));
+        assertArrayEquals(new String[] {"{!blockRules}0:product0 1:product1", "category:0.paulcatalog"}, outParams.getParams(CommonParams.FQ));
+
+        // a new rules searcher invalidates the cached rules
+        when(rulesReader.getVersion()).thenReturn(2L);
+        component.prepare(rb);
+        verify(rulesCore, times(2)).execute((SolrRequestHandler) anyObject(), (SolrQueryRequest) anyObject(), (SolrQueryResponse) anyObject());
+
+        NamedList stats = component.getStatistics();
+        assertEquals(1L, stats.get("ruleCacheHits"));
+        assertEquals(2L, stats.get("ruleCacheMisses"));
+        assertEquals(1L, stats.get("ruleCacheStale"));
+        assertEquals(6L, stats.get("blockRuleMatches"));
+        assertEquals(0L, stats.get("boostRuleMatches"));
+        assertEquals(3L, stats.get("ruleLookupCount"));
+        assertEquals(2L, stats.get("ruleMatchCount"));
+    }
+
+    @Test
+    public void testRuleBudgetStaleRules() throws Exception {
+        SolrIndexSearcher productIndexSearcher = mock(SolrIndexSearcher.class);
+        DirectoryReader rulesReader = mock(DirectoryReader.class);
+        DirectoryReader facetsReader = mock(DirectoryReader.class);
+        LRUCache ruleCache = new LRUCache();
+        ruleCache.init(new HashMap(), null, null);
+
+        when(req.getSearcher()).thenReturn(productIndexSearcher);
+        when(productIndexSearcher.getCache(RuleManagerComponent.RULE_CACHE)).thenReturn(ruleCache);
+        when(rulesIndexSearcher.getIndexReader()).thenReturn(rulesReader);
+        when(facetsIndexSearcher.getIndexReader()).thenReturn(facetsReader);
+        when(rulesReader.getVersion()).thenReturn(1L);
+        when(facetsReader.getVersion()).thenReturn(1L);
+
+        initRuleBudget();
+        prepareRuleDocs(TestSetType.blockRules);
+        setBaseParams();
+        component.prepare(rb);
+
+        // a new rules searcher is slow to resolve the rules, the rules cached for the old one are used
+        when(rulesReader.getVersion()).thenReturn(2L);
+        slowDownRuleDocs();
+        component.prepare(rb);
+
+        ArgumentCaptor<MergedSolrParams> argumentCaptor = ArgumentCaptor.forClass(MergedSolrParams.class);
+        verify(req, times(2)).setParams(argumentCaptor.capture());
+        verify(rsp).add(RuleManagerComponent.RULE_FALLBACK, RuleManagerComponent.FALLBACK_STALE);
+        assertArrayEquals(new String[] {"{!blockRules}0:product0 1:product1", "category:0.paulcatalog"}, argumentCaptor.getAllValues().get(1).getParams(CommonParams.FQ));
+
+        // the rules are cached once resolved in the background
+        component.ruleExecutor.shutdown();
+        assertTrue(component.ruleExecutor.awaitTermination(5, TimeUnit.SECONDS));
+        component.prepare(rb);
+        verify(rulesCore, times(2)).execute((SolrRequestHandler) anyObject(), (SolrQueryRequest) anyObject(), (SolrQueryResponse) anyObject());
+
+        NamedList stats = component.getStatistics();
+        assertEquals(1L, stats.get("ruleCacheHits"));
+        assertEquals(1L, stats.get("ruleBudgetExceeded"));
+        assertEquals(1L, stats.get("ruleFallbackStale"));
+        assertEquals(0L, stats.get("ruleFallbackNone"));
+    }
+
+    @Test
+    public void testRuleBudgetNoRules() throws Exception {
+        initRuleBudget();
+        prepareRuleDocs(TestSetType.blockRules);
+        slowDownRuleDocs();
+        setBaseParams();
+        component.prepare(rb);
+
+        // the request is served with an empty rule set
+        ArgumentCaptor<MergedSolrParams> argumentCaptor = ArgumentCaptor.forClass(MergedSolrParams.class);
+        verify(req).setParams(argumentCaptor.capture());
+        assertNull(argumentCaptor.getValue().getParams(CommonParams.FQ));
+        verify(rsp).add(RuleManagerComponent.RULE_FALLBACK, RuleManagerComponent.FALLBACK_NONE);
+        verify(rsp).add("rule_facets", Collections.<NamedList>emptyList());
+
+        NamedList stats = component.getStatistics();
+        assertEquals(1L, stats.get("ruleBudgetExceeded"));
+        assertEquals(0L, stats.get("ruleFallbackStale"));
+        assertEquals(1L, stats.get("ruleFallbackNone"));
+        component.ruleExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testRuleBudgetNoRulesRulePage() throws Exception {
+        initRuleBudget();
+        prepareRuleDocs(TestSetType.blockRules);
+        slowDownRuleDocs();
+        setBaseParams();
+        params.set(RuleManagerParams.PAGE_TYPE, "category");
+        params.set(RuleManagerParams.RULE_PAGE, "true");
+        params.add(CommonParams.FQ, "(someField:val OR season:$SEASON OR year:$YEAR)");
+        component.prepare(rb);
+
+        ArgumentCaptor<MergedSolrParams> argumentCaptor = ArgumentCaptor.forClass(MergedSolrParams.class);
+        verify(req).setParams(argumentCaptor.capture());
+        verify(rsp).add(RuleManagerComponent.RULE_FALLBACK, RuleManagerComponent.FALLBACK_NONE);
+        verify(rsp).add("rule_facets", Collections.<NamedList>emptyList());
+
+        // the variables are replaced even if the rules are not resolved
+        Calendar calendar = Calendar.getInstance();
+        String expectedSeason = component.seasonMapper[calendar.get(Calendar.MONTH)];
+        String expectedYear = Integer.toString(calendar.get(Calendar.YEAR));
+        assertArrayEquals(new String[] {"(someField:val OR season:" + expectedSeason + " OR year:" + expectedYear + ")"},
+                argumentCaptor.getValue().getParams(CommonParams.FQ));
+        component.ruleExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testRuleBudgetNotExceeded() throws Exception {
+        initRuleBudget();
+        prepareRuleDocs(TestSetType.blockRules);
+        setBaseParams();
+        component.prepare(rb);
+
+        ArgumentCaptor<MergedSolrParams> argumentCaptor = ArgumentCaptor.forClass(MergedSolrParams.class);
+        verify(req).setParams(argumentCaptor.capture());
+        verify(rsp, never()).add(eq(RuleManagerComponent.RULE_FALLBACK), anyObject());
+        assertArrayEquals(new String[] {"{!blockRules}0:product0 1:product1", "category:0.paulcatalog"}, argumentCaptor.getValue().getParams(CommonParams.FQ));
+        assertEquals(0L, component.getStatistics().get("ruleBudgetExceeded"));
+        component.ruleExecutor.shutdownNow();
+    }
+
+    private void initRuleBudget() {
+        NamedList<Object> args = new NamedList<Object>();
+        args.add("ruleBudget", 100);
+        args.add("ruleThreads", 1);
+        component.init(args);
+    }
+
+    /**
+     * Makes loading the rule docs take longer than the rule budget
+     */
+    private void slowDownRuleDocs() throws IOException {
+        final Document rule = rulesIndexSearcher.doc(0);
+        when(rulesIndexSearcher.doc(0)).thenAnswer(new Answer<Document>() {
+            @Override
+            public Document answer(InvocationOnMock invocation) throws Throwable {
+                Thread.sleep(500);
+                return rule;
+            }
+        });
+    }
+
     private void setBaseParams() {
         setBaseParams(null);
     }
@@ -0,0 +1,231 @@
+package org.apache.solr.handler.component;
+
+/*
+* Licensed to OpenCommerceSearch under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. OpenCommerceSearch licenses this
+* file to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.StoredField;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.FacetParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.params.RuleManagerParams;
+import org.apache.solr.handler.component.RuleManagerComponent.PageType;
+import org.apache.solr.handler.component.RuleManagerComponent.RuleType;
+import org.apache.solr.search.DocSet;
+import org.apache.solr.search.SortedIntDocSet;
+import org.junit.Before;
+import org.junit.Test;
+import org.opencommercesearch.RuleConstants;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class RuleMatcherTest {
+
+    private static final long DAY_MS = 24 * 60 * 60 * 1000L;
+
+    FieldType defaultFieldType = new FieldType();
+
+    {
+        defaultFieldType.setStored(true);
+    }
+
+    ModifiableSolrParams params = new ModifiableSolrParams();
+    List<Document> docs = new ArrayList<Document>();
+    DocSet queryMatches = new SortedIntDocSet(new int[0]);
+    int queryMatcherCalls = 0;
+
+    RuleMatcher.QueryMatcher queryMatcher = new RuleMatcher.QueryMatcher() {
+        @Override
+        public DocSet getDocSet(String q) throws IOException {
+            queryMatcherCalls++;
+            return queryMatches;
+        }
+    };
+
+    @Before
+    public void setUp() {
+        params.set(RuleManagerParams.CATALOG_ID, "paulcatalog");
+        params.set(RuleManagerParams.SITE_IDS, "paulsite");
+        params.set(CommonParams.Q, "some books");
+        params.set(FacetParams.FACET, true);
+    }
+
+    @Test
+    public void testNoCatalog() throws IOException {
+        params.remove(RuleManagerParams.CATALOG_ID);
+        addRule("0", RuleType.blockRule, RuleConstants.WILDCARD);
+        assertTrue(match(PageType.search).isEmpty());
+    }
+
+    @Test(expected = IOException.class)
+    public void testEmptyQuery() throws IOException {
+        params.remove(CommonParams.Q);
+        match(PageType.search);
+    }
+
+    @Test
+    public void testRuleOrder() throws IOException {
+        addRule("b", RuleType.blockRule, RuleConstants.WILDCARD).add(new StoredField(RuleConstants.FIELD_SORT_PRIORITY, 1));
+        addRule("c", RuleType.blockRule, RuleConstants.WILDCARD).add(new StoredField(RuleConstants.FIELD_SORT_PRIORITY, 0));
+        addRule("a", RuleType.blockRule, RuleConstants.WILDCARD).add(new StoredField(RuleConstants.FIELD_SORT_PRIORITY, 1));
+
+        assertRules(match(PageType.search).get(RuleType.blockRule), "c", "a", "b");
+        assertEquals(0, queryMatcherCalls);
+    }
+
+    @Test
+    public void testTargetAndContextFilters() throws IOException {
+        addRule("0", RuleType.blockRule, RuleConstants.WILDCARD);
+        Document categoryRule = addRule("1", RuleType.blockRule, RuleConstants.WILDCARD);
+        categoryRule.removeFields(RuleConstants.FIELD_TARGET);
+        categoryRule.add(new Field(RuleConstants.FIELD_TARGET, RuleMatcher.TARGET_CATEGORY_PAGES, defaultFieldType));
+        Document otherSite = addRule("2", RuleType.blockRule, RuleConstants.WILDCARD);
+        otherSite.removeFields(RuleConstants.FIELD_SITE_ID);
+        otherSite.add(new Field(RuleConstants.FIELD_SITE_ID, "othersite", defaultFieldType));
+        Document brandRule = addRule("3", RuleType.blockRule, RuleConstants.WILDCARD);
+        brandRule.removeFields(RuleConstants.FIELD_BRAND_ID);
+        brandRule.add(new Field(RuleConstants.FIELD_BRAND_ID, "brand1", defaultFieldType));
+        Document outletRule = addRule("4", RuleType.blockRule, RuleConstants.WILDCARD);
+        outletRule.removeFields(RuleConstants.FIELD_SUB_TARGET);
+        outletRule.add(new Field(RuleConstants.FIELD_SUB_TARGET, RuleConstants.SUB_TARGET_OUTLET, defaultFieldType));
+        Document categoryFilterRule = addRule("5", RuleType.blockRule, RuleConstants.WILDCARD);
+        categoryFilterRule.removeFields(RuleConstants.FIELD_CATEGORY);
+        categoryFilterRule.add(new Field(RuleConstants.FIELD_CATEGORY, "1.paulcatalog.Men Jackets", defaultFieldType));
+
+        assertRules(match(PageType.search).get(RuleType.blockRule), "0");
+        assertRules(match(PageType.category).get(RuleType.blockRule), "0", "1");
+
+        params.set(RuleManagerParams.BRAND_ID, "brand1");
+        params.set(RuleManagerParams.CATEGORY_FILTER, "1.paulcatalog.Men\\ Jackets");
+        params.add(CommonParams.FQ, "isCloseout:true");
+        assertRules(match(PageType.category).get(RuleType.blockRule), "0", "1", "3", "4", "5");
+    }
+
+    @Test
+    public void testQueryMatch() throws IOException {
+        addRule("0", RuleType.blockRule, RuleConstants.WILDCARD);
+        addRule("1", RuleType.blockRule, "[Some Books]");
+        addRule("2", RuleType.blockRule, "[books]");
+        addRule("3", RuleType.blockRule, "books");
+        addRule("4", RuleType.blockRule, "jackets");
+
+        queryMatches = new SortedIntDocSet(new int[] {3});
+        assertRules(match(PageType.search).get(RuleType.blockRule), "0", "1", "3");
+        assertEquals(1, queryMatcherCalls);
+
+        params.set(CommonParams.Q, "*:*");
+        assertRules(match(PageType.search).get(RuleType.blockRule), "0");
+        assertEquals(1, queryMatcherCalls);
+
+        // category pages ignore the rule query
+        assertRules(match(PageType.category).get(RuleType.blockRule), "0", "1", "2", "3", "4");
+    }
+
+    @Test
+    public void testQueryMatchError() throws IOException {
+        addRule("0", RuleType.blockRule, RuleConstants.WILDCARD);
+        addRule("1", RuleType.blockRule, "books");
+        queryMatches = null;
+        assertTrue(match(PageType.search).isEmpty());
+    }
+
+    @Test
+    public void testRuleTypeFilters() throws IOException {
+        addRule("0", RuleType.facetRule, RuleConstants.WILDCARD);
+        addRule("1", RuleType.redirectRule, RuleConstants.WILDCARD);
+
+        Map<RuleType, List<Document>> rules = match(PageType.search);
+        assertRules(rules.get(RuleType.facetRule), "0");
+        assertRules(rules.get(RuleType.redirectRule), "1");
+
+        params.set(FacetParams.FACET, false);
+        params.set("redirects", false);
+        assertTrue(match(PageType.search).isEmpty());
+    }
+
+    @Test
+    public void testDateWindow() throws IOException {
+        long now = System.currentTimeMillis();
+        addRule("0", RuleType.blockRule, RuleConstants.WILDCARD).add(new StoredField(RuleConstants.FIELD_START_DATE, now - DAY_MS));
+        addRule("1", RuleType.blockRule, RuleConstants.WILDCARD).add(new StoredField(RuleConstants.FIELD_START_DATE, now + 2 * DAY_MS));
+        addRule("2", RuleType.blockRule, RuleConstants.WILDCARD).add(new StoredField(RuleConstants.FIELD_END_DATE, now + 2 * DAY_MS));
+        addRule("3", RuleType.blockRule, RuleConstants.WILDCARD).add(new StoredField(RuleConstants.FIELD_END_DATE, now - 2 * DAY_MS));
+
+        assertRules(match(PageType.search).get(RuleType.blockRule), "0", "2");
+    }
+
+    @Test
+    public void testExperiments() throws IOException {
+        addRule("0", RuleType.boostRule, RuleConstants.WILDCARD).add(new Field(RuleConstants.FIELD_EXPERIMENTAL, "true", defaultFieldType));
+        addRule("1", RuleType.boostRule, RuleConstants.WILDCARD).add(new Field(RuleConstants.FIELD_EXPERIMENTAL, "true", defaultFieldType));
+        addRule("2", RuleType.boostRule, RuleConstants.WILDCARD);
+
+        assertRules(match(PageType.search).get(RuleType.boostRule), "0", "1", "2");
+
+        params.set("includeRules", "1");
+        assertRules(match(PageType.search).get(RuleType.boostRule), "1", "2");
+
+        params.set("excludeRules", "1,2");
+        assertRules(match(PageType.search).get(RuleType.boostRule));
+    }
+
+    private Map<RuleType, List<Document>> match(PageType pageType) throws IOException {
+        int[] docIds = new int[docs.size()];
+        for (int i = 0; i < docIds.length; i++) {
+            docIds[i] = i;
+        }
+        RuleMatcher matcher = new RuleMatcher(null, docIds, docs.toArray(new Document[docs.size()]));
+        return matcher.match(params, pageType, queryMatcher);
+    }
+
+    private void assertRules(List<Document> rules, String... ids) {
+        if (ids.length == 0) {
+            assertNull(rules);
+            return;
+        }
+
+        assertNotNull(rules);
+        assertEquals(ids.length, rules.size());
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(ids[i], rules.get(i).get(RuleConstants.FIELD_ID));
+        }
+    }
+
+    private Document addRule(String id, RuleType ruleType, String query) {
+        Document rule = new Document();
+        rule.add(new Field(RuleConstants.FIELD_ID, id, defaultFieldType));
+        rule.add(new Field(RuleConstants.FIELD_RULE_TYPE, ruleType.toString(), defaultFieldType));
+        rule.add(new Field(RuleConstants.FIELD_QUERY, query, defaultFieldType));
+        rule.add(new Field(RuleConstants.FIELD_TARGET, RuleMatcher.TARGET_ALL_PAGES, defaultFieldType));
+        rule.add(new Field(RuleConstants.FIELD_SUB_TARGET, RuleConstants.WILDCARD, defaultFieldType));
+        rule.add(new Field(RuleConstants.FIELD_CATALOG_ID, RuleConstants.WILDCARD, defaultFieldType));
+        rule.add(new Field(RuleConstants.FIELD_SITE_ID, RuleConstants.WILDCARD, defaultFieldType));
+        rule.add(new Field(RuleConstants.FIELD_BRAND_ID, RuleConstants.WILDCARD, defaultFieldType));
+        rule.add(new Field(RuleConstants.FIELD_CATEGORY, RuleConstants.WILDCARD, defaultFieldType));
+        docs.add(rule);
+        return rule;
+    }
+}
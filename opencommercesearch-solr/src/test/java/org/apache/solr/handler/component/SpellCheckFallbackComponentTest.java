@@ -0,0 +1,309 @@
+package org.apache.solr.handler.component;
+
+/*
+* Licensed to OpenCommerceSearch under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. OpenCommerceSearch licenses this
+* file to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.DisMaxParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.params.SpellCheckFallbackParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.response.SolrQueryResponse;
+import org.apache.solr.search.DocSlice;
+import org.apache.solr.search.QueryParsing;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+public class SpellCheckFallbackComponentTest {
+
+    @Mock
+    private SolrQueryRequest req;
+
+    private SolrParams params;
+
+    private SolrQueryResponse rsp = new SolrQueryResponse();
+
+    private ResponseBuilder rb;
+
+    private FakeQueryComponent query = new FakeQueryComponent();
+
+    private SpellCheckFallbackComponent component = new SpellCheckFallbackComponent();
+
+    @Before
+    public void setUp() {
+        initMocks(this);
+
+        NamedList<String> args = new NamedList<String>();
+        args.add("minimumMatch", "2<-1");
+        component.init(args);
+
+        ModifiableSolrParams initialParams = new ModifiableSolrParams();
+        initialParams.set(SpellCheckFallbackParams.SPELLCHECK_FALLBACK, true);
+        initialParams.set(CommonParams.Q, "jakcet");
+        initialParams.set(CommonParams.ROWS, 10);
+        params = initialParams;
+
+        when(req.getParams()).thenAnswer(new Answer<SolrParams>() {
+            @Override
+            public SolrParams answer(InvocationOnMock invocation) throws Throwable {
+                return params;
+            }
+        });
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                params = (SolrParams) invocation.getArguments()[0];
+                return null;
+            }
+        }).when(req).setParams(any(SolrParams.class));
+        when(req.getContext()).thenReturn(new HashMap<Object, Object>());
+
+        List<SearchComponent> components = new ArrayList<SearchComponent>();
+        components.add(query);
+        components.add(component);
+        rb = new ResponseBuilder(req, rsp, components);
+
+        rsp.add("response", new DocSlice(0, 0, new int[0], null, 0, 0f));
+    }
+
+    @Test
+    public void testDisabled() throws IOException {
+        ModifiableSolrParams disabledParams = new ModifiableSolrParams(params);
+        disabledParams.set(SpellCheckFallbackParams.SPELLCHECK_FALLBACK, false);
+        params = disabledParams;
+        addCollation("jacket");
+
+        component.process(rb);
+
+        assertEquals(0, query.queries.size());
+        assertNull(rsp.getValues().get(SpellCheckFallbackComponent.CORRECTED_TERM));
+    }
+
+    @Test
+    public void testHasResults() throws IOException {
+        rsp.getValues().setVal(0, new DocSlice(0, 1, new int[] {1}, null, 1, 0f));
+        addCollation("jacket");
+
+        component.process(rb);
+
+        assertEquals(0, query.queries.size());
+        assertNull(rsp.getValues().get(SpellCheckFallbackComponent.CORRECTED_TERM));
+    }
+
+    @Test
+    public void testNoRows() throws IOException {
+        ModifiableSolrParams noRowsParams = new ModifiableSolrParams(params);
+        noRowsParams.set(CommonParams.ROWS, 0);
+        params = noRowsParams;
+        addCollation("jacket");
+
+        component.process(rb);
+
+        assertEquals(0, query.queries.size());
+    }
+
+    @Test
+    public void testCollationMatchesAllTerms() throws IOException {
+        addCollation("jacket");
+        query.matches.put("jacket", 5);
+
+        component.process(rb);
+
+        assertEquals(Arrays.asList("jacket"), query.queries);
+        assertNull(query.operators.get(0));
+        assertEquals(5, ((DocSlice) rsp.getValues().get("response")).matches());
+        assertEquals("jacket", rsp.getValues().get(SpellCheckFallbackComponent.CORRECTED_TERM));
+        assertEquals(Boolean.TRUE, rsp.getValues().get(SpellCheckFallbackComponent.MATCHES_ALL));
+        assertEquals("jacket", params.get(CommonParams.Q));
+
+        NamedList fallback = (NamedList) rsp.getValues().get(SpellCheckFallbackComponent.FALLBACK);
+        assertEquals(1, fallback.size());
+        assertEquals("jacket", fallback.get(CommonParams.Q));
+    }
+
+    @Test
+    public void testCollationMatchesAnyTerm() throws IOException {
+        addCollation("red jacket");
+        query.matchesAnyTerm.put("red jacket", 3);
+
+        component.process(rb);
+
+        assertEquals(Arrays.asList("red jacket", "red jacket"), query.queries);
+        assertEquals("OR", query.operators.get(1));
+        assertEquals("2<-1", query.minimumMatches.get(1));
+        assertEquals(3, ((DocSlice) rsp.getValues().get("response")).matches());
+        assertEquals("red jacket", rsp.getValues().get(SpellCheckFallbackComponent.CORRECTED_TERM));
+        assertEquals(Boolean.FALSE, rsp.getValues().get(SpellCheckFallbackComponent.MATCHES_ALL));
+
+        NamedList fallback = (NamedList) rsp.getValues().get(SpellCheckFallbackComponent.FALLBACK);
+        assertEquals("red jacket", fallback.get(CommonParams.Q));
+        assertEquals("OR", fallback.get(QueryParsing.OP));
+        assertEquals("2<-1", fallback.get(DisMaxParams.MM));
+    }
+
+    @Test
+    public void testQueryMatchesAnyTerm() throws IOException {
+        ModifiableSolrParams mmParams = new ModifiableSolrParams(params);
+        mmParams.set(SpellCheckFallbackParams.SPELLCHECK_FALLBACK_MM, "1");
+        params = mmParams;
+        query.matchesAnyTerm.put("jakcet", 2);
+
+        component.process(rb);
+
+        assertEquals(Arrays.asList("jakcet"), query.queries);
+        assertEquals("1", query.minimumMatches.get(0));
+        assertEquals("jakcet", rsp.getValues().get(SpellCheckFallbackComponent.CORRECTED_TERM));
+        assertEquals(Boolean.FALSE, rsp.getValues().get(SpellCheckFallbackComponent.MATCHES_ALL));
+    }
+
+    @Test
+    public void testNotMatched() throws IOException {
+        SolrParams originalParams = params;
+        addCollation("jacket");
+
+        component.process(rb);
+
+        assertEquals(Arrays.asList("jacket", "jacket"), query.queries);
+        assertEquals(0, ((DocSlice) rsp.getValues().get("response")).matches());
+        assertNull(rsp.getValues().get(SpellCheckFallbackComponent.CORRECTED_TERM));
+        assertNull(rsp.getValues().get(SpellCheckFallbackComponent.FALLBACK));
+        assertSame(originalParams, params);
+        assertSame(rsp, rb.rsp);
+    }
+
+    @Test
+    public void testRetriesNotSampled() throws IOException {
+        QuerySampleComponent sampler = new QuerySampleComponent();
+        NamedList<Object> args = new NamedList<Object>();
+        args.add("persistent", false);
+        sampler.init(args);
+        rb.components.add(0, sampler);
+        addCollation("jacket");
+
+        sampler.prepare(rb);
+        component.process(rb);
+
+        assertEquals(Arrays.asList("jacket", "jacket"), query.queries);
+        assertEquals(1, sampler.getSample().size());
+        assertFalse(SpellCheckFallbackComponent.isRetry(req));
+    }
+
+    @Test
+    public void testGetCollation() {
+        SolrQueryResponse response = new SolrQueryResponse();
+        assertNull(SpellCheckFallbackComponent.getCollation(response));
+
+        NamedList<Object> spellCheck = new SimpleOrderedMap<Object>();
+        response.add("spellcheck", spellCheck);
+        assertNull(SpellCheckFallbackComponent.getCollation(response));
+
+        NamedList<Object> suggestions = new SimpleOrderedMap<Object>();
+        spellCheck.add("suggestions", suggestions);
+        assertNull(SpellCheckFallbackComponent.getCollation(response));
+
+        NamedList<Object> collation = new SimpleOrderedMap<Object>();
+        collation.add("collationQuery", "jacket");
+        suggestions.add("collation", collation);
+        assertEquals("jacket", SpellCheckFallbackComponent.getCollation(response));
+
+        suggestions.setVal(0, "red jacket");
+        assertEquals("red jacket", SpellCheckFallbackComponent.getCollation(response));
+    }
+
+    @Test
+    public void testHasResultsGrouped() {
+        SolrQueryResponse response = new SolrQueryResponse();
+        assertFalse(SpellCheckFallbackComponent.hasResults(response));
+
+        NamedList<Object> grouped = new SimpleOrderedMap<Object>();
+        NamedList<Object> command = new SimpleOrderedMap<Object>();
+        command.add("matches", 10);
+        command.add("ngroups", 0);
+        grouped.add("productId", command);
+        response.add("grouped", grouped);
+        assertFalse(SpellCheckFallbackComponent.hasResults(response));
+
+        command.setVal(1, 2);
+        assertTrue(SpellCheckFallbackComponent.hasResults(response));
+    }
+
+    private void addCollation(String collation) {
+        NamedList<Object> suggestions = new SimpleOrderedMap<Object>();
+        suggestions.add("collation", collation);
+        NamedList<Object> spellCheck = new SimpleOrderedMap<Object>();
+        spellCheck.add("suggestions", suggestions);
+        rsp.add("spellcheck", spellCheck);
+    }
+
+    /**
+     * Query component returning the configured number of matches for each query
+     */
+    private static class FakeQueryComponent extends SearchComponent {
+        Map<String, Integer> matches = new HashMap<String, Integer>();
+        Map<String, Integer> matchesAnyTerm = new HashMap<String, Integer>();
+        List<String> queries = new ArrayList<String>();
+        List<String> operators = new ArrayList<String>();
+        List<String> minimumMatches = new ArrayList<String>();
+
+        @Override
+        public void prepare(ResponseBuilder rb) throws IOException {
+        }
+
+        @Override
+        public void process(ResponseBuilder rb) throws IOException {
+            SolrParams params = rb.req.getParams();
+            String q = params.get(CommonParams.Q);
+            String op = params.get(QueryParsing.OP);
+            Integer count = "OR".equals(op)? matchesAnyTerm.get(q) : matches.get(q);
+
+            queries.add(q);
+            operators.add(op);
+            minimumMatches.add(params.get(DisMaxParams.MM));
+            rb.rsp.add("response", new DocSlice(0, 0, new int[0], null, count != null? count : 0, 0f));
+        }
+
+        @Override
+        public String getDescription() {
+            return null;
+        }
+
+        @Override
+        public String getSource() {
+            return null;
+        }
+    }
+}
@@ -31,11 +31,11 @@ import org.mockito.Mock;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
-import static org.junit.Assert.assertEquals;
-import static org.junit.Assert.assertNull;
+import static org.junit.Assert.*;
 import static org.mockito.Mockito.verify;
 import static org.mockito.MockitoAnnotations.initMocks;
 
@@ -119,6 +119,43 @@ public class FacetHandlerTest {
         assertEquals("rangeName", facetList.get(2).get(FacetConstants.FIELD_FIELD_NAME));
     }
 
+    @Test
+    public void testFacetDefinition() {
+        queryFacet.add(new Field(FacetConstants.FIELD_QUERIES, " [* TO 100] ", defaultFieldType));
+        queryFacet.add(new Field(FacetConstants.FIELD_QUERIES, "val:2", defaultFieldType));
+        queryFacet.add(new Field(FacetConstants.FIELD_BY_COUNTRY, "true", defaultFieldType));
+
+        FacetDefinition range = new FacetDefinition(rangeFacet);
+        assertEquals(FacetHandler.FacetType.rangeFacet, range.getType());
+        assertEquals(0, range.getStart());
+        assertEquals(1000, range.getEnd());
+        assertEquals(50, range.getGap());
+        assertTrue(range.isMultiSelect());
+        assertFalse(range.isHardened());
+
+        FacetDefinition query = new FacetDefinition(queryFacet);
+        assertArrayEquals(new String[] {"valQueryFacet", "[* TO 100]", "val\\:2"}, query.getQueries());
+        assertTrue(query.isByCountry());
+        assertFalse(query.isBySite());
+        assertEquals(3, query.getResponseFieldCount());
+    }
+
+    @Test
+    public void testFacetDefinitionStore() {
+        fieldFacet.add(new Field(FacetConstants.FIELD_ID, "facet1", defaultFieldType));
+        rangeFacet.add(new Field(FacetConstants.FIELD_ID, "facet2", defaultFieldType));
+        FacetDefinitionStore store = new FacetDefinitionStore(null, Arrays.asList(new FacetDefinition(fieldFacet), new FacetDefinition(rangeFacet)));
+        assertEquals(2, store.size());
+        assertNull(store.get("facet3"));
+
+        facetHandler.addFacet(store.get("facet1"));
+        facetHandler.addFacet(store.get("facet2"));
+        assertEquals(fieldFacet, facetHandler.getFacetItem("fieldName"));
+        facetHandler.setParams(query);
+        verify(query).addFacetField("{!ex=collapse,fieldName}fieldName");
+        verify(query).addNumericRangeFacet("rangeName", 0, 1000, 50);
+    }
+
     private void addFacets(){
         facetHandler.addFacet(new String[]{"queryName", "fieldName","rangeName" });
         facetHandler.addFacet(fieldFacet);
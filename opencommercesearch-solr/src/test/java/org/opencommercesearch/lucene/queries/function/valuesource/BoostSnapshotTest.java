@@ -0,0 +1,85 @@
+package org.opencommercesearch.lucene.queries.function.valuesource;
+
+/*
+* Licensed to OpenCommerceSearch under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. OpenCommerceSearch licenses this
+* file to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class BoostSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        File file = new File(folder.getRoot(), BoostValueSourceParser.SNAPSHOT_FILE);
+        Map<String, Float> boosts = new HashMap<String, Float>();
+        boosts.put("prod0", 0.7f);
+        boosts.put("prod\u00f1", 0.6f);
+
+        Map<String, BoostEntry> entries = new HashMap<String, BoostEntry>();
+        entries.put("boost1", new BoostEntry(boosts, 1000L));
+        entries.put("boost2_b", new BoostEntry(Collections.<String, Float>emptyMap(), 2000L));
+        BoostSnapshot.write(file, entries);
+        // a second snapshot replaces the first one
+        BoostSnapshot.write(file, entries);
+
+        Map<String, BoostEntry> snapshot = BoostSnapshot.read(file);
+        assertEquals(2, snapshot.size());
+        assertEquals(boosts, snapshot.get("boost1").getBoosts());
+        assertEquals(1000L, snapshot.get("boost1").getLoadTime());
+        assertTrue(snapshot.get("boost2_b").getBoosts().isEmpty());
+        assertEquals(2000L, snapshot.get("boost2_b").getLoadTime());
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncatedSnapshot() throws Exception {
+        File file = new File(folder.getRoot(), BoostValueSourceParser.SNAPSHOT_FILE);
+        Map<String, BoostEntry> entries = new HashMap<String, BoostEntry>();
+        entries.put("boost1", new BoostEntry(Collections.singletonMap("prod0", 0.7f), 1000L));
+        BoostSnapshot.write(file, entries);
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 2);
+        raf.close();
+        BoostSnapshot.read(file);
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidSnapshot() throws Exception {
+        File file = folder.newFile("invalid.snapshot");
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.writeInt(12345);
+        raf.writeInt(BoostSnapshot.VERSION);
+        raf.close();
+        BoostSnapshot.read(file);
+    }
+}
@@ -31,6 +31,7 @@ import org.apache.lucene.queries.function.ValueSource;
 import org.apache.solr.common.params.CommonParams;
 import org.apache.solr.common.params.RuleManagerParams;
 import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
 import org.apache.solr.request.SolrQueryRequest;
 import org.apache.solr.schema.FieldType;
 import org.apache.solr.schema.IndexSchema;
@@ -42,12 +43,18 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.*;
 import static org.mockito.MockitoAnnotations.initMocks;
 import static org.opencommercesearch.lucene.queries.function.valuesource.BoostValueSourceParser.BOOST_ID;
@@ -96,6 +103,9 @@ public class BoostValueSourceParserTest {
 
         schemaField = new SchemaField("productId", fieldType);
 
+        NamedList args = new NamedList();
+        args.add(BoostValueSourceParser.BOOST_WAIT_TIME, 5000);
+        vsp.init(args);
         vsp.defaultClient = httpClient;
 
         when(fp.getReq()).thenReturn(request);
@@ -119,7 +129,7 @@ public class BoostValueSourceParserTest {
 
     @Test
     public void testCachedBoosts() throws Exception {
-        when(boostCache.get(boostId)).thenReturn(createBoosts());
+        when(boostCache.get(boostId)).thenReturn(new BoostEntry(createBoosts(), System.currentTimeMillis()));
         ValueSource vs = vsp.parse(fp);
 
         verifyZeroInteractions(httpClient);
@@ -136,7 +146,7 @@ public class BoostValueSourceParserTest {
     @Test
     public void testCachedBoostsWithTreatment() throws Exception {
         when(params.get(TREATMENT_ID)).thenReturn("b");
-        when(boostCache.get(boostId + "_b")).thenReturn(createBoosts());
+        when(boostCache.get(boostId + "_b")).thenReturn(new BoostEntry(createBoosts(), System.currentTimeMillis()));
         ValueSource vs = vsp.parse(fp);
 
         verifyZeroInteractions(httpClient);
@@ -182,6 +192,121 @@ public class BoostValueSourceParserTest {
         for (int i = 0; i <= 10; i++) {
             Assert.assertEquals(0.0f, values.floatVal(i), 0.0f);
         }
+
+        // failed boosts are not fetched again until the retry delay has passed
+        vsp.parse(fp);
+        verify(httpClient, times(1)).execute(any(HttpGet.class));
+        Assert.assertEquals(1L, vsp.getStatistics().get("fetchErrors"));
+        Assert.assertEquals(1L, vsp.getStatistics().get("skippedFetches"));
+    }
+
+    @Test
+    public void testStaleBoosts() throws Exception {
+        mockHttpResponse(HttpStatus.SC_OK);
+        Map<String, Float> staleBoosts = new HashMap<String, Float>();
+        staleBoosts.put("prod3", 0.1f);
+        when(boostCache.get(boostId)).thenReturn(new BoostEntry(staleBoosts, 0));
+
+        ValueSource vs = vsp.parse(fp);
+        FunctionValues values = vs.getValues(null, null);
+        Assert.assertEquals(0.1f, values.floatVal(3), 0.0f);
+
+        verify(boostCache, timeout(5000)).put(eq(boostId), any(BoostEntry.class));
+        Assert.assertEquals(1L, vsp.getStatistics().get("staleServes"));
+    }
+
+    @Test
+    public void testSlowApi() throws Exception {
+        NamedList args = new NamedList();
+        args.add(BoostValueSourceParser.BOOST_WAIT_TIME, 10);
+        vsp.init(args);
+        vsp.defaultClient = httpClient;
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        mockHttpResponse(HttpStatus.SC_OK);
+        when(httpClient.execute(any(HttpGet.class))).thenAnswer(new Answer<HttpResponse>() {
+            @Override
+            public HttpResponse answer(InvocationOnMock invocation) throws Throwable {
+                latch.await();
+                return httpResponse;
+            }
+        });
+
+        // concurrent misses don't wait for the API and share the same fetch
+        for (int i = 0; i < 2; i++) {
+            FunctionValues values = vsp.parse(fp).getValues(null, null);
+            Assert.assertEquals(0.0f, values.floatVal(0), 0.0f);
+        }
+        Assert.assertEquals(1L, vsp.getStatistics().get("coalescedWaits"));
+        Assert.assertEquals(2L, vsp.getStatistics().get("waitTimeouts"));
+
+        latch.countDown();
+        verify(boostCache, timeout(5000)).put(eq(boostId), any(BoostEntry.class));
+        verify(httpClient, times(1)).execute(any(HttpGet.class));
+    }
+
+    @Test
+    public void testRefreshCoalescedWithQueryFetch() throws Exception {
+        NamedList args = new NamedList();
+        args.add(BoostValueSourceParser.BOOST_WAIT_TIME, 10);
+        vsp.init(args);
+        vsp.defaultClient = httpClient;
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        mockHttpResponse(HttpStatus.SC_OK);
+        when(httpClient.execute(any(HttpGet.class))).thenAnswer(new Answer<HttpResponse>() {
+            @Override
+            public HttpResponse answer(InvocationOnMock invocation) throws Throwable {
+                latch.await();
+                return httpResponse;
+            }
+        });
+
+        // a query against the current searcher starts the fetch, then a new searcher is warmed
+        vsp.parse(fp);
+        SolrCache newCache = mock(SolrCache.class);
+        Future<BoostEntry> future = vsp.refresh(boostId, newCache);
+
+        latch.countDown();
+        Assert.assertNotNull(future.get(5000, TimeUnit.MILLISECONDS));
+        verify(boostCache, timeout(5000)).put(eq(boostId), any(BoostEntry.class));
+        verify(newCache, timeout(5000)).put(eq(boostId), any(BoostEntry.class));
+        verify(httpClient, times(1)).execute(any(HttpGet.class));
+    }
+
+    @Test
+    public void testLoaderQueueFull() throws Exception {
+        NamedList args = new NamedList();
+        args.add(BoostValueSourceParser.BOOST_WAIT_TIME, 10);
+        args.add(BoostValueSourceParser.BOOST_LOADER_THREADS, 1);
+        args.add(BoostValueSourceParser.BOOST_LOADER_QUEUE_SIZE, 1);
+        vsp.init(args);
+        vsp.defaultClient = httpClient;
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        mockHttpResponse(HttpStatus.SC_OK);
+        when(httpClient.execute(any(HttpGet.class))).thenAnswer(new Answer<HttpResponse>() {
+            @Override
+            public HttpResponse answer(InvocationOnMock invocation) throws Throwable {
+                latch.await();
+                return httpResponse;
+            }
+        });
+
+        // the first fetch blocks the only loader thread and the second one fills the queue
+        Assert.assertTrue(vsp.loadBoosts("boost1", boostCache).isEmpty());
+        Assert.assertTrue(vsp.loadBoosts("boost2", boostCache).isEmpty());
+
+        // the third fetch is dropped, the query gets no boosts and the boost id can be fetched again
+        Assert.assertTrue(vsp.loadBoosts("boost3", boostCache).isEmpty());
+        Assert.assertNull(vsp.refresh("boost3", boostCache));
+        Assert.assertEquals(2L, vsp.getStatistics().get("rejectedFetches"));
+        Assert.assertEquals(2, vsp.getStatistics().get("inFlightFetches"));
+
+        latch.countDown();
+        verify(boostCache, timeout(5000)).put(eq("boost1"), any(BoostEntry.class));
+        verify(httpClient, timeout(5000).times(2)).execute(any(HttpGet.class));
+        verify(boostCache, never()).put(eq("boost3"), any(BoostEntry.class));
     }
 
     private Map<String, Float> createBoosts() {
@@ -0,0 +1,133 @@
+package org.opencommercesearch.lucene.queries.function.valuesource;
+
+/*
+* Licensed to OpenCommerceSearch under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. OpenCommerceSearch licenses this
+* file to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.queries.function.FunctionValues;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.apache.solr.schema.StrFieldSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class BoostValueSourceTest {
+
+    private RAMDirectory directory = new RAMDirectory();
+    private DirectoryReader reader;
+    private Map<String, Float> boosts = new HashMap<String, Float>();
+
+    @Before
+    public void setup() throws Exception {
+        IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(Version.LUCENE_48, new KeywordAnalyzer()));
+
+        // two segments, prod1 is in both
+        addProduct(writer, "prod0");
+        addProduct(writer, "prod1");
+        writer.addDocument(new Document());
+        writer.commit();
+        addProduct(writer, "prod1");
+        addProduct(writer, "prod2");
+        writer.close();
+        reader = DirectoryReader.open(directory);
+
+        boosts.put("prod1", 0.6f);
+        boosts.put("prod2", 0.5f);
+        boosts.put("prod9", 0.1f);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        reader.close();
+        directory.close();
+    }
+
+    @Test
+    public void testSegmentBoosts() throws Exception {
+        assertBoosts(new BoostValueSource("productId", new StrFieldSource("productId"), boosts));
+    }
+
+    @Test
+    public void testCachedSegmentBoosts() throws Exception {
+        BoostValueSource vs = new BoostValueSource("productId", new StrFieldSource("productId"), "testCachedSegmentBoosts", boosts);
+        assertBoosts(vs);
+        assertBoosts(vs);
+    }
+
+    @Test
+    public void testTableCache() throws Exception {
+        BoostTableCache cache = new BoostTableCache(3);
+        AtomicReader first = reader.leaves().get(0).reader();
+        AtomicReader second = reader.leaves().get(1).reader();
+        SortedDocValues firstOrds = FieldCache.DEFAULT.getTermsIndex(first, "productId");
+        SortedDocValues secondOrds = FieldCache.DEFAULT.getTermsIndex(second, "productId");
+
+        float[] table = cache.getTable("boost", "productId", first, firstOrds, boosts);
+        assertEquals(2, table.length);
+        assertSame(table, cache.getTable("boost", "productId", first, firstOrds, boosts));
+        assertEquals(1, cache.size());
+
+        // a new boost map for the same boost id replaces the table
+        Map<String, Float> newBoosts = new HashMap<String, Float>(boosts);
+        assertNotSame(table, cache.getTable("boost", "productId", first, firstOrds, newBoosts));
+        assertEquals(1, cache.size());
+
+        // exceeds the cache size, the first table gets evicted
+        cache.getTable("boost", "productId", second, secondOrds, boosts);
+        assertEquals(1, cache.size());
+
+        cache.purge(second.getCoreCacheKey());
+        assertEquals(0, cache.size());
+    }
+
+    private void assertBoosts(BoostValueSource vs) throws Exception {
+        AtomicReaderContext first = reader.leaves().get(0);
+        FunctionValues values = vs.getValues(new HashMap(), first);
+        assertEquals(0.0f, values.floatVal(0), 0.0f);
+        assertEquals(0.6f, values.floatVal(1), 0.0f);
+        assertEquals(0.0f, values.floatVal(2), 0.0f);
+
+        AtomicReaderContext second = reader.leaves().get(1);
+        values = vs.getValues(new HashMap(), second);
+        assertEquals(0.6f, values.floatVal(0), 0.0f);
+        assertEquals(0.5f, values.floatVal(1), 0.0f);
+    }
+
+    private void addProduct(IndexWriter writer, String productId) throws Exception {
+        Document doc = new Document();
+        doc.add(new StringField("productId", productId, Field.Store.NO));
+        writer.addDocument(doc);
+    }
+}
@@ -0,0 +1,151 @@
+package org.opencommercesearch.lucene.queries.function.valuesource;
+
+/*
+* Licensed to OpenCommerceSearch under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. OpenCommerceSearch licenses this
+* file to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.queries.function.FunctionValues;
+import org.apache.lucene.queries.function.ValueSource;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.schema.FieldType;
+import org.apache.solr.schema.IndexSchema;
+import org.apache.solr.schema.SchemaField;
+import org.apache.solr.schema.StrFieldSource;
+import org.apache.solr.search.FunctionQParser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class FixedBoostValueSourceTest {
+
+    private RAMDirectory directory = new RAMDirectory();
+    private DirectoryReader reader;
+
+    @Before
+    public void setup() throws Exception {
+        IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(Version.LUCENE_48, new KeywordAnalyzer()));
+
+        // first segment has a few products, the second one enough products to use sparse positions
+        addProduct(writer, "prod0");
+        addProduct(writer, "prod1");
+        writer.addDocument(new Document());
+        writer.commit();
+        for (int i = 0; i < 200; i++) {
+            addProduct(writer, "prod" + (i + 1));
+        }
+        writer.close();
+        reader = DirectoryReader.open(directory);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        reader.close();
+        directory.close();
+    }
+
+    @Test
+    public void testSegmentPositions() throws Exception {
+        FixedBoostValueSource vs = createValueSource(new StrFieldSource("productId"));
+        assertPositions(vs);
+        // second time uses the positions cached for each segment
+        assertPositions(vs);
+    }
+
+    @Test
+    public void testParserCache() throws Exception {
+        FixedBoostValueSourceParser parser = new FixedBoostValueSourceParser();
+        NamedList args = new NamedList();
+        args.add(FixedBoostValueSourceParser.CACHE_SIZE, 1);
+        parser.init(args);
+
+        FunctionQParser fp = mock(FunctionQParser.class);
+        SolrQueryRequest request = mock(SolrQueryRequest.class);
+        IndexSchema schema = mock(IndexSchema.class);
+        FieldType fieldType = mock(FieldType.class);
+        SchemaField schemaField = new SchemaField("productId", fieldType);
+
+        when(fp.getReq()).thenReturn(request);
+        when(request.getSchema()).thenReturn(schema);
+        when(schema.getField("productId")).thenReturn(schemaField);
+        when(fieldType.getValueSource(schemaField, fp)).thenReturn(new StrFieldSource("productId"));
+
+        when(fp.parseArg()).thenReturn("productId", "prod2", "prod1");
+        when(fp.hasMoreArguments()).thenReturn(true, true, false);
+        ValueSource vs = parser.parse(fp);
+
+        when(fp.parseArg()).thenReturn("productId", "prod2", "prod1");
+        when(fp.hasMoreArguments()).thenReturn(true, true, false);
+        assertSame(vs, parser.parse(fp));
+        assertEquals(1, parser.getCacheSize());
+        verify(fieldType, times(1)).getValueSource(schemaField, fp);
+
+        // different argument order is a different function, evicts the first one
+        when(fp.parseArg()).thenReturn("productId", "prod1", "prod2");
+        when(fp.hasMoreArguments()).thenReturn(true, true, false);
+        ValueSource other = parser.parse(fp);
+        assertNotSame(vs, other);
+        assertFalse(vs.equals(other));
+        assertEquals(1, parser.getCacheSize());
+    }
+
+    private FixedBoostValueSource createValueSource(ValueSource fieldValueSource) {
+        Map<String, Integer> positions = new HashMap<String, Integer>();
+        positions.put("prod2", 0);
+        positions.put("prod1", 1);
+        positions.put("prod999", 2);
+        return new FixedBoostValueSource("productId", fieldValueSource, positions);
+    }
+
+    private void assertPositions(FixedBoostValueSource vs) throws Exception {
+        AtomicReaderContext first = reader.leaves().get(0);
+        FunctionValues values = vs.getValues(new HashMap(), first);
+        assertEquals(3, values.intVal(0));
+        assertEquals(1, values.intVal(1));
+        assertEquals(3, values.intVal(2));
+
+        AtomicReaderContext second = reader.leaves().get(1);
+        values = vs.getValues(new HashMap(), second);
+        assertEquals(1, values.intVal(0));
+        assertEquals(0, values.intVal(1));
+        assertEquals(3, values.intVal(2));
+        assertEquals(3, values.intVal(199));
+    }
+
+    private void addProduct(IndexWriter writer, String productId) throws Exception {
+        Document doc = new Document();
+        doc.add(new StringField("productId", productId, Field.Store.NO));
+        writer.addDocument(doc);
+    }
+}
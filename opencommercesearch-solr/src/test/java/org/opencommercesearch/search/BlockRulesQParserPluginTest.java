@@ -0,0 +1,198 @@
+package org.opencommercesearch.search;
+
+/*
+* Licensed to OpenCommerceSearch under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. OpenCommerceSearch licenses this
+* file to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.schema.IndexSchema;
+import org.apache.solr.schema.StrField;
+import org.apache.solr.search.SyntaxError;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opencommercesearch.lucene.queries.BlockRulesQuery;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class BlockRulesQParserPluginTest {
+
+    private RAMDirectory directory = new RAMDirectory();
+    private DirectoryReader reader;
+    private IndexSearcher searcher;
+    private SolrQueryRequest request;
+    private BlockRulesQParserPlugin plugin = new BlockRulesQParserPlugin();
+
+    @Before
+    public void setUp() throws Exception {
+        IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(Version.LUCENE_48, new KeywordAnalyzer()));
+
+        // two segments, prod1 has skus in both
+        addSku(writer, "prod0");
+        addSku(writer, "prod1");
+        addSku(writer, "prod2");
+        writer.commit();
+        addSku(writer, "prod1");
+        addSku(writer, "prod3");
+        writer.addDocument(new Document());
+        writer.close();
+        reader = DirectoryReader.open(directory);
+        searcher = new IndexSearcher(reader);
+
+        request = mock(SolrQueryRequest.class);
+        IndexSchema schema = mock(IndexSchema.class);
+        when(request.getSchema()).thenReturn(schema);
+        when(schema.getFieldType("productId")).thenReturn(new StrField());
+        plugin.init(null);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        reader.close();
+        directory.close();
+    }
+
+    @Test
+    public void testBlockedDocs() throws Exception {
+        Query query = parse("rule1:prod1,prod9 rule2:prod3,prod1");
+        assertTrue(query instanceof BooleanQuery);
+        BooleanClause clause = ((BooleanQuery) query).clauses().get(0);
+        assertEquals(BooleanClause.Occur.MUST_NOT, clause.getOccur());
+
+        BlockRulesQuery blockRulesQuery = (BlockRulesQuery) clause.getQuery();
+        assertArrayEquals(new String[] {"rule1", "rule2"}, blockRulesQuery.getRuleIds());
+        assertEquals("productId", blockRulesQuery.getField());
+        assertEquals(3, searcher.search(blockRulesQuery, 10).totalHits);
+
+        BooleanQuery notBlocked = new BooleanQuery();
+        notBlocked.add(new MatchAllDocsQuery(), BooleanClause.Occur.MUST);
+        notBlocked.add(clause);
+        assertEquals(3, searcher.search(notBlocked, 10).totalHits);
+
+        NamedList<Long> blockedDocs = plugin.getBlockedDocs();
+        assertEquals(2, blockedDocs.size());
+        assertEquals(Long.valueOf(2), blockedDocs.get("rule1"));
+        assertEquals(Long.valueOf(3), blockedDocs.get("rule2"));
+
+        // counts are reset after the last segment, searching again doesn't add up
+        searcher.search(blockRulesQuery, 10);
+        assertEquals(Long.valueOf(2), plugin.getBlockedDocs().get("rule1"));
+    }
+
+    @Test
+    public void testConcurrentSearches() throws Exception {
+        BlockRulesQuery query = (BlockRulesQuery) ((BooleanQuery) parse("rule1:prod1 rule2:prod3")).clauses().get(0).getQuery();
+        Filter filter1 = ((ConstantScoreQuery) searcher.rewrite(query)).getFilter();
+        Filter filter2 = ((ConstantScoreQuery) searcher.rewrite(query)).getFilter();
+        List<AtomicReaderContext> leaves = reader.leaves();
+
+        // the second search runs while the first one is still counting
+        filter1.getDocIdSet(leaves.get(0), null);
+        for (AtomicReaderContext leaf : leaves) {
+            filter2.getDocIdSet(leaf, null);
+        }
+        assertEquals(Long.valueOf(2), plugin.getBlockedDocs().get("rule1"));
+        assertEquals(Long.valueOf(1), plugin.getBlockedDocs().get("rule2"));
+
+        filter1.getDocIdSet(leaves.get(1), null);
+        assertEquals(Long.valueOf(2), plugin.getBlockedDocs().get("rule1"));
+        assertEquals(Long.valueOf(1), plugin.getBlockedDocs().get("rule2"));
+    }
+
+    @Test
+    public void testEscaped() throws Exception {
+        String ruleId = "rule 1:a,b\\c";
+        String qstr = BlockRulesQParserPlugin.escape(ruleId) + ":" + BlockRulesQParserPlugin.escape("prod1") + ","
+                + BlockRulesQParserPlugin.escape("prod 9,x") + " rule2:prod3";
+        BlockRulesQuery query = (BlockRulesQuery) ((BooleanQuery) parse(qstr)).clauses().get(0).getQuery();
+
+        assertArrayEquals(new String[] {ruleId, "rule2"}, query.getRuleIds());
+        assertEquals(3, searcher.search(query, 10).totalHits);
+        assertEquals(Long.valueOf(2), plugin.getBlockedDocs().get(ruleId));
+    }
+
+    @Test(expected = SyntaxError.class)
+    public void testDanglingEscape() throws Exception {
+        parse("rule1:prod1\\");
+    }
+
+    @Test
+    public void testCachedQueries() throws Exception {
+        BooleanQuery query1 = (BooleanQuery) parse("rule1:prod1,prod2");
+        BooleanQuery query2 = (BooleanQuery) parse("rule1:prod1,prod2");
+        BooleanQuery query3 = (BooleanQuery) parse("rule1:prod1");
+
+        assertSame(query1.clauses().get(0).getQuery(), query2.clauses().get(0).getQuery());
+        assertEquals(query1, query2);
+        assertFalse(query1.equals(query3));
+        assertEquals(2, plugin.getCacheSize());
+    }
+
+    @Test
+    public void testEquals() throws Exception {
+        BlockRulesQuery query1 = (BlockRulesQuery) ((BooleanQuery) parse("rule1:prod1 rule2:prod2")).clauses().get(0).getQuery();
+        plugin = new BlockRulesQParserPlugin();
+        BlockRulesQuery query2 = (BlockRulesQuery) ((BooleanQuery) parse("rule1:prod1 rule2:prod2")).clauses().get(0).getQuery();
+        BlockRulesQuery query3 = (BlockRulesQuery) ((BooleanQuery) parse("rule1:prod1 rule2:prod3")).clauses().get(0).getQuery();
+
+        assertNotSame(query1, query2);
+        assertEquals(query1, query2);
+        assertEquals(query1.hashCode(), query2.hashCode());
+        assertFalse(query1.equals(query3));
+        assertFalse(query1.equals(new TermQuery(new Term("productId", "prod1"))));
+    }
+
+    @Test(expected = SyntaxError.class)
+    public void testInvalidRule() throws Exception {
+        parse("prod1,prod2");
+    }
+
+    private Query parse(String qstr) throws SyntaxError {
+        return plugin.createParser(qstr, new ModifiableSolrParams(), new ModifiableSolrParams(), request).parse();
+    }
+
+    private void addSku(IndexWriter writer, String productId) throws Exception {
+        Document doc = new Document();
+        doc.add(new StringField("productId", productId, Field.Store.NO));
+        writer.addDocument(doc);
+    }
+}
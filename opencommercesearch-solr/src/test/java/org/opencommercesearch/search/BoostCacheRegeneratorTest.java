@@ -0,0 +1,159 @@
+package org.opencommercesearch.search;
+
+/*
+* Licensed to OpenCommerceSearch under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. OpenCommerceSearch licenses this
+* file to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.search.SolrCache;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opencommercesearch.lucene.queries.function.valuesource.BoostEntry;
+import org.opencommercesearch.lucene.queries.function.valuesource.BoostValueSourceParser;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({SolrCore.class, SolrIndexSearcher.class})
+@PowerMockIgnore("org.jacoco.agent.rt.*")
+public class BoostCacheRegeneratorTest {
+
+    private static final long HOUR = 60 * 60 * 1000;
+
+    private SolrCore core;
+    private SolrIndexSearcher searcher;
+    private SolrCache newCache;
+    private SolrCache oldCache;
+    private BoostValueSourceParser parser;
+    private BoostCacheRegenerator regenerator = new BoostCacheRegenerator();
+
+    @Before
+    public void setup() {
+        core = PowerMockito.mock(SolrCore.class);
+        searcher = PowerMockito.mock(SolrIndexSearcher.class);
+        newCache = mock(SolrCache.class);
+        oldCache = mock(SolrCache.class);
+        parser = mock(BoostValueSourceParser.class);
+
+        when(searcher.getCore()).thenReturn(core);
+        when(core.getInfoRegistry()).thenReturn(new HashMap());
+        when(core.getValueSourceParser("boost")).thenReturn(parser);
+    }
+
+    @Test
+    public void testCarryOver() throws Exception {
+        BoostEntry entry = createEntry(System.currentTimeMillis());
+        assertTrue(regenerator.regenerateItem(searcher, newCache, oldCache, "boost1", entry));
+
+        verify(newCache).put("boost1", entry);
+        verifyZeroInteractions(parser);
+        assertStats(0, 1, 0);
+    }
+
+    @Test
+    public void testRefreshNearTtl() throws Exception {
+        BoostEntry entry = createEntry(System.currentTimeMillis() - HOUR + 60 * 1000);
+        when(parser.refresh("boost1", newCache)).thenReturn(mock(Future.class));
+        assertTrue(regenerator.regenerateItem(searcher, newCache, oldCache, "boost1", entry));
+
+        verify(newCache).put("boost1", entry);
+        verify(parser).refresh("boost1", newCache);
+        assertStats(0, 1, 0);
+        assertEquals(1L, regenerator.getStatistics().get("backgroundRefreshes"));
+    }
+
+    @Test
+    public void testRefreshExpired() throws Exception {
+        BoostEntry entry = createEntry(0);
+        BoostEntry refreshedEntry = createEntry(System.currentTimeMillis());
+        FutureTask<BoostEntry> future = new FutureTask<BoostEntry>(new Runnable() {
+            public void run() {}
+        }, refreshedEntry);
+        future.run();
+        when(parser.refresh("boost1", newCache)).thenReturn(future);
+        assertTrue(regenerator.regenerateItem(searcher, newCache, oldCache, "boost1", entry));
+
+        // the refreshed boosts are in the new cache even if the fetch was started for another cache
+        verify(newCache).put("boost1", refreshedEntry);
+        assertStats(1, 0, 0);
+    }
+
+    @Test
+    public void testRefreshExpiredFailed() throws Exception {
+        BoostEntry entry = createEntry(0);
+        FutureTask<BoostEntry> future = new FutureTask<BoostEntry>(new Runnable() {
+            public void run() {}
+        }, null);
+        future.run();
+        when(parser.refresh("boost1", newCache)).thenReturn(future);
+        assertTrue(regenerator.regenerateItem(searcher, newCache, oldCache, "boost1", entry));
+
+        verify(newCache, never()).put(any(), any());
+        assertStats(0, 0, 1);
+    }
+
+    @Test
+    public void testRefreshExpiredCancelled() throws Exception {
+        BoostEntry entry = createEntry(0);
+        FutureTask<BoostEntry> future = new FutureTask<BoostEntry>(new Runnable() {
+            public void run() {}
+        }, null);
+        future.cancel(false);
+        when(parser.refresh("boost1", newCache)).thenReturn(future);
+        assertTrue(regenerator.regenerateItem(searcher, newCache, oldCache, "boost1", entry));
+
+        // the loader dropped the refresh, warming goes on with the old boosts
+        verify(newCache).put("boost1", entry);
+        assertStats(0, 1, 0);
+    }
+
+    @Test
+    public void testDropExpired() throws Exception {
+        BoostEntry entry = createEntry(0);
+        assertTrue(regenerator.regenerateItem(searcher, newCache, oldCache, "boost1", entry));
+
+        verify(newCache, never()).put(any(), any());
+        verify(parser).refresh("boost1", newCache);
+        assertStats(0, 0, 1);
+    }
+
+    private BoostEntry createEntry(long loadTime) {
+        Map<String, Float> boosts = Collections.singletonMap("prod1", 0.5f);
+        return new BoostEntry(boosts, loadTime);
+    }
+
+    private void assertStats(long refreshed, long carriedOver, long dropped) {
+        assertEquals(refreshed, regenerator.getStatistics().get("refreshed"));
+        assertEquals(carriedOver, regenerator.getStatistics().get("carriedOver"));
+        assertEquals(dropped, regenerator.getStatistics().get("dropped"));
+    }
+}
@@ -0,0 +1,46 @@
+package org.opencommercesearch.search;
+
+/*
+* Licensed to OpenCommerceSearch under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. OpenCommerceSearch licenses this
+* file to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DaemonThreadFactoryTest {
+
+    @Test
+    public void testNewThread() {
+        DaemonThreadFactory factory = new DaemonThreadFactory("test-");
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+
+        Thread first = factory.newThread(task);
+        Thread second = factory.newThread(task);
+
+        assertTrue(first.isDaemon());
+        assertTrue(second.isDaemon());
+        assertEquals("test-1", first.getName());
+        assertEquals("test-2", second.getName());
+    }
+}
@@ -0,0 +1,97 @@
+package org.opencommercesearch.search;
+
+/*
+* Licensed to OpenCommerceSearch under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. OpenCommerceSearch licenses this
+* file to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.params.SolrParams;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class QuerySampleTest {
+
+    private QuerySample sample = new QuerySample(4, Arrays.asList("wt", "warming"));
+
+    private static ModifiableSolrParams params(String... nameValues) {
+        ModifiableSolrParams params = new ModifiableSolrParams();
+        for (int i = 0; i < nameValues.length; i += 2) {
+            params.add(nameValues[i], nameValues[i + 1]);
+        }
+        return params;
+    }
+
+    @Test
+    public void testCanonicalForm() {
+        assertEquals("fq=category%3A1&fq=brand%3A2&q=red+jacket",
+                sample.toString(params("q", "red jacket", "wt", "json", "fq", "category:1", "fq", "brand:2")));
+        assertEquals(sample.toString(params("q", "jacket", "rows", "10")), sample.toString(params("rows", "10", "q", "jacket")));
+    }
+
+    @Test
+    public void testTopByFrequency() {
+        sample.record(params("q", "boots"));
+        sample.record(params("q", "jacket"));
+        sample.record(params("q", "jacket", "warming", "true"));
+        sample.record(params("q", "tent"));
+
+        List<SolrParams> top = sample.getTop(2);
+        assertEquals(2, top.size());
+        assertEquals("jacket", top.get(0).get("q"));
+        // same frequency, most recent first
+        assertEquals("tent", top.get(1).get("q"));
+        assertNull(top.get(0).get("warming"));
+    }
+
+    @Test
+    public void testRolling() {
+        sample.record(params("q", "boots"));
+        sample.record(params("q", "boots"));
+        for (int i = 0; i < 4; i++) {
+            sample.record(params("q", "tent"));
+        }
+
+        assertEquals(4, sample.size());
+        List<SolrParams> top = sample.getTop(10);
+        assertEquals(1, top.size());
+        assertEquals("tent", top.get(0).get("q"));
+    }
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        File file = File.createTempFile("querysample", ".txt");
+        file.deleteOnExit();
+
+        sample.record(params("q", "rain jacket", "fq", "category:1"));
+        sample.record(params("q", "tent"));
+        sample.write(file);
+
+        QuerySample loaded = new QuerySample(4, Arrays.asList("wt"));
+        assertEquals(2, loaded.read(file));
+        List<SolrParams> top = loaded.getTop(10);
+        assertEquals(2, top.size());
+        assertEquals("tent", top.get(0).get("q"));
+        assertEquals("rain jacket", top.get(1).get("q"));
+        assertEquals("category:1", top.get(1).get("fq"));
+    }
+}
@@ -0,0 +1,118 @@
+package org.opencommercesearch.search;
+
+/*
+* Licensed to OpenCommerceSearch under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. OpenCommerceSearch licenses this
+* file to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+import org.apache.lucene.queries.function.FunctionQuery;
+import org.apache.lucene.queries.function.valuesource.LiteralValueSource;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.search.FunctionQParser;
+import org.apache.solr.search.SyntaxError;
+import org.apache.solr.search.ValueSourceParser;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opencommercesearch.lucene.queries.function.valuesource.BoostValueSourceParser;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(SolrCore.class)
+@PowerMockIgnore("org.jacoco.agent.rt.*")
+public class RankingRuleQParserPluginTest {
+
+    private SolrQueryRequest request = mock(SolrQueryRequest.class);
+
+    @Test
+    public void testCachedFunctions() throws Exception {
+        RankingRuleQParserPlugin plugin = new RankingRuleQParserPlugin();
+        NamedList args = new NamedList();
+        args.add(RankingRuleQParserPlugin.CACHE_SIZE, 1);
+        plugin.init(args);
+
+        FunctionQuery query1 = parse(plugin, "1.5");
+        FunctionQuery query2 = parse(plugin, "1.5");
+        assertNotSame(query1, query2);
+        assertSame(query1.getValueSource(), query2.getValueSource());
+        assertEquals(1, plugin.getCacheSize());
+
+        // the new function evicts the first one
+        FunctionQuery query3 = parse(plugin, "2.0");
+        assertFalse(query1.getValueSource().equals(query3.getValueSource()));
+        assertEquals(1, plugin.getCacheSize());
+
+        NamedList stats = plugin.getStatistics();
+        assertEquals(1L, stats.get("cacheHits"));
+        assertEquals(2L, stats.get("cacheMisses"));
+        assertEquals(0L, stats.get("uncacheable"));
+    }
+
+    @Test
+    public void testIsCacheable() {
+        assertTrue(RankingRuleQParserPlugin.isCacheable("if(exists(query({!lucene v='(season:SS OR year:2014)'})),0.5,1.0)"));
+        assertFalse(RankingRuleQParserPlugin.isCacheable("if(exists(query({!lucene v=$season})),0.5,1.0)"));
+        assertFalse(RankingRuleQParserPlugin.isCacheable("recip(ms(NOW/DAY,startDate),3.16e-11,1,1)"));
+        assertFalse(RankingRuleQParserPlugin.isCacheable("recip(ms(),3.16e-11,1,1)"));
+        assertFalse(RankingRuleQParserPlugin.isCacheable("product(boost(productId),2)"));
+        assertFalse(RankingRuleQParserPlugin.isCacheable("if(exists(query({!edismax v='red shoes'})),0.5,1.0)"));
+        assertTrue(RankingRuleQParserPlugin.isCacheable("recip(ms(startDate,endDate),3.16e-11,1,1)"));
+    }
+
+    @Test
+    public void testRequestFunctions() throws Exception {
+        SolrCore core = PowerMockito.mock(SolrCore.class);
+        // a boost parser that reads the boost id from the request, like the boost value source parser
+        when(core.getValueSourceParser("boost")).thenReturn(new ValueSourceParser() {
+            @Override
+            public LiteralValueSource parse(FunctionQParser fp) throws SyntaxError {
+                fp.parseArg();
+                return new LiteralValueSource(fp.getReq().getParams().get(BoostValueSourceParser.BOOST_ID));
+            }
+        });
+        RankingRuleQParserPlugin plugin = new RankingRuleQParserPlugin();
+
+        FunctionQuery query1 = parse(plugin, "boost(productId)", core, "boost1");
+        FunctionQuery query2 = parse(plugin, "boost(productId)", core, "boost2");
+        assertEquals(new LiteralValueSource("boost1"), query1.getValueSource());
+        assertEquals(new LiteralValueSource("boost2"), query2.getValueSource());
+        assertEquals(0, plugin.getCacheSize());
+        assertEquals(2L, plugin.getStatistics().get("uncacheable"));
+    }
+
+    private FunctionQuery parse(RankingRuleQParserPlugin plugin, String function) throws SyntaxError {
+        return (FunctionQuery) plugin.createParser(function, null, new ModifiableSolrParams(), request).parse();
+    }
+
+    private FunctionQuery parse(RankingRuleQParserPlugin plugin, String function, SolrCore core, String boostId) throws SyntaxError {
+        ModifiableSolrParams params = new ModifiableSolrParams();
+        params.set(BoostValueSourceParser.BOOST_ID, boostId);
+        SolrQueryRequest boostRequest = mock(SolrQueryRequest.class);
+        when(boostRequest.getCore()).thenReturn(core);
+        when(boostRequest.getParams()).thenReturn(params);
+        return (FunctionQuery) plugin.createParser(function, null, params, boostRequest).parse();
+    }
+}
@@ -0,0 +1,91 @@
+package org.opencommercesearch.search;
+
+/*
+* Licensed to OpenCommerceSearch under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. OpenCommerceSearch licenses this
+* file to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.params.RuleManagerParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.response.SolrQueryResponse;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class StageTimersTest {
+
+    private SolrQueryRequest request = mock(SolrQueryRequest.class);
+    private SolrQueryResponse response = new SolrQueryResponse();
+    private ModifiableSolrParams params = new ModifiableSolrParams();
+    private Map<Object, Object> context = new HashMap<Object, Object>();
+    private StageTimers timers = new StageTimers("stage1", "stage2");
+
+    @Before
+    public void setUp() {
+        when(request.getParams()).thenReturn(params);
+        when(request.getContext()).thenReturn(context);
+    }
+
+    @Test
+    public void testStatistics() {
+        for (int i = 1; i <= 100; i++) {
+            timers.update("stage1", TimeUnit.MILLISECONDS.toNanos(i), request);
+        }
+
+        NamedList<Object> stats = new SimpleOrderedMap<Object>();
+        timers.addTo(stats);
+        assertEquals(14, stats.size());
+        assertEquals("stage1Count", stats.getName(0));
+        assertEquals(100L, stats.get("stage1Count"));
+        assertEquals(50.5, (Double) stats.get("stage1AvgTime"), 0.001);
+        assertEquals(50.5, (Double) stats.get("stage1MedianTime"), 0.001);
+        assertEquals(95.0, (Double) stats.get("stage195thPcTime"), 1.0);
+        assertEquals(100.0, (Double) stats.get("stage1999thPcTime"), 0.001);
+        assertEquals(0L, stats.get("stage2Count"));
+        assertNull(response.getValues().get(StageTimers.TIMING));
+        assertTrue(context.isEmpty());
+    }
+
+    @Test
+    public void testRequestTiming() {
+        params.set(RuleManagerParams.DEBUG_TIMING, true);
+        StageTimers.startRequestTiming(request, response);
+
+        timers.update("stage2", TimeUnit.MILLISECONDS.toNanos(2), request);
+        long elapsed = timers.record("stage1", System.nanoTime(), request);
+
+        NamedList timing = (NamedList) response.getValues().get(StageTimers.TIMING);
+        assertNotNull(timing);
+        assertSame(timing, context.get(StageTimers.TIMING));
+        assertEquals(2, timing.size());
+        assertEquals(2.0, timing.get("stage2"));
+        assertEquals(elapsed / 1000000.0, timing.get("stage1"));
+
+        // the breakdown is started only once
+        StageTimers.startRequestTiming(request, response);
+        assertEquals(1, response.getValues().getAll(StageTimers.TIMING).size());
+    }
+}